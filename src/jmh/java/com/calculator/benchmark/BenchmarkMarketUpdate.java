@@ -0,0 +1,38 @@
+package com.calculator.benchmark;
+
+import com.calculator.Market;
+import com.calculator.MarketUpdate;
+import com.calculator.TwoWayPrice;
+import com.calculator.impl.DefaultTwoWayPrice;
+
+/**
+ * Plain {@link MarketUpdate} used as benchmark input, so the measured cost is the calculator's only.
+ */
+class BenchmarkMarketUpdate implements MarketUpdate {
+
+    private final Market market;
+    private final DefaultTwoWayPrice twoWayPrice;
+
+    BenchmarkMarketUpdate(Market market, DefaultTwoWayPrice twoWayPrice) {
+        this.market = market;
+        this.twoWayPrice = twoWayPrice;
+    }
+
+    @Override
+    public Market getMarket() {
+        return market;
+    }
+
+    @Override
+    public TwoWayPrice getTwoWayPrice() {
+        return twoWayPrice;
+    }
+
+    @Override
+    public String toString() {
+        return "BenchmarkMarketUpdate{" +
+                "market=" + market +
+                ", twoWayPrice=" + twoWayPrice +
+                "}";
+    }
+}
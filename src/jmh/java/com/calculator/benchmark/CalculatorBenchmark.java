@@ -0,0 +1,113 @@
+package com.calculator.benchmark;
+
+import com.calculator.Instrument;
+import com.calculator.MarketUpdate;
+import com.calculator.TwoWayPrice;
+import com.calculator.impl.CalculatorOptions;
+import com.calculator.impl.DefaultVwapCalculator;
+import com.calculator.impl.FixedPointScales;
+import com.calculator.impl.QuoteStorage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot path of {@link DefaultVwapCalculator#applyMarketUpdate(MarketUpdate)}, single threaded.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalculatorBenchmark {
+
+    private static final int BATCH = 1024;
+
+    @Param({"OBJECT", "ARRAY", "OFF_HEAP"})
+    public QuoteStorage storage;
+
+    @Param({"uniform", "zipf"})
+    public String skew;
+
+    @Param({"double", "fixed"})
+    public String accumulation;
+
+    // whether every instrument tracks its best bid and offer
+    @Param({"false", "true"})
+    public boolean topOfBook;
+
+    private DefaultVwapCalculator calculator;
+    private MarketUpdate[] updates;
+    private MarketUpdate[] invalidUpdates;
+    private int cursor = 0;
+    private PrintStream systemOut;
+
+    @Setup
+    public void setUp() {
+        calculator = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(storage)
+                .setFixedPointScales("fixed".equals(accumulation) ? new FixedPointScales(6, 0) : null)
+                .addTopOfBookInstruments(topOfBook ? EnumSet.allOf(Instrument.class) : EnumSet.noneOf(Instrument.class)));
+        updates = MarketUpdates.validStream(skew, 42L);
+        invalidUpdates = MarketUpdates.invalidStream();
+        // populate every quote first, so that the measurement is the steady state
+        for (MarketUpdate update : updates) {
+            calculator.applyMarketUpdate(update);
+        }
+        // the first reject of each market and reason and then a sample of them are printed by the reject logger thread,
+        // discard them so that the console does not compete with the benchmark thread
+        systemOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(systemOut);
+        calculator.close();
+    }
+
+    /**
+     * Latency distribution of a single valid update.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public TwoWayPrice singleUpdateLatency() {
+        MarketUpdate update = updates[cursor];
+        cursor = (cursor + 1) & (MarketUpdates.STREAM_LENGTH - 1);
+        return calculator.applyMarketUpdate(update);
+    }
+
+    /**
+     * Throughput of valid updates, reported per update.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(BATCH)
+    public double throughput() {
+        double checksum = 0.0d;
+        int index = cursor;
+        for (int i=0;i<BATCH;i++) {
+            checksum += calculator.applyMarketUpdate(updates[index]).getBidPrice();
+            index = (index + 1) & (MarketUpdates.STREAM_LENGTH - 1);
+        }
+        cursor = index;
+        return checksum;
+    }
+
+    /**
+     * Average cost of rejecting an invalid update: counting it and, for a sample of them, copying its details for the
+     * reject logger thread.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(8)
+    public void invalidUpdate() {
+        for (MarketUpdate invalidUpdate : invalidUpdates) {
+            calculator.applyMarketUpdate(invalidUpdate);
+        }
+    }
+}
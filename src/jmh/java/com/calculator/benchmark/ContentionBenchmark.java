@@ -0,0 +1,101 @@
+package com.calculator.benchmark;
+
+import com.calculator.Instrument;
+import com.calculator.MarketUpdate;
+import com.calculator.TwoWayPrice;
+import com.calculator.impl.DefaultTwoWayPrice;
+import com.calculator.impl.DefaultVwapCalculator;
+import com.calculator.impl.ShardedVwapCalculator;
+import com.calculator.impl.WaitStrategy;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-threaded scenarios: the feed thread racing with VWAP readers, and the sharded calculator's ingress.
+ */
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.Throughput)
+public class ContentionBenchmark {
+
+    /**
+     * One feed thread and two readers of the seqlock published VWAP of the busiest instrument.
+     */
+    @State(Scope.Group)
+    public static class SharedCalculator {
+
+        DefaultVwapCalculator calculator;
+        MarketUpdate[] updates;
+
+        @Setup
+        public void setUp() {
+            calculator = new DefaultVwapCalculator();
+            updates = MarketUpdates.validStream("zipf", 42L);
+            for (MarketUpdate update : updates) {
+                calculator.applyMarketUpdate(update);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index = 0;
+        final DefaultTwoWayPrice snapshot = new DefaultTwoWayPrice();
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public TwoWayPrice writer(SharedCalculator shared, Cursor cursor) {
+        MarketUpdate update = shared.updates[cursor.index];
+        cursor.index = (cursor.index + 1) & (MarketUpdates.STREAM_LENGTH - 1);
+        return shared.calculator.applyMarketUpdate(update);
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(2)
+    public boolean reader(SharedCalculator shared, Cursor cursor) {
+        return shared.calculator.getVwap(Instrument.INSTRUMENT0, cursor.snapshot);
+    }
+
+    /**
+     * Feed thread offering updates to the shards of a {@link ShardedVwapCalculator}.
+     */
+    @State(Scope.Thread)
+    public static class Sharded {
+
+        @Param({"1", "4"})
+        public int shards;
+
+        ShardedVwapCalculator calculator;
+        MarketUpdate[] updates;
+        int index = 0;
+
+        @Setup
+        public void setUp() {
+            calculator = new ShardedVwapCalculator(shards, 4096, WaitStrategy.YIELD, vwap -> {});
+            updates = MarketUpdates.validStream("uniform", 42L);
+        }
+
+        @TearDown(Level.Iteration)
+        public void flush() {
+            calculator.flush();
+        }
+
+        @TearDown
+        public void tearDown() {
+            calculator.close();
+        }
+    }
+
+    @Benchmark
+    public TwoWayPrice shardedIngress(Sharded sharded) {
+        MarketUpdate update = sharded.updates[sharded.index];
+        sharded.index = (sharded.index + 1) & (MarketUpdates.STREAM_LENGTH - 1);
+        return sharded.calculator.applyMarketUpdate(update);
+    }
+}
@@ -0,0 +1,67 @@
+package com.calculator.benchmark;
+
+import com.calculator.Instrument;
+import com.calculator.Market;
+import com.calculator.Side;
+import com.calculator.impl.DefaultMarketDepth;
+import com.calculator.impl.DepthVwapCalculator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Depth updates and VWAP-to-size queries of one instrument quoted 10 levels deep by every market.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DepthBenchmark {
+
+    private static final int LEVELS = 10;
+    private static final int DEPTH_COUNT = 1024;
+
+    /**
+     * Amount to buy, in multiples of the amount of one market's level
+     */
+    @Param({"1", "20", "200"})
+    public int size;
+
+    private DepthVwapCalculator calculator;
+    private DefaultMarketDepth[] depths;
+    private int cursor = 0;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42L);
+        calculator = new DepthVwapCalculator(LEVELS);
+        depths = new DefaultMarketDepth[DEPTH_COUNT];
+        for (int i=0;i<DEPTH_COUNT;i++) {
+            DefaultMarketDepth depth = new DefaultMarketDepth(LEVELS);
+            depth.setMarket(Market.values()[i % Market.values().length]);
+            depth.setInstrument(Instrument.INSTRUMENT0);
+            double mid = 1.0 + random.nextInt(10) * 0.0001;
+            for (int level=0;level<LEVELS;level++) {
+                depth.addLevel(Side.BID, mid - (level + 1) * 0.0001, 1000);
+                depth.addLevel(Side.OFFER, mid + (level + 1) * 0.0001, 1000);
+            }
+            depths[i] = depth;
+            calculator.applyMarketDepth(depth);
+        }
+    }
+
+    @Benchmark
+    public boolean applyMarketDepth() {
+        DefaultMarketDepth depth = depths[cursor];
+        cursor = (cursor + 1) & (DEPTH_COUNT - 1);
+        return calculator.applyMarketDepth(depth);
+    }
+
+    @Benchmark
+    public double vwapToBuy() {
+        return calculator.getVwapToBuy(Instrument.INSTRUMENT0, size * 1000.0d);
+    }
+}
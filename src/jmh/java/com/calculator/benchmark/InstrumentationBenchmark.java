@@ -0,0 +1,55 @@
+package com.calculator.benchmark;
+
+import com.calculator.MarketUpdate;
+import com.calculator.impl.CalculatorMetrics;
+import com.calculator.impl.CalculatorOptions;
+import com.calculator.impl.DefaultVwapCalculator;
+import com.calculator.impl.QuoteStorage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of {@link CalculatorMetrics} on the hot path, with instrumentation enabled and disabled.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InstrumentationBenchmark {
+
+    private static final int BATCH = 1024;
+
+    // one call in this many is timed, 0 to disable instrumentation
+    @Param({"0", "1", "64", "1024"})
+    public int latencySampleInterval;
+
+    private DefaultVwapCalculator calculator;
+    private MarketUpdate[] updates;
+    private int cursor = 0;
+
+    @Setup
+    public void setUp() {
+        calculator = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(QuoteStorage.ARRAY)
+                .setMetrics(latencySampleInterval == 0 ? null : new CalculatorMetrics(latencySampleInterval)));
+        updates = MarketUpdates.validStream("zipf", 42L);
+        for (MarketUpdate update : updates) {
+            calculator.applyMarketUpdate(update);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public double throughput() {
+        double checksum = 0.0d;
+        int index = cursor;
+        for (int i=0;i<BATCH;i++) {
+            checksum += calculator.applyMarketUpdate(updates[index]).getBidPrice();
+            index = (index + 1) & (MarketUpdates.STREAM_LENGTH - 1);
+        }
+        cursor = index;
+        return checksum;
+    }
+}
@@ -0,0 +1,98 @@
+package com.calculator.benchmark;
+
+import com.calculator.Instrument;
+import com.calculator.Market;
+import com.calculator.MarketUpdate;
+import com.calculator.State;
+import com.calculator.impl.DefaultTwoWayPrice;
+
+import java.util.Random;
+
+/**
+ * Generates the benchmark input streams of market updates.
+ */
+final class MarketUpdates {
+
+    // power of two so that the benchmarks can cycle through the stream with a mask
+    static final int STREAM_LENGTH = 1 << 16;
+
+    private MarketUpdates() {
+    }
+
+    /**
+     * @param skew "uniform" for evenly spread instruments and markets, "zipf" for a realistic feed where a few
+     *             instruments and markets produce most of the updates
+     */
+    static MarketUpdate[] validStream(String skew, long seed) {
+        Random random = new Random(seed);
+        boolean zipf = "zipf".equals(skew);
+        double[] instrumentCdf = zipfCdf(Instrument.values().length);
+        double[] marketCdf = zipfCdf(Market.values().length);
+        MarketUpdate[] updates = new MarketUpdate[STREAM_LENGTH];
+        for (int i=0;i<updates.length;i++) {
+            Instrument instrument = Instrument.values()[zipf ? sample(instrumentCdf, random) : random.nextInt(Instrument.values().length)];
+            Market market = Market.values()[zipf ? sample(marketCdf, random) : random.nextInt(Market.values().length)];
+            updates[i] = create(market, instrument, random.nextInt(20) == 0 ? State.INDICATIVE : State.FIRM,
+                    100.0d + random.nextDouble(), 101.0d + random.nextDouble(),
+                    1 + random.nextInt(1_000_000), 1 + random.nextInt(1_000_000));
+        }
+        return updates;
+    }
+
+    /**
+     * @return updates which all fail validation, for a different reason each
+     */
+    static MarketUpdate[] invalidStream() {
+        return new MarketUpdate[] {
+                create(null, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 1000),
+                new BenchmarkMarketUpdate(Market.MARKET0, null),
+                create(Market.MARKET0, null, State.FIRM, 0.1, 0.2, 1000, 1000),
+                create(Market.MARKET0, Instrument.INSTRUMENT0, null, 0.1, 0.2, 1000, 1000),
+                create(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, Double.NaN, 0.2, 1000, 1000),
+                create(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.0, 1000, 1000),
+                create(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, -1000, 1000),
+                create(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, Double.NaN)
+        };
+    }
+
+    static MarketUpdate create(Market market,
+                               Instrument instrument,
+                               State state,
+                               double bidPrice,
+                               double offerPrice,
+                               double bidAmount,
+                               double offerAmount) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(instrument);
+        twoWayPrice.setState(state);
+        twoWayPrice.setBidPrice(bidPrice);
+        twoWayPrice.setOfferPrice(offerPrice);
+        twoWayPrice.setBidAmount(bidAmount);
+        twoWayPrice.setOfferAmount(offerAmount);
+        return new BenchmarkMarketUpdate(market, twoWayPrice);
+    }
+
+    // cumulative distribution of a Zipf law with exponent 1
+    private static double[] zipfCdf(int size) {
+        double[] cdf = new double[size];
+        double sum = 0.0d;
+        for (int i=0;i<size;i++) {
+            sum += 1.0d / (i + 1);
+            cdf[i] = sum;
+        }
+        for (int i=0;i<size;i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private static int sample(double[] cdf, Random random) {
+        double value = random.nextDouble();
+        for (int i=0;i<cdf.length;i++) {
+            if (value <= cdf[i]) {
+                return i;
+            }
+        }
+        return cdf.length - 1;
+    }
+}
@@ -0,0 +1,60 @@
+package com.calculator.benchmark;
+
+import com.calculator.Instrument;
+import com.calculator.MarketUpdate;
+import com.calculator.impl.CalculatorOptions;
+import com.calculator.impl.DefaultVwapCalculator;
+import com.calculator.impl.QuoteStorage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-heavy feed, each instrument read once per 1024 updates, with every instrument calculated on each update (push)
+ * or only when read (pull).
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PullModeBenchmark {
+
+    private static final int BATCH = 1024;
+    private static final Instrument[] INSTRUMENTS = Instrument.values();
+
+    @Param({"push", "pull"})
+    public String mode;
+
+    private DefaultVwapCalculator calculator;
+    private MarketUpdate[] updates;
+    private int cursor = 0;
+
+    @Setup
+    public void setUp() {
+        calculator = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(QuoteStorage.ARRAY)
+                .addPullInstruments("pull".equals(mode) ? EnumSet.allOf(Instrument.class) : EnumSet.noneOf(Instrument.class)));
+        updates = MarketUpdates.validStream("zipf", 42L);
+        for (MarketUpdate update : updates) {
+            calculator.applyMarketUpdate(update);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public double throughput() {
+        int index = cursor;
+        for (int i=0;i<BATCH;i++) {
+            calculator.applyMarketUpdate(updates[index]);
+            index = (index + 1) & (MarketUpdates.STREAM_LENGTH - 1);
+        }
+        cursor = index;
+        double checksum = 0.0d;
+        for (Instrument instrument : INSTRUMENTS) {
+            checksum += calculator.getVwap(instrument).getBidPrice();
+        }
+        return checksum;
+    }
+}
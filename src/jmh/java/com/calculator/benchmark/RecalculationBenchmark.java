@@ -0,0 +1,45 @@
+package com.calculator.benchmark;
+
+import com.calculator.MarketUpdate;
+import com.calculator.impl.DefaultVwapCalculator;
+import com.calculator.impl.QuoteStorage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk recalculation of every instrument's running sums, see {@link DefaultVwapCalculator#recalculate()}, with every
+ * market quoting every instrument. The Vector API kernel is only used by the fork with the jdk.incubator.vector module.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecalculationBenchmark {
+
+    @Param({"OBJECT", "ARRAY"})
+    public QuoteStorage storage;
+
+    private DefaultVwapCalculator calculator;
+
+    @Setup
+    public void setUp() {
+        calculator = new DefaultVwapCalculator(storage);
+        for (MarketUpdate update : MarketUpdates.validStream("uniform", 42L)) {
+            calculator.applyMarketUpdate(update);
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    public double vector() {
+        return calculator.recalculate();
+    }
+
+    @Benchmark
+    @Fork(1)
+    public double scalar() {
+        return calculator.recalculate();
+    }
+}
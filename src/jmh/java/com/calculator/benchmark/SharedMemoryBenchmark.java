@@ -0,0 +1,85 @@
+package com.calculator.benchmark;
+
+import com.calculator.Instrument;
+import com.calculator.MarketUpdate;
+import com.calculator.impl.DefaultTwoWayPrice;
+import com.calculator.impl.DefaultVwapCalculator;
+import com.calculator.impl.MutableTwoWayPrice;
+import com.calculator.impl.QuoteStorage;
+import com.calculator.impl.SharedMemoryVwapPublisher;
+import com.calculator.impl.SharedMemoryVwapReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates written into shared memory as they are calculated, and reads of a VWAP from another mapping of the file,
+ * as another process of the host would.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SharedMemoryBenchmark {
+
+    private static final Instrument[] INSTRUMENTS = Instrument.values();
+
+    @Param({"false", "true"})
+    public boolean sharedMemory;
+
+    private Path file;
+    private SharedMemoryVwapPublisher publisher;
+    private SharedMemoryVwapReader reader;
+    private DefaultVwapCalculator calculator;
+    private MarketUpdate[] updates;
+    private int cursor = 0;
+    private final MutableTwoWayPrice vwap = new DefaultTwoWayPrice();
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("vwap", ".shm");
+        publisher = new SharedMemoryVwapPublisher(file);
+        reader = new SharedMemoryVwapReader(file);
+        calculator = new DefaultVwapCalculator(QuoteStorage.ARRAY);
+        if (sharedMemory) {
+            calculator.publishToSharedMemory(publisher);
+        }
+        updates = MarketUpdates.validStream("zipf", 42L);
+        for (MarketUpdate update : updates) {
+            calculator.applyMarketUpdate(update);
+        }
+        // the reads always find a VWAP
+        calculator.publishToSharedMemory(publisher);
+        if (!sharedMemory) {
+            calculator.publishToSharedMemory(null);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        publisher.close();
+        reader.close();
+        Files.delete(file);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public Object throughput() {
+        MarketUpdate update = updates[cursor];
+        cursor = (cursor + 1) & (MarketUpdates.STREAM_LENGTH - 1);
+        return calculator.applyMarketUpdate(update);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long read() {
+        Instrument instrument = INSTRUMENTS[cursor];
+        cursor = (cursor + 1) % INSTRUMENTS.length;
+        return reader.readVersion(instrument, vwap);
+    }
+}
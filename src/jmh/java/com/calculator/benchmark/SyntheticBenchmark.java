@@ -0,0 +1,58 @@
+package com.calculator.benchmark;
+
+import com.calculator.Instrument;
+import com.calculator.MarketUpdate;
+import com.calculator.impl.DefaultVwapCalculator;
+import com.calculator.impl.QuoteStorage;
+import com.calculator.impl.SyntheticInstrument;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates of instruments which are legs of synthetic instruments, 3 legs each drawn from all the instruments, so that
+ * each instrument is a leg of about 3 * synthetics / 20 of them.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SyntheticBenchmark {
+
+    private static final Instrument[] INSTRUMENTS = Instrument.values();
+
+    @Param({"0", "200", "2000"})
+    public int synthetics;
+
+    private DefaultVwapCalculator calculator;
+    private MarketUpdate[] updates;
+    private int cursor = 0;
+
+    @Setup
+    public void setUp() {
+        calculator = new DefaultVwapCalculator(QuoteStorage.ARRAY);
+        Random random = new Random(42L);
+        for (int s=0;s<synthetics;s++) {
+            SyntheticInstrument synthetic = new SyntheticInstrument("synthetic" + s);
+            int first = random.nextInt(INSTRUMENTS.length);
+            synthetic.addLeg(INSTRUMENTS[first], 1.0);
+            synthetic.addLeg(INSTRUMENTS[(first + 1 + random.nextInt(9)) % INSTRUMENTS.length], -0.5);
+            synthetic.addLeg(INSTRUMENTS[(first + 10 + random.nextInt(9)) % INSTRUMENTS.length], 2.0);
+            calculator.addSynthetic(synthetic);
+        }
+        updates = MarketUpdates.validStream("uniform", 42L);
+        for (MarketUpdate update : updates) {
+            calculator.applyMarketUpdate(update);
+        }
+    }
+
+    @Benchmark
+    public Object throughput() {
+        MarketUpdate update = updates[cursor];
+        cursor = (cursor + 1) & (MarketUpdates.STREAM_LENGTH - 1);
+        return calculator.applyMarketUpdate(update);
+    }
+}
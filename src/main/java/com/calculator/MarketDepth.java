@@ -0,0 +1,21 @@
+package com.calculator;
+
+/**
+ * Multi-level book of one market for certain instrument
+ */
+public interface MarketDepth {
+
+    Market getMarket();
+
+    Instrument getInstrument();
+
+    /**
+     * @return the number of price levels on the side, 0 if the market does not quote the side
+     */
+    int getLevelCount(Side side);
+
+    double getPrice(Side side, int level);
+
+    double getAmount(Side side, int level);
+
+}
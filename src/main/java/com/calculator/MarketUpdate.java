@@ -9,4 +9,12 @@ public interface MarketUpdate {
 
     TwoWayPrice getTwoWayPrice();
 
+    /**
+     * Time of the update in nanoseconds on the feed's clock, used to expire the quotes of markets which went silent.
+     * @return the timestamp, 0 if the update does not carry one
+     */
+    default long getTimestamp() {
+        return 0L;
+    }
+
 }
@@ -0,0 +1,11 @@
+package com.calculator;
+
+/**
+ * Callback receiving the VWAP two-way price calculated for an instrument.
+ * The passed in {@link TwoWayPrice} may be reused by the calculator, so copy it if it has to be kept.
+ */
+public interface VwapSink {
+
+    void onVwap(TwoWayPrice vwap);
+
+}
@@ -0,0 +1,117 @@
+package com.calculator.impl;
+
+import java.util.Arrays;
+
+/**
+ * One side of an instrument's book aggregated over all markets: the total amount quoted at each price. Not thread safe.
+ *
+ * Levels are kept sorted in primitive arrays with the best price last, so a level is found by binary search, new levels
+ * near the top of the book only shift the few better levels, and walking the book from the best price is sequential.
+ * Each level counts the market levels quoting its price, so a level disappears exactly when its last quote is removed
+ * however the amounts have been rounded.
+ */
+class AggregatedPriceLevels {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // true for bids, whose best price is the highest
+    private final boolean highestIsBest;
+    // ascending, price for bids and -price for offers, so the best price is last either way
+    private double[] keys = new double[INITIAL_CAPACITY];
+    private double[] amounts = new double[INITIAL_CAPACITY];
+    private int[] quoteCounts = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    private double totalAmount = 0.0d;
+
+    AggregatedPriceLevels(boolean highestIsBest) {
+        this.highestIsBest = highestIsBest;
+    }
+
+    void add(final double price, final double amount) {
+        double key = highestIsBest ? price : -price;
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index < 0) {
+            index = -index - 1;
+            insert(index, key);
+        }
+        amounts[index] += amount;
+        quoteCounts[index]++;
+        totalAmount += amount;
+    }
+
+    /**
+     * Remove a quote previously added with the same price and amount.
+     */
+    void subtract(final double price, final double amount) {
+        int index = Arrays.binarySearch(keys, 0, size, highestIsBest ? price : -price);
+        if (index < 0) {
+            throw new IllegalStateException("No level at price " + price);
+        }
+        if (--quoteCounts[index] == 0) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(amounts, index + 1, amounts, index, size - index - 1);
+            System.arraycopy(quoteCounts, index + 1, quoteCounts, index, size - index - 1);
+            size--;
+        } else {
+            amounts[index] -= amount;
+        }
+        // exact zero rather than the rounding residue once the side is empty
+        totalAmount = size == 0 ? 0.0d : totalAmount - amount;
+    }
+
+    /**
+     * Volume weighted average price of filling the amount from the best level down, visiting only the levels needed.
+     * @return the average price, or NaN if the side does not have the amount
+     */
+    double vwapToFill(final double amount) {
+        double remaining = amount;
+        double notional = 0.0d;
+        for (int i=size-1;i>=0 && remaining>0.0d;i--) {
+            double fill = Math.min(remaining, amounts[i]);
+            notional += fill * price(i);
+            remaining -= fill;
+        }
+        return remaining > 0.0d ? Double.NaN : notional / amount;
+    }
+
+    int size() {
+        return size;
+    }
+
+    double getTotalAmount() {
+        return totalAmount;
+    }
+
+    /**
+     * @param level 0 for the best price
+     */
+    double getPrice(final int level) {
+        return price(size - 1 - level);
+    }
+
+    /**
+     * @param level 0 for the best price
+     */
+    double getAmount(final int level) {
+        return amounts[size - 1 - level];
+    }
+
+    private double price(int index) {
+        return highestIsBest ? keys[index] : -keys[index];
+    }
+
+    private void insert(int index, double key) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+            amounts = Arrays.copyOf(amounts, size << 1);
+            quoteCounts = Arrays.copyOf(quoteCounts, size << 1);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(amounts, index, amounts, index + 1, size - index);
+        System.arraycopy(quoteCounts, index, quoteCounts, index + 1, size - index);
+        keys[index] = key;
+        amounts[index] = 0.0d;
+        quoteCounts[index] = 0;
+        size++;
+    }
+}
@@ -0,0 +1,86 @@
+package com.calculator.impl;
+
+import com.calculator.State;
+import com.calculator.TwoWayPrice;
+
+import java.util.Arrays;
+
+/**
+ * {@link QuoteStore} keeping each field in its own primitive array indexed by slot.
+ */
+class ArrayQuoteStore extends QuoteStore {
+
+    private static final State[] STATES = State.values();
+
+    private double[] bidPrices = new double[0];
+    private double[] offerPrices = new double[0];
+    private double[] bidAmounts = new double[0];
+    private double[] offerAmounts = new double[0];
+    // State ordinal, 0 is FIRM
+    private byte[] states = new byte[0];
+
+    ArrayQuoteStore(int marketCount) {
+        super(marketCount);
+    }
+
+    @Override
+    void grow(int capacity) {
+        bidPrices = Arrays.copyOf(bidPrices, capacity);
+        offerPrices = Arrays.copyOf(offerPrices, capacity);
+        bidAmounts = Arrays.copyOf(bidAmounts, capacity);
+        offerAmounts = Arrays.copyOf(offerAmounts, capacity);
+        states = Arrays.copyOf(states, capacity);
+    }
+
+    @Override
+    void move(int from, int to) {
+        bidPrices[to] = bidPrices[from];
+        offerPrices[to] = offerPrices[from];
+        bidAmounts[to] = bidAmounts[from];
+        offerAmounts[to] = offerAmounts[from];
+        states[to] = states[from];
+    }
+
+    @Override
+    void clear(int slot) {
+        bidPrices[slot] = 0.0d;
+        offerPrices[slot] = 0.0d;
+        bidAmounts[slot] = 0.0d;
+        offerAmounts[slot] = 0.0d;
+        states[slot] = 0;
+    }
+
+    @Override
+    State getState(int slot) {
+        return STATES[states[slot]];
+    }
+
+    @Override
+    double getBidPrice(int slot) {
+        return bidPrices[slot];
+    }
+
+    @Override
+    double getOfferPrice(int slot) {
+        return offerPrices[slot];
+    }
+
+    @Override
+    double getBidAmount(int slot) {
+        return bidAmounts[slot];
+    }
+
+    @Override
+    double getOfferAmount(int slot) {
+        return offerAmounts[slot];
+    }
+
+    @Override
+    void set(int slot, TwoWayPrice price) {
+        bidPrices[slot] = price.getBidPrice();
+        offerPrices[slot] = price.getOfferPrice();
+        bidAmounts[slot] = price.getBidAmount();
+        offerAmounts[slot] = price.getOfferAmount();
+        states[slot] = (byte) price.getState().ordinal();
+    }
+}
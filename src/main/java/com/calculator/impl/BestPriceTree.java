@@ -0,0 +1,208 @@
+package com.calculator.impl;
+
+import java.util.Arrays;
+
+/**
+ * Best bid and best offer among the markets quoting an instrument, over a tournament tree of the markets with 8 children
+ * per node: the leaves are the markets, and each node holds, for each side, the market with the best price among its
+ * children and that price, so the root holds the best bid and offer of all. The bid side keeps the highest price at the
+ * top and the offer side the lowest, equal prices go to the lowest market.
+ *
+ * The matches are replayed lazily. An update writes the market's leaf and flags the nodes on its path as dirty, with
+ * one bit each, and a price better than the root's, or of another market than the root's, updates the root directly.
+ * Only when the best market backs off or is removed are the dirty nodes replayed, from the leaves up, with one scan of
+ * 8 children each. An update flags O(log markets) nodes and each flagged node is replayed once, so an update is
+ * O(log markets) amortized, and most of them take no match at all, with no branch on the prices to mispredict.
+ *
+ * The whole tree is one array: the leaves first, with the key of each side of a market next to each other, then the
+ * inner nodes level by level from the leaves up, each with the key and the winning market of each side.
+ *
+ * Indexed by market ordinal or dense market id, and grown on demand. Not thread safe.
+ */
+class BestPriceTree {
+
+    static final int BID = 0;
+    static final int OFFER = 1;
+
+    private static final int FANOUT_BITS = 3;
+    private static final int FANOUT = 1 << FANOUT_BITS;
+    // length of a leaf, the key of each side, and of an inner node, the key then the winner of each side
+    private static final int LEAF_LENGTH = 2;
+    private static final int NODE_LENGTH = 4;
+    private static final int WINNER_OFFSET = 2;
+    private static final int NO_MARKET = -1;
+    // key of a market without a price, which loses every match
+    private static final double NO_PRICE = Double.NEGATIVE_INFINITY;
+
+    // number of leaves, a power of FANOUT
+    private int leafCount = 0;
+    // the key is the price, negated on the offer side so that the highest key always wins
+    private double[] tree = new double[0];
+    // start of the inner nodes in the tree, and position of the root
+    private int innerStart = 0;
+    private int root = 0;
+    // one bit per inner node whose winners may be out of date, in the order of the tree
+    private long[] dirty = new long[0];
+    // false when a side of the root is out of date, until the dirty nodes are replayed
+    private boolean bidKnown = true;
+    private boolean offerKnown = true;
+
+    /**
+     * Add the market's prices, or replace them.
+     */
+    void set(final int market, final double bidPrice, final double offerPrice) {
+        if (market >= leafCount) {
+            grow(market);
+        }
+        update(market, bidPrice, -offerPrice);
+    }
+
+    /**
+     * Take the market's prices out, if it has any.
+     */
+    void remove(final int market) {
+        if (market < leafCount) {
+            update(market, NO_PRICE, NO_PRICE);
+        }
+    }
+
+    /**
+     * @param side BID or OFFER
+     * @return the market with the best price, or -1 if no market has a price
+     */
+    int bestMarket(final int side) {
+        if (leafCount == 0) {
+            return NO_MARKET;
+        }
+        if (!bidKnown || !offerKnown) {
+            replay();
+        }
+        int slot = root + side;
+        return tree[slot] == NO_PRICE ? NO_MARKET : (int) tree[slot + WINNER_OFFSET];
+    }
+
+    /**
+     * @param side BID or OFFER
+     * @return the best price, or 0 if no market has a price
+     */
+    double bestPrice(final int side) {
+        if (bestMarket(side) == NO_MARKET) {
+            return 0.0d;
+        }
+        double key = tree[root + side];
+        return side == BID ? key : -key;
+    }
+
+    private void update(int market, double bidKey, double offerKey) {
+        double[] tree = this.tree;
+        tree[LEAF_LENGTH * market + BID] = bidKey;
+        tree[LEAF_LENGTH * market + OFFER] = offerKey;
+        long[] dirty = this.dirty;
+        // index of the market's ancestor in the inner nodes of each level
+        int node = market >>> FANOUT_BITS;
+        for (int levelStart=0, width=leafCount>>>FANOUT_BITS;width>0;levelStart+=width, width>>>=FANOUT_BITS) {
+            int index = levelStart + node;
+            dirty[index >>> 6] |= 1L << index;
+            node >>>= FANOUT_BITS;
+        }
+        if (bidKnown) {
+            bidKnown = updateRoot(market, BID, bidKey);
+        }
+        if (offerKnown) {
+            offerKnown = updateRoot(market, OFFER, offerKey);
+        }
+    }
+
+    /**
+     * @return false if the root can not tell the best market any more
+     */
+    private boolean updateRoot(int market, int side, double key) {
+        int slot = root + side;
+        double winnerKey = tree[slot];
+        int winner = (int) tree[slot + WINNER_OFFSET];
+        if (key > winnerKey || (key == winnerKey && market < winner)) {
+            tree[slot] = key;
+            tree[slot + WINNER_OFFSET] = market;
+            return true;
+        }
+        // a market other than the best one does not change the best, unless the best one backs off
+        return market != winner || key == winnerKey;
+    }
+
+    /**
+     * Replay the matches of the dirty nodes, in the order of the tree so that the children of a node are replayed first.
+     */
+    private void replay() {
+        long[] dirty = this.dirty;
+        int levelStart = 0;
+        int width = leafCount >>> FANOUT_BITS;
+        int childLevel = 0;
+        int childLength = LEAF_LENGTH;
+        for (int word=0;word<dirty.length;word++) {
+            long bits = dirty[word];
+            dirty[word] = 0L;
+            while (bits != 0L) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                while (index >= levelStart + width) {
+                    // the children of the next level are the nodes of this one
+                    childLevel = innerStart + NODE_LENGTH * levelStart;
+                    childLength = NODE_LENGTH;
+                    levelStart += width;
+                    width >>>= FANOUT_BITS;
+                }
+                int slot = innerStart + NODE_LENGTH * index;
+                match(slot + BID, childLevel, childLength, index - levelStart);
+                match(slot + OFFER, childLevel, childLength, index - levelStart);
+            }
+        }
+        bidKnown = true;
+        offerKnown = true;
+    }
+
+    /**
+     * Find the winner of the node's children, the first one with the highest key.
+     * @param slot position of the side of the node
+     * @param childLevel start of the level of the children
+     * @param childLength LEAF_LENGTH or NODE_LENGTH
+     */
+    private void match(int slot, int childLevel, int childLength, int node) {
+        double[] tree = this.tree;
+        int side = slot & 1;
+        int first = childLevel + childLength * (node << FANOUT_BITS) + side;
+        int best = first;
+        double bestKey = tree[first];
+        for (int child=first+childLength;child<first+childLength*FANOUT;child+=childLength) {
+            if (tree[child] > bestKey) {
+                best = child;
+                bestKey = tree[child];
+            }
+        }
+        tree[slot] = bestKey;
+        // a leaf's market is its index
+        tree[slot + WINNER_OFFSET] = childLength == LEAF_LENGTH ? (best - childLevel) / LEAF_LENGTH : tree[best + WINNER_OFFSET];
+    }
+
+    private void grow(int market) {
+        int capacity = FANOUT;
+        while (capacity <= market) {
+            capacity <<= FANOUT_BITS;
+        }
+        int innerCount = 0;
+        for (int width=capacity>>>FANOUT_BITS;width>0;width>>>=FANOUT_BITS) {
+            innerCount += width;
+        }
+        double[] grownTree = new double[LEAF_LENGTH * capacity + NODE_LENGTH * innerCount];
+        Arrays.fill(grownTree, NO_PRICE);
+        System.arraycopy(tree, 0, grownTree, 0, LEAF_LENGTH * leafCount);
+        tree = grownTree;
+        leafCount = capacity;
+        innerStart = LEAF_LENGTH * capacity;
+        root = innerStart + NODE_LENGTH * (innerCount - 1);
+        dirty = new long[(innerCount + 63) >>> 6];
+        for (int index=0;index<innerCount;index++) {
+            dirty[index >>> 6] |= 1L << index;
+        }
+        replay();
+    }
+}
@@ -0,0 +1,116 @@
+package com.calculator.impl;
+
+/**
+ * Recalculates the running sums of every instrument from scratch, out of a primitive copy of the quotes of the whole
+ * universe: one array per field, indexed by instrument * marketCount + market. The copy is allocated once, so a
+ * recalculation does not allocate.
+ *
+ * The sums are calculated by a {@link VectorBulkSumKernel} when the jdk.incubator.vector module is present
+ * (--add-modules jdk.incubator.vector), and by {@link BulkSumKernel#SCALAR} otherwise.
+ */
+class BulkRecalculator {
+
+    // sums of each instrument, in this order
+    static final int BID_NOTIONAL = 0;
+    static final int BID_AMOUNT = 1;
+    static final int OFFER_NOTIONAL = 2;
+    static final int OFFER_AMOUNT = 3;
+    static final int SUM_COUNT = 4;
+
+    private final int marketCount;
+    private final BulkSumKernel kernel;
+    private final double[] bidPrices;
+    private final double[] offerPrices;
+    private final double[] bidAmounts;
+    private final double[] offerAmounts;
+    private final double[] sums;
+    // amounts weighted by the view being recalculated, and its sums
+    private final double[] weightedBidAmounts;
+    private final double[] weightedOfferAmounts;
+    private final double[] viewSums;
+
+    BulkRecalculator(int instrumentCount, int marketCount, BulkSumKernel kernel) {
+        this.marketCount = marketCount;
+        this.kernel = kernel;
+        this.bidPrices = new double[instrumentCount * marketCount];
+        this.offerPrices = new double[instrumentCount * marketCount];
+        this.bidAmounts = new double[instrumentCount * marketCount];
+        this.offerAmounts = new double[instrumentCount * marketCount];
+        this.sums = new double[instrumentCount * SUM_COUNT];
+        this.weightedBidAmounts = new double[instrumentCount * marketCount];
+        this.weightedOfferAmounts = new double[instrumentCount * marketCount];
+        this.viewSums = new double[instrumentCount * SUM_COUNT];
+    }
+
+    /**
+     * Copy the quotes of every instrument with a calculator and calculate their sums, see {@link #getSum(int, int)}.
+     */
+    void recalculate(final SingleInstrumentVwapCalculator[] calculators) {
+        for (int instrument=0;instrument<calculators.length;instrument++) {
+            if (calculators[instrument] != null) {
+                calculators[instrument].copyQuotes(marketCount, bidPrices, offerPrices, bidAmounts, offerAmounts,
+                        instrument * marketCount);
+            }
+        }
+        for (int instrument=0;instrument<calculators.length;instrument++) {
+            if (calculators[instrument] != null) {
+                int offset = instrument * marketCount;
+                kernel.sum(bidPrices, bidAmounts, offset, marketCount, sums, instrument * SUM_COUNT + BID_NOTIONAL);
+                kernel.sum(offerPrices, offerAmounts, offset, marketCount, sums, instrument * SUM_COUNT + OFFER_NOTIONAL);
+            }
+        }
+    }
+
+    /**
+     * Calculate the sums of a view of every instrument with a calculator, over the prices copied by the last
+     * {@link #recalculate(SingleInstrumentVwapCalculator[])} and the amounts weighted by the view,
+     * see {@link #getViewSum(int, int)}.
+     * @param view index of the view in each calculator
+     */
+    void recalculateView(final SingleInstrumentVwapCalculator[] calculators, final int view) {
+        for (int instrument=0;instrument<calculators.length;instrument++) {
+            if (calculators[instrument] != null) {
+                int offset = instrument * marketCount;
+                calculators[instrument].copyViewAmounts(view, marketCount, weightedBidAmounts, weightedOfferAmounts, offset);
+                kernel.sum(bidPrices, weightedBidAmounts, offset, marketCount, viewSums, instrument * SUM_COUNT + BID_NOTIONAL);
+                kernel.sum(offerPrices, weightedOfferAmounts, offset, marketCount, viewSums, instrument * SUM_COUNT + OFFER_NOTIONAL);
+            }
+        }
+    }
+
+    /**
+     * @param sum one of BID_NOTIONAL, BID_AMOUNT, OFFER_NOTIONAL and OFFER_AMOUNT
+     */
+    double getSum(final int instrument, final int sum) {
+        return sums[instrument * SUM_COUNT + sum];
+    }
+
+    /**
+     * @param sum one of BID_NOTIONAL, BID_AMOUNT, OFFER_NOTIONAL and OFFER_AMOUNT, of the last recalculated view
+     */
+    double getViewSum(final int instrument, final int sum) {
+        return viewSums[instrument * SUM_COUNT + sum];
+    }
+
+    /**
+     * @return the vector kernel if the jdk.incubator.vector module is present, the scalar one otherwise
+     */
+    static BulkSumKernel defaultKernel() {
+        BulkSumKernel vectorKernel = vectorKernel();
+        return vectorKernel == null ? BulkSumKernel.SCALAR : vectorKernel;
+    }
+
+    /**
+     * @return the vector kernel, or null if the jdk.incubator.vector module is not present
+     */
+    static BulkSumKernel vectorKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return new VectorBulkSumKernel();
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+}
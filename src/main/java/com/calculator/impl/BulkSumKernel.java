@@ -0,0 +1,29 @@
+package com.calculator.impl;
+
+/**
+ * Sums of one side of an instrument's quotes, over a primitive layout of the prices and amounts of its markets.
+ * An empty market has zero price and amount, so it adds nothing and needs no masking.
+ */
+interface BulkSumKernel {
+
+    /**
+     * Write Sum(price * amount) at sums[sumsOffset] and Sum(amount) at sums[sumsOffset + 1],
+     * over the markets [offset, offset + length) of the arrays.
+     */
+    void sum(double[] prices, double[] amounts, int offset, int length, double[] sums, int sumsOffset);
+
+    /**
+     * Plain loop, the fallback when the Vector API is not available.
+     */
+    BulkSumKernel SCALAR = (prices, amounts, offset, length, sums, sumsOffset) -> {
+        double notional = 0.0d;
+        double amount = 0.0d;
+        for (int i=offset;i<offset+length;i++) {
+            notional += prices[i] * amounts[i];
+            amount += amounts[i];
+        }
+        sums[sumsOffset] = notional;
+        sums[sumsOffset + 1] = amount;
+    };
+
+}
@@ -0,0 +1,471 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.Market;
+import com.calculator.MarketUpdate;
+import com.calculator.State;
+import com.calculator.VwapSink;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Optional instrumentation of a calculator: call counts and latency histograms of each of its entry points, see
+ * {@link Operation}, accepted update counts per instrument and per market, expired quotes, and the transitions of each
+ * instrument's VWAP between firm and indicative.
+ *
+ * Reading the clock costs more than the update itself, so only one call in every latency sample interval of each
+ * operation is timed. The counts are kept in plain arrays owned by the calculation thread, and only copied to the
+ * counters readers see after each timed call and at the end of each call of the bulk operations, so the counts of
+ * single updates lag behind by less than a sample interval.
+ *
+ * The published counters are written with ordered stores, so recording never allocates or locks and any thread can read
+ * them through {@link #snapshot()} or JMX, see {@link #registerMBean(String)}.
+ * A calculator without metrics pays a null check per call and per published VWAP.
+ */
+public class CalculatorMetrics implements CalculatorMetricsMXBean, AutoCloseable {
+
+    /**
+     * The instrumented entry points of a {@link DefaultVwapCalculator}.
+     */
+    public enum Operation {
+        /** {@link DefaultVwapCalculator#applyMarketUpdate(MarketUpdate)} */
+        UPDATE,
+        /** {@link DefaultVwapCalculator#applyMarketUpdates(MarketUpdate[], int, VwapSink)}, one call per batch */
+        BATCH,
+        /** {@link DefaultVwapCalculator#withdrawQuote(Instrument, Market)} */
+        WITHDRAW_QUOTE,
+        /** {@link DefaultVwapCalculator#withdrawMarket(Market)} */
+        WITHDRAW_MARKET,
+        /** {@link DefaultVwapCalculator#advanceClock(long)}, which expires the quotes whose time to live has passed */
+        ADVANCE_CLOCK,
+        /** {@link DefaultVwapCalculator#recalculate()} */
+        RECALCULATE;
+
+        // whether one call does the work of many updates, so that its counts are published at the end of every call
+        boolean isBulk() {
+            return this != UPDATE && this != WITHDRAW_QUOTE;
+        }
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final Instrument[] INSTRUMENTS = Instrument.values();
+    private static final Market[] MARKETS = Market.values();
+    private static final int HISTOGRAM_LENGTH = LatencyHistogram.indexOf(Long.MAX_VALUE) + 1;
+    public static final int DEFAULT_LATENCY_SAMPLE_INTERVAL = 1024;
+    // returned by start() for a call which is not timed
+    static final long NOT_TIMED = Long.MIN_VALUE;
+
+    // latency histogram of each operation, HISTOGRAM_LENGTH buckets each
+    private final AtomicLongArray latencyCounts = new AtomicLongArray(OPERATIONS.length * HISTOGRAM_LENGTH);
+    // timed call count, latency sum, latency max of each operation
+    private final AtomicLongArray latencySummary = new AtomicLongArray(OPERATIONS.length * 3);
+    // published copies of the counts below
+    private final AtomicLongArray publishedCalls = new AtomicLongArray(OPERATIONS.length);
+    private final AtomicLongArray publishedInstrumentUpdates = new AtomicLongArray(INSTRUMENTS.length);
+    private final AtomicLongArray publishedMarketUpdates = new AtomicLongArray(MARKETS.length);
+    private final AtomicLongArray publishedIndicativeTransitions = new AtomicLongArray(INSTRUMENTS.length);
+    private final AtomicLongArray publishedFirmTransitions = new AtomicLongArray(INSTRUMENTS.length);
+    private final AtomicLong publishedExpiredQuotes = new AtomicLong();
+    // counts only accessed by the calculation thread
+    private final long[] calls = new long[OPERATIONS.length];
+    private final long[] instrumentUpdates = new long[INSTRUMENTS.length];
+    private final long[] marketUpdates = new long[MARKETS.length];
+    private final long[] indicativeTransitions = new long[INSTRUMENTS.length];
+    private final long[] firmTransitions = new long[INSTRUMENTS.length];
+    private long expiredQuotes = 0L;
+    // last VWAP state of each instrument, only accessed by the calculation thread
+    private final State[] lastStates = new State[INSTRUMENTS.length];
+    // one call in latencySampleMask + 1 of each operation is timed
+    private final long latencySampleMask;
+    // set by reset(), the calculation thread clears its counts before it next publishes them
+    private volatile boolean resetRequested = false;
+    private ObjectName objectName;
+
+    /**
+     * Time one call in {@link #DEFAULT_LATENCY_SAMPLE_INTERVAL}.
+     */
+    public CalculatorMetrics() {
+        this(DEFAULT_LATENCY_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param latencySampleInterval time one call of each operation in this many, a power of 2, 1 to time every call
+     * @throws IllegalArgumentException if the interval is not a positive power of 2
+     */
+    public CalculatorMetrics(int latencySampleInterval) {
+        if (latencySampleInterval <= 0 || Integer.bitCount(latencySampleInterval) != 1) {
+            throw new IllegalArgumentException("Latency sample interval must be a positive power of 2: " + latencySampleInterval);
+        }
+        this.latencySampleMask = latencySampleInterval - 1;
+    }
+
+    /**
+     * Count a call, called on the calculation thread before it.
+     * @return the clock at the start of the call if it is timed, {@link #NOT_TIMED} otherwise, to pass to
+     * {@link #end(Operation, long)}
+     */
+    long start(final Operation operation) {
+        int index = operation.ordinal();
+        return (calls[index]++ & latencySampleMask) == 0L ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Record the latency of a timed call and publish the counts if due, called on the calculation thread after the call.
+     * @param start what {@link #start(Operation)} returned
+     */
+    void end(final Operation operation, final long start) {
+        if (start != NOT_TIMED) {
+            long latencyNanos = Math.max(System.nanoTime() - start, 0L);
+            int index = operation.ordinal();
+            increment(latencyCounts, index * HISTOGRAM_LENGTH + LatencyHistogram.indexOf(latencyNanos));
+            increment(latencySummary, index * 3);
+            latencySummary.lazySet(index * 3 + 1, latencySummary.get(index * 3 + 1) + latencyNanos);
+            if (latencyNanos > latencySummary.get(index * 3 + 2)) {
+                latencySummary.lazySet(index * 3 + 2, latencyNanos);
+            }
+            publish();
+        } else if (operation.isBulk()) {
+            publish();
+        }
+    }
+
+    /**
+     * Count an accepted market update, of a single update or of a batch, called on the calculation thread.
+     */
+    void recordUpdate(final int instrument, final int market) {
+        instrumentUpdates[instrument]++;
+        marketUpdates[market]++;
+    }
+
+    /**
+     * Count a quote taken out of its instrument's VWAP because its time to live has passed, called on the calculation thread.
+     */
+    void recordExpiry() {
+        expiredQuotes++;
+    }
+
+    /**
+     * Record the state of a calculated VWAP, to count its transitions, called on the calculation thread.
+     */
+    void recordState(final int instrument, final State state) {
+        State lastState = lastStates[instrument];
+        if (state != lastState) {
+            if (state == State.INDICATIVE) {
+                indicativeTransitions[instrument]++;
+            } else if (lastState != null) {
+                firmTransitions[instrument]++;
+            }
+            lastStates[instrument] = state;
+        }
+    }
+
+    // copy the counts of the calculation thread to the counters the readers see
+    private void publish() {
+        if (resetRequested) {
+            resetRequested = false;
+            Arrays.fill(calls, 0L);
+            Arrays.fill(instrumentUpdates, 0L);
+            Arrays.fill(marketUpdates, 0L);
+            Arrays.fill(indicativeTransitions, 0L);
+            Arrays.fill(firmTransitions, 0L);
+            expiredQuotes = 0L;
+        }
+        copy(calls, publishedCalls);
+        copy(instrumentUpdates, publishedInstrumentUpdates);
+        copy(marketUpdates, publishedMarketUpdates);
+        copy(indicativeTransitions, publishedIndicativeTransitions);
+        copy(firmTransitions, publishedFirmTransitions);
+        publishedExpiredQuotes.lazySet(expiredQuotes);
+    }
+
+    /**
+     * @return a copy of the current metrics, can be called from any thread
+     */
+    public Snapshot snapshot() {
+        LatencyHistogram[] histograms = new LatencyHistogram[OPERATIONS.length];
+        long[] timedCalls = new long[OPERATIONS.length];
+        for (Operation operation : OPERATIONS) {
+            histograms[operation.ordinal()] = histogram(operation);
+            timedCalls[operation.ordinal()] = latencySummary.get(operation.ordinal() * 3);
+        }
+        return new Snapshot(histograms, toArray(publishedCalls), timedCalls, toArray(publishedInstrumentUpdates),
+                toArray(publishedMarketUpdates), toArray(publishedIndicativeTransitions),
+                toArray(publishedFirmTransitions), publishedExpiredQuotes.get());
+    }
+
+    private LatencyHistogram histogram(Operation operation) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int offset = operation.ordinal() * HISTOGRAM_LENGTH;
+        for (int i=0;i<HISTOGRAM_LENGTH;i++) {
+            long count = latencyCounts.get(offset + i);
+            if (count > 0L) {
+                histogram.recordAtIndex(i, count);
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Register as a platform MBean named com.calculator:type=VwapCalculator,name=[name]
+     */
+    public void registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("com.calculator:type=VwapCalculator,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (MalformedObjectNameException | InstanceAlreadyExistsException | MBeanRegistrationException | NotCompliantMBeanException e) {
+            throw new IllegalStateException("Failed to register the metrics MBean " + name, e);
+        }
+    }
+
+    /**
+     * Unregister the MBean, if registered.
+     */
+    @Override
+    public void close() {
+        if (objectName != null) {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            try {
+                mBeanServer.unregisterMBean(objectName);
+            } catch (InstanceNotFoundException | MBeanRegistrationException e) {
+                // already gone
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * @return the number of applyMarketUpdate() calls
+     */
+    @Override
+    public long getCallCount() {
+        return publishedCalls.get(Operation.UPDATE.ordinal());
+    }
+
+    /**
+     * @return the number of applyMarketUpdate() calls whose latency was recorded
+     */
+    @Override
+    public long getTimedCallCount() {
+        return latencySummary.get(Operation.UPDATE.ordinal() * 3);
+    }
+
+    @Override
+    public double getMeanLatencyNanos() {
+        return meanLatencyNanos(Operation.UPDATE);
+    }
+
+    @Override
+    public long getLatencyNanosP50() {
+        return histogram(Operation.UPDATE).getValueAtPercentile(50.0d);
+    }
+
+    @Override
+    public long getLatencyNanosP99() {
+        return histogram(Operation.UPDATE).getValueAtPercentile(99.0d);
+    }
+
+    @Override
+    public long getLatencyNanosP999() {
+        return histogram(Operation.UPDATE).getValueAtPercentile(99.9d);
+    }
+
+    @Override
+    public long getMaxLatencyNanos() {
+        return latencySummary.get(Operation.UPDATE.ordinal() * 3 + 2);
+    }
+
+    @Override
+    public Map<String, Long> getCallCountsByOperation() {
+        return toMap(publishedCalls, OPERATIONS);
+    }
+
+    @Override
+    public Map<String, Double> getMeanLatencyNanosByOperation() {
+        Map<String, Double> map = new LinkedHashMap<>();
+        for (Operation operation : OPERATIONS) {
+            if (latencySummary.get(operation.ordinal() * 3) > 0L) {
+                map.put(operation.name(), meanLatencyNanos(operation));
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getUpdateCountsByInstrument() {
+        return toMap(publishedInstrumentUpdates, INSTRUMENTS);
+    }
+
+    @Override
+    public Map<String, Long> getUpdateCountsByMarket() {
+        return toMap(publishedMarketUpdates, MARKETS);
+    }
+
+    @Override
+    public long getExpiredQuoteCount() {
+        return publishedExpiredQuotes.get();
+    }
+
+    @Override
+    public Map<String, Long> getIndicativeTransitionsByInstrument() {
+        return toMap(publishedIndicativeTransitions, INSTRUMENTS);
+    }
+
+    @Override
+    public Map<String, Long> getFirmTransitionsByInstrument() {
+        return toMap(publishedFirmTransitions, INSTRUMENTS);
+    }
+
+    /**
+     * Clear the counters. The counts not yet published by the calculation thread are cleared when it next publishes them,
+     * counts recorded concurrently may partly survive the reset.
+     */
+    @Override
+    public void reset() {
+        resetRequested = true;
+        clear(latencyCounts);
+        clear(latencySummary);
+        clear(publishedCalls);
+        clear(publishedInstrumentUpdates);
+        clear(publishedMarketUpdates);
+        clear(publishedIndicativeTransitions);
+        clear(publishedFirmTransitions);
+        publishedExpiredQuotes.set(0L);
+    }
+
+    private double meanLatencyNanos(Operation operation) {
+        long count = latencySummary.get(operation.ordinal() * 3);
+        return count == 0L ? 0.0d : (double) latencySummary.get(operation.ordinal() * 3 + 1) / count;
+    }
+
+    // single writer, so an ordered store is enough to publish the count
+    private static void increment(AtomicLongArray counters, int index) {
+        counters.lazySet(index, counters.get(index) + 1);
+    }
+
+    // single writer, so an ordered store is enough to publish each count
+    private static void copy(long[] counts, AtomicLongArray counters) {
+        for (int i=0;i<counts.length;i++) {
+            counters.lazySet(i, counts[i]);
+        }
+    }
+
+    private static void clear(AtomicLongArray counters) {
+        for (int i=0;i<counters.length();i++) {
+            counters.set(i, 0L);
+        }
+    }
+
+    private static long[] toArray(AtomicLongArray counters) {
+        long[] copy = new long[counters.length()];
+        for (int i=0;i<copy.length;i++) {
+            copy[i] = counters.get(i);
+        }
+        return copy;
+    }
+
+    private static Map<String, Long> toMap(AtomicLongArray counters, Enum<?>[] keys) {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (int i=0;i<keys.length;i++) {
+            long count = counters.get(i);
+            if (count > 0L) {
+                map.put(keys[i].name(), count);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Point in time copy of the {@link CalculatorMetrics}.
+     */
+    public static class Snapshot {
+
+        private final LatencyHistogram[] latencyHistograms;
+        private final long[] calls;
+        private final long[] timedCalls;
+        private final long[] instrumentUpdates;
+        private final long[] marketUpdates;
+        private final long[] indicativeTransitions;
+        private final long[] firmTransitions;
+        private final long expiredQuotes;
+
+        Snapshot(LatencyHistogram[] latencyHistograms, long[] calls, long[] timedCalls, long[] instrumentUpdates,
+                 long[] marketUpdates, long[] indicativeTransitions, long[] firmTransitions, long expiredQuotes) {
+            this.latencyHistograms = latencyHistograms;
+            this.calls = calls;
+            this.timedCalls = timedCalls;
+            this.instrumentUpdates = instrumentUpdates;
+            this.marketUpdates = marketUpdates;
+            this.indicativeTransitions = indicativeTransitions;
+            this.firmTransitions = firmTransitions;
+            this.expiredQuotes = expiredQuotes;
+        }
+
+        /**
+         * @return latency of the timed applyMarketUpdate() calls, valid or not, in nanoseconds
+         */
+        public LatencyHistogram getLatencyHistogram() {
+            return getLatencyHistogram(Operation.UPDATE);
+        }
+
+        /**
+         * @return latency of the timed calls of the operation, in nanoseconds
+         */
+        public LatencyHistogram getLatencyHistogram(Operation operation) {
+            return latencyHistograms[operation.ordinal()];
+        }
+
+        public long getCallCount(Operation operation) {
+            return calls[operation.ordinal()];
+        }
+
+        public long getTimedCallCount(Operation operation) {
+            return timedCalls[operation.ordinal()];
+        }
+
+        /**
+         * @return the number of accepted updates of the instrument, single or in a batch, including the updates of a batch
+         * superseded by a later update of the same market
+         */
+        public long getUpdateCount(Instrument instrument) {
+            return instrumentUpdates[instrument.ordinal()];
+        }
+
+        public long getUpdateCount(Market market) {
+            return marketUpdates[market.ordinal()];
+        }
+
+        /**
+         * @return the number of quotes taken out of their instrument's VWAP because their time to live had passed
+         */
+        public long getExpiredQuotes() {
+            return expiredQuotes;
+        }
+
+        /**
+         * @return how many times the calculated VWAP of the instrument turned indicative, including its first VWAP
+         */
+        public long getIndicativeTransitions(Instrument instrument) {
+            return indicativeTransitions[instrument.ordinal()];
+        }
+
+        /**
+         * @return how many times the calculated VWAP of the instrument turned back to firm
+         */
+        public long getFirmTransitions(Instrument instrument) {
+            return firmTransitions[instrument.ordinal()];
+        }
+    }
+}
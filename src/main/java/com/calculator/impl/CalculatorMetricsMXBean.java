@@ -0,0 +1,39 @@
+package com.calculator.impl;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link CalculatorMetrics} of a calculator.
+ */
+public interface CalculatorMetricsMXBean {
+
+    long getCallCount();
+
+    long getTimedCallCount();
+
+    double getMeanLatencyNanos();
+
+    long getLatencyNanosP50();
+
+    long getLatencyNanosP99();
+
+    long getLatencyNanosP999();
+
+    long getMaxLatencyNanos();
+
+    Map<String, Long> getCallCountsByOperation();
+
+    Map<String, Double> getMeanLatencyNanosByOperation();
+
+    Map<String, Long> getUpdateCountsByInstrument();
+
+    Map<String, Long> getUpdateCountsByMarket();
+
+    long getExpiredQuoteCount();
+
+    Map<String, Long> getIndicativeTransitionsByInstrument();
+
+    Map<String, Long> getFirmTransitionsByInstrument();
+
+    void reset();
+}
@@ -0,0 +1,152 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Configuration of a {@link DefaultVwapCalculator}, every option off by default. The options are read when the
+ * calculator is created, later changes do not affect it.
+ */
+public class CalculatorOptions {
+
+    private QuoteStorage quoteStorage = QuoteStorage.OBJECT;
+    private FixedPointScales fixedPointScales;
+    private RejectionMonitor rejectionMonitor;
+    private CalculatorMetrics metrics;
+    private QuoteExpiry quoteExpiry;
+    private StateSnapshotter snapshotter;
+    private UpdateJournal journal;
+    private final Set<Instrument> pullInstruments = EnumSet.noneOf(Instrument.class);
+    private final Set<Instrument> topOfBookInstruments = EnumSet.noneOf(Instrument.class);
+
+    /**
+     * @param quoteStorage layout of the per-market quote cache of each instrument, OBJECT by default
+     * @return this
+     */
+    public CalculatorOptions setQuoteStorage(QuoteStorage quoteStorage) {
+        if (quoteStorage == null) {
+            throw new IllegalArgumentException("Quote storage must not be null");
+        }
+        this.quoteStorage = quoteStorage;
+        return this;
+    }
+
+    /**
+     * @param fixedPointScales decimals of each instrument to accumulate prices and amounts as exact scaled longs,
+     *                         or null to accumulate in double, the default
+     * @return this
+     */
+    public CalculatorOptions setFixedPointScales(FixedPointScales fixedPointScales) {
+        this.fixedPointScales = fixedPointScales;
+        return this;
+    }
+
+    /**
+     * @param rejectionMonitor counts and samples the invalid market updates, or null for a default one per calculator,
+     * closed with it, see {@link DefaultVwapCalculator#close()}
+     * @return this
+     */
+    public CalculatorOptions setRejectionMonitor(RejectionMonitor rejectionMonitor) {
+        this.rejectionMonitor = rejectionMonitor;
+        return this;
+    }
+
+    /**
+     * @param metrics records the latency and counts of the calls to the calculator, see {@link CalculatorMetrics.Operation},
+     * or null to disable instrumentation
+     * @return this
+     */
+    public CalculatorOptions setMetrics(CalculatorMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @param quoteExpiry time to live of the quotes of each market on the clock of the update timestamps,
+     *                    or null to keep every quote until the market re-quotes
+     * @return this
+     */
+    public CalculatorOptions setQuoteExpiry(QuoteExpiry quoteExpiry) {
+        this.quoteExpiry = quoteExpiry;
+        return this;
+    }
+
+    /**
+     * @param snapshotter checkpoints the state periodically, see {@link DefaultVwapCalculator#checkpoint()},
+     *                    or null for no checkpoint
+     * @return this
+     */
+    public CalculatorOptions setSnapshotter(StateSnapshotter snapshotter) {
+        this.snapshotter = snapshotter;
+        return this;
+    }
+
+    /**
+     * @param journal records the accepted input to replay it after a crash, see {@link DefaultVwapCalculator#recover()},
+     *                or null for no journal
+     * @return this
+     */
+    public CalculatorOptions setJournal(UpdateJournal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * Only calculate the VWAP of the instruments when it is read, see {@link DefaultVwapCalculator#getVwap(Instrument)}.
+     * @param instruments added to those in pull mode, none by default
+     * @return this
+     */
+    public CalculatorOptions addPullInstruments(Set<Instrument> instruments) {
+        pullInstruments.addAll(instruments);
+        return this;
+    }
+
+    /**
+     * Track the best bid and offer of the instruments along with their VWAP, see
+     * {@link DefaultVwapCalculator#getTopOfBook(Instrument)}. This roughly halves the update throughput of the instruments.
+     * @param instruments added to those whose best bid and offer are tracked, none by default
+     * @return this
+     */
+    public CalculatorOptions addTopOfBookInstruments(Set<Instrument> instruments) {
+        topOfBookInstruments.addAll(instruments);
+        return this;
+    }
+
+    public QuoteStorage getQuoteStorage() {
+        return quoteStorage;
+    }
+
+    public FixedPointScales getFixedPointScales() {
+        return fixedPointScales;
+    }
+
+    public RejectionMonitor getRejectionMonitor() {
+        return rejectionMonitor;
+    }
+
+    public CalculatorMetrics getMetrics() {
+        return metrics;
+    }
+
+    public QuoteExpiry getQuoteExpiry() {
+        return quoteExpiry;
+    }
+
+    public StateSnapshotter getSnapshotter() {
+        return snapshotter;
+    }
+
+    public UpdateJournal getJournal() {
+        return journal;
+    }
+
+    public boolean isPull(Instrument instrument) {
+        return pullInstruments.contains(instrument);
+    }
+
+    public boolean isTopOfBook(Instrument instrument) {
+        return topOfBookInstruments.contains(instrument);
+    }
+}
@@ -0,0 +1,149 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a capture file of market updates encoded in the {@link MarketUpdateLayout} format through a {@link VwapCalculator}.
+ *
+ * The file is memory-mapped in windows of up to ~2GB, so captures of any size are streamed without being loaded
+ * onto the heap, and each record is fed to the calculator through a {@link MarketUpdateDecoder} flyweight.
+ * Updates are replayed either as fast as possible or paced at their recorded timestamps.
+ *
+ * Reading the clock costs about as much as an update, so only one applyMarketUpdate() call in every latency sample
+ * interval is timed, and the throughput is measured over the whole replay. The calculator is flushed once every update
+ * has been applied, the elapsed time includes the flush, then the invalid updates are counted by its
+ * {@link RejectionMonitor} and the final VWAPs are read back from it. The latencies of a calculator which calculates on
+ * its own threads, like {@link ShardedVwapCalculator}, only cover handing each update over.
+ */
+public class CaptureReplay {
+
+    // largest whole number of records which fits in a single mapping
+    private static final long MAX_WINDOW_SIZE = (Integer.MAX_VALUE / MarketUpdateLayout.ENCODED_LENGTH) * (long) MarketUpdateLayout.ENCODED_LENGTH;
+    // do not park for waits shorter than this, spin instead
+    private static final long MIN_PARK_NANOS = 50_000L;
+
+    private final Path captureFile;
+    private final long windowSize;
+    // one update in latencySampleMask + 1 is timed
+    private long latencySampleMask = CalculatorMetrics.DEFAULT_LATENCY_SAMPLE_INTERVAL - 1;
+
+    public CaptureReplay(Path captureFile) {
+        this(captureFile, MAX_WINDOW_SIZE);
+    }
+
+    CaptureReplay(Path captureFile, long windowSize) {
+        this.captureFile = captureFile;
+        this.windowSize = windowSize - windowSize % MarketUpdateLayout.ENCODED_LENGTH;
+    }
+
+    /**
+     * @param latencySampleInterval time one update in this many, a power of 2, 1 to time every update,
+     * {@link CalculatorMetrics#DEFAULT_LATENCY_SAMPLE_INTERVAL} by default
+     * @throws IllegalArgumentException if the interval is not a positive power of 2
+     */
+    public CaptureReplay setLatencySampleInterval(int latencySampleInterval) {
+        if (latencySampleInterval <= 0 || Integer.bitCount(latencySampleInterval) != 1) {
+            throw new IllegalArgumentException("Latency sample interval must be a positive power of 2: " + latencySampleInterval);
+        }
+        this.latencySampleMask = latencySampleInterval - 1;
+        return this;
+    }
+
+    /**
+     * @param calculator the calculator to feed, from the calling thread
+     * @param speed 0 to replay as fast as possible, otherwise the multiple of the recorded pace, e.g. 1 for real time
+     */
+    public ReplayReport replay(final VwapCalculator calculator, final double speed) throws IOException {
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        MarketUpdateDecoder decoder = new MarketUpdateDecoder();
+        long sampleMask = latencySampleMask;
+        long updateCount = 0L;
+        long rejectCountBefore = rejectCount(calculator.getRejectionMonitor());
+
+        try (FileChannel channel = FileChannel.open(captureFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size % MarketUpdateLayout.ENCODED_LENGTH != 0) {
+                throw new IOException("Capture file size " + size + " is not a multiple of the record length " + MarketUpdateLayout.ENCODED_LENGTH);
+            }
+            long firstTimestamp = 0L;
+            long startNanos = System.nanoTime();
+            for (long position=0L;position<size;position+=windowSize) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+                window.order(ByteOrder.LITTLE_ENDIAN);
+                int limit = window.limit();
+                for (int offset=0;offset<limit;offset+=MarketUpdateLayout.ENCODED_LENGTH) {
+                    decoder.wrap(window, offset);
+                    if (speed > 0.0d) {
+                        long timestamp = decoder.getTimestamp();
+                        if (updateCount == 0L) {
+                            firstTimestamp = timestamp;
+                        }
+                        awaitUntil(startNanos + (long) ((timestamp - firstTimestamp) / speed));
+                    }
+                    if ((updateCount & sampleMask) == 0L) {
+                        long before = System.nanoTime();
+                        calculator.applyMarketUpdate(decoder);
+                        latencyHistogram.record(System.nanoTime() - before);
+                    } else {
+                        calculator.applyMarketUpdate(decoder);
+                    }
+                    updateCount++;
+                }
+            }
+            calculator.flush();
+            long elapsedNanos = System.nanoTime() - startNanos;
+            long invalidCount = rejectCount(calculator.getRejectionMonitor()) - rejectCountBefore;
+            MutableTwoWayPrice[] finalVwaps = new MutableTwoWayPrice[Instrument.values().length];
+            for (Instrument instrument : Instrument.values()) {
+                MutableTwoWayPrice finalVwap = new DefaultTwoWayPrice();
+                if (calculator.getVwap(instrument, finalVwap)) {
+                    finalVwaps[instrument.ordinal()] = finalVwap;
+                }
+            }
+            return new ReplayReport(updateCount, invalidCount, elapsedNanos, latencyHistogram, finalVwaps);
+        }
+    }
+
+    private static long rejectCount(RejectionMonitor rejectionMonitor) {
+        long count = 0L;
+        for (RejectReason reason : RejectReason.values()) {
+            count += rejectionMonitor.getRejectCount(reason);
+        }
+        return count;
+    }
+
+    private static void awaitUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0L) {
+            if (remaining > MIN_PARK_NANOS) {
+                LockSupport.parkNanos(remaining - MIN_PARK_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Replay a capture file through a {@link DefaultVwapCalculator} and print the report.
+     * Usage: CaptureReplay captureFile [speed]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: CaptureReplay captureFile [speed]");
+            return;
+        }
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 0.0d;
+        try (DefaultVwapCalculator calculator = new DefaultVwapCalculator(QuoteStorage.ARRAY)) {
+            System.out.print(new CaptureReplay(Paths.get(args[0])).replay(calculator, speed));
+        }
+    }
+}
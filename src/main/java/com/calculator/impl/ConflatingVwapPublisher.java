@@ -0,0 +1,64 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.TwoWayPrice;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fans the calculated VWAPs out to the {@link VwapSubscription}s of their instrument.
+ *
+ * Subscriptions are kept in copy-on-write arrays, so subscribing and unsubscribing from any thread never blocks the
+ * calculation thread, which only reads the current array of the instrument.
+ */
+class ConflatingVwapPublisher {
+
+    private static final VwapSubscription[] NO_SUBSCRIPTIONS = new VwapSubscription[0];
+
+    private final AtomicReferenceArray<VwapSubscription[]> subscriptions = new AtomicReferenceArray<>(Instrument.values().length);
+
+    ConflatingVwapPublisher() {
+        for (int i=0;i<subscriptions.length();i++) {
+            subscriptions.set(i, NO_SUBSCRIPTIONS);
+        }
+    }
+
+    /**
+     * Called on the calculation thread with each new VWAP.
+     */
+    void publish(final TwoWayPrice vwap) {
+        for (VwapSubscription subscription : subscriptions.get(vwap.getInstrument().ordinal())) {
+            subscription.offer(vwap);
+        }
+    }
+
+    VwapSubscription subscribe(final VwapSubscription subscription) {
+        int index = subscription.getInstrument().ordinal();
+        VwapSubscription[] current;
+        VwapSubscription[] updated;
+        do {
+            current = subscriptions.get(index);
+            updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = subscription;
+        } while (!subscriptions.compareAndSet(index, current, updated));
+        subscription.start();
+        return subscription;
+    }
+
+    void unsubscribe(final VwapSubscription subscription) {
+        int index = subscription.getInstrument().ordinal();
+        VwapSubscription[] current;
+        VwapSubscription[] updated;
+        do {
+            current = subscriptions.get(index);
+            int position = Arrays.asList(current).indexOf(subscription);
+            if (position < 0) {
+                return;
+            }
+            updated = new VwapSubscription[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, position);
+            System.arraycopy(current, position + 1, updated, position, updated.length - position);
+        } while (!subscriptions.compareAndSet(index, current, updated));
+    }
+}
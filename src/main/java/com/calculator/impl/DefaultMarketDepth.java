@@ -0,0 +1,111 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.Market;
+import com.calculator.MarketDepth;
+import com.calculator.Side;
+
+/**
+ * Reusable {@link MarketDepth} with a fixed maximum number of levels per side, so a feed handler can fill the same
+ * instance for every book update without allocating.
+ */
+public class DefaultMarketDepth implements MarketDepth {
+
+    private static final int SIDES = Side.values().length;
+
+    private Market market;
+    private Instrument instrument;
+    private final int maxLevels;
+    // indexed by side ordinal * maxLevels + level
+    private final double[] prices;
+    private final double[] amounts;
+    private final int[] levelCounts = new int[SIDES];
+
+    public DefaultMarketDepth(int maxLevels) {
+        if (maxLevels <= 0) {
+            throw new IllegalArgumentException("Max levels must be positive: " + maxLevels);
+        }
+        this.maxLevels = maxLevels;
+        this.prices = new double[SIDES * maxLevels];
+        this.amounts = new double[SIDES * maxLevels];
+    }
+
+    @Override
+    public Market getMarket() {
+        return market;
+    }
+
+    public void setMarket(Market market) {
+        this.market = market;
+    }
+
+    @Override
+    public Instrument getInstrument() {
+        return instrument;
+    }
+
+    public void setInstrument(Instrument instrument) {
+        this.instrument = instrument;
+    }
+
+    @Override
+    public int getLevelCount(Side side) {
+        return levelCounts[side.ordinal()];
+    }
+
+    @Override
+    public double getPrice(Side side, int level) {
+        return prices[index(side, level)];
+    }
+
+    @Override
+    public double getAmount(Side side, int level) {
+        return amounts[index(side, level)];
+    }
+
+    /**
+     * Append a level to the side.
+     * @return this
+     */
+    public DefaultMarketDepth addLevel(Side side, double price, double amount) {
+        int level = levelCounts[side.ordinal()];
+        if (level == maxLevels) {
+            throw new IllegalStateException("Side " + side + " already has " + maxLevels + " levels");
+        }
+        prices[side.ordinal() * maxLevels + level] = price;
+        amounts[side.ordinal() * maxLevels + level] = amount;
+        levelCounts[side.ordinal()] = level + 1;
+        return this;
+    }
+
+    /**
+     * Remove the levels of both sides, keeping market and instrument.
+     * @return this
+     */
+    public DefaultMarketDepth clear() {
+        levelCounts[Side.BID.ordinal()] = 0;
+        levelCounts[Side.OFFER.ordinal()] = 0;
+        return this;
+    }
+
+    private int index(Side side, int level) {
+        if (level < 0 || level >= levelCounts[side.ordinal()]) {
+            throw new IndexOutOfBoundsException("Level " + level + " of " + levelCounts[side.ordinal()] + " " + side + " levels");
+        }
+        return side.ordinal() * maxLevels + level;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("DefaultMarketDepth{market=").append(market)
+                .append(", instrument=").append(instrument);
+        for (Side side : Side.values()) {
+            builder.append(", ").append(side).append("=[");
+            for (int level=0;level<levelCounts[side.ordinal()];level++) {
+                builder.append(level == 0 ? "" : ", ").append(getAmount(side, level)).append('@').append(getPrice(side, level));
+            }
+            builder.append(']');
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -1,113 +1,950 @@
-package com.calculator.impl;
-
-import com.calculator.*;
-
-/**
- * Default implementation of VWAP two-way price for input {@link MarketUpdate}
- *
- * For any given market, only the most recent price should be included in the VWAP calculation.
- * The process calling applyMarketUpdate() must be single threaded.
- * If any one MarketUpdate used in deriving the VWAP is indicative, the calculated TwoWayPrice should also be marked as indicative, otherwise it is firm.
- *
- * The VWAP two-way price for an instrument is defined as:
- * Bid = Sum(Market Bid Price * Market Bid Amount)/ Sum(Market Bid Amount)
- * Offer = Sum(Market Offer Price * Market Offer Amount)/ Sum(Market Offer Amount)
- */
-public class DefaultVwapCalculator implements Calculator {
-
-    private final Instrument[] INSTRUMENTS = Instrument.values();
-    private final SingleInstrumentVwapCalculator[] singleInstrumentCalculators = new SingleInstrumentVwapCalculator[INSTRUMENTS.length];
-    private final StringBuilder errorBuilder = new StringBuilder();
-
-    public DefaultVwapCalculator() {
-        for (int i=0;i<singleInstrumentCalculators.length;i++) {
-            singleInstrumentCalculators[i] = new SingleInstrumentVwapCalculator(INSTRUMENTS[i]);
-        }
-    }
-
-    @Override
-    public TwoWayPrice applyMarketUpdate(final MarketUpdate twoWayMarketPrice) {
-        if (!isValidMarketUpdate(twoWayMarketPrice)){
-            // Due to lack of context in this exercise so I simply handle the exception case with System.out.println().
-            // And I assume the implementation of MarketUpdate has rewritten toString() properly.
-            // In real world we can choose to log error/throw exception/raise system alert, etc., according to the context.
-            errorBuilder.setLength(0);
-            errorBuilder.append("Invalid market update - ").append(twoWayMarketPrice);
-            System.out.println(errorBuilder.toString());
-            return null;
-        }
-        Instrument instrument = twoWayMarketPrice.getTwoWayPrice().getInstrument();
-        return singleInstrumentCalculators[instrument.ordinal()].calculate(twoWayMarketPrice);
-    }
-
-    /**
-     * Validate the MarketUpdate. Consider price and amount shall always be positive. One-sided market is not valid.
-     * @param twoWayMarketPrice
-     * @return
-     */
-    boolean isValidMarketUpdate(MarketUpdate twoWayMarketPrice) {
-        if (twoWayMarketPrice == null || twoWayMarketPrice.getMarket() == null) {
-            return false;
-        }
-
-        TwoWayPrice price = twoWayMarketPrice.getTwoWayPrice();
-
-        return price != null
-                && price.getInstrument() != null
-                && price.getState() != null
-                && (!Double.isNaN(price.getBidPrice()) && price.getBidPrice() > 0.0d)
-                && (!Double.isNaN(price.getOfferPrice()) && price.getOfferPrice() > 0.0d)
-                && (!Double.isNaN(price.getBidAmount()) && price.getBidAmount() > 0.0d)
-                && (!Double.isNaN(price.getOfferAmount()) && price.getOfferAmount() > 0.0d);
-    }
-
-    /**
-     * The VWAP two-way price calculator for each instrument
-     * Assume input {@link MarketUpdate} is validated and always on the same instrument
-     */
-    private class SingleInstrumentVwapCalculator {
-
-        private final MutableTwoWayPrice result = new DefaultTwoWayPrice();
-        // cache for market updates which are currently taking effect
-        private final MutableTwoWayPrice[] marketPriceCache = new MutableTwoWayPrice[Market.values().length];
-
-        private double bidPriceAmountSum = 0.0d;
-        private double bidAmountSum = 0.0d;
-        private double offerPriceAmountSum = 0.0d;
-        private double offerAmountSum = 0.0d;
-        // counter for indicative market, if positive then result state is INDICATIVE
-        private int indicativeCounter = 0;
-
-        SingleInstrumentVwapCalculator(Instrument instrument) {
-            result.setInstrument(instrument);
-            for (int i=0;i<marketPriceCache.length;i++) {
-                marketPriceCache[i] = new DefaultTwoWayPrice();
-            }
-        }
-
-        TwoWayPrice calculate(final MarketUpdate marketUpdate) {
-            TwoWayPrice marketPriceUpdate = marketUpdate.getTwoWayPrice();
-            MutableTwoWayPrice lastMarketPrice = marketPriceCache[marketUpdate.getMarket().ordinal()];
-
-            bidAmountSum = bidAmountSum - lastMarketPrice.getBidAmount() + marketPriceUpdate.getBidAmount();
-            offerAmountSum = offerAmountSum - lastMarketPrice.getOfferAmount() + marketPriceUpdate.getOfferAmount();
-            bidPriceAmountSum = bidPriceAmountSum - lastMarketPrice.getBidPrice() * lastMarketPrice.getBidAmount()
-                    + marketPriceUpdate.getBidPrice() * marketPriceUpdate.getBidAmount();
-            offerPriceAmountSum = offerPriceAmountSum - lastMarketPrice.getOfferPrice() * lastMarketPrice.getOfferAmount()
-                    + marketPriceUpdate.getOfferPrice() * marketPriceUpdate.getOfferAmount();
-            if (marketPriceUpdate.getState() != lastMarketPrice.getState()) {
-                indicativeCounter = marketPriceUpdate.getState() == State.INDICATIVE ? indicativeCounter + 1 : indicativeCounter - 1;
-            }
-
-            lastMarketPrice.copy(marketPriceUpdate);
-            result.setBidPrice(bidPriceAmountSum/bidAmountSum);
-            result.setOfferPrice(offerPriceAmountSum/offerAmountSum);
-            result.setBidAmount(bidAmountSum);
-            result.setOfferAmount(offerAmountSum);
-            result.setState(indicativeCounter > 0 ? State.INDICATIVE : State.FIRM);
-            return result;
-        }
-
-
-    }
-}
+package com.calculator.impl;
+
+import com.calculator.*;
+import com.calculator.impl.CalculatorMetrics.Operation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.calculator.impl.StateSnapshotter.*;
+
+/**
+ * Default implementation of VWAP two-way price for input {@link MarketUpdate}
+ *
+ * For any given market, only the most recent price should be included in the VWAP calculation.
+ * The process calling applyMarketUpdate() must be single threaded.
+ * If any one MarketUpdate used in deriving the VWAP is indicative, the calculated TwoWayPrice should also be marked as indicative, otherwise it is firm.
+ * Optionally, the price of a market which has not re-quoted within its time to live is dropped, see {@link QuoteExpiry},
+ * the state is checkpointed to a file to restart from, see {@link StateSnapshotter}, and the accepted input is journaled
+ * to recover the exact state after a crash, see {@link UpdateJournal}.
+ *
+ * The VWAP of an instrument in pull mode is not calculated on each update: the update only changes the running sums and
+ * flags the VWAP as stale, and the VWAP is calculated when it is read, see {@link #getVwap(Instrument)}. This suits
+ * instruments which update much more often than they are read.
+ *
+ * Variants of the VWAP, such as firm quotes only or some markets excluded, are calculated over the same quotes in the
+ * same pass as the VWAP, see {@link #addView(VwapView)}.
+ *
+ * Optionally, the best bid and offer of an instrument, the markets quoting them, the spread and how far the VWAP lies
+ * behind them are tracked along with its VWAP, see {@link #getTopOfBook(Instrument)}. The markets are kept in a
+ * tournament tree on each side, so these are updated in O(log markets) amortized per update without scanning the quotes.
+ * The tree roughly halves the update throughput, so it is only allocated for the instruments which track them.
+ *
+ * Synthetic instruments, such as spreads or baskets, are priced from the VWAPs of their legs, and only those with a
+ * changed leg are recalculated, see {@link #addSynthetic(SyntheticInstrument)}.
+ *
+ * The VWAPs can also be written into shared memory, for the other processes of the host to read without calculating
+ * them, see {@link #publishToSharedMemory(SharedMemoryVwapPublisher)}.
+ *
+ * The VWAP two-way price for an instrument is defined as:
+ * Bid = Sum(Market Bid Price * Market Bid Amount)/ Sum(Market Bid Amount)
+ * Offer = Sum(Market Offer Price * Market Offer Amount)/ Sum(Market Offer Amount)
+ */
+public class DefaultVwapCalculator implements VwapCalculator, AutoCloseable {
+
+    private final Instrument[] INSTRUMENTS = Instrument.values();
+    private final Market[] MARKETS = Market.values();
+    private final int MARKET_COUNT = Market.values().length;
+    // created on the first update of each instrument
+    private final SingleInstrumentVwapCalculator[] singleInstrumentCalculators = new SingleInstrumentVwapCalculator[INSTRUMENTS.length];
+    private final QuoteStorage quoteStorage;
+    // null for double accumulation
+    private final FixedPointScales fixedPointScales;
+    private final ConflatingVwapPublisher publisher = new ConflatingVwapPublisher();
+    private final RejectionMonitor rejectionMonitor;
+    // whether the monitor was created by this calculator, and so is closed with it
+    private final boolean ownsRejectionMonitor;
+    // instruments with a quote of each market, so withdrawing a market only visits the instruments it quotes
+    private final QuotingInstrumentIndex quotingInstruments = new QuotingInstrumentIndex(MARKET_COUNT, INSTRUMENTS.length);
+    // null when instrumentation is disabled
+    private final CalculatorMetrics metrics;
+    // null when quotes never expire, the wheel is keyed by (instrument, market) pair
+    private final QuoteExpiry quoteExpiry;
+    private final TimerWheel expiryWheel;
+    private final TimerWheel.ExpiryHandler expiryHandler = this::expireQuote;
+    // deadline of each (instrument, market) pair scheduled in the wheel, kept for the snapshots
+    private final long[] expiryDeadlines;
+    // latest timestamp of the accepted updates
+    private long clock = 0L;
+    // null when the state is not checkpointed
+    private final StateSnapshotter snapshotter;
+    // null when the input is not journaled
+    private final UpdateJournal journal;
+    // view of the VWAP returned for each instrument in pull mode, null for the other instruments
+    private final PulledVwap[] pulledVwaps = new PulledVwap[INSTRUMENTS.length];
+    // whether the best bid and offer of an instrument are tracked
+    private final boolean[] topOfBook = new boolean[INSTRUMENTS.length];
+    // whether the running sums of an instrument in pull mode changed since its VWAP was last calculated
+    private final boolean[] stale = new boolean[INSTRUMENTS.length];
+    // added views, and the weight of each market in each of them, indexed by view, state ordinal and market,
+    // views is volatile for the readers of the views on other threads
+    private volatile VwapView[] views = new VwapView[0];
+    // smallest positive weight of a market in the views, at most 1, and largest one, at least 1, bound the fixed-point
+    // contributions
+    private double minViewWeight = 1.0d;
+    private double maxViewWeight = 1.0d;
+    private double[][][] viewWeights = new double[0][][];
+    // created on the first recalculation
+    private BulkRecalculator bulkRecalculator;
+    // null when the VWAPs are not written to shared memory
+    private SharedMemoryVwapPublisher sharedMemoryPublisher;
+    // synthetic instruments priced from the VWAPs of their legs
+    private final SyntheticInstrumentGraph syntheticGraph = new SyntheticInstrumentGraph();
+    // set while several instruments are published at once, to recalculate their synthetics once at the end
+    private boolean deferSynthetics = false;
+
+    // batch coalescing state, an (instrument, market) pair or instrument is touched by the current batch if its stamp equals batchStamp
+    private final int[] pairStamps = new int[INSTRUMENTS.length * MARKET_COUNT];
+    private final int[] instrumentStamps = new int[INSTRUMENTS.length];
+    private final int[] touchedInstruments = new int[INSTRUMENTS.length];
+    private int batchStamp = 0;
+
+    public DefaultVwapCalculator() {
+        this(new CalculatorOptions());
+    }
+
+    /**
+     * @param quoteStorage layout of the per-market quote cache of each instrument
+     */
+    public DefaultVwapCalculator(QuoteStorage quoteStorage) {
+        this(new CalculatorOptions().setQuoteStorage(quoteStorage));
+    }
+
+    /**
+     * @param options read when the calculator is created, see {@link CalculatorOptions}
+     */
+    public DefaultVwapCalculator(CalculatorOptions options) {
+        this.snapshotter = options.getSnapshotter();
+        this.journal = options.getJournal();
+        this.quoteStorage = options.getQuoteStorage();
+        this.fixedPointScales = options.getFixedPointScales();
+        this.ownsRejectionMonitor = options.getRejectionMonitor() == null;
+        this.rejectionMonitor = ownsRejectionMonitor ? new RejectionMonitor() : options.getRejectionMonitor();
+        this.metrics = options.getMetrics();
+        this.quoteExpiry = options.getQuoteExpiry();
+        this.expiryWheel = quoteExpiry == null ? null : quoteExpiry.createWheel(INSTRUMENTS.length * MARKET_COUNT);
+        this.expiryDeadlines = quoteExpiry == null ? null : new long[INSTRUMENTS.length * MARKET_COUNT];
+        for (Instrument instrument : INSTRUMENTS) {
+            if (options.isPull(instrument)) {
+                pulledVwaps[instrument.ordinal()] = new PulledVwap(instrument);
+            }
+            topOfBook[instrument.ordinal()] = options.isTopOfBook(instrument);
+        }
+    }
+
+    @Override
+    public TwoWayPrice applyMarketUpdate(final MarketUpdate twoWayMarketPrice) {
+        if (metrics == null) {
+            return apply(twoWayMarketPrice);
+        }
+        long start = metrics.start(Operation.UPDATE);
+        TwoWayPrice vwap = apply(twoWayMarketPrice);
+        metrics.end(Operation.UPDATE, start);
+        return vwap;
+    }
+
+    private TwoWayPrice apply(final MarketUpdate twoWayMarketPrice) {
+        RejectReason rejectReason = validate(twoWayMarketPrice);
+        if (rejectReason != null){
+            // Counted per market and reason, and sampled to a background logger, so a burst of bad ticks
+            // never allocates or blocks on console I/O here.
+            rejectionMonitor.onRejected(rejectReason, twoWayMarketPrice);
+            return null;
+        }
+        if (journal != null) {
+            // written ahead of the calculation, so that every update which changed the state is in the journal
+            journal.appendUpdate(twoWayMarketPrice);
+        }
+        Instrument instrument = twoWayMarketPrice.getTwoWayPrice().getInstrument();
+        if (expiryWheel != null) {
+            moveClock(twoWayMarketPrice.getTimestamp());
+            scheduleExpiry(instrument.ordinal(), twoWayMarketPrice.getMarket(), twoWayMarketPrice.getTimestamp());
+        }
+        SingleInstrumentVwapCalculator calculator = singleInstrumentCalculator(instrument);
+        calculator.accumulate(twoWayMarketPrice.getMarket().ordinal(), twoWayMarketPrice.getTwoWayPrice());
+        if (metrics != null) {
+            metrics.recordUpdate(instrument.ordinal(), twoWayMarketPrice.getMarket().ordinal());
+        }
+        TwoWayPrice vwap = publish(instrument.ordinal(), calculator);
+        quotingInstruments.add(twoWayMarketPrice.getMarket().ordinal(), instrument.ordinal());
+        if (isCheckpointDue()) {
+            // skipped if the previous checkpoint is still being written, it will be taken on a later update
+            saveState(false);
+        }
+        return vwap;
+    }
+
+    /**
+     * Apply a packet of market updates, with the same resulting VWAPs (up to floating point rounding) as calling
+     * applyMarketUpdate() for each of them in order.
+     *
+     * Only the last valid update of each (instrument, market) pair in the batch is folded into the running sums,
+     * and the VWAP of each touched instrument is calculated and delivered once, in the order of the instrument's last update.
+     * @param batch the market updates, in arrival order
+     * @param length number of updates to apply from the start of the batch
+     * @param sink receives one VWAP per instrument touched by the batch, on the calling thread
+     */
+    public void applyMarketUpdates(final MarketUpdate[] batch, final int length, final VwapSink sink) {
+        if (metrics == null) {
+            apply(batch, length, sink);
+            return;
+        }
+        long start = metrics.start(Operation.BATCH);
+        apply(batch, length, sink);
+        metrics.end(Operation.BATCH, start);
+    }
+
+    private void apply(final MarketUpdate[] batch, final int length, final VwapSink sink) {
+        int stamp = nextBatchStamp();
+        int touchedCount = 0;
+        long latestTimestamp = clock;
+        // walk backwards so that the first valid update seen for a pair is the one which takes effect
+        for (int i=length-1;i>=0;i--) {
+            MarketUpdate marketUpdate = batch[i];
+            RejectReason rejectReason = validate(marketUpdate);
+            if (rejectReason != null) {
+                rejectionMonitor.onRejected(rejectReason, marketUpdate);
+                continue;
+            }
+            int instrument = marketUpdate.getTwoWayPrice().getInstrument().ordinal();
+            int market = marketUpdate.getMarket().ordinal();
+            int pair = instrument * MARKET_COUNT + market;
+            if (metrics != null) {
+                metrics.recordUpdate(instrument, market);
+            }
+            if (pairStamps[pair] == stamp) {
+                // superseded by a later update of the same market
+                continue;
+            }
+            pairStamps[pair] = stamp;
+            if (journal != null) {
+                journal.appendBatchUpdate(marketUpdate);
+            }
+            if (instrumentStamps[instrument] != stamp) {
+                instrumentStamps[instrument] = stamp;
+                touchedInstruments[touchedCount++] = instrument;
+            }
+            singleInstrumentCalculator(INSTRUMENTS[instrument]).accumulate(market, marketUpdate.getTwoWayPrice());
+            quotingInstruments.add(market, instrument);
+            if (expiryWheel != null) {
+                scheduleExpiry(instrument, marketUpdate.getMarket(), marketUpdate.getTimestamp());
+                latestTimestamp = Math.max(latestTimestamp, marketUpdate.getTimestamp());
+            }
+        }
+        if (journal != null) {
+            journal.appendBatchEnd();
+        }
+        // quotes of the batch older than their time to live expire here too
+        moveClock(latestTimestamp);
+        deferSynthetics = true;
+        for (int i=touchedCount-1;i>=0;i--) {
+            sink.onVwap(publish(touchedInstruments[i], singleInstrumentCalculators[touchedInstruments[i]]));
+        }
+        deferSynthetics = false;
+        syntheticGraph.publishDirty();
+        if (isCheckpointDue()) {
+            saveState(false);
+        }
+    }
+
+    /**
+     * @return null if the update is valid, see {@link RejectionMonitor#validate(MarketUpdate)}, and in fixed-point
+     * accumulation mode fits the decimals of its instrument, the reason to reject it otherwise
+     */
+    private RejectReason validate(MarketUpdate marketUpdate) {
+        RejectReason rejectReason = RejectionMonitor.validate(marketUpdate);
+        if (rejectReason == null && fixedPointScales != null) {
+            rejectReason = fixedPointScales.validate(marketUpdate.getTwoWayPrice(), minViewWeight, maxViewWeight);
+        }
+        return rejectReason;
+    }
+
+    /**
+     * Move the update clock forward without an update, for example from a timer while the feed is silent.
+     * The quotes whose time to live has passed are taken out of their instrument's VWAP, which is published to the
+     * subscribers. Must be called on the thread applying the market updates. A timestamp older than the clock is ignored.
+     * @param timestamp nanoseconds on the clock of the update timestamps
+     */
+    public void advanceClock(final long timestamp) {
+        if (metrics == null) {
+            advance(timestamp);
+            return;
+        }
+        long start = metrics.start(Operation.ADVANCE_CLOCK);
+        advance(timestamp);
+        metrics.end(Operation.ADVANCE_CLOCK, start);
+    }
+
+    private void advance(long timestamp) {
+        if (journal != null && timestamp > clock) {
+            journal.appendClock(timestamp);
+        }
+        moveClock(timestamp);
+    }
+
+    private void moveClock(long timestamp) {
+        if (timestamp > clock) {
+            clock = timestamp;
+            if (expiryWheel != null) {
+                expiryWheel.advance(timestamp, expiryHandler);
+            }
+        }
+    }
+
+    private void scheduleExpiry(int instrument, Market market, long timestamp) {
+        int pair = instrument * MARKET_COUNT + market.ordinal();
+        long ttl = quoteExpiry.getTtl(market);
+        if (ttl == QuoteExpiry.NEVER) {
+            return;
+        }
+        // an update without a timestamp is as old as the clock
+        long quoteTime = Math.max(clock, timestamp);
+        scheduleExpiry(pair, quoteTime + Math.min(ttl, Long.MAX_VALUE - quoteTime));
+    }
+
+    private void scheduleExpiry(int pair, long deadline) {
+        expiryDeadlines[pair] = deadline;
+        expiryWheel.schedule(pair, deadline);
+    }
+
+    private void expireQuote(int pair) {
+        if (metrics != null) {
+            metrics.recordExpiry();
+        }
+        // the wheel has already cancelled the pair, so cancelling it again in removeQuote() does not touch the wheel
+        removeQuote(pair / MARKET_COUNT, pair % MARKET_COUNT);
+    }
+
+    /**
+     * Take the market's quote out of the instrument's VWAP, as if the market never quoted it, for example when the
+     * market cancels its quote. The new VWAP is published to the subscribers, an instrument without any quote left has an
+     * empty firm VWAP with zero prices and amounts. Must be called on the thread applying the market updates.
+     * @return the new VWAP of the instrument, or null if the market has no quote for it
+     */
+    public TwoWayPrice withdrawQuote(final Instrument instrument, final Market market) {
+        if (metrics == null) {
+            return withdraw(instrument, market);
+        }
+        long start = metrics.start(Operation.WITHDRAW_QUOTE);
+        TwoWayPrice vwap = withdraw(instrument, market);
+        metrics.end(Operation.WITHDRAW_QUOTE, start);
+        return vwap;
+    }
+
+    private TwoWayPrice withdraw(Instrument instrument, Market market) {
+        if (journal != null) {
+            journal.appendWithdrawQuote(instrument, market);
+        }
+        return removeQuote(instrument.ordinal(), market.ordinal());
+    }
+
+    /**
+     * Take the market's quotes out of the VWAP of every instrument it quotes, for example when the session to the market
+     * drops. Only the instruments quoted by the market are visited. Their new VWAPs are published to the subscribers.
+     * Must be called on the thread applying the market updates.
+     * @return the number of instruments the market was quoting
+     */
+    public int withdrawMarket(final Market market) {
+        if (metrics == null) {
+            return withdraw(market);
+        }
+        long start = metrics.start(Operation.WITHDRAW_MARKET);
+        int count = withdraw(market);
+        metrics.end(Operation.WITHDRAW_MARKET, start);
+        return count;
+    }
+
+    private int withdraw(Market market) {
+        if (journal != null) {
+            journal.appendWithdrawMarket(market);
+        }
+        int marketOrdinal = market.ordinal();
+        int count = quotingInstruments.size(marketOrdinal);
+        deferSynthetics = true;
+        for (int i=count-1;i>=0;i--) {
+            removeQuote(quotingInstruments.get(marketOrdinal, i), marketOrdinal);
+        }
+        deferSynthetics = false;
+        syntheticGraph.publishDirty();
+        return count;
+    }
+
+    private TwoWayPrice removeQuote(int instrument, int market) {
+        if (!quotingInstruments.remove(market, instrument)) {
+            return null;
+        }
+        if (expiryWheel != null) {
+            expiryWheel.cancel(instrument * MARKET_COUNT + market);
+        }
+        SingleInstrumentVwapCalculator calculator = singleInstrumentCalculators[instrument];
+        calculator.remove(market);
+        return publish(instrument, calculator);
+    }
+
+    /**
+     * Calculate the VWAP of an instrument whose running sums changed and publish it, or in pull mode only flag it as stale.
+     * @return the VWAP, or in pull mode the view which calculates it when read
+     */
+    private TwoWayPrice publish(int instrument, SingleInstrumentVwapCalculator calculator) {
+        PulledVwap pulledVwap = pulledVwaps[instrument];
+        if (pulledVwap != null) {
+            stale[instrument] = true;
+            return pulledVwap;
+        }
+        TwoWayPrice vwap = calculator.publish();
+        publisher.publish(vwap);
+        if (sharedMemoryPublisher != null) {
+            sharedMemoryPublisher.onVwap(vwap);
+        }
+        if (metrics != null) {
+            metrics.recordState(instrument, vwap.getState());
+        }
+        syntheticGraph.legChanged(instrument, vwap);
+        if (!deferSynthetics) {
+            syntheticGraph.publishDirty();
+        }
+        return vwap;
+    }
+
+    /**
+     * Calculate the VWAP of an instrument in pull mode if it is stale, and publish it.
+     */
+    private TwoWayPrice pull(int instrument) {
+        SingleInstrumentVwapCalculator calculator = singleInstrumentCalculators[instrument];
+        if (stale[instrument]) {
+            stale[instrument] = false;
+            TwoWayPrice vwap = calculator.publish();
+            publisher.publish(vwap);
+            if (sharedMemoryPublisher != null) {
+                sharedMemoryPublisher.onVwap(vwap);
+            }
+            if (metrics != null) {
+                metrics.recordState(instrument, vwap.getState());
+            }
+        }
+        return calculator.getResult();
+    }
+
+    /**
+     * Recalculate the running sums of every instrument from its cached quotes, in bulk, and publish the VWAPs, or in pull
+     * mode flag them as stale. With double accumulation, this clears the rounding error the incremental updates build
+     * up over time, fixed-point sums are exact and kept. The sums of the views are recalculated the same way, from the
+     * amounts of the cached quotes weighted by each view.
+     * The sums are calculated with the Vector API when the jdk.incubator.vector module is present, otherwise with a
+     * scalar loop. Nothing is allocated, except on the first call. Must be called on the thread applying the market updates.
+     * @return the largest relative difference between an instrument's VWAP prices or amounts before and after the
+     * recalculation, which cross-checks the incremental calculation
+     */
+    public double recalculate() {
+        if (metrics == null) {
+            return recalculateAll();
+        }
+        long start = metrics.start(Operation.RECALCULATE);
+        double difference = recalculateAll();
+        metrics.end(Operation.RECALCULATE, start);
+        return difference;
+    }
+
+    private double recalculateAll() {
+        if (bulkRecalculator == null) {
+            bulkRecalculator = new BulkRecalculator(INSTRUMENTS.length, MARKET_COUNT, BulkRecalculator.defaultKernel());
+        }
+        SingleInstrumentVwapCalculator[] calculators = singleInstrumentCalculators;
+        BulkRecalculator recalculator = bulkRecalculator;
+        recalculator.recalculate(calculators);
+        for (int view=0;view<views.length;view++) {
+            recalculator.recalculateView(calculators, view);
+            for (int instrument=0;instrument<calculators.length;instrument++) {
+                SingleInstrumentVwapCalculator calculator = calculators[instrument];
+                if (calculator != null) {
+                    calculator.correctView(view,
+                            recalculator.getViewSum(instrument, BulkRecalculator.BID_NOTIONAL),
+                            recalculator.getViewSum(instrument, BulkRecalculator.BID_AMOUNT),
+                            recalculator.getViewSum(instrument, BulkRecalculator.OFFER_NOTIONAL),
+                            recalculator.getViewSum(instrument, BulkRecalculator.OFFER_AMOUNT));
+                }
+            }
+        }
+        double difference = 0.0d;
+        deferSynthetics = true;
+        for (int instrument=0;instrument<calculators.length;instrument++) {
+            SingleInstrumentVwapCalculator calculator = calculators[instrument];
+            if (calculator != null) {
+                difference = Math.max(difference, calculator.correct(
+                        recalculator.getSum(instrument, BulkRecalculator.BID_NOTIONAL),
+                        recalculator.getSum(instrument, BulkRecalculator.BID_AMOUNT),
+                        recalculator.getSum(instrument, BulkRecalculator.OFFER_NOTIONAL),
+                        recalculator.getSum(instrument, BulkRecalculator.OFFER_AMOUNT)));
+                publish(instrument, calculator);
+            }
+        }
+        deferSynthetics = false;
+        syntheticGraph.publishDirty();
+        return difference;
+    }
+
+    /**
+     * Copy the state of every instrument to the {@link StateSnapshotter}, which writes it to its file in the background.
+     * Waits for the previous checkpoint to be written, if needed. Must be called on the thread applying the market updates,
+     * for example on shutdown.
+     * @throws IllegalStateException if the calculator has no snapshotter
+     */
+    public void checkpoint() {
+        if (snapshotter == null) {
+            throw new IllegalStateException("No snapshotter");
+        }
+        saveState(true);
+    }
+
+    /**
+     * @return whether a periodic checkpoint is due, never while the journal is replayed, as the snapshot would then hold
+     * the replayed state with the position of the end of the journal
+     */
+    private boolean isCheckpointDue() {
+        return snapshotter != null && snapshotter.isDue() && (journal == null || !journal.isReplaying());
+    }
+
+    private void saveState(boolean wait) {
+        ByteBuffer body = snapshotter.acquireStaging(wait);
+        if (body == null) {
+            return;
+        }
+        body.putLong(CLOCK_OFFSET, clock);
+        body.put(FIXED_POINT_OFFSET, (byte) (fixedPointScales == null ? 0 : 1));
+        body.putLong(JOURNAL_POSITION_OFFSET, journal == null ? 0L : journal.getPosition());
+        for (int instrument=0;instrument<INSTRUMENTS.length;instrument++) {
+            int offset = INSTRUMENTS_OFFSET + instrument * INSTRUMENT_RECORD_LENGTH;
+            SingleInstrumentVwapCalculator calculator = singleInstrumentCalculators[instrument];
+            body.put(offset + QUOTED_OFFSET, (byte) (calculator == null ? 0 : 1));
+            if (calculator != null) {
+                if (fixedPointScales != null) {
+                    body.put(offset + PRICE_DECIMALS_OFFSET, (byte) fixedPointScales.getPriceDecimals(INSTRUMENTS[instrument]));
+                    body.put(offset + AMOUNT_DECIMALS_OFFSET, (byte) fixedPointScales.getAmountDecimals(INSTRUMENTS[instrument]));
+                }
+                calculator.save(body, offset, MARKET_COUNT);
+                for (int market=0;market<MARKET_COUNT;market++) {
+                    int pair = instrument * MARKET_COUNT + market;
+                    body.putLong(offset + QUOTES_OFFSET + market * QUOTE_LENGTH + DEADLINE_OFFSET,
+                            expiryWheel != null && expiryWheel.isScheduled(pair) ? expiryDeadlines[pair] : NO_DEADLINE);
+                }
+            }
+        }
+        snapshotter.submit();
+    }
+
+    /**
+     * Load a snapshot body, see {@link StateSnapshotter#restore(DefaultVwapCalculator)}.
+     * @return the position of the next journal record when the snapshot was taken
+     */
+    long restoreState(final ByteBuffer body) {
+        for (SingleInstrumentVwapCalculator calculator : singleInstrumentCalculators) {
+            if (calculator != null) {
+                throw new IllegalStateException("A snapshot can only be restored before the first update");
+            }
+        }
+        boolean fixedPoint = body.get(FIXED_POINT_OFFSET) != 0;
+        if (fixedPoint != (fixedPointScales != null)) {
+            throw new IllegalStateException("Snapshot is in " + (fixedPoint ? "fixed-point" : "double") + " accumulation mode");
+        }
+        for (int instrument=0;instrument<INSTRUMENTS.length;instrument++) {
+            int offset = INSTRUMENTS_OFFSET + instrument * INSTRUMENT_RECORD_LENGTH;
+            if (fixedPoint && body.get(offset + QUOTED_OFFSET) != 0
+                    && (body.get(offset + PRICE_DECIMALS_OFFSET) != fixedPointScales.getPriceDecimals(INSTRUMENTS[instrument])
+                    || body.get(offset + AMOUNT_DECIMALS_OFFSET) != fixedPointScales.getAmountDecimals(INSTRUMENTS[instrument]))) {
+                throw new IllegalStateException("Snapshot decimals of " + INSTRUMENTS[instrument] + " are "
+                        + body.get(offset + PRICE_DECIMALS_OFFSET) + ", " + body.get(offset + AMOUNT_DECIMALS_OFFSET));
+            }
+        }
+        clock = body.getLong(CLOCK_OFFSET);
+        if (expiryWheel != null) {
+            // nothing is scheduled yet, this only moves the wheel to the clock
+            expiryWheel.advance(clock, expiryHandler);
+        }
+        for (int instrument=0;instrument<INSTRUMENTS.length;instrument++) {
+            int offset = INSTRUMENTS_OFFSET + instrument * INSTRUMENT_RECORD_LENGTH;
+            if (body.get(offset + QUOTED_OFFSET) == 0) {
+                continue;
+            }
+            SingleInstrumentVwapCalculator calculator = singleInstrumentCalculator(INSTRUMENTS[instrument]);
+            calculator.restore(body, offset, MARKET_COUNT);
+            if (pulledVwaps[instrument] == null) {
+                // the synthetics were added before the restore, they are priced from the restored VWAPs of their legs
+                syntheticGraph.legChanged(instrument, calculator.getResult());
+            }
+            for (int market=0;market<MARKET_COUNT;market++) {
+                if (calculator.hasQuote(market)) {
+                    quotingInstruments.add(market, instrument);
+                    long deadline = body.getLong(offset + QUOTES_OFFSET + market * QUOTE_LENGTH + DEADLINE_OFFSET);
+                    if (expiryWheel != null && deadline != NO_DEADLINE) {
+                        scheduleExpiry(instrument * MARKET_COUNT + market, deadline);
+                    } else if (expiryWheel != null) {
+                        // taken without expiry, the quotes live for their time to live from the snapshot, if they expire at all
+                        scheduleExpiry(instrument, MARKETS[market], clock);
+                    }
+                }
+            }
+        }
+        syntheticGraph.publishDirty();
+        return body.getLong(JOURNAL_POSITION_OFFSET);
+    }
+
+    /**
+     * Rebuild the state the calculator had before a crash or a shutdown: load the latest snapshot of the
+     * {@link StateSnapshotter}, if any, then replay the {@link UpdateJournal} records appended after it.
+     * Must be called before the first update, on the thread which is going to apply the updates. The replayed VWAPs are
+     * published to the subscribers as they are calculated, and the state is then bit identical to the one before the crash,
+     * except that with double accumulation, quotes of an instrument expiring on the same tick after the snapshot may be
+     * taken out in a different order, and so with a different rounding.
+     * @return the number of journal records replayed
+     * @throws IllegalStateException if the calculator has no journal or has applied updates, if the snapshot's
+     * accumulation mode or decimals differ, or if the journal does not go back to the snapshot
+     */
+    public long recover() throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("No journal");
+        }
+        long position = 0L;
+        ByteBuffer body = snapshotter == null ? null : snapshotter.latestSnapshot();
+        if (body != null) {
+            position = restoreState(body);
+        }
+        return journal.replay(position, this);
+    }
+
+    /**
+     * Subscribe to the VWAP of an instrument, to be polled by the subscriber. Can be called from any thread.
+     * The subscription starts with the current VWAP of the instrument, if there is one.
+     */
+    public VwapSubscription subscribe(final Instrument instrument) {
+        return publisher.subscribe(new VwapSubscription(instrument, publisher, currentVwap(instrument)));
+    }
+
+    /**
+     * Subscribe to the VWAP of an instrument, pushed to the sink by a dedicated dispatcher thread until the subscription
+     * is closed. A slow sink only misses intermediate values, it never delays the calculation. Can be called from any thread.
+     * @param waitStrategy used by the dispatcher thread while there is no new VWAP
+     */
+    public VwapSubscription subscribe(final Instrument instrument, final VwapSink sink, final WaitStrategy waitStrategy) {
+        return publisher.subscribe(new VwapSubscription(instrument, publisher, currentVwap(instrument), sink, waitStrategy));
+    }
+
+    /**
+     * Write the VWAP of every instrument into shared memory as it is calculated, for the other processes of the host to
+     * read with a {@link SharedMemoryVwapReader}. The current VWAPs are written right away. The VWAPs of the instruments
+     * in pull mode are only written when they are read, and the views are not written.
+     * Must be called on the thread applying the market updates.
+     * @param sharedMemoryPublisher the publisher to write to, or null to stop writing
+     */
+    public void publishToSharedMemory(final SharedMemoryVwapPublisher sharedMemoryPublisher) {
+        this.sharedMemoryPublisher = sharedMemoryPublisher;
+        if (sharedMemoryPublisher != null) {
+            for (int instrument=0;instrument<INSTRUMENTS.length;instrument++) {
+                SingleInstrumentVwapCalculator calculator = singleInstrumentCalculators[instrument];
+                if (calculator != null && !stale[instrument]) {
+                    sharedMemoryPublisher.onVwap(calculator.getResult());
+                }
+            }
+        }
+    }
+
+    private SeqlockTwoWayPrice currentVwap(Instrument instrument) {
+        SingleInstrumentVwapCalculator calculator = singleInstrumentCalculators[instrument.ordinal()];
+        return calculator == null ? null : calculator.getPublishedResult();
+    }
+
+    private SingleInstrumentVwapCalculator singleInstrumentCalculator(Instrument instrument) {
+        SingleInstrumentVwapCalculator calculator = singleInstrumentCalculators[instrument.ordinal()];
+        if (calculator == null) {
+            calculator = new SingleInstrumentVwapCalculator(instrument, quoteStorage, createAccumulator(instrument),
+                    topOfBook[instrument.ordinal()]);
+            for (int i=0;i<views.length;i++) {
+                calculator.addView(views[i], viewWeights[i], createAccumulator(instrument));
+            }
+            singleInstrumentCalculators[instrument.ordinal()] = calculator;
+        }
+        return calculator;
+    }
+
+    private VwapAccumulator createAccumulator(Instrument instrument) {
+        return fixedPointScales == null ? new DoubleVwapAccumulator() : fixedPointScales.createAccumulator(instrument);
+    }
+
+    /**
+     * Calculate a variant of the VWAP of every instrument along with the VWAP, over the same cached quotes and in the same
+     * pass over each update. The view's VWAP of an instrument is calculated and published with the instrument's VWAP,
+     * see {@link #getVwap(VwapView, Instrument, MutableTwoWayPrice)}, it is not delivered to the subscriptions.
+     * Once updates have been applied, the view's sums are built from the cached quotes and every VWAP is recalculated
+     * and published, see {@link #recalculate()}. Must be called on the thread applying the market updates.
+     * @throws IllegalArgumentException if the view was already added, or in fixed-point accumulation mode its weights
+     * round an amount of the cached quotes to zero or leave no room in the sums for them, see {@link FixedPointScales}
+     */
+    public void addView(final VwapView view) {
+        for (VwapView added : views) {
+            if (added == view) {
+                throw new IllegalArgumentException("View already added: " + view);
+            }
+        }
+        State[] states = State.values();
+        double[][] weights = new double[states.length][];
+        for (State state : states) {
+            weights[state.ordinal()] = view.weights(state);
+        }
+        double minWeight = Math.min(minViewWeight, minViewWeight(new double[][][]{weights}));
+        double maxWeight = Math.max(maxViewWeight, maxViewWeight(new double[][][]{weights}));
+        if (fixedPointScales != null) {
+            for (SingleInstrumentVwapCalculator calculator : singleInstrumentCalculators) {
+                if (calculator != null && calculator.validateQuotes(fixedPointScales, minWeight, maxWeight) != null) {
+                    throw new IllegalArgumentException("Weights too small or too large for the cached quotes of "
+                            + calculator.getResult().getInstrument() + ": " + view);
+                }
+            }
+        }
+        views = Arrays.copyOf(views, views.length + 1);
+        views[views.length - 1] = view;
+        viewWeights = Arrays.copyOf(viewWeights, viewWeights.length + 1);
+        viewWeights[viewWeights.length - 1] = weights;
+        minViewWeight = minWeight;
+        maxViewWeight = maxWeight;
+        boolean live = false;
+        for (SingleInstrumentVwapCalculator calculator : singleInstrumentCalculators) {
+            if (calculator != null) {
+                calculator.addView(view, weights, createAccumulator(calculator.getResult().getInstrument()));
+                live = true;
+            }
+        }
+        if (live) {
+            recalculate();
+        }
+    }
+
+    /**
+     * Stop calculating a view, its VWAPs can no longer be read. The other views and the VWAPs are not recalculated.
+     * Must be called on the thread applying the market updates.
+     * @throws IllegalArgumentException if the view was not added to this calculator
+     */
+    public void removeView(final VwapView view) {
+        int index = indexOf(view);
+        VwapView[] remainingViews = Arrays.copyOf(views, views.length - 1);
+        System.arraycopy(views, index + 1, remainingViews, index, views.length - index - 1);
+        double[][][] remainingWeights = Arrays.copyOf(viewWeights, viewWeights.length - 1);
+        System.arraycopy(viewWeights, index + 1, remainingWeights, index, viewWeights.length - index - 1);
+        for (SingleInstrumentVwapCalculator calculator : singleInstrumentCalculators) {
+            if (calculator != null) {
+                calculator.removeView(view);
+            }
+        }
+        viewWeights = remainingWeights;
+        minViewWeight = minViewWeight(remainingWeights);
+        maxViewWeight = maxViewWeight(remainingWeights);
+        views = remainingViews;
+    }
+
+    /**
+     * Copy the last VWAP of the instrument in the view, see {@link #getVwap(Instrument, MutableTwoWayPrice)}.
+     * An instrument with no quote counted by the view has an empty firm VWAP with zero prices and amounts.
+     * @param view a view added to this calculator
+     * @return false if no valid MarketUpdate has been applied to the instrument yet, or the view is being added or removed
+     * on the calculation thread, in which case into is untouched
+     * @throws IllegalArgumentException if the view was not added to this calculator
+     */
+    public boolean getVwap(final VwapView view, final Instrument instrument, final MutableTwoWayPrice into) {
+        indexOf(view);
+        SingleInstrumentVwapCalculator calculator = singleInstrumentCalculators[instrument.ordinal()];
+        return calculator != null && calculator.readViewVwap(view, into);
+    }
+
+    /**
+     * Price an instrument as a linear combination of the VWAPs of its legs, see {@link SyntheticInstrument}. The synthetic
+     * is recalculated when the VWAP of one of its legs is calculated, once per update or batch of updates however many
+     * of its legs changed, and only the synthetics having a changed leg are recalculated. Nothing is allocated, however
+     * many synthetics share the same legs. Must be called before the first update.
+     * @throws IllegalStateException if an update has been applied or a snapshot restored
+     * @throws IllegalArgumentException if the synthetic has no leg, was already added, or has a leg in pull mode
+     */
+    public void addSynthetic(final SyntheticInstrument synthetic) {
+        for (SingleInstrumentVwapCalculator calculator : singleInstrumentCalculators) {
+            if (calculator != null) {
+                throw new IllegalStateException("Synthetics can only be added before the first update");
+            }
+        }
+        for (int i=0;i<synthetic.getLegCount();i++) {
+            if (pulledVwaps[synthetic.getLeg(i).ordinal()] != null) {
+                throw new IllegalArgumentException("Leg in pull mode: " + synthetic.getLeg(i));
+            }
+        }
+        syntheticGraph.add(synthetic);
+    }
+
+    /**
+     * Copy the last price of a synthetic instrument, whose instrument is null. Can be called from any thread.
+     * @param synthetic a synthetic added to this calculator
+     * @return false if a leg of the synthetic has no VWAP yet, in which case into is untouched
+     * @throws IllegalArgumentException if the synthetic was not added to this calculator
+     */
+    public boolean getVwap(final SyntheticInstrument synthetic, final MutableTwoWayPrice into) {
+        return syntheticGraph.read(synthetic, into);
+    }
+
+    private static double minViewWeight(double[][][] viewWeights) {
+        double minWeight = 1.0d;
+        for (double[][] weights : viewWeights) {
+            for (double[] stateWeights : weights) {
+                for (double weight : stateWeights) {
+                    if (weight > 0.0d) {
+                        minWeight = Math.min(minWeight, weight);
+                    }
+                }
+            }
+        }
+        return minWeight;
+    }
+
+    private static double maxViewWeight(double[][][] viewWeights) {
+        double maxWeight = 1.0d;
+        for (double[][] weights : viewWeights) {
+            for (double[] stateWeights : weights) {
+                for (double weight : stateWeights) {
+                    maxWeight = Math.max(maxWeight, weight);
+                }
+            }
+        }
+        return maxWeight;
+    }
+
+    private int indexOf(VwapView view) {
+        VwapView[] views = this.views;
+        for (int i=0;i<views.length;i++) {
+            if (views[i] == view) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown view: " + view);
+    }
+
+    private int nextBatchStamp() {
+        if (++batchStamp == Integer.MAX_VALUE) {
+            // stamps wrapped around, forget them all so that a stale stamp can not match
+            Arrays.fill(pairStamps, 0);
+            Arrays.fill(instrumentStamps, 0);
+            batchStamp = 1;
+        }
+        return batchStamp;
+    }
+
+    /**
+     * Current VWAP of the instrument, calculated first if the instrument is in pull mode and an update changed it since
+     * it was last read, in which case it is also published to the other threads and the subscribers.
+     * Must be called on the thread applying the market updates, the returned price is reused for the next VWAP.
+     * @return the VWAP, or null if no valid MarketUpdate has been applied to the instrument yet
+     */
+    public TwoWayPrice getVwap(final Instrument instrument) {
+        return singleInstrumentCalculators[instrument.ordinal()] == null ? null : pull(instrument.ordinal());
+    }
+
+    /**
+     * Current VWAP of the instrument along with its best bid and offer, calculated first like {@link #getVwap(Instrument)}.
+     * Must be called on the thread applying the market updates, the returned price is reused for the next VWAP.
+     * @return the VWAP, or null if no valid MarketUpdate has been applied to the instrument yet
+     * @throws IllegalArgumentException if the best bid and offer of the instrument are not tracked,
+     * see {@link CalculatorOptions#addTopOfBookInstruments(java.util.Set)}
+     */
+    public TopOfBookPrice getTopOfBook(final Instrument instrument) {
+        if (!topOfBook[instrument.ordinal()]) {
+            throw new IllegalArgumentException("Best bid and offer not tracked: " + instrument);
+        }
+        if (singleInstrumentCalculators[instrument.ordinal()] == null) {
+            return null;
+        }
+        pull(instrument.ordinal());
+        return singleInstrumentCalculators[instrument.ordinal()].getTopOfBookResult();
+    }
+
+    /**
+     * Copy the last VWAP two-way price of the instrument. Unlike the result of applyMarketUpdate(), this can be called
+     * from any number of threads concurrently with the feed thread, without locking and without allocation.
+     * For an instrument in pull mode, this is the VWAP last read on the feed thread.
+     * @param instrument the instrument to read
+     * @param into receives a consistent copy of the VWAP
+     * @return false if no valid MarketUpdate has been applied to the instrument yet, in which case into is untouched
+     */
+    @Override
+    public boolean getVwap(final Instrument instrument, final MutableTwoWayPrice into) {
+        SingleInstrumentVwapCalculator calculator = singleInstrumentCalculators[instrument.ordinal()];
+        return calculator != null && calculator.readVwap(into);
+    }
+
+    @Override
+    public RejectionMonitor getRejectionMonitor() {
+        return rejectionMonitor;
+    }
+
+    /**
+     * Stop the background thread of the rejection monitor, if the calculator created it. The snapshotter, the journal
+     * and a rejection monitor given in the {@link CalculatorOptions} belong to the caller and are left open.
+     */
+    @Override
+    public void close() {
+        if (ownsRejectionMonitor) {
+            rejectionMonitor.close();
+        }
+    }
+
+    /**
+     * @return the metrics, or null if instrumentation is disabled
+     */
+    public CalculatorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Validate the MarketUpdate. Consider price and amount shall always be positive. One-sided market is not valid.
+     * See {@link RejectionMonitor#validate(MarketUpdate)} for the reason of an invalid update.
+     */
+    static boolean isValidMarketUpdate(MarketUpdate twoWayMarketPrice) {
+        return RejectionMonitor.validate(twoWayMarketPrice) == null;
+    }
+
+    /**
+     * VWAP of an instrument in pull mode, returned on the feed thread instead of the calculated price.
+     * Reading a price calculates the VWAP if it is stale, the state never needs the calculation.
+     */
+    private final class PulledVwap implements TwoWayPrice {
+
+        private final Instrument instrument;
+
+        PulledVwap(Instrument instrument) {
+            this.instrument = instrument;
+        }
+
+        @Override
+        public Instrument getInstrument() {
+            return instrument;
+        }
+
+        @Override
+        public State getState() {
+            return singleInstrumentCalculators[instrument.ordinal()].getState();
+        }
+
+        @Override
+        public double getBidPrice() {
+            return pull(instrument.ordinal()).getBidPrice();
+        }
+
+        @Override
+        public double getOfferPrice() {
+            return pull(instrument.ordinal()).getOfferPrice();
+        }
+
+        @Override
+        public double getBidAmount() {
+            return pull(instrument.ordinal()).getBidAmount();
+        }
+
+        @Override
+        public double getOfferAmount() {
+            return pull(instrument.ordinal()).getOfferAmount();
+        }
+    }
+}
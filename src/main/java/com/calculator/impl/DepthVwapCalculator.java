@@ -0,0 +1,201 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.Market;
+import com.calculator.MarketDepth;
+import com.calculator.Side;
+
+/**
+ * Price to fill a size across the depth of all the markets.
+ *
+ * For each instrument and side, the levels of every market's last {@link MarketDepth} are aggregated by price in an
+ * {@link AggregatedPriceLevels}. A new depth of a market only replaces that market's levels in the aggregate, and a
+ * "VWAP to buy/sell N" query walks the aggregate from the best price and stops at the last level it needs,
+ * instead of merging and sorting the markets' books on each query.
+ *
+ * Nothing is allocated after the first depth of an instrument. Not thread safe, depths must be applied and queried
+ * from the same thread.
+ */
+public class DepthVwapCalculator implements AutoCloseable {
+
+    private static final Instrument[] INSTRUMENTS = Instrument.values();
+    private static final int MARKET_COUNT = Market.values().length;
+    private static final Side[] SIDES = Side.values();
+
+    private final int maxLevels;
+    private final RejectionMonitor rejectionMonitor;
+    // whether the monitor was created by this calculator, and so is closed with it
+    private final boolean ownsRejectionMonitor;
+    // created on the first depth of each instrument
+    private final InstrumentDepth[] instrumentDepths = new InstrumentDepth[INSTRUMENTS.length];
+
+    /**
+     * @param maxLevels the maximum number of levels of each side of a market's depth
+     */
+    public DepthVwapCalculator(int maxLevels) {
+        this(maxLevels, new RejectionMonitor(), true);
+    }
+
+    /**
+     * @param maxLevels the maximum number of levels of each side of a market's depth
+     * @param rejectionMonitor counts and samples the invalid depths, it is not closed with the calculator
+     */
+    public DepthVwapCalculator(int maxLevels, RejectionMonitor rejectionMonitor) {
+        this(maxLevels, rejectionMonitor, false);
+    }
+
+    private DepthVwapCalculator(int maxLevels, RejectionMonitor rejectionMonitor, boolean ownsRejectionMonitor) {
+        if (maxLevels <= 0) {
+            throw new IllegalArgumentException("Max levels must be positive: " + maxLevels);
+        }
+        this.maxLevels = maxLevels;
+        this.rejectionMonitor = rejectionMonitor;
+        this.ownsRejectionMonitor = ownsRejectionMonitor;
+    }
+
+    /**
+     * Replace the market's book of the instrument with the depth. A depth without any level withdraws the market.
+     * @return false if the depth is not valid, in which case the market's previous book is kept
+     */
+    public boolean applyMarketDepth(final MarketDepth depth) {
+        RejectReason rejectReason = RejectionMonitor.validateDepth(depth, maxLevels);
+        if (rejectReason != null) {
+            rejectionMonitor.onRejected(rejectReason, depth);
+            return false;
+        }
+        int instrument = depth.getInstrument().ordinal();
+        InstrumentDepth instrumentDepth = instrumentDepths[instrument];
+        if (instrumentDepth == null) {
+            instrumentDepth = new InstrumentDepth(maxLevels);
+            instrumentDepths[instrument] = instrumentDepth;
+        }
+        instrumentDepth.replace(depth.getMarket().ordinal(), depth);
+        return true;
+    }
+
+    /**
+     * @return the average price of buying the amount from the best offers of all the markets,
+     * or NaN if they do not offer the amount
+     */
+    public double getVwapToBuy(final Instrument instrument, final double amount) {
+        return getVwapToFill(instrument, Side.OFFER, amount);
+    }
+
+    /**
+     * @return the average price of selling the amount to the best bids of all the markets,
+     * or NaN if they do not bid the amount
+     */
+    public double getVwapToSell(final Instrument instrument, final double amount) {
+        return getVwapToFill(instrument, Side.BID, amount);
+    }
+
+    /**
+     * @param side the side of the book which fills the amount
+     * @param amount a positive amount
+     * @return the average price of filling the amount from the best levels of the side, or NaN if the side does not have the amount
+     */
+    public double getVwapToFill(final Instrument instrument, final Side side, final double amount) {
+        if (!(amount > 0.0d)) {
+            throw new IllegalArgumentException("Amount must be positive: " + amount);
+        }
+        InstrumentDepth instrumentDepth = instrumentDepths[instrument.ordinal()];
+        return instrumentDepth == null ? Double.NaN : instrumentDepth.levels(side).vwapToFill(amount);
+    }
+
+    /**
+     * @return the total amount of the side over all the markets
+     */
+    public double getTotalAmount(final Instrument instrument, final Side side) {
+        InstrumentDepth instrumentDepth = instrumentDepths[instrument.ordinal()];
+        return instrumentDepth == null ? 0.0d : instrumentDepth.levels(side).getTotalAmount();
+    }
+
+    /**
+     * @return the number of distinct prices of the side over all the markets
+     */
+    public int getLevelCount(final Instrument instrument, final Side side) {
+        InstrumentDepth instrumentDepth = instrumentDepths[instrument.ordinal()];
+        return instrumentDepth == null ? 0 : instrumentDepth.levels(side).size();
+    }
+
+    /**
+     * @param level 0 for the best price, up to {@link #getLevelCount(Instrument, Side)} excluded
+     */
+    public double getLevelPrice(final Instrument instrument, final Side side, final int level) {
+        return checkedLevels(instrument, side, level).getPrice(level);
+    }
+
+    /**
+     * @param level 0 for the best price, up to {@link #getLevelCount(Instrument, Side)} excluded
+     * @return the amount of all the markets at the level's price
+     */
+    public double getLevelAmount(final Instrument instrument, final Side side, final int level) {
+        return checkedLevels(instrument, side, level).getAmount(level);
+    }
+
+    public RejectionMonitor getRejectionMonitor() {
+        return rejectionMonitor;
+    }
+
+    /**
+     * Stop the background thread of the rejection monitor, if the calculator created it.
+     */
+    @Override
+    public void close() {
+        if (ownsRejectionMonitor) {
+            rejectionMonitor.close();
+        }
+    }
+
+    private AggregatedPriceLevels checkedLevels(Instrument instrument, Side side, int level) {
+        int levelCount = getLevelCount(instrument, side);
+        if (level < 0 || level >= levelCount) {
+            throw new IndexOutOfBoundsException("Level " + level + " of " + levelCount + " " + side + " levels");
+        }
+        return instrumentDepths[instrument.ordinal()].levels(side);
+    }
+
+    /**
+     * The aggregated levels of one instrument, and the last depth of each market to take out of them when it is replaced.
+     */
+    private static final class InstrumentDepth {
+
+        private final int maxLevels;
+        private final AggregatedPriceLevels[] levels = {new AggregatedPriceLevels(true), new AggregatedPriceLevels(false)};
+        // last depth of each market, indexed by (side * MARKET_COUNT + market) * maxLevels + level
+        private final double[] marketPrices;
+        private final double[] marketAmounts;
+        // indexed by side * MARKET_COUNT + market
+        private final int[] marketLevelCounts = new int[SIDES.length * MARKET_COUNT];
+
+        InstrumentDepth(int maxLevels) {
+            this.maxLevels = maxLevels;
+            this.marketPrices = new double[SIDES.length * MARKET_COUNT * maxLevels];
+            this.marketAmounts = new double[SIDES.length * MARKET_COUNT * maxLevels];
+        }
+
+        AggregatedPriceLevels levels(Side side) {
+            return levels[side.ordinal()];
+        }
+
+        void replace(int market, MarketDepth depth) {
+            for (Side side : SIDES) {
+                AggregatedPriceLevels sideLevels = levels[side.ordinal()];
+                int book = side.ordinal() * MARKET_COUNT + market;
+                int offset = book * maxLevels;
+                for (int level=0;level<marketLevelCounts[book];level++) {
+                    sideLevels.subtract(marketPrices[offset + level], marketAmounts[offset + level]);
+                }
+                int levelCount = depth.getLevelCount(side);
+                for (int level=0;level<levelCount;level++) {
+                    double price = depth.getPrice(side, level);
+                    double amount = depth.getAmount(side, level);
+                    sideLevels.add(price, amount);
+                    marketPrices[offset + level] = price;
+                    marketAmounts[offset + level] = amount;
+                }
+                marketLevelCounts[book] = levelCount;
+            }
+        }
+    }
+}
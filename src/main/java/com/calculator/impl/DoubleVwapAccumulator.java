@@ -0,0 +1,70 @@
+package com.calculator.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link VwapAccumulator} keeping the sums in double, rounding error accumulates with the number of updates.
+ */
+class DoubleVwapAccumulator implements VwapAccumulator {
+
+    private double bidPriceAmountSum = 0.0d;
+    private double bidAmountSum = 0.0d;
+    private double offerPriceAmountSum = 0.0d;
+    private double offerAmountSum = 0.0d;
+
+    @Override
+    public void add(double bidPrice, double bidAmount, double offerPrice, double offerAmount) {
+        bidAmountSum = bidAmountSum + bidAmount;
+        offerAmountSum = offerAmountSum + offerAmount;
+        bidPriceAmountSum = bidPriceAmountSum + bidPrice * bidAmount;
+        offerPriceAmountSum = offerPriceAmountSum + offerPrice * offerAmount;
+    }
+
+    @Override
+    public void subtract(double bidPrice, double bidAmount, double offerPrice, double offerAmount) {
+        bidAmountSum = bidAmountSum - bidAmount;
+        offerAmountSum = offerAmountSum - offerAmount;
+        bidPriceAmountSum = bidPriceAmountSum - bidPrice * bidAmount;
+        offerPriceAmountSum = offerPriceAmountSum - offerPrice * offerAmount;
+    }
+
+    @Override
+    public void reset() {
+        bidPriceAmountSum = 0.0d;
+        bidAmountSum = 0.0d;
+        offerPriceAmountSum = 0.0d;
+        offerAmountSum = 0.0d;
+    }
+
+    @Override
+    public void correct(double bidNotional, double bidAmount, double offerNotional, double offerAmount) {
+        bidPriceAmountSum = bidNotional;
+        bidAmountSum = bidAmount;
+        offerPriceAmountSum = offerNotional;
+        offerAmountSum = offerAmount;
+    }
+
+    @Override
+    public void writeResult(MutableTwoWayPrice result) {
+        result.setBidPrice(bidPriceAmountSum/bidAmountSum);
+        result.setOfferPrice(offerPriceAmountSum/offerAmountSum);
+        result.setBidAmount(bidAmountSum);
+        result.setOfferAmount(offerAmountSum);
+    }
+
+    @Override
+    public void save(ByteBuffer buffer, int offset) {
+        buffer.putDouble(offset, bidPriceAmountSum);
+        buffer.putDouble(offset + 8, bidAmountSum);
+        buffer.putDouble(offset + 16, offerPriceAmountSum);
+        buffer.putDouble(offset + 24, offerAmountSum);
+    }
+
+    @Override
+    public void restore(ByteBuffer buffer, int offset) {
+        bidPriceAmountSum = buffer.getDouble(offset);
+        bidAmountSum = buffer.getDouble(offset + 8);
+        offerPriceAmountSum = buffer.getDouble(offset + 16);
+        offerAmountSum = buffer.getDouble(offset + 24);
+    }
+}
@@ -0,0 +1,179 @@
+package com.calculator.impl;
+
+import com.calculator.TwoWayPrice;
+
+import java.util.Arrays;
+
+/**
+ * VWAP two-way price calculator over a dynamic universe of instruments and markets, identified by external long ids
+ * instead of the {@link com.calculator.Instrument} and {@link com.calculator.Market} enums.
+ *
+ * External ids are mapped to dense ids through {@link IdRegistry}, and new instruments or markets can appear at any time,
+ * and be removed when they are retired. The state of an instrument is created on its first quote and only holds the
+ * markets which currently quote it, so memory stays proportional to the (instrument, market) pairs actually quoted.
+ * The calculation is the same as {@link DefaultVwapCalculator}, and the process calling applyQuote() must be single threaded.
+ */
+public class DynamicVwapCalculator implements AutoCloseable {
+
+    private final IdRegistry instrumentRegistry;
+    private final IdRegistry marketRegistry;
+    // indexed by dense instrument id, volatile so that readers on other threads see newly created calculators
+    private volatile SingleInstrumentVwapCalculator[] singleInstrumentCalculators;
+    private final QuoteStorage quoteStorage;
+    // whether the best bid and offer of every instrument are tracked
+    private final boolean topOfBook;
+    private final RejectionMonitor rejectionMonitor = new RejectionMonitor();
+
+    /**
+     * Quotes are kept in {@link QuoteStorage#ARRAY} layout, which suits a large universe best.
+     */
+    public DynamicVwapCalculator(int expectedInstruments, int expectedMarkets) {
+        this(expectedInstruments, expectedMarkets, QuoteStorage.ARRAY);
+    }
+
+    /**
+     * @param expectedInstruments number of instruments to size the registry for
+     * @param expectedMarkets number of markets to size the registry for
+     * @param quoteStorage layout of the per-market quote cache of each instrument
+     */
+    public DynamicVwapCalculator(int expectedInstruments, int expectedMarkets, QuoteStorage quoteStorage) {
+        this(expectedInstruments, expectedMarkets, quoteStorage, false);
+    }
+
+    /**
+     * @param expectedInstruments number of instruments to size the registry for
+     * @param expectedMarkets number of markets to size the registry for
+     * @param quoteStorage layout of the per-market quote cache of each instrument
+     * @param topOfBook whether to track the best bid and offer of every instrument, see {@link #getTopOfBook(int)},
+     *                  which roughly halves the update throughput
+     */
+    public DynamicVwapCalculator(int expectedInstruments, int expectedMarkets, QuoteStorage quoteStorage, boolean topOfBook) {
+        this.quoteStorage = quoteStorage;
+        this.topOfBook = topOfBook;
+        this.instrumentRegistry = new IdRegistry(expectedInstruments);
+        this.marketRegistry = new IdRegistry(expectedMarkets);
+        this.singleInstrumentCalculators = new SingleInstrumentVwapCalculator[Math.max(expectedInstruments, 1)];
+    }
+
+    /**
+     * @param instrumentId external id of the instrument
+     * @param marketId external id of the market
+     * @param price the market's two-way price, its instrument is ignored
+     * @return The VWAP two-way price of the instrument, which has no {@link com.calculator.Instrument} set,
+     * or null if the price is not valid
+     */
+    public TwoWayPrice applyQuote(final long instrumentId, final long marketId, final TwoWayPrice price) {
+        RejectReason rejectReason = RejectionMonitor.validatePrice(price);
+        if (rejectReason != null) {
+            rejectionMonitor.onRejected(rejectReason, instrumentId, marketId, price);
+            return null;
+        }
+        int instrument = instrumentRegistry.register(instrumentId);
+        int market = marketRegistry.register(marketId);
+        return singleInstrumentCalculator(instrument).calculate(market, price);
+    }
+
+    /**
+     * Take the market's quotes out of the VWAP of every instrument, publish their new VWAPs and forget the market id.
+     * Every instrument is visited, so this is meant for retiring a market rather than for a session drop.
+     * @return the number of instruments the market was quoting
+     */
+    public int removeMarket(final long marketId) {
+        int market = marketRegistry.remove(marketId);
+        if (market == IdRegistry.UNKNOWN_ID) {
+            return 0;
+        }
+        int count = 0;
+        for (SingleInstrumentVwapCalculator calculator : singleInstrumentCalculators) {
+            if (calculator != null && calculator.remove(market)) {
+                calculator.publish();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drop the state of the instrument and forget its id, its VWAP can no longer be read.
+     * @return false if the instrument id is not registered
+     */
+    public boolean removeInstrument(final long instrumentId) {
+        int instrument = instrumentRegistry.remove(instrumentId);
+        if (instrument == IdRegistry.UNKNOWN_ID) {
+            return false;
+        }
+        SingleInstrumentVwapCalculator[] calculators = singleInstrumentCalculators;
+        if (instrument < calculators.length) {
+            calculators[instrument] = null;
+        }
+        return true;
+    }
+
+    /**
+     * Copy the last VWAP two-way price of the instrument, can be called from any thread.
+     * @param instrument the dense instrument id, see {@link #getInstrumentRegistry()}
+     * @return false if the instrument has not been quoted yet
+     */
+    public boolean getVwap(final int instrument, final MutableTwoWayPrice into) {
+        SingleInstrumentVwapCalculator[] calculators = singleInstrumentCalculators;
+        return instrument >= 0 && instrument < calculators.length
+                && calculators[instrument] != null
+                && calculators[instrument].readVwap(into);
+    }
+
+    /**
+     * Last VWAP of the instrument along with its best bid and offer, only to be read on the thread calling applyQuote(),
+     * the returned price is reused for the next VWAP.
+     * @param instrument the dense instrument id, see {@link #getInstrumentRegistry()}
+     * @return the VWAP, or null if the instrument has not been quoted yet
+     * @throws IllegalStateException if the best bid and offer are not tracked
+     */
+    public TopOfBookPrice getTopOfBook(final int instrument) {
+        if (!topOfBook) {
+            throw new IllegalStateException("Best bid and offer not tracked");
+        }
+        SingleInstrumentVwapCalculator[] calculators = singleInstrumentCalculators;
+        return instrument >= 0 && instrument < calculators.length && calculators[instrument] != null
+                ? calculators[instrument].getTopOfBookResult() : null;
+    }
+
+    public RejectionMonitor getRejectionMonitor() {
+        return rejectionMonitor;
+    }
+
+    /**
+     * Stop the background thread of the rejection monitor.
+     */
+    @Override
+    public void close() {
+        rejectionMonitor.close();
+    }
+
+    /**
+     * The registry must only be modified on the thread calling applyQuote().
+     */
+    public IdRegistry getInstrumentRegistry() {
+        return instrumentRegistry;
+    }
+
+    /**
+     * The registry must only be modified on the thread calling applyQuote().
+     */
+    public IdRegistry getMarketRegistry() {
+        return marketRegistry;
+    }
+
+    private SingleInstrumentVwapCalculator singleInstrumentCalculator(int instrument) {
+        SingleInstrumentVwapCalculator[] calculators = singleInstrumentCalculators;
+        if (instrument >= calculators.length) {
+            calculators = Arrays.copyOf(calculators, Math.max(instrument + 1, calculators.length << 1));
+            singleInstrumentCalculators = calculators;
+        }
+        SingleInstrumentVwapCalculator calculator = calculators[instrument];
+        if (calculator == null) {
+            calculator = new SingleInstrumentVwapCalculator(null, quoteStorage, topOfBook);
+            calculators[instrument] = calculator;
+        }
+        return calculator;
+    }
+}
@@ -0,0 +1,97 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.Market;
+import com.calculator.TwoWayPrice;
+
+import java.util.Arrays;
+
+/**
+ * Number of decimals kept for the prices and amounts of each instrument, in fixed-point accumulation mode.
+ * A price of 1.23456 with 5 price decimals is accumulated as 123456.
+ */
+public class FixedPointScales {
+
+    // 10^18 is the largest power of ten fitting in a long
+    private static final int MAX_DECIMALS = 18;
+    // largest scaled notional or amount of one market, so that the sums of every market's contribution fit in a long
+    private static final double MAX_CONTRIBUTION = (double) (Long.MAX_VALUE / Market.values().length);
+
+    private final int[] priceDecimals = new int[Instrument.values().length];
+    private final int[] amountDecimals = new int[Instrument.values().length];
+    // 10^priceDecimals and 10^amountDecimals of each instrument
+    private final double[] priceScales = new double[Instrument.values().length];
+    private final double[] amountScales = new double[Instrument.values().length];
+
+    /**
+     * @param defaultPriceDecimals price decimals of the instruments not set explicitly
+     * @param defaultAmountDecimals amount decimals of the instruments not set explicitly
+     */
+    public FixedPointScales(int defaultPriceDecimals, int defaultAmountDecimals) {
+        checkDecimals(defaultPriceDecimals, defaultAmountDecimals);
+        Arrays.fill(priceDecimals, defaultPriceDecimals);
+        Arrays.fill(amountDecimals, defaultAmountDecimals);
+        Arrays.fill(priceScales, Math.pow(10, defaultPriceDecimals));
+        Arrays.fill(amountScales, Math.pow(10, defaultAmountDecimals));
+    }
+
+    /**
+     * @return this
+     */
+    public FixedPointScales setDecimals(Instrument instrument, int priceDecimals, int amountDecimals) {
+        checkDecimals(priceDecimals, amountDecimals);
+        this.priceDecimals[instrument.ordinal()] = priceDecimals;
+        this.amountDecimals[instrument.ordinal()] = amountDecimals;
+        this.priceScales[instrument.ordinal()] = Math.pow(10, priceDecimals);
+        this.amountScales[instrument.ordinal()] = Math.pow(10, amountDecimals);
+        return this;
+    }
+
+    public int getPriceDecimals(Instrument instrument) {
+        return priceDecimals[instrument.ordinal()];
+    }
+
+    public int getAmountDecimals(Instrument instrument) {
+        return amountDecimals[instrument.ordinal()];
+    }
+
+    /**
+     * Check a validated price against the decimals of its instrument. An amount rounding to zero, or weighted by a view
+     * rounding to zero, would not count in the sums while its market still counts as quoting, and a VWAP of such amounts
+     * only would be 0 / 0. A scaled notional or amount above a long divided by the number of markets could overflow the
+     * sums once every market quotes, so it is rejected before anything is changed.
+     * @param minWeight smallest positive weight a market's amounts are multiplied by in the views, at most 1
+     * @param maxWeight largest weight a market's amounts are multiplied by in the views, at least 1
+     * @return null if the price can be accumulated, the reason to reject it otherwise
+     */
+    RejectReason validate(final TwoWayPrice price, final double minWeight, final double maxWeight) {
+        int instrument = price.getInstrument().ordinal();
+        double priceScale = priceScales[instrument];
+        double amountScale = amountScales[instrument];
+        // rounded the same way as the weighted amounts are accumulated
+        if (Math.round(price.getBidAmount() * minWeight * amountScale) == 0L
+                || Math.round(price.getOfferAmount() * minWeight * amountScale) == 0L) {
+            return RejectReason.AMOUNT_BELOW_SCALE;
+        }
+        long scaledBidAmount = Math.round(price.getBidAmount() * amountScale);
+        long scaledOfferAmount = Math.round(price.getOfferAmount() * amountScale);
+        double maxAmount = MAX_CONTRIBUTION / maxWeight;
+        if (Math.round(price.getBidPrice() * priceScale) * (double) scaledBidAmount > maxAmount
+                || Math.round(price.getOfferPrice() * priceScale) * (double) scaledOfferAmount > maxAmount
+                || scaledBidAmount > maxAmount || scaledOfferAmount > maxAmount) {
+            return RejectReason.NOTIONAL_ABOVE_SCALE;
+        }
+        return null;
+    }
+
+    VwapAccumulator createAccumulator(Instrument instrument) {
+        return new FixedPointVwapAccumulator(getPriceDecimals(instrument), getAmountDecimals(instrument));
+    }
+
+    private static void checkDecimals(int priceDecimals, int amountDecimals) {
+        if (priceDecimals < 0 || amountDecimals < 0 || priceDecimals + amountDecimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("Price and amount decimals must not be negative and must add up to at most "
+                    + MAX_DECIMALS + ": " + priceDecimals + ", " + amountDecimals);
+        }
+    }
+}
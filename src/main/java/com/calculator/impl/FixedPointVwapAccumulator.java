@@ -0,0 +1,94 @@
+package com.calculator.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link VwapAccumulator} keeping the sums as exact integers.
+ *
+ * Prices and amounts are rounded once to longs scaled by 10^decimals, after which adding and subtracting contributions
+ * is exact, so the sums never drift however many updates are applied. Double division only happens in writeResult().
+ * The products of a scaled price and a scaled amount, and the sums, must fit in a long, an {@link ArithmeticException} is
+ * thrown otherwise and the sums are left unchanged. Amounts rounding to zero, and notionals which could overflow the
+ * sums, are rejected before they get here, see {@link FixedPointScales#validate(com.calculator.TwoWayPrice, double)}.
+ */
+class FixedPointVwapAccumulator implements VwapAccumulator {
+
+    private final double priceScale;
+    private final double amountScale;
+
+    private long bidNotionalSum = 0L;
+    private long bidAmountSum = 0L;
+    private long offerNotionalSum = 0L;
+    private long offerAmountSum = 0L;
+
+    FixedPointVwapAccumulator(int priceDecimals, int amountDecimals) {
+        this.priceScale = Math.pow(10, priceDecimals);
+        this.amountScale = Math.pow(10, amountDecimals);
+    }
+
+    @Override
+    public void add(double bidPrice, double bidAmount, double offerPrice, double offerAmount) {
+        long scaledBidAmount = Math.round(bidAmount * amountScale);
+        long scaledOfferAmount = Math.round(offerAmount * amountScale);
+        long newBidAmountSum = Math.addExact(bidAmountSum, scaledBidAmount);
+        long newOfferAmountSum = Math.addExact(offerAmountSum, scaledOfferAmount);
+        long newBidNotionalSum = Math.addExact(bidNotionalSum, Math.multiplyExact(Math.round(bidPrice * priceScale), scaledBidAmount));
+        long newOfferNotionalSum = Math.addExact(offerNotionalSum, Math.multiplyExact(Math.round(offerPrice * priceScale), scaledOfferAmount));
+        bidAmountSum = newBidAmountSum;
+        offerAmountSum = newOfferAmountSum;
+        bidNotionalSum = newBidNotionalSum;
+        offerNotionalSum = newOfferNotionalSum;
+    }
+
+    @Override
+    public void subtract(double bidPrice, double bidAmount, double offerPrice, double offerAmount) {
+        // same rounding as when the contribution was added, so it is removed exactly
+        long scaledBidAmount = Math.round(bidAmount * amountScale);
+        long scaledOfferAmount = Math.round(offerAmount * amountScale);
+        long newBidAmountSum = Math.subtractExact(bidAmountSum, scaledBidAmount);
+        long newOfferAmountSum = Math.subtractExact(offerAmountSum, scaledOfferAmount);
+        long newBidNotionalSum = Math.subtractExact(bidNotionalSum, Math.multiplyExact(Math.round(bidPrice * priceScale), scaledBidAmount));
+        long newOfferNotionalSum = Math.subtractExact(offerNotionalSum, Math.multiplyExact(Math.round(offerPrice * priceScale), scaledOfferAmount));
+        bidAmountSum = newBidAmountSum;
+        offerAmountSum = newOfferAmountSum;
+        bidNotionalSum = newBidNotionalSum;
+        offerNotionalSum = newOfferNotionalSum;
+    }
+
+    @Override
+    public void reset() {
+        bidNotionalSum = 0L;
+        bidAmountSum = 0L;
+        offerNotionalSum = 0L;
+        offerAmountSum = 0L;
+    }
+
+    @Override
+    public void correct(double bidNotional, double bidAmount, double offerNotional, double offerAmount) {
+        // the sums are exact
+    }
+
+    @Override
+    public void writeResult(MutableTwoWayPrice result) {
+        result.setBidPrice((double) bidNotionalSum / bidAmountSum / priceScale);
+        result.setOfferPrice((double) offerNotionalSum / offerAmountSum / priceScale);
+        result.setBidAmount(bidAmountSum / amountScale);
+        result.setOfferAmount(offerAmountSum / amountScale);
+    }
+
+    @Override
+    public void save(ByteBuffer buffer, int offset) {
+        buffer.putLong(offset, bidNotionalSum);
+        buffer.putLong(offset + 8, bidAmountSum);
+        buffer.putLong(offset + 16, offerNotionalSum);
+        buffer.putLong(offset + 24, offerAmountSum);
+    }
+
+    @Override
+    public void restore(ByteBuffer buffer, int offset) {
+        bidNotionalSum = buffer.getLong(offset);
+        bidAmountSum = buffer.getLong(offset + 8);
+        offerNotionalSum = buffer.getLong(offset + 16);
+        offerAmountSum = buffer.getLong(offset + 24);
+    }
+}
@@ -0,0 +1,84 @@
+package com.calculator.impl;
+
+import java.util.Arrays;
+
+/**
+ * Maps external ids, e.g. symbol or venue ids of a feed, to dense int ids starting from 0.
+ *
+ * Dense ids are handed out in registration order and never reused, so they can index the calculator's arrays directly.
+ * New ids can be registered at any time of the day, and removed when they are retired. A removed external id which is
+ * registered again gets a new dense id. Not thread safe, it is meant to be owned by the feed thread.
+ */
+public class IdRegistry {
+
+    public static final int UNKNOWN_ID = -1;
+
+    private final LongIntHashMap denseIds;
+    private long[] externalIds;
+    // number of dense ids handed out, including the removed ones
+    private int size = 0;
+
+    /**
+     * @param expectedSize number of ids to size the registry for, it grows beyond that on demand
+     */
+    public IdRegistry(int expectedSize) {
+        this.denseIds = new LongIntHashMap(expectedSize, UNKNOWN_ID);
+        this.externalIds = new long[Math.max(expectedSize, 1)];
+    }
+
+    /**
+     * @return the dense id of the external id, registering it first if it is new
+     */
+    public int register(long externalId) {
+        int denseId = denseIds.get(externalId);
+        if (denseId == UNKNOWN_ID) {
+            denseId = size++;
+            denseIds.put(externalId, denseId);
+            if (denseId == externalIds.length) {
+                externalIds = Arrays.copyOf(externalIds, externalIds.length << 1);
+            }
+            externalIds[denseId] = externalId;
+        }
+        return denseId;
+    }
+
+    /**
+     * Forget the external id, its dense id is not handed out again.
+     * @return the dense id of the external id, or {@link #UNKNOWN_ID} if it is not registered
+     */
+    public int remove(long externalId) {
+        return denseIds.remove(externalId);
+    }
+
+    /**
+     * @return the dense id of the external id, or {@link #UNKNOWN_ID} if it is not registered
+     */
+    public int lookup(long externalId) {
+        return denseIds.get(externalId);
+    }
+
+    /**
+     * @return the external id of a registered dense id
+     * @throws IllegalArgumentException if the dense id was not handed out or has been removed
+     */
+    public long externalId(int denseId) {
+        if (denseId < 0 || denseId >= size || denseIds.get(externalIds[denseId]) != denseId) {
+            throw new IllegalArgumentException("Unknown dense id: " + denseId);
+        }
+        return externalIds[denseId];
+    }
+
+    /**
+     * @return the number of dense ids handed out, including the removed ones, which bounds the dense ids
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of external ids currently registered
+     */
+    public int registeredCount() {
+        return denseIds.size();
+    }
+}
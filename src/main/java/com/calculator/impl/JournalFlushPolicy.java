@@ -0,0 +1,22 @@
+package com.calculator.impl;
+
+/**
+ * When an {@link UpdateJournal} forces its memory-mapped segments to storage. Records are in the page cache as soon as
+ * they are appended, so they survive a crash of the process whatever the policy, forcing only matters for a crash of the host.
+ */
+public enum JournalFlushPolicy {
+
+    /**
+     * Never forced by the journal, the operating system writes the pages back in its own time.
+     */
+    NONE,
+    /**
+     * Each segment is forced when it is full, and the last one when the journal is closed.
+     */
+    SEGMENT,
+    /**
+     * Each record is forced as it is appended, at the cost of a write to storage per accepted update.
+     */
+    RECORD
+
+}
@@ -0,0 +1,117 @@
+package com.calculator.impl;
+
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram of non-negative long values, e.g. latencies in nanoseconds, in the spirit of HdrHistogram.
+ *
+ * Values below 2^SUB_BUCKET_BITS are counted exactly, larger ones in buckets of relative width 2^-(SUB_BUCKET_BITS-1),
+ * so the precision stays under 1% over the whole long range with a fixed 7k counters.
+ * Recording never allocates. Not thread safe.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int HALF_SUB_BUCKET_COUNT = 1 << (SUB_BUCKET_BITS - 1);
+
+    private final long[] counts = new long[indexOf(Long.MAX_VALUE) + 1];
+    private long totalCount = 0L;
+    private long max = 0L;
+    private long sum = 0L;
+
+    /**
+     * @param value negative values are counted as 0
+     */
+    public void record(long value) {
+        if (value < 0L) {
+            value = 0L;
+        }
+        counts[indexOf(value)]++;
+        totalCount++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value equivalent to the value at the percentile, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0L) {
+            return 0L;
+        }
+        long target = Math.max(1L, (long) Math.ceil(percentile / 100.0d * totalCount));
+        long accumulated = 0L;
+        for (int i=0;i<counts.length;i++) {
+            accumulated += counts[i];
+            if (accumulated >= target) {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return totalCount == 0L ? 0.0d : (double) sum / totalCount;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0L);
+        totalCount = 0L;
+        max = 0L;
+        sum = 0L;
+    }
+
+    /**
+     * Add the counts of another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i=0;i<counts.length;i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Add count values of the bucket at index, e.g. when rebuilding a histogram from concurrent counters.
+     * The sum and max are estimated from the bucket's highest equivalent value.
+     */
+    void recordAtIndex(int index, long count) {
+        long value = highestEquivalentValue(index);
+        counts[index] += count;
+        totalCount += count;
+        sum += value * count;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    static int indexOf(long value) {
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if (shift <= 0) {
+            return (int) value;
+        }
+        return shift * HALF_SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < 2 * HALF_SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / HALF_SUB_BUCKET_COUNT - 1;
+        long mantissa = index - (long) shift * HALF_SUB_BUCKET_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,140 @@
+package com.calculator.impl;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive long keys to primitive int values, with linear probing.
+ * Nothing is boxed, and nothing is allocated apart from growing the tables when the map gets half full.
+ * Removing an entry shifts the following entries of its probe sequence back, so no tombstone is left. Not thread safe.
+ */
+class LongIntHashMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final int missingValue;
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int mask;
+    private int size = 0;
+
+    /**
+     * @param expectedSize number of entries to size the tables for
+     * @param missingValue returned by {@link #get(long)} for absent keys
+     */
+    LongIntHashMap(int expectedSize, int missingValue) {
+        this.missingValue = missingValue;
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    int get(long key) {
+        int index = hash(key) & mask;
+        while (used[index]) {
+            if (keys[index] == key) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    /**
+     * @return the previous value of the key, or the missing value if there was none
+     */
+    int put(long key, int value) {
+        int index = hash(key) & mask;
+        while (used[index]) {
+            if (keys[index] == key) {
+                int previous = values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        used[index] = true;
+        keys[index] = key;
+        values[index] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+        return missingValue;
+    }
+
+    /**
+     * @return the value of the removed key, or the missing value if there was none
+     */
+    int remove(long key) {
+        int index = hash(key) & mask;
+        while (used[index]) {
+            if (keys[index] == key) {
+                int previous = values[index];
+                shiftBack(index);
+                size--;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // fill the freed index with the next entry of the cluster which may probe through it, until the end of the cluster
+    private void shiftBack(int freed) {
+        int index = (freed + 1) & mask;
+        while (used[index]) {
+            int home = hash(keys[index]) & mask;
+            // the entry may move to freed if freed lies cyclically in [home, index)
+            if (((index - home) & mask) >= ((index - freed) & mask)) {
+                keys[freed] = keys[index];
+                values[freed] = values[index];
+                freed = index;
+            }
+            index = (index + 1) & mask;
+        }
+        used[freed] = false;
+        values[freed] = missingValue;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int i=0;i<oldKeys.length;i++) {
+            if (oldUsed[i]) {
+                int index = hash(oldKeys[i]) & mask;
+                while (used[index]) {
+                    index = (index + 1) & mask;
+                }
+                used[index] = true;
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, missingValue);
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    // murmur3 finalizer, so that sequential ids do not cluster
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
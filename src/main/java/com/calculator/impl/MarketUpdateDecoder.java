@@ -0,0 +1,98 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+
+import java.nio.ByteBuffer;
+
+import static com.calculator.impl.MarketUpdateLayout.*;
+
+/**
+ * Reusable flyweight {@link MarketUpdate} and {@link TwoWayPrice} reading its fields straight out of a buffer encoded in
+ * the {@link MarketUpdateLayout} format, so a network or file buffer can be passed to
+ * {@link Calculator#applyMarketUpdate(MarketUpdate)} without allocating or copying.
+ *
+ * The decoder only reflects the record it is wrapped around at the time of the call, so it must not be kept by the reader.
+ * The buffer must be in little endian order.
+ */
+public class MarketUpdateDecoder implements MarketUpdate, TwoWayPrice {
+
+    private static final Instrument[] INSTRUMENTS = Instrument.values();
+    private static final Market[] MARKETS = Market.values();
+    private static final State[] STATES = State.values();
+
+    private ByteBuffer buffer;
+    private int offset;
+
+    /**
+     * Point the flyweight at the record starting at offset.
+     * @return this
+     */
+    public MarketUpdateDecoder wrap(final ByteBuffer buffer, final int offset) {
+        MarketUpdateEncoder.checkOrder(buffer);
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return buffer.getLong(offset + TIMESTAMP_OFFSET);
+    }
+
+    @Override
+    public Market getMarket() {
+        short ordinal = buffer.getShort(offset + MARKET_OFFSET);
+        return ordinal >= 0 && ordinal < MARKETS.length ? MARKETS[ordinal] : null;
+    }
+
+    @Override
+    public TwoWayPrice getTwoWayPrice() {
+        return this;
+    }
+
+    @Override
+    public Instrument getInstrument() {
+        short ordinal = buffer.getShort(offset + INSTRUMENT_OFFSET);
+        return ordinal >= 0 && ordinal < INSTRUMENTS.length ? INSTRUMENTS[ordinal] : null;
+    }
+
+    @Override
+    public State getState() {
+        byte ordinal = buffer.get(offset + STATE_OFFSET);
+        return ordinal >= 0 && ordinal < STATES.length ? STATES[ordinal] : null;
+    }
+
+    @Override
+    public double getBidPrice() {
+        return buffer.getDouble(offset + BID_PRICE_OFFSET);
+    }
+
+    @Override
+    public double getBidAmount() {
+        return buffer.getDouble(offset + BID_AMOUNT_OFFSET);
+    }
+
+    @Override
+    public double getOfferPrice() {
+        return buffer.getDouble(offset + OFFER_PRICE_OFFSET);
+    }
+
+    @Override
+    public double getOfferAmount() {
+        return buffer.getDouble(offset + OFFER_AMOUNT_OFFSET);
+    }
+
+    @Override
+    public String toString() {
+        return "MarketUpdateDecoder{" +
+                "timestamp=" + getTimestamp() +
+                ", market=" + getMarket() +
+                ", instrument=" + getInstrument() +
+                ", state=" + getState() +
+                ", bidPrice=" + getBidPrice() +
+                ", offerPrice=" + getOfferPrice() +
+                ", bidAmount=" + getBidAmount() +
+                ", offerAmount=" + getOfferAmount() +
+                "}";
+    }
+}
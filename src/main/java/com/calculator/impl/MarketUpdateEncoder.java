@@ -0,0 +1,64 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.Market;
+import com.calculator.MarketUpdate;
+import com.calculator.State;
+import com.calculator.TwoWayPrice;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.calculator.impl.MarketUpdateLayout.*;
+
+/**
+ * Writes market updates in the {@link MarketUpdateLayout} binary format, the counterpart of {@link MarketUpdateDecoder}.
+ * The buffer must be in little endian order. Absolute puts are used, so the buffer position is left untouched.
+ */
+public final class MarketUpdateEncoder {
+
+    private MarketUpdateEncoder() {
+    }
+
+    /**
+     * @return the number of bytes written, {@link MarketUpdateLayout#ENCODED_LENGTH}
+     */
+    public static int encode(final ByteBuffer buffer, final int offset, final long timestamp, final MarketUpdate marketUpdate) {
+        TwoWayPrice price = marketUpdate.getTwoWayPrice();
+        return encode(buffer, offset, timestamp, marketUpdate.getMarket(), price.getInstrument(), price.getState(),
+                price.getBidPrice(), price.getOfferPrice(), price.getBidAmount(), price.getOfferAmount());
+    }
+
+    /**
+     * @return the number of bytes written, {@link MarketUpdateLayout#ENCODED_LENGTH}
+     */
+    public static int encode(final ByteBuffer buffer,
+                             final int offset,
+                             final long timestamp,
+                             final Market market,
+                             final Instrument instrument,
+                             final State state,
+                             final double bidPrice,
+                             final double offerPrice,
+                             final double bidAmount,
+                             final double offerAmount) {
+        checkOrder(buffer);
+        buffer.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+        buffer.putDouble(offset + BID_PRICE_OFFSET, bidPrice);
+        buffer.putDouble(offset + OFFER_PRICE_OFFSET, offerPrice);
+        buffer.putDouble(offset + BID_AMOUNT_OFFSET, bidAmount);
+        buffer.putDouble(offset + OFFER_AMOUNT_OFFSET, offerAmount);
+        buffer.putShort(offset + INSTRUMENT_OFFSET, instrument == null ? NULL_ORDINAL : (short) instrument.ordinal());
+        buffer.putShort(offset + MARKET_OFFSET, market == null ? NULL_ORDINAL : (short) market.ordinal());
+        buffer.put(offset + STATE_OFFSET, state == null ? (byte) NULL_ORDINAL : (byte) state.ordinal());
+        buffer.put(offset + STATE_OFFSET + 1, (byte) 0);
+        buffer.putShort(offset + STATE_OFFSET + 2, (short) 0);
+        return ENCODED_LENGTH;
+    }
+
+    static void checkOrder(ByteBuffer buffer) {
+        if (buffer.order() != ByteOrder.LITTLE_ENDIAN) {
+            throw new IllegalArgumentException("Buffer must be little endian");
+        }
+    }
+}
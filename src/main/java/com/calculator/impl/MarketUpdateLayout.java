@@ -0,0 +1,35 @@
+package com.calculator.impl;
+
+/**
+ * Fixed binary layout of an encoded market update, little endian:
+ *
+ * <pre>
+ * offset  size  field
+ *      0     8  timestamp, nanoseconds
+ *      8     8  bid price
+ *     16     8  offer price
+ *     24     8  bid amount
+ *     32     8  offer amount
+ *     40     2  instrument ordinal, -1 for null
+ *     42     2  market ordinal, -1 for null
+ *     44     1  state ordinal, -1 for null
+ *     45     3  padding
+ * </pre>
+ */
+public final class MarketUpdateLayout {
+
+    public static final int TIMESTAMP_OFFSET = 0;
+    public static final int BID_PRICE_OFFSET = 8;
+    public static final int OFFER_PRICE_OFFSET = 16;
+    public static final int BID_AMOUNT_OFFSET = 24;
+    public static final int OFFER_AMOUNT_OFFSET = 32;
+    public static final int INSTRUMENT_OFFSET = 40;
+    public static final int MARKET_OFFSET = 42;
+    public static final int STATE_OFFSET = 44;
+    public static final int ENCODED_LENGTH = 48;
+
+    static final short NULL_ORDINAL = -1;
+
+    private MarketUpdateLayout() {
+    }
+}
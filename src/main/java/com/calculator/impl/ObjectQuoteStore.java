@@ -0,0 +1,73 @@
+package com.calculator.impl;
+
+import com.calculator.State;
+import com.calculator.TwoWayPrice;
+
+import java.util.Arrays;
+
+/**
+ * {@link QuoteStore} keeping a {@link DefaultTwoWayPrice} per slot, created when the slot is first taken.
+ */
+class ObjectQuoteStore extends QuoteStore {
+
+    private static final TwoWayPrice EMPTY = new DefaultTwoWayPrice();
+
+    private MutableTwoWayPrice[] prices = new MutableTwoWayPrice[0];
+
+    ObjectQuoteStore(int marketCount) {
+        super(marketCount);
+    }
+
+    @Override
+    void grow(int capacity) {
+        int length = prices.length;
+        prices = Arrays.copyOf(prices, capacity);
+        for (int slot=length;slot<capacity;slot++) {
+            // an empty firm price, so the first update of the market only adds its own contribution
+            prices[slot] = new DefaultTwoWayPrice();
+        }
+    }
+
+    @Override
+    void move(int from, int to) {
+        // swapped rather than copied, so that each slot keeps its own object
+        MutableTwoWayPrice price = prices[to];
+        prices[to] = prices[from];
+        prices[from] = price;
+    }
+
+    @Override
+    void clear(int slot) {
+        prices[slot].copy(EMPTY);
+    }
+
+    @Override
+    State getState(int slot) {
+        return prices[slot].getState();
+    }
+
+    @Override
+    double getBidPrice(int slot) {
+        return prices[slot].getBidPrice();
+    }
+
+    @Override
+    double getOfferPrice(int slot) {
+        return prices[slot].getOfferPrice();
+    }
+
+    @Override
+    double getBidAmount(int slot) {
+        return prices[slot].getBidAmount();
+    }
+
+    @Override
+    double getOfferAmount(int slot) {
+        return prices[slot].getOfferAmount();
+    }
+
+    @Override
+    void set(int slot, TwoWayPrice price) {
+        prices[slot].copy(price);
+    }
+}
@@ -0,0 +1,95 @@
+package com.calculator.impl;
+
+import com.calculator.State;
+import com.calculator.TwoWayPrice;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link QuoteStore} keeping one fixed size record per slot in a direct {@link ByteBuffer}.
+ *
+ * Record layout, native byte order:
+ * bidPrice(8) offerPrice(8) bidAmount(8) offerAmount(8) state ordinal(1) padding(7)
+ */
+class OffHeapQuoteStore extends QuoteStore {
+
+    private static final State[] STATES = State.values();
+
+    static final int BID_PRICE_OFFSET = 0;
+    static final int OFFER_PRICE_OFFSET = 8;
+    static final int BID_AMOUNT_OFFSET = 16;
+    static final int OFFER_AMOUNT_OFFSET = 24;
+    static final int STATE_OFFSET = 32;
+    static final int RECORD_SIZE = 40;
+
+    private ByteBuffer buffer = allocate(0);
+    private int capacity = 0;
+
+    OffHeapQuoteStore(int marketCount) {
+        super(marketCount);
+    }
+
+    @Override
+    void grow(int newCapacity) {
+        // a new direct buffer is zeroed, which is an empty firm price
+        ByteBuffer newBuffer = allocate(newCapacity);
+        newBuffer.put(0, buffer, 0, capacity * RECORD_SIZE);
+        buffer = newBuffer;
+        capacity = newCapacity;
+    }
+
+    @Override
+    void move(int from, int to) {
+        buffer.put(to * RECORD_SIZE, buffer, from * RECORD_SIZE, RECORD_SIZE);
+    }
+
+    @Override
+    void clear(int slot) {
+        int offset = slot * RECORD_SIZE;
+        buffer.putDouble(offset + BID_PRICE_OFFSET, 0.0d);
+        buffer.putDouble(offset + OFFER_PRICE_OFFSET, 0.0d);
+        buffer.putDouble(offset + BID_AMOUNT_OFFSET, 0.0d);
+        buffer.putDouble(offset + OFFER_AMOUNT_OFFSET, 0.0d);
+        buffer.put(offset + STATE_OFFSET, (byte) 0);
+    }
+
+    @Override
+    State getState(int slot) {
+        return STATES[buffer.get(slot * RECORD_SIZE + STATE_OFFSET)];
+    }
+
+    @Override
+    double getBidPrice(int slot) {
+        return buffer.getDouble(slot * RECORD_SIZE + BID_PRICE_OFFSET);
+    }
+
+    @Override
+    double getOfferPrice(int slot) {
+        return buffer.getDouble(slot * RECORD_SIZE + OFFER_PRICE_OFFSET);
+    }
+
+    @Override
+    double getBidAmount(int slot) {
+        return buffer.getDouble(slot * RECORD_SIZE + BID_AMOUNT_OFFSET);
+    }
+
+    @Override
+    double getOfferAmount(int slot) {
+        return buffer.getDouble(slot * RECORD_SIZE + OFFER_AMOUNT_OFFSET);
+    }
+
+    @Override
+    void set(int slot, TwoWayPrice price) {
+        int offset = slot * RECORD_SIZE;
+        buffer.putDouble(offset + BID_PRICE_OFFSET, price.getBidPrice());
+        buffer.putDouble(offset + OFFER_PRICE_OFFSET, price.getOfferPrice());
+        buffer.putDouble(offset + BID_AMOUNT_OFFSET, price.getBidAmount());
+        buffer.putDouble(offset + OFFER_AMOUNT_OFFSET, price.getOfferAmount());
+        buffer.put(offset + STATE_OFFSET, (byte) price.getState().ordinal());
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * RECORD_SIZE).order(ByteOrder.nativeOrder());
+    }
+}
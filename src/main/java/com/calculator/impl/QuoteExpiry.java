@@ -0,0 +1,73 @@
+package com.calculator.impl;
+
+import com.calculator.Market;
+
+import java.util.Arrays;
+
+/**
+ * Time to live of the quotes of each market, after which a market which has not re-quoted an instrument is taken out of
+ * the instrument's VWAP. Times are in nanoseconds on the clock of {@link com.calculator.MarketUpdate#getTimestamp()}.
+ */
+public class QuoteExpiry {
+
+    /**
+     * Time to live of the quotes of a market which are never expired.
+     */
+    public static final long NEVER = Long.MAX_VALUE;
+
+    private static final int MIN_BUCKETS = 16;
+    private static final int MAX_BUCKETS = 1 << 16;
+
+    private final long[] ttlNanos = new long[Market.values().length];
+    private final long tickNanos;
+
+    /**
+     * @param defaultTtlNanos time to live of the quotes of the markets not set explicitly, or {@link #NEVER}
+     * @param tickNanos resolution of the expiry, a quote is expired at most one tick after its time to live
+     */
+    public QuoteExpiry(long defaultTtlNanos, long tickNanos) {
+        checkTtl(defaultTtlNanos);
+        if (tickNanos <= 0L) {
+            throw new IllegalArgumentException("Tick must be positive: " + tickNanos);
+        }
+        Arrays.fill(ttlNanos, defaultTtlNanos);
+        this.tickNanos = tickNanos;
+    }
+
+    /**
+     * @return this
+     */
+    public QuoteExpiry setTtl(Market market, long ttlNanos) {
+        checkTtl(ttlNanos);
+        this.ttlNanos[market.ordinal()] = ttlNanos;
+        return this;
+    }
+
+    public long getTtl(Market market) {
+        return ttlNanos[market.ordinal()];
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * @return a wheel whose revolution covers the longest time to live, so a quote is visited at most once a revolution
+     */
+    TimerWheel createWheel(int keyCount) {
+        long longestTicks = 1L;
+        for (long ttl : ttlNanos) {
+            if (ttl != NEVER) {
+                longestTicks = Math.max(longestTicks, ttl / tickNanos + 1);
+            }
+        }
+        int buckets = (int) Math.min(MAX_BUCKETS, Math.max(MIN_BUCKETS, Long.highestOneBit(longestTicks - 1) << 1));
+        return new TimerWheel(keyCount, tickNanos, buckets);
+    }
+
+    private static void checkTtl(long ttlNanos) {
+        if (ttlNanos <= 0L) {
+            throw new IllegalArgumentException("Time to live must be positive: " + ttlNanos);
+        }
+    }
+}
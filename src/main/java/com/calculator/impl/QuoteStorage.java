@@ -0,0 +1,49 @@
+package com.calculator.impl;
+
+/**
+ * Layout of the per-market quote cache of the calculators.
+ */
+public enum QuoteStorage {
+
+    /**
+     * One {@link DefaultTwoWayPrice} object per quoted market.
+     */
+    OBJECT {
+        @Override
+        QuoteStore create(int marketCount) {
+            return new ObjectQuoteStore(marketCount);
+        }
+    },
+
+    /**
+     * Structure of arrays, one primitive array per field, so the whole cache of an instrument is a handful of objects.
+     */
+    ARRAY {
+        @Override
+        QuoteStore create(int marketCount) {
+            return new ArrayQuoteStore(marketCount);
+        }
+    },
+
+    /**
+     * Fixed size records in a direct {@link java.nio.ByteBuffer}, the quotes are not visible to the garbage collector at all.
+     */
+    OFF_HEAP {
+        @Override
+        QuoteStore create(int marketCount) {
+            return new OffHeapQuoteStore(marketCount);
+        }
+    };
+
+    /**
+     * @return a quote cache for market ids which are not bounded
+     */
+    QuoteStore create() {
+        return create(QuoteStore.UNBOUNDED);
+    }
+
+    /**
+     * @param marketCount the market ids are in [0, marketCount), or {@link QuoteStore#UNBOUNDED}
+     */
+    abstract QuoteStore create(int marketCount);
+}
@@ -0,0 +1,163 @@
+package com.calculator.impl;
+
+import com.calculator.State;
+import com.calculator.TwoWayPrice;
+
+import java.util.Arrays;
+
+/**
+ * Storage of the last two-way price of each market for one instrument.
+ *
+ * The prices are kept in slots, one per market which quotes the instrument, so the storage of an instrument follows the
+ * number of markets quoting it, not the highest market id of the universe. With a bounded universe of markets, the
+ * {@link com.calculator.Market} ordinals, an array indexed by market finds the slots; with the dense market ids of a
+ * {@link DynamicVwapCalculator}, which may be far apart, a small open-addressing map does. A new slot holds an empty
+ * firm price, with zero prices and amounts.
+ *
+ * Getters and {@link #set(int, TwoWayPrice)} take a slot of {@link #slot(int)} or {@link #find(int)}. Not thread safe.
+ */
+abstract class QuoteStore {
+
+    static final int NO_SLOT = -1;
+    // market count of a store whose market ids are not bounded
+    static final int UNBOUNDED = 0;
+
+    // slot of each market ordinal, null if the market ids are not bounded
+    private final int[] marketSlots;
+    // slot of each market id, null if marketSlots is used
+    private final LongIntHashMap slots;
+    // market of each slot
+    private int[] markets = new int[0];
+    private int size = 0;
+
+    /**
+     * @param marketCount the market ids are in [0, marketCount), or {@link #UNBOUNDED}
+     */
+    QuoteStore(int marketCount) {
+        if (marketCount == UNBOUNDED) {
+            marketSlots = null;
+            slots = new LongIntHashMap(8, NO_SLOT);
+        } else {
+            marketSlots = new int[marketCount];
+            Arrays.fill(marketSlots, NO_SLOT);
+            slots = null;
+        }
+    }
+
+    /**
+     * @return the slot of the market, taking a new one holding an empty firm price if the market has none
+     */
+    final int slot(int market) {
+        int slot = find(market);
+        if (slot == NO_SLOT) {
+            slot = size;
+            if (slot == markets.length) {
+                int capacity = Math.max(4, markets.length << 1);
+                markets = Arrays.copyOf(markets, capacity);
+                grow(capacity);
+            }
+            markets[slot] = market;
+            bind(market, slot);
+            size++;
+        }
+        return slot;
+    }
+
+    /**
+     * @return the slot of the market, or {@link #NO_SLOT} if it has none
+     */
+    final int find(int market) {
+        int[] marketSlots = this.marketSlots;
+        return marketSlots != null ? marketSlots[market] : slots.get(market);
+    }
+
+    /**
+     * Free the slot of the market, the price in the last slot moves into it.
+     */
+    final void release(int market) {
+        int slot = find(market);
+        if (slot == NO_SLOT) {
+            return;
+        }
+        if (marketSlots != null) {
+            marketSlots[market] = NO_SLOT;
+        } else {
+            slots.remove(market);
+        }
+        int last = --size;
+        if (slot != last) {
+            move(last, slot);
+            markets[slot] = markets[last];
+            bind(markets[slot], slot);
+        }
+        clear(last);
+    }
+
+    private void bind(int market, int slot) {
+        if (marketSlots != null) {
+            marketSlots[market] = slot;
+        } else {
+            slots.put(market, slot);
+        }
+    }
+
+    /**
+     * @return the number of slots in use
+     */
+    final int size() {
+        return size;
+    }
+
+    final int market(int slot) {
+        return markets[slot];
+    }
+
+    /**
+     * Make room for the slots [0, capacity), the new slots hold an empty firm price.
+     */
+    abstract void grow(int capacity);
+
+    /**
+     * Copy the price of a slot into another one.
+     */
+    abstract void move(int from, int to);
+
+    /**
+     * Reset the slot to an empty firm price.
+     */
+    abstract void clear(int slot);
+
+    abstract State getState(int slot);
+
+    abstract double getBidPrice(int slot);
+
+    abstract double getOfferPrice(int slot);
+
+    abstract double getBidAmount(int slot);
+
+    abstract double getOfferAmount(int slot);
+
+    abstract void set(int slot, TwoWayPrice price);
+
+    /**
+     * Copy the prices and amounts of the markets [0, length) into primitive arrays from offset, indexed by market, to be
+     * processed in bulk. The markets without a slot are copied as empty prices.
+     */
+    void copyTo(final int length, final double[] bidPrices, final double[] offerPrices,
+                final double[] bidAmounts, final double[] offerAmounts, final int offset) {
+        Arrays.fill(bidPrices, offset, offset + length, 0.0d);
+        Arrays.fill(offerPrices, offset, offset + length, 0.0d);
+        Arrays.fill(bidAmounts, offset, offset + length, 0.0d);
+        Arrays.fill(offerAmounts, offset, offset + length, 0.0d);
+        for (int slot=0;slot<size;slot++) {
+            int market = markets[slot];
+            if (market < length) {
+                bidPrices[offset + market] = getBidPrice(slot);
+                offerPrices[offset + market] = getOfferPrice(slot);
+                bidAmounts[offset + market] = getBidAmount(slot);
+                offerAmounts[offset + market] = getOfferAmount(slot);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.calculator.impl;
+
+import java.util.Arrays;
+
+/**
+ * Instruments currently quoted by each market, kept as a sparse set per market so that adding or removing an
+ * instrument is O(1) and the instruments of one market can be iterated without looking at the others. Not thread safe.
+ */
+class QuotingInstrumentIndex {
+
+    private static final int ABSENT = -1;
+
+    private final int instrumentCount;
+    // instruments of each market packed at the start of its row, indexed by market * instrumentCount + position
+    private final int[] instruments;
+    private final int[] sizes;
+    // position of each (market, instrument) pair in its market's row, ABSENT if the market does not quote the instrument
+    private final int[] positions;
+
+    QuotingInstrumentIndex(int marketCount, int instrumentCount) {
+        this.instrumentCount = instrumentCount;
+        this.instruments = new int[marketCount * instrumentCount];
+        this.sizes = new int[marketCount];
+        this.positions = new int[marketCount * instrumentCount];
+        Arrays.fill(positions, ABSENT);
+    }
+
+    void add(final int market, final int instrument) {
+        int pair = market * instrumentCount + instrument;
+        if (positions[pair] == ABSENT) {
+            int position = sizes[market]++;
+            instruments[market * instrumentCount + position] = instrument;
+            positions[pair] = position;
+        }
+    }
+
+    /**
+     * @return false if the market does not quote the instrument
+     */
+    boolean remove(final int market, final int instrument) {
+        int pair = market * instrumentCount + instrument;
+        int position = positions[pair];
+        if (position == ABSENT) {
+            return false;
+        }
+        // move the last instrument of the market into the hole
+        int last = --sizes[market];
+        int lastInstrument = instruments[market * instrumentCount + last];
+        instruments[market * instrumentCount + position] = lastInstrument;
+        positions[market * instrumentCount + lastInstrument] = position;
+        positions[pair] = ABSENT;
+        return true;
+    }
+
+    boolean contains(final int market, final int instrument) {
+        return positions[market * instrumentCount + instrument] != ABSENT;
+    }
+
+    /**
+     * @return the number of instruments quoted by the market
+     */
+    int size(final int market) {
+        return sizes[market];
+    }
+
+    /**
+     * @return the instrument at the position. Removing an instrument moves the last one into its position,
+     * so the instruments of a market can be removed while iterating from the last position down
+     */
+    int get(final int market, final int position) {
+        return instruments[market * instrumentCount + position];
+    }
+}
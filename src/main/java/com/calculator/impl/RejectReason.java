@@ -0,0 +1,24 @@
+package com.calculator.impl;
+
+/**
+ * Why a market update failed validation. Price and amount shall always be positive, one-sided market is not valid.
+ * A market depth may quote one side only, but must not have more levels than the calculator keeps.
+ * In fixed-point accumulation mode, an amount must not round to zero at the decimals of its instrument, and the scaled
+ * notional and amount must leave room in a long for the contributions of every market.
+ */
+public enum RejectReason {
+
+    NULL_UPDATE,
+    NULL_MARKET,
+    NULL_TWO_WAY_PRICE,
+    NULL_INSTRUMENT,
+    NULL_STATE,
+    NAN_PRICE,
+    NON_POSITIVE_PRICE,
+    NAN_AMOUNT,
+    NON_POSITIVE_AMOUNT,
+    TOO_MANY_LEVELS,
+    AMOUNT_BELOW_SCALE,
+    NOTIONAL_ABOVE_SCALE
+
+}
@@ -0,0 +1,358 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.Market;
+import com.calculator.MarketDepth;
+import com.calculator.MarketUpdate;
+import com.calculator.Side;
+import com.calculator.State;
+import com.calculator.TwoWayPrice;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps track of the rejected market updates without allocating or blocking the calculation thread.
+ *
+ * Rejects are counted per market and {@link RejectReason} in primitive counters, which any thread can read.
+ * The first reject of each (market, reason) and then one in every sampleInterval are copied into a preallocated ring
+ * buffer, from which a background thread formats and prints them. When the ring is full the sample is dropped and counted.
+ * The background thread is started with the monitor and runs until {@link #close()}; by default it sleeps while there is
+ * nothing to print and is woken by the next sample. onRejected() must be called from a single thread.
+ */
+public class RejectionMonitor implements AutoCloseable {
+
+    private static final RejectReason[] REASONS = RejectReason.values();
+    private static final Instrument[] INSTRUMENTS = Instrument.values();
+    private static final Market[] MARKETS = Market.values();
+    private static final State[] STATES = State.values();
+    private static final Side[] SIDES = Side.values();
+    // counters of the rejects without a known Market are kept after the markets
+    private static final int UNKNOWN_MARKET = MARKETS.length;
+    private static final int NULL_ORDINAL = -1;
+    private static final long NO_EXTERNAL_ID = Long.MIN_VALUE;
+
+    private final int sampleInterval;
+    private final PrintStream out;
+    private final WaitStrategy waitStrategy;
+    // indexed by market * REASONS.length + reason
+    private final AtomicLongArray rejectCounts = new AtomicLongArray((MARKETS.length + 1) * REASONS.length);
+
+    private final Sample[] samples;
+    private final int mask;
+    // next sequence to be written by the calculation thread, and next one to be printed by the logger thread
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong droppedSamples = new AtomicLong();
+    private final Thread logger;
+    private volatile boolean running = true;
+    // set by the logger thread before it sleeps, for the next sample to wake it
+    private volatile boolean sleeping = false;
+
+    public RejectionMonitor() {
+        this(1000, 1024, System.out, null);
+    }
+
+    /**
+     * @param sampleInterval one reject in every sampleInterval of the same (market, reason) is printed, after the first one
+     * @param sampleCapacity capacity of the ring buffer of samples waiting to be printed, must be a power of two
+     * @param out where the samples are printed, by the background thread
+     * @param waitStrategy used by the background thread while there is nothing to print, or null for the thread to
+     * sleep until the next sample
+     */
+    public RejectionMonitor(int sampleInterval, int sampleCapacity, PrintStream out, WaitStrategy waitStrategy) {
+        if (sampleInterval <= 0) {
+            throw new IllegalArgumentException("Sample interval must be positive: " + sampleInterval);
+        }
+        if (sampleCapacity <= 0 || Integer.bitCount(sampleCapacity) != 1) {
+            throw new IllegalArgumentException("Sample capacity must be a positive power of two: " + sampleCapacity);
+        }
+        this.sampleInterval = sampleInterval;
+        this.out = out;
+        this.waitStrategy = waitStrategy;
+        this.samples = new Sample[sampleCapacity];
+        this.mask = sampleCapacity - 1;
+        for (int i=0;i<sampleCapacity;i++) {
+            samples[i] = new Sample();
+        }
+        logger = new Thread(this::printSamples, "vwap-reject-logger");
+        logger.setDaemon(true);
+        logger.start();
+    }
+
+    /**
+     * Validate the MarketUpdate.
+     * @return the reason why the update is not valid, or null if it is valid
+     */
+    public static RejectReason validate(final MarketUpdate marketUpdate) {
+        if (marketUpdate == null) {
+            return RejectReason.NULL_UPDATE;
+        }
+        if (marketUpdate.getMarket() == null) {
+            return RejectReason.NULL_MARKET;
+        }
+        TwoWayPrice price = marketUpdate.getTwoWayPrice();
+        if (price == null) {
+            return RejectReason.NULL_TWO_WAY_PRICE;
+        }
+        if (price.getInstrument() == null) {
+            return RejectReason.NULL_INSTRUMENT;
+        }
+        return validatePrice(price);
+    }
+
+    /**
+     * Validate the state, prices and amounts of the TwoWayPrice, regardless of its instrument.
+     * @return the reason why the price is not valid, or null if it is valid
+     */
+    public static RejectReason validatePrice(final TwoWayPrice price) {
+        if (price == null) {
+            return RejectReason.NULL_TWO_WAY_PRICE;
+        }
+        if (price.getState() == null) {
+            return RejectReason.NULL_STATE;
+        }
+        double bidPrice = price.getBidPrice();
+        double offerPrice = price.getOfferPrice();
+        if (Double.isNaN(bidPrice) || Double.isNaN(offerPrice)) {
+            return RejectReason.NAN_PRICE;
+        }
+        if (bidPrice <= 0.0d || offerPrice <= 0.0d) {
+            return RejectReason.NON_POSITIVE_PRICE;
+        }
+        double bidAmount = price.getBidAmount();
+        double offerAmount = price.getOfferAmount();
+        if (Double.isNaN(bidAmount) || Double.isNaN(offerAmount)) {
+            return RejectReason.NAN_AMOUNT;
+        }
+        if (bidAmount <= 0.0d || offerAmount <= 0.0d) {
+            return RejectReason.NON_POSITIVE_AMOUNT;
+        }
+        return null;
+    }
+
+    /**
+     * Validate the MarketDepth. Each level's price and amount shall be positive, a side may have no level.
+     * @param maxLevels the maximum number of levels of each side
+     * @return the reason why the depth is not valid, or null if it is valid
+     */
+    public static RejectReason validateDepth(final MarketDepth depth, final int maxLevels) {
+        if (depth == null) {
+            return RejectReason.NULL_UPDATE;
+        }
+        if (depth.getMarket() == null) {
+            return RejectReason.NULL_MARKET;
+        }
+        if (depth.getInstrument() == null) {
+            return RejectReason.NULL_INSTRUMENT;
+        }
+        for (Side side : SIDES) {
+            int levelCount = depth.getLevelCount(side);
+            if (levelCount > maxLevels) {
+                return RejectReason.TOO_MANY_LEVELS;
+            }
+            for (int level=0;level<levelCount;level++) {
+                double price = depth.getPrice(side, level);
+                double amount = depth.getAmount(side, level);
+                if (Double.isNaN(price)) {
+                    return RejectReason.NAN_PRICE;
+                }
+                if (price <= 0.0d) {
+                    return RejectReason.NON_POSITIVE_PRICE;
+                }
+                if (Double.isNaN(amount)) {
+                    return RejectReason.NAN_AMOUNT;
+                }
+                if (amount <= 0.0d) {
+                    return RejectReason.NON_POSITIVE_AMOUNT;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Count a rejected market update, and sample its details.
+     */
+    public void onRejected(final RejectReason reason, final MarketUpdate marketUpdate) {
+        Market market = marketUpdate == null ? null : marketUpdate.getMarket();
+        TwoWayPrice price = marketUpdate == null ? null : marketUpdate.getTwoWayPrice();
+        if (count(market == null ? UNKNOWN_MARKET : market.ordinal(), reason)) {
+            sample(reason, market == null ? NULL_ORDINAL : market.ordinal(), NO_EXTERNAL_ID, NO_EXTERNAL_ID, price, null);
+        }
+    }
+
+    /**
+     * Count a rejected market depth, see {@link DepthVwapCalculator}, and sample its market and instrument.
+     */
+    public void onRejected(final RejectReason reason, final MarketDepth depth) {
+        Market market = depth == null ? null : depth.getMarket();
+        if (count(market == null ? UNKNOWN_MARKET : market.ordinal(), reason)) {
+            sample(reason, market == null ? NULL_ORDINAL : market.ordinal(), NO_EXTERNAL_ID, NO_EXTERNAL_ID, null, depth);
+        }
+    }
+
+    /**
+     * Count a rejected quote of instrument and market external ids, see {@link DynamicVwapCalculator}.
+     * These are counted with the rejects of unknown market.
+     */
+    public void onRejected(final RejectReason reason, final long instrumentId, final long marketId, final TwoWayPrice price) {
+        if (count(UNKNOWN_MARKET, reason)) {
+            sample(reason, NULL_ORDINAL, instrumentId, marketId, price, null);
+        }
+    }
+
+    /**
+     * @param market the market, or null for the rejects without a known market
+     */
+    public long getRejectCount(final Market market, final RejectReason reason) {
+        return rejectCounts.get(index(market == null ? UNKNOWN_MARKET : market.ordinal(), reason));
+    }
+
+    /**
+     * @return the number of rejects of the reason over all the markets
+     */
+    public long getRejectCount(final RejectReason reason) {
+        long count = 0L;
+        for (int market=0;market<=UNKNOWN_MARKET;market++) {
+            count += rejectCounts.get(index(market, reason));
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of samples not printed because the ring buffer was full
+     */
+    public long getDroppedSampleCount() {
+        return droppedSamples.get();
+    }
+
+    /**
+     * Stop the background thread after it has printed the pending samples.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(logger);
+        try {
+            logger.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return true if this reject should be sampled
+     */
+    private boolean count(int market, RejectReason reason) {
+        int index = index(market, reason);
+        // single writer, so an ordered store is enough to publish the count
+        long count = rejectCounts.get(index) + 1;
+        rejectCounts.lazySet(index, count);
+        return (count - 1) % sampleInterval == 0;
+    }
+
+    private void sample(RejectReason reason, int market, long instrumentId, long marketId, TwoWayPrice price, MarketDepth depth) {
+        long sequence = tail.get();
+        if (sequence - head.get() >= samples.length) {
+            droppedSamples.lazySet(droppedSamples.get() + 1);
+            return;
+        }
+        Sample sample = samples[(int) sequence & mask];
+        sample.reason = reason;
+        sample.market = market;
+        sample.instrumentId = instrumentId;
+        sample.marketId = marketId;
+        sample.hasPrice = price != null;
+        sample.isDepth = depth != null;
+        if (depth != null) {
+            Instrument instrument = depth.getInstrument();
+            sample.instrument = instrument == null ? NULL_ORDINAL : instrument.ordinal();
+        }
+        if (price != null) {
+            Instrument instrument = price.getInstrument();
+            State state = price.getState();
+            sample.instrument = instrument == null ? NULL_ORDINAL : instrument.ordinal();
+            sample.state = state == null ? NULL_ORDINAL : state.ordinal();
+            sample.bidPrice = price.getBidPrice();
+            sample.offerPrice = price.getOfferPrice();
+            sample.bidAmount = price.getBidAmount();
+            sample.offerAmount = price.getOfferAmount();
+        }
+        // a volatile store, so that either the logger sees the sample or this sees the logger sleeping
+        tail.set(sequence + 1);
+        if (sleeping) {
+            LockSupport.unpark(logger);
+        }
+    }
+
+    private void printSamples() {
+        StringBuilder builder = new StringBuilder();
+        while (running || head.get() < tail.get()) {
+            long sequence = head.get();
+            if (sequence >= tail.get()) {
+                if (waitStrategy != null) {
+                    waitStrategy.idle();
+                } else {
+                    sleeping = true;
+                    if (running && head.get() >= tail.get()) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                }
+                continue;
+            }
+            samples[(int) sequence & mask].format(builder);
+            head.lazySet(sequence + 1);
+            out.println(builder);
+        }
+    }
+
+    private static int index(int market, RejectReason reason) {
+        return market * REASONS.length + reason.ordinal();
+    }
+
+    private final class Sample {
+
+        private RejectReason reason;
+        private int market;
+        private long instrumentId;
+        private long marketId;
+        private boolean hasPrice;
+        private boolean isDepth;
+        private int instrument;
+        private int state;
+        private double bidPrice;
+        private double offerPrice;
+        private double bidAmount;
+        private double offerAmount;
+
+        void format(StringBuilder builder) {
+            builder.setLength(0);
+            builder.append(isDepth ? "Invalid market depth - reason=" : "Invalid market update - reason=").append(reason)
+                    .append(", count=").append(getRejectCount(market == NULL_ORDINAL ? null : MARKETS[market], reason));
+            if (instrumentId != NO_EXTERNAL_ID) {
+                builder.append(", instrumentId=").append(instrumentId)
+                        .append(", marketId=").append(marketId);
+            } else {
+                builder.append(", market=").append(market == NULL_ORDINAL ? null : MARKETS[market]);
+            }
+            if (isDepth) {
+                builder.append(", instrument=").append(instrument == NULL_ORDINAL ? null : INSTRUMENTS[instrument]);
+                return;
+            }
+            if (!hasPrice) {
+                builder.append(", twoWayPrice=null");
+                return;
+            }
+            builder.append(", instrument=").append(instrument == NULL_ORDINAL ? null : INSTRUMENTS[instrument])
+                    .append(", state=").append(state == NULL_ORDINAL ? null : STATES[state])
+                    .append(", bidPrice=").append(bidPrice)
+                    .append(", offerPrice=").append(offerPrice)
+                    .append(", bidAmount=").append(bidAmount)
+                    .append(", offerAmount=").append(offerAmount);
+        }
+    }
+}
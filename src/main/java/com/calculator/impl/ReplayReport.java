@@ -0,0 +1,81 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.TwoWayPrice;
+
+/**
+ * Outcome of a {@link CaptureReplay} run.
+ */
+public class ReplayReport {
+
+    private final long updateCount;
+    private final long invalidCount;
+    private final long elapsedNanos;
+    private final LatencyHistogram latencyHistogram;
+    private final TwoWayPrice[] finalVwaps;
+
+    ReplayReport(long updateCount, long invalidCount, long elapsedNanos, LatencyHistogram latencyHistogram, TwoWayPrice[] finalVwaps) {
+        this.updateCount = updateCount;
+        this.invalidCount = invalidCount;
+        this.elapsedNanos = elapsedNanos;
+        this.latencyHistogram = latencyHistogram;
+        this.finalVwaps = finalVwaps;
+    }
+
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * @return number of updates counted by the rejection monitor of the calculator
+     */
+    public long getInvalidCount() {
+        return invalidCount;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getUpdatesPerSecond() {
+        return elapsedNanos == 0L ? 0.0d : updateCount * 1_000_000_000.0d / elapsedNanos;
+    }
+
+    /**
+     * @return latency of the timed applyMarketUpdate() calls in nanoseconds, one in every latency sample interval
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    /**
+     * @return the VWAP of the instrument at the end of the replay, or null if it has none
+     */
+    public TwoWayPrice getFinalVwap(Instrument instrument) {
+        return finalVwaps[instrument.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("updates=").append(updateCount)
+                .append(", invalid=").append(invalidCount)
+                .append(", elapsedMillis=").append(elapsedNanos / 1_000_000L)
+                .append(", updatesPerSecond=").append((long) getUpdatesPerSecond())
+                .append('\n');
+        builder.append("latency nanos: mean=").append((long) latencyHistogram.getMean())
+                .append(", p50=").append(latencyHistogram.getValueAtPercentile(50.0d))
+                .append(", p90=").append(latencyHistogram.getValueAtPercentile(90.0d))
+                .append(", p99=").append(latencyHistogram.getValueAtPercentile(99.0d))
+                .append(", p99.9=").append(latencyHistogram.getValueAtPercentile(99.9d))
+                .append(", p99.99=").append(latencyHistogram.getValueAtPercentile(99.99d))
+                .append(", max=").append(latencyHistogram.getMax())
+                .append('\n');
+        for (TwoWayPrice vwap : finalVwaps) {
+            if (vwap != null) {
+                builder.append(vwap).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+}
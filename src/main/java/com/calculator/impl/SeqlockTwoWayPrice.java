@@ -0,0 +1,92 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.State;
+import com.calculator.TwoWayPrice;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * A two-way price published by one writer thread and read by any number of reader threads through a sequence lock.
+ *
+ * The writer makes the sequence odd, writes the fields and makes it even again, it never waits for the readers.
+ * A reader copies the fields and retries if the sequence was odd or has moved meanwhile, so it never sees a torn
+ * mix of bid/offer/state and neither side locks or allocates.
+ */
+class SeqlockTwoWayPrice {
+
+    private volatile long sequence = 0L;
+
+    private Instrument instrument;
+    private State state;
+    private double bidPrice;
+    private double offerPrice;
+    private double bidAmount;
+    private double offerAmount;
+
+    /**
+     * Must only be called from the single writer thread.
+     */
+    void publish(final TwoWayPrice price) {
+        long current = sequence;
+        sequence = current + 1;
+        // keep the field writes below the odd sequence
+        VarHandle.storeStoreFence();
+        instrument = price.getInstrument();
+        state = price.getState();
+        bidPrice = price.getBidPrice();
+        offerPrice = price.getOfferPrice();
+        bidAmount = price.getBidAmount();
+        offerAmount = price.getOfferAmount();
+        sequence = current + 2;
+    }
+
+    /**
+     * @return the version of the last published price, 0 if nothing has been published yet
+     */
+    long version() {
+        return sequence & ~1L;
+    }
+
+    /**
+     * Copy a consistent snapshot of the last published price.
+     * @return false if nothing has been published yet, in which case into is untouched
+     */
+    boolean read(final MutableTwoWayPrice into) {
+        return readVersion(into) != 0L;
+    }
+
+    /**
+     * Copy a consistent snapshot of the last published price.
+     * @return the version of the copied price, which grows with each publish, or 0 if nothing has been published yet
+     */
+    long readVersion(final MutableTwoWayPrice into) {
+        while (true) {
+            long before = sequence;
+            if (before == 0L) {
+                return 0L;
+            }
+            if ((before & 1L) != 0L) {
+                Thread.onSpinWait();
+                continue;
+            }
+            Instrument instrument = this.instrument;
+            State state = this.state;
+            double bidPrice = this.bidPrice;
+            double offerPrice = this.offerPrice;
+            double bidAmount = this.bidAmount;
+            double offerAmount = this.offerAmount;
+            // keep the field reads above the second sequence read
+            VarHandle.loadLoadFence();
+            if (before == sequence) {
+                into.setInstrument(instrument);
+                into.setState(state);
+                into.setBidPrice(bidPrice);
+                into.setOfferPrice(offerPrice);
+                into.setBidAmount(bidAmount);
+                into.setOfferAmount(offerAmount);
+                return before;
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+
+/**
+ * Multi-core implementation of VWAP two-way price for input {@link MarketUpdate}
+ *
+ * Instruments are split across a number of shards, each one owned by a worker thread which holds the
+ * {@link SingleInstrumentVwapCalculator} state of its instruments. Updates are copied into the shard's
+ * {@link SpscRingBuffer} by the feed thread, so the per-instrument results are the same as {@link DefaultVwapCalculator}
+ * while the calculation of different instruments runs in parallel.
+ *
+ * The process calling applyMarketUpdate() must be single threaded.
+ * The calculation is asynchronous, the VWAP is delivered to the {@link VwapSink} on the shard's worker thread.
+ * An exception thrown by the sink, or by the calculation, is counted and the worker goes on with the next update, see
+ * {@link #getFailureCount()}.
+ */
+public class ShardedVwapCalculator implements VwapCalculator, AutoCloseable {
+
+    private final Instrument[] INSTRUMENTS = Instrument.values();
+    private final Shard[] shards;
+    // shard index for each instrument ordinal
+    private final int[] shardOfInstrument = new int[INSTRUMENTS.length];
+    private final WaitStrategy waitStrategy;
+    private final RejectionMonitor rejectionMonitor = new RejectionMonitor();
+    private volatile RuntimeException lastFailure;
+
+    public ShardedVwapCalculator(int shardCount, int queueCapacity, WaitStrategy waitStrategy, VwapSink sink) {
+        this(shardCount, queueCapacity, waitStrategy, sink, QuoteStorage.OBJECT);
+    }
+
+    /**
+     * @param shardCount number of worker threads
+     * @param queueCapacity capacity of each shard's ring buffer, must be a power of two
+     * @param waitStrategy used by the workers when their queue is empty and by the feed thread when a queue is full
+     * @param sink receives every calculated VWAP, called on the worker threads
+     * @param quoteStorage layout of the per-market quote cache of each instrument
+     */
+    public ShardedVwapCalculator(int shardCount, int queueCapacity, WaitStrategy waitStrategy, VwapSink sink,
+                                 QuoteStorage quoteStorage) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        this.waitStrategy = waitStrategy;
+        this.shards = new Shard[Math.min(shardCount, INSTRUMENTS.length)];
+        for (int i=0;i<shards.length;i++) {
+            shards[i] = new Shard(i, queueCapacity, sink);
+        }
+        for (int i=0;i<INSTRUMENTS.length;i++) {
+            // round robin so that the instruments are evenly spread
+            int shardIndex = i % shards.length;
+            shardOfInstrument[i] = shardIndex;
+            shards[shardIndex].calculators[i] = new SingleInstrumentVwapCalculator(INSTRUMENTS[i], quoteStorage);
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    /**
+     * @return null as the VWAP is calculated asynchronously and delivered to the {@link VwapSink}
+     */
+    @Override
+    public TwoWayPrice applyMarketUpdate(final MarketUpdate twoWayMarketPrice) {
+        RejectReason rejectReason = RejectionMonitor.validate(twoWayMarketPrice);
+        if (rejectReason != null){
+            rejectionMonitor.onRejected(rejectReason, twoWayMarketPrice);
+            return null;
+        }
+        Instrument instrument = twoWayMarketPrice.getTwoWayPrice().getInstrument();
+        shards[shardOfInstrument[instrument.ordinal()]].queue.offer(twoWayMarketPrice);
+        return null;
+    }
+
+    /**
+     * Copy the last VWAP two-way price of the instrument, can be called from any thread.
+     * See {@link DefaultVwapCalculator#getVwap(Instrument, MutableTwoWayPrice)}
+     */
+    @Override
+    public boolean getVwap(final Instrument instrument, final MutableTwoWayPrice into) {
+        return shards[shardOfInstrument[instrument.ordinal()]].calculators[instrument.ordinal()].readVwap(into);
+    }
+
+    /**
+     * Invalid updates are rejected on the thread calling applyMarketUpdate(), before reaching the shards.
+     */
+    @Override
+    public RejectionMonitor getRejectionMonitor() {
+        return rejectionMonitor;
+    }
+
+    /**
+     * Wait until every update applied so far has been calculated and delivered to the {@link VwapSink}.
+     * Must be called from the thread calling applyMarketUpdate().
+     * @throws IllegalStateException if a worker thread has died, instead of waiting for it forever
+     */
+    @Override
+    public void flush() {
+        for (Shard shard : shards) {
+            while (!shard.isIdle()) {
+                if (!shard.thread.isAlive()) {
+                    throw new IllegalStateException("Worker thread " + shard.thread.getName() + " has died");
+                }
+                waitStrategy.idle();
+            }
+        }
+    }
+
+    /**
+     * @return the number of updates whose calculation or delivery to the {@link VwapSink} threw an exception,
+     * can be called from any thread
+     */
+    public long getFailureCount() {
+        long count = 0L;
+        for (Shard shard : shards) {
+            count += shard.failureCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return the last exception thrown by the calculation or the {@link VwapSink} on any worker, null if none
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Stop the worker threads after they have drained their queues.
+     */
+    @Override
+    public void close() {
+        rejectionMonitor.close();
+        for (Shard shard : shards) {
+            shard.running = false;
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    int getShardCount() {
+        return shards.length;
+    }
+
+    private final class Shard implements Runnable {
+
+        private final SpscRingBuffer queue;
+        // indexed by instrument ordinal, only the instruments of this shard are populated
+        private final SingleInstrumentVwapCalculator[] calculators = new SingleInstrumentVwapCalculator[INSTRUMENTS.length];
+        private final VwapSink sink;
+        private final Thread thread;
+        private volatile boolean running = true;
+        // set by the worker once the update it polled has been delivered
+        private volatile boolean busy = false;
+        // only written by the worker
+        private volatile long failureCount = 0L;
+
+        Shard(int index, int queueCapacity, VwapSink sink) {
+            this.queue = new SpscRingBuffer(queueCapacity, waitStrategy);
+            this.sink = sink;
+            this.thread = new Thread(this, "vwap-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                MarketUpdate marketUpdate = queue.poll();
+                if (marketUpdate == null) {
+                    waitStrategy.idle();
+                    continue;
+                }
+                busy = true;
+                try {
+                    TwoWayPrice vwap;
+                    try {
+                        vwap = calculators[marketUpdate.getTwoWayPrice().getInstrument().ordinal()].calculate(marketUpdate);
+                    } finally {
+                        queue.release();
+                    }
+                    sink.onVwap(vwap);
+                } catch (RuntimeException e) {
+                    // the worker must go on, or flush() and close() would wait for its queue forever
+                    failureCount = failureCount + 1;
+                    lastFailure = e;
+                } finally {
+                    busy = false;
+                }
+            }
+        }
+
+        boolean isIdle() {
+            return queue.isEmpty() && !busy;
+        }
+    }
+}
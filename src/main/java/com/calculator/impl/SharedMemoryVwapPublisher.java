@@ -0,0 +1,143 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.State;
+import com.calculator.TwoWayPrice;
+import com.calculator.VwapSink;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the latest VWAP of each instrument into a memory-mapped file, so that the other processes of the host read
+ * them with a {@link SharedMemoryVwapReader} instead of each calculating them from the full feed, see
+ * {@link DefaultVwapCalculator#publishToSharedMemory(SharedMemoryVwapPublisher)}.
+ *
+ * Each instrument has a slot of one cache line, published through a sequence lock like {@link SeqlockTwoWayPrice}:
+ * the writer makes the slot's sequence odd, writes the fields and makes it even again, never waiting for the readers,
+ * and a reader retries if the sequence was odd or has moved while it copied the fields. The sequences are read and
+ * written with the memory ordering of a {@link VarHandle} view of the mapping, which holds across processes since they
+ * share the same physical memory. Nothing is allocated on publish.
+ *
+ * A writer which died in the middle of a write leaves the slot's sequence odd, and the readers of that instrument wait
+ * until the next writer opens the file, which resets such slots to never published.
+ *
+ * File layout, little endian:
+ * <pre>
+ * offset length
+ *      0      4  magic
+ *      4      4  version
+ *      8      4  number of instruments
+ *     12      4  slot length
+ *     64         one slot per instrument, by ordinal
+ * slot:
+ *      0      8  sequence, 0 if nothing has been published yet
+ *      8      8  bid price
+ *     16      8  offer price
+ *     24      8  bid amount
+ *     32      8  offer amount
+ *     40      1  state ordinal
+ * </pre>
+ *
+ * Single writer, {@link #onVwap(TwoWayPrice)} must be called from one thread at a time.
+ */
+public class SharedMemoryVwapPublisher implements VwapSink, AutoCloseable {
+
+    static final int MAGIC = 0x56574153;
+    static final int VERSION = 1;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int INSTRUMENT_COUNT_OFFSET = 8;
+    static final int SLOT_LENGTH_OFFSET = 12;
+    static final int HEADER_LENGTH = 64;
+    // the magic and the version read as one long
+    static final long MAGIC_AND_VERSION = (long) VERSION << 32 | MAGIC;
+
+    static final int SEQUENCE_OFFSET = 0;
+    static final int BID_PRICE_OFFSET = 8;
+    static final int OFFER_PRICE_OFFSET = 16;
+    static final int BID_AMOUNT_OFFSET = 24;
+    static final int OFFER_AMOUNT_OFFSET = 32;
+    static final int STATE_OFFSET = 40;
+    // a cache line, so the readers of an instrument do not contend with the writes of the others
+    static final int SLOT_LENGTH = 64;
+
+    static final int INSTRUMENT_COUNT = Instrument.values().length;
+    static final long FILE_LENGTH = HEADER_LENGTH + (long) INSTRUMENT_COUNT * SLOT_LENGTH;
+
+    // the sequence of a slot, read and written with memory ordering
+    static final VarHandle SEQUENCE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer file;
+
+    /**
+     * Open or create the file, keeping the VWAPs it holds until they are published again.
+     */
+    public SharedMemoryVwapPublisher(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.file = channel.map(FileChannel.MapMode.READ_WRITE, 0L, FILE_LENGTH);
+        file.order(ByteOrder.LITTLE_ENDIAN);
+        if (file.getLong(MAGIC_OFFSET) != MAGIC_AND_VERSION
+                || file.getInt(INSTRUMENT_COUNT_OFFSET) != INSTRUMENT_COUNT || file.getInt(SLOT_LENGTH_OFFSET) != SLOT_LENGTH) {
+            // a new file, or one of another layout, starts with nothing published
+            for (int offset=0;offset<FILE_LENGTH;offset+=Long.BYTES) {
+                file.putLong(offset, 0L);
+            }
+            file.putInt(INSTRUMENT_COUNT_OFFSET, INSTRUMENT_COUNT);
+            file.putInt(SLOT_LENGTH_OFFSET, SLOT_LENGTH);
+            // the magic and version last, a reader only trusts the header once they are there
+            SEQUENCE.setRelease(file, MAGIC_OFFSET, MAGIC_AND_VERSION);
+        }
+        for (int instrument=0;instrument<INSTRUMENT_COUNT;instrument++) {
+            int slot = slotOffset(instrument);
+            if ((file.getLong(slot + SEQUENCE_OFFSET) & 1L) != 0L) {
+                SEQUENCE.setRelease(file, slot + SEQUENCE_OFFSET, 0L);
+            }
+        }
+    }
+
+    /**
+     * Write the VWAP into its instrument's slot.
+     */
+    @Override
+    public void onVwap(final TwoWayPrice vwap) {
+        int slot = slotOffset(vwap.getInstrument().ordinal());
+        long current = file.getLong(slot + SEQUENCE_OFFSET);
+        SEQUENCE.setOpaque(file, slot + SEQUENCE_OFFSET, current + 1);
+        // keep the field writes below the odd sequence
+        VarHandle.storeStoreFence();
+        file.putDouble(slot + BID_PRICE_OFFSET, vwap.getBidPrice());
+        file.putDouble(slot + OFFER_PRICE_OFFSET, vwap.getOfferPrice());
+        file.putDouble(slot + BID_AMOUNT_OFFSET, vwap.getBidAmount());
+        file.putDouble(slot + OFFER_AMOUNT_OFFSET, vwap.getOfferAmount());
+        State state = vwap.getState();
+        file.put(slot + STATE_OFFSET, state == null ? (byte) MarketUpdateLayout.NULL_ORDINAL : (byte) state.ordinal());
+        SEQUENCE.setRelease(file, slot + SEQUENCE_OFFSET, current + 2);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Unmap the file on the next garbage collection, the VWAPs stay in it for the readers.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    static int slotOffset(int instrument) {
+        return HEADER_LENGTH + instrument * SLOT_LENGTH;
+    }
+}
@@ -0,0 +1,128 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.State;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.calculator.impl.SharedMemoryVwapPublisher.*;
+
+/**
+ * Reads the VWAPs written by a {@link SharedMemoryVwapPublisher}, usually of another process of the host, straight
+ * from the mapped file. A read copies a consistent snapshot of the instrument's slot, it never locks, never waits for
+ * the writer except while it is writing that slot, and does not allocate. A writer which died in the middle of writing
+ * a slot leaves it odd until the next writer starts, a read then gives up after {@link #MAX_ATTEMPTS} attempts.
+ *
+ * Can be opened before the writer has published anything, and keeps reading the file when the writer restarts.
+ * Thread safe, any number of threads and processes can read the same file.
+ */
+public class SharedMemoryVwapReader implements AutoCloseable {
+
+    private static final State[] STATES = State.values();
+    /**
+     * Returned by {@link #readVersion(Instrument, MutableTwoWayPrice)} when every attempt saw the slot being written,
+     * because the writer is in the middle of writing it, or died there.
+     */
+    public static final long WRITER_BUSY = -1L;
+    // attempts of a read before it gives up, each one a spin wait, so that a dead writer does not hang the readers
+    static final int MAX_ATTEMPTS = 1 << 20;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer file;
+
+    /**
+     * Map the file written by a publisher.
+     * @throws IllegalStateException if the file was not written by a publisher of this version and instruments
+     */
+    public SharedMemoryVwapReader(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() < FILE_LENGTH) {
+                throw new IllegalStateException("Not a VWAP file: " + path);
+            }
+            this.file = channel.map(FileChannel.MapMode.READ_ONLY, 0L, FILE_LENGTH);
+            file.order(ByteOrder.LITTLE_ENDIAN);
+            if ((long) SEQUENCE.getAcquire(file, MAGIC_OFFSET) != MAGIC_AND_VERSION
+                    || file.getInt(INSTRUMENT_COUNT_OFFSET) != INSTRUMENT_COUNT || file.getInt(SLOT_LENGTH_OFFSET) != SLOT_LENGTH) {
+                throw new IllegalStateException("Not a VWAP file of this version and instruments: " + path);
+            }
+        } catch (RuntimeException | IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copy a consistent snapshot of the last VWAP published for the instrument.
+     * @return false if nothing has been published yet, or the writer is stuck writing it, see
+     * {@link #readVersion(Instrument, MutableTwoWayPrice)}, in which case into is untouched
+     */
+    public boolean read(final Instrument instrument, final MutableTwoWayPrice into) {
+        return readVersion(instrument, into) > 0L;
+    }
+
+    /**
+     * Copy a consistent snapshot of the last VWAP published for the instrument.
+     * @return the version of the copied VWAP, which grows with each publish, 0 if nothing has been published yet, or
+     * {@link #WRITER_BUSY} if the slot was being written on each of the {@link #MAX_ATTEMPTS} attempts, in which case
+     * into is untouched
+     */
+    public long readVersion(final Instrument instrument, final MutableTwoWayPrice into) {
+        int slot = slotOffset(instrument.ordinal());
+        for (int attempt=0;attempt<MAX_ATTEMPTS;attempt++) {
+            long before = (long) SEQUENCE.getAcquire(file, slot + SEQUENCE_OFFSET);
+            if (before == 0L) {
+                return 0L;
+            }
+            if ((before & 1L) != 0L) {
+                Thread.onSpinWait();
+                continue;
+            }
+            double bidPrice = file.getDouble(slot + BID_PRICE_OFFSET);
+            double offerPrice = file.getDouble(slot + OFFER_PRICE_OFFSET);
+            double bidAmount = file.getDouble(slot + BID_AMOUNT_OFFSET);
+            double offerAmount = file.getDouble(slot + OFFER_AMOUNT_OFFSET);
+            byte state = file.get(slot + STATE_OFFSET);
+            // keep the field reads above the second sequence read
+            VarHandle.loadLoadFence();
+            if (before == (long) SEQUENCE.getAcquire(file, slot + SEQUENCE_OFFSET)) {
+                into.setInstrument(instrument);
+                into.setState(state < 0 ? null : STATES[state]);
+                into.setBidPrice(bidPrice);
+                into.setOfferPrice(offerPrice);
+                into.setBidAmount(bidAmount);
+                into.setOfferAmount(offerAmount);
+                return before;
+            }
+        }
+        return WRITER_BUSY;
+    }
+
+    /**
+     * @return the version of the last VWAP published for the instrument, to poll for a new one without copying it,
+     * 0 if nothing has been published yet
+     */
+    public long version(final Instrument instrument) {
+        return (long) SEQUENCE.getAcquire(file, slotOffset(instrument.ordinal()) + SEQUENCE_OFFSET) & ~1L;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Close the file, the mapping is released when the reader is garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,481 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.calculator.impl.StateSnapshotter.*;
+
+/**
+ * The VWAP two-way price calculator for each instrument
+ * Assume input {@link MarketUpdate} is validated and always on the same instrument
+ */
+class SingleInstrumentVwapCalculator {
+
+    private final MutableTwoWayPrice result;
+    // the same price as result when the best bid and offer are tracked, null otherwise
+    private final TopOfBookTwoWayPrice topOfBookResult;
+    // VWAP of the running sums, compared with a bulk recalculation
+    private final MutableTwoWayPrice incrementalResult = new DefaultTwoWayPrice();
+    // copy of result which is safe to read from other threads
+    private final SeqlockTwoWayPrice publishedResult = new SeqlockTwoWayPrice();
+    // cache for market updates which are currently taking effect, one slot per market quoting the instrument
+    // so that only the markets actually quoting it hold a price, found by Market ordinal or, for dynamic ids, by hashing
+    private final QuoteStore marketPriceCache;
+
+    private final VwapAccumulator accumulator;
+    // counter for indicative market, if positive then result state is INDICATIVE
+    private int indicativeCounter = 0;
+    // number of markets with a quote in marketPriceCache
+    private int quotingMarketCount = 0;
+    // markets ordered by their bid and offer prices, for the best bid and offer of the result, null when not tracked
+    private final BestPriceTree bestPrices;
+    // variants of the VWAP over the same quotes, updated in the same pass, replaced as a whole when a view is added
+    // or removed, volatile for the readers of the views on other threads
+    private volatile View[] views = new View[0];
+
+    SingleInstrumentVwapCalculator(Instrument instrument, QuoteStorage quoteStorage) {
+        this(instrument, quoteStorage, false);
+    }
+
+    /**
+     * @param topOfBook whether to track the best bid and offer, the result is then a {@link TopOfBookPrice}
+     */
+    SingleInstrumentVwapCalculator(Instrument instrument, QuoteStorage quoteStorage, boolean topOfBook) {
+        this(instrument, quoteStorage, new DoubleVwapAccumulator(), topOfBook);
+    }
+
+    /**
+     * @param instrument null for an instrument of a {@link DynamicVwapCalculator}, whose market ids are not bounded by
+     * the {@link Market} ordinals
+     * @param topOfBook whether to track the best bid and offer, the result is then a {@link TopOfBookPrice}
+     */
+    SingleInstrumentVwapCalculator(Instrument instrument, QuoteStorage quoteStorage, VwapAccumulator accumulator,
+                                   boolean topOfBook) {
+        topOfBookResult = topOfBook ? new TopOfBookTwoWayPrice() : null;
+        bestPrices = topOfBook ? new BestPriceTree() : null;
+        result = topOfBook ? topOfBookResult : new DefaultTwoWayPrice();
+        result.setInstrument(instrument);
+        marketPriceCache = quoteStorage.create(instrument == null ? QuoteStore.UNBOUNDED : Market.values().length);
+        this.accumulator = accumulator;
+    }
+
+    /**
+     * Calculate a view of the VWAP from now on, its running sums are built from the cached quotes. Its VWAP is
+     * calculated by the next {@link #publish()}.
+     * @param weights weight of each market in the view, indexed by state ordinal and market
+     * @param viewAccumulator running sums of the view, of the same kind as the accumulator of the VWAP
+     */
+    void addView(final VwapView key, final double[][] weights, final VwapAccumulator viewAccumulator) {
+        View view = new View(result.getInstrument(), key, weights, viewAccumulator);
+        view.rebuild(marketPriceCache);
+        View[] views = Arrays.copyOf(this.views, this.views.length + 1);
+        views[views.length - 1] = view;
+        this.views = views;
+    }
+
+    void removeView(final VwapView key) {
+        View[] views = this.views;
+        for (int i=0;i<views.length;i++) {
+            if (views[i].key == key) {
+                View[] remaining = Arrays.copyOf(views, views.length - 1);
+                System.arraycopy(views, i + 1, remaining, i, views.length - i - 1);
+                this.views = remaining;
+                return;
+            }
+        }
+    }
+
+    TwoWayPrice calculate(final MarketUpdate marketUpdate) {
+        return calculate(marketUpdate.getMarket().ordinal(), marketUpdate.getTwoWayPrice());
+    }
+
+    /**
+     * @param market the market ordinal or dense market id of the update
+     * @param marketPriceUpdate the validated price, its instrument is not used
+     */
+    TwoWayPrice calculate(final int market, final TwoWayPrice marketPriceUpdate) {
+        accumulate(market, marketPriceUpdate);
+        return publish();
+    }
+
+    /**
+     * Replace the market's contribution in the running sums, without calculating the result.
+     */
+    void accumulate(final int market, final TwoWayPrice marketPriceUpdate) {
+        QuoteStore cache = marketPriceCache;
+        int slot = cache.slot(market);
+        accumulator.subtract(cache.getBidPrice(slot), cache.getBidAmount(slot),
+                cache.getOfferPrice(slot), cache.getOfferAmount(slot));
+        accumulator.add(marketPriceUpdate.getBidPrice(), marketPriceUpdate.getBidAmount(),
+                marketPriceUpdate.getOfferPrice(), marketPriceUpdate.getOfferAmount());
+        if (marketPriceUpdate.getState() != cache.getState(slot)) {
+            indicativeCounter = marketPriceUpdate.getState() == State.INDICATIVE ? indicativeCounter + 1 : indicativeCounter - 1;
+        }
+        if (!hasQuote(cache, slot)) {
+            quotingMarketCount++;
+        }
+        for (View view : views) {
+            view.replace(cache, slot, market, marketPriceUpdate);
+        }
+        if (bestPrices != null) {
+            bestPrices.set(market, marketPriceUpdate.getBidPrice(), marketPriceUpdate.getOfferPrice());
+        }
+
+        cache.set(slot, marketPriceUpdate);
+    }
+
+    /**
+     * Take the market's contribution out of the running sums, as if the market never quoted, without calculating the result.
+     * The slot of the market is freed.
+     * @return false if the market has no quote
+     */
+    boolean remove(final int market) {
+        QuoteStore cache = marketPriceCache;
+        int slot = cache.find(market);
+        if (slot == QuoteStore.NO_SLOT || !hasQuote(cache, slot)) {
+            return false;
+        }
+        accumulator.subtract(cache.getBidPrice(slot), cache.getBidAmount(slot),
+                cache.getOfferPrice(slot), cache.getOfferAmount(slot));
+        if (cache.getState(slot) == State.INDICATIVE) {
+            indicativeCounter--;
+        }
+        for (View view : views) {
+            view.replace(cache, slot, market, null);
+        }
+        if (bestPrices != null) {
+            bestPrices.remove(market);
+        }
+        cache.release(market);
+        if (--quotingMarketCount == 0) {
+            // exact zero sums, rather than the rounding residue of adding and subtracting every contribution
+            accumulator.reset();
+        }
+        return true;
+    }
+
+    /**
+     * Calculate the result from the running sums and publish it to the readers.
+     * Once every market's quote has been removed, the result is an empty firm price with zero prices and amounts.
+     * The best bid and offer, when tracked, come with the result, but are not published to the readers on other threads.
+     */
+    TwoWayPrice publish() {
+        if (quotingMarketCount == 0) {
+            result.setBidPrice(0.0d);
+            result.setOfferPrice(0.0d);
+            result.setBidAmount(0.0d);
+            result.setOfferAmount(0.0d);
+        } else {
+            accumulator.writeResult(result);
+        }
+        result.setState(getState());
+        if (topOfBookResult != null) {
+            topOfBookResult.setBestBid(bestPrices.bestMarket(BestPriceTree.BID), bestPrices.bestPrice(BestPriceTree.BID));
+            topOfBookResult.setBestOffer(bestPrices.bestMarket(BestPriceTree.OFFER), bestPrices.bestPrice(BestPriceTree.OFFER));
+        }
+        publishedResult.publish(result);
+        for (View view : views) {
+            view.publish();
+        }
+        return result;
+    }
+
+    /**
+     * Thread safe read of the last calculated VWAP of a view, see {@link SeqlockTwoWayPrice#read(MutableTwoWayPrice)}
+     * @return false if the view has no VWAP yet or is not calculated by this calculator
+     */
+    boolean readViewVwap(final VwapView key, final MutableTwoWayPrice into) {
+        for (View view : views) {
+            if (view.key == key) {
+                return view.publishedResult.read(into);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the last calculated VWAP, only to be read on the calculation thread
+     */
+    TwoWayPrice getResult() {
+        return result;
+    }
+
+    /**
+     * @return the last calculated VWAP with its best bid and offer, only to be read on the calculation thread,
+     * or null if they are not tracked
+     */
+    TopOfBookPrice getTopOfBookResult() {
+        return topOfBookResult;
+    }
+
+    /**
+     * @return the state of the VWAP of the current quotes, which does not need the VWAP to be calculated
+     */
+    State getState() {
+        return indicativeCounter > 0 ? State.INDICATIVE : State.FIRM;
+    }
+
+    /**
+     * Thread safe read of the last calculated VWAP, see {@link SeqlockTwoWayPrice#read(MutableTwoWayPrice)}
+     */
+    boolean readVwap(final MutableTwoWayPrice into) {
+        return publishedResult.read(into);
+    }
+
+    SeqlockTwoWayPrice getPublishedResult() {
+        return publishedResult;
+    }
+
+    boolean hasQuote(final int market) {
+        int slot = marketPriceCache.find(market);
+        return slot != QuoteStore.NO_SLOT && hasQuote(marketPriceCache, slot);
+    }
+
+    /**
+     * Copy the prices and amounts of the markets [0, marketCount) into the layout of {@link BulkRecalculator}.
+     */
+    void copyQuotes(final int marketCount, final double[] bidPrices, final double[] offerPrices,
+                    final double[] bidAmounts, final double[] offerAmounts, final int offset) {
+        marketPriceCache.copyTo(marketCount, bidPrices, offerPrices, bidAmounts, offerAmounts, offset);
+    }
+
+    /**
+     * Check every cached quote against fixed-point scales, see {@link FixedPointScales#validate(TwoWayPrice, double)}.
+     * @return null if every quote can be accumulated, the reason to reject the first one which can not otherwise
+     */
+    RejectReason validateQuotes(final FixedPointScales fixedPointScales, final double minWeight, final double maxWeight) {
+        QuoteStore cache = marketPriceCache;
+        MutableTwoWayPrice quote = new DefaultTwoWayPrice();
+        quote.setInstrument(result.getInstrument());
+        for (int slot=0;slot<cache.size();slot++) {
+            if (hasQuote(cache, slot)) {
+                quote.setBidPrice(cache.getBidPrice(slot));
+                quote.setOfferPrice(cache.getOfferPrice(slot));
+                quote.setBidAmount(cache.getBidAmount(slot));
+                quote.setOfferAmount(cache.getOfferAmount(slot));
+                RejectReason rejectReason = fixedPointScales.validate(quote, minWeight, maxWeight);
+                if (rejectReason != null) {
+                    return rejectReason;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copy the amounts of the markets [0, marketCount) weighted by a view into the layout of {@link BulkRecalculator},
+     * with zero for the markets the view does not count.
+     * @param view index of the view, in the order the views were added
+     */
+    void copyViewAmounts(final int view, final int marketCount, final double[] bidAmounts, final double[] offerAmounts,
+                         final int offset) {
+        QuoteStore cache = marketPriceCache;
+        double[][] weights = views[view].weights;
+        Arrays.fill(bidAmounts, offset, offset + marketCount, 0.0d);
+        Arrays.fill(offerAmounts, offset, offset + marketCount, 0.0d);
+        for (int slot=0;slot<cache.size();slot++) {
+            int market = cache.market(slot);
+            if (market < marketCount && hasQuote(cache, slot)) {
+                double weight = weights[cache.getState(slot).ordinal()][market];
+                if (weight > 0.0d) {
+                    bidAmounts[offset + market] = cache.getBidAmount(slot) * weight;
+                    offerAmounts[offset + market] = cache.getOfferAmount(slot) * weight;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the running sums of a view with sums recalculated over the quotes it counts, see
+     * {@link #correct(double, double, double, double)}.
+     * @param view index of the view, in the order the views were added
+     */
+    void correctView(final int view, final double bidNotional, final double bidAmount, final double offerNotional,
+                     final double offerAmount) {
+        View correctedView = views[view];
+        if (correctedView.contributingMarketCount > 0) {
+            correctedView.accumulator.correct(bidNotional, bidAmount, offerNotional, offerAmount);
+        }
+    }
+
+    /**
+     * Compare the VWAP of the running sums with the VWAP of sums recalculated over every market's quote, then replace the
+     * running sums with the recalculated ones, see {@link VwapAccumulator#correct(double, double, double, double)}.
+     * The result is not calculated.
+     * @return the largest relative difference between the prices and amounts of the two VWAPs, 0 without a quote and
+     * infinite if the running sums give no price
+     */
+    double correct(final double bidNotional, final double bidAmount, final double offerNotional, final double offerAmount) {
+        if (quotingMarketCount == 0) {
+            return 0.0d;
+        }
+        accumulator.writeResult(incrementalResult);
+        double difference = relativeDifference(incrementalResult.getBidPrice(), bidNotional / bidAmount);
+        difference = Math.max(difference, relativeDifference(incrementalResult.getOfferPrice(), offerNotional / offerAmount));
+        difference = Math.max(difference, relativeDifference(incrementalResult.getBidAmount(), bidAmount));
+        difference = Math.max(difference, relativeDifference(incrementalResult.getOfferAmount(), offerAmount));
+        accumulator.correct(bidNotional, bidAmount, offerNotional, offerAmount);
+        return difference;
+    }
+
+    private static double relativeDifference(double incremental, double recalculated) {
+        double difference = Math.abs(incremental - recalculated) / Math.abs(recalculated);
+        // running sums which lost every amount to rounding give a NaN price
+        return Double.isNaN(difference) ? Double.POSITIVE_INFINITY : difference;
+    }
+
+    /**
+     * Write the running sums and the quote of each market, in the instrument record layout of {@link StateSnapshotter}.
+     */
+    void save(final ByteBuffer buffer, final int offset, final int marketCount) {
+        QuoteStore cache = marketPriceCache;
+        accumulator.save(buffer, offset + ACCUMULATOR_OFFSET);
+        for (int market=0;market<marketCount;market++) {
+            int quoteOffset = offset + QUOTES_OFFSET + market * QUOTE_LENGTH;
+            int slot = cache.find(market);
+            boolean cached = slot != QuoteStore.NO_SLOT;
+            buffer.putDouble(quoteOffset + BID_PRICE_OFFSET, cached ? cache.getBidPrice(slot) : 0.0d);
+            buffer.putDouble(quoteOffset + OFFER_PRICE_OFFSET, cached ? cache.getOfferPrice(slot) : 0.0d);
+            buffer.putDouble(quoteOffset + BID_AMOUNT_OFFSET, cached ? cache.getBidAmount(slot) : 0.0d);
+            buffer.putDouble(quoteOffset + OFFER_AMOUNT_OFFSET, cached ? cache.getOfferAmount(slot) : 0.0d);
+            buffer.put(quoteOffset + STATE_OFFSET, (byte) (cached ? cache.getState(slot).ordinal() : 0));
+        }
+    }
+
+    /**
+     * Replace the state of a new calculator with a record written by {@link #save(ByteBuffer, int, int)}, and publish its VWAP.
+     */
+    void restore(final ByteBuffer buffer, final int offset, final int marketCount) {
+        QuoteStore cache = marketPriceCache;
+        MutableTwoWayPrice quote = new DefaultTwoWayPrice();
+        State[] states = State.values();
+        accumulator.restore(buffer, offset + ACCUMULATOR_OFFSET);
+        for (int market=0;market<marketCount;market++) {
+            int quoteOffset = offset + QUOTES_OFFSET + market * QUOTE_LENGTH;
+            quote.setBidAmount(buffer.getDouble(quoteOffset + BID_AMOUNT_OFFSET));
+            if (!(quote.getBidAmount() > 0.0d)) {
+                continue;
+            }
+            quote.setBidPrice(buffer.getDouble(quoteOffset + BID_PRICE_OFFSET));
+            quote.setOfferPrice(buffer.getDouble(quoteOffset + OFFER_PRICE_OFFSET));
+            quote.setOfferAmount(buffer.getDouble(quoteOffset + OFFER_AMOUNT_OFFSET));
+            quote.setState(states[buffer.get(quoteOffset + STATE_OFFSET)]);
+            int slot = cache.slot(market);
+            for (View view : views) {
+                view.replace(cache, slot, market, quote);
+            }
+            if (bestPrices != null) {
+                bestPrices.set(market, quote.getBidPrice(), quote.getOfferPrice());
+            }
+            cache.set(slot, quote);
+            quotingMarketCount++;
+            if (quote.getState() == State.INDICATIVE) {
+                indicativeCounter++;
+            }
+        }
+        publish();
+    }
+
+    // valid quotes have positive amounts
+    private static boolean hasQuote(QuoteStore cache, int slot) {
+        return cache.getBidAmount(slot) > 0.0d;
+    }
+
+    /**
+     * Running sums and result of one {@link VwapView} of the instrument, over the quotes of the shared cache.
+     */
+    private static final class View {
+
+        // the view of the calculator this is the variant of
+        private final VwapView key;
+        // indexed by state ordinal and market
+        private final double[][] weights;
+        private final VwapAccumulator accumulator;
+        private final MutableTwoWayPrice result = new DefaultTwoWayPrice();
+        private final SeqlockTwoWayPrice publishedResult = new SeqlockTwoWayPrice();
+        // number of markets with a positive weight, and how many of them are indicative
+        private int contributingMarketCount = 0;
+        private int indicativeCounter = 0;
+
+        View(Instrument instrument, VwapView key, double[][] weights, VwapAccumulator accumulator) {
+            this.key = key;
+            this.weights = weights;
+            this.accumulator = accumulator;
+            result.setInstrument(instrument);
+        }
+
+        /**
+         * Replace the market's contribution, called before the cache is updated.
+         * @param slot the slot of the market in the cache
+         * @param update the new quote, or null when the quote is removed
+         */
+        void replace(QuoteStore cache, int slot, int market, TwoWayPrice update) {
+            if (hasQuote(cache, slot)) {
+                State state = cache.getState(slot);
+                double weight = weights[state.ordinal()][market];
+                if (weight > 0.0d) {
+                    accumulator.subtract(cache.getBidPrice(slot), cache.getBidAmount(slot) * weight,
+                            cache.getOfferPrice(slot), cache.getOfferAmount(slot) * weight);
+                    contributingMarketCount--;
+                    if (state == State.INDICATIVE) {
+                        indicativeCounter--;
+                    }
+                    if (contributingMarketCount == 0) {
+                        accumulator.reset();
+                    }
+                }
+            }
+            if (update != null) {
+                State state = update.getState();
+                double weight = weights[state.ordinal()][market];
+                if (weight > 0.0d) {
+                    accumulator.add(update.getBidPrice(), update.getBidAmount() * weight,
+                            update.getOfferPrice(), update.getOfferAmount() * weight);
+                    contributingMarketCount++;
+                    if (state == State.INDICATIVE) {
+                        indicativeCounter++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Replace the running sums with the contributions of the cached quotes.
+         */
+        void rebuild(QuoteStore cache) {
+            accumulator.reset();
+            contributingMarketCount = 0;
+            indicativeCounter = 0;
+            for (int slot=0;slot<cache.size();slot++) {
+                if (hasQuote(cache, slot)) {
+                    State state = cache.getState(slot);
+                    double weight = weights[state.ordinal()][cache.market(slot)];
+                    if (weight > 0.0d) {
+                        accumulator.add(cache.getBidPrice(slot), cache.getBidAmount(slot) * weight,
+                                cache.getOfferPrice(slot), cache.getOfferAmount(slot) * weight);
+                        contributingMarketCount++;
+                        if (state == State.INDICATIVE) {
+                            indicativeCounter++;
+                        }
+                    }
+                }
+            }
+        }
+
+        void publish() {
+            if (contributingMarketCount == 0) {
+                result.setBidPrice(0.0d);
+                result.setOfferPrice(0.0d);
+                result.setBidAmount(0.0d);
+                result.setOfferAmount(0.0d);
+            } else {
+                accumulator.writeResult(result);
+            }
+            result.setState(indicativeCounter > 0 ? State.INDICATIVE : State.FIRM);
+            publishedResult.publish(result);
+        }
+    }
+
+}
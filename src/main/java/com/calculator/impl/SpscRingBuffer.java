@@ -0,0 +1,111 @@
+package com.calculator.impl;
+
+import com.calculator.Market;
+import com.calculator.MarketUpdate;
+import com.calculator.TwoWayPrice;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer ring buffer of market updates.
+ *
+ * Slots are preallocated and the update is copied into the slot on offer, so the producer can reuse its
+ * {@link MarketUpdate} instance and nothing is allocated after construction.
+ * Exactly one thread may call {@link #offer(MarketUpdate)} and exactly one other thread may call {@link #poll()}/{@link #release()}.
+ */
+class SpscRingBuffer {
+
+    private final Slot[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    // next sequence to be written by the producer
+    private final PaddedSequence tail = new PaddedSequence();
+    // next sequence to be read by the consumer
+    private final PaddedSequence head = new PaddedSequence();
+    // producer local cache of head, to avoid reading the consumer's cache line on every offer
+    private long cachedHead = 0L;
+
+    SpscRingBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a positive power of two: " + capacity);
+        }
+        this.slots = new Slot[capacity];
+        this.mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+        for (int i=0;i<capacity;i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Copy the update into the next free slot, waiting with the {@link WaitStrategy} while the buffer is full.
+     */
+    void offer(final MarketUpdate marketUpdate) {
+        long sequence = tail.get();
+        long wrapPoint = sequence - slots.length;
+        while (wrapPoint >= cachedHead) {
+            cachedHead = head.get();
+            if (wrapPoint >= cachedHead) {
+                waitStrategy.idle();
+            }
+        }
+        Slot slot = slots[(int) sequence & mask];
+        slot.market = marketUpdate.getMarket();
+        slot.timestamp = marketUpdate.getTimestamp();
+        slot.twoWayPrice.copy(marketUpdate.getTwoWayPrice());
+        tail.lazySet(sequence + 1);
+    }
+
+    /**
+     * @return the oldest unconsumed update, or null if the buffer is empty. The slot stays owned by the consumer until {@link #release()}.
+     */
+    MarketUpdate poll() {
+        long sequence = head.get();
+        if (sequence >= tail.get()) {
+            return null;
+        }
+        return slots[(int) sequence & mask];
+    }
+
+    /**
+     * Hand the slot returned by the last {@link #poll()} back to the producer.
+     */
+    void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    private static final class Slot implements MarketUpdate {
+
+        private Market market;
+        private long timestamp;
+        private final MutableTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+
+        @Override
+        public Market getMarket() {
+            return market;
+        }
+
+        @Override
+        public TwoWayPrice getTwoWayPrice() {
+            return twoWayPrice;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    /**
+     * Sequence padded to fill its cache line so the producer and consumer counters do not false share.
+     */
+    @SuppressWarnings({"unused", "serial"})
+    private static final class PaddedSequence extends AtomicLong {
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
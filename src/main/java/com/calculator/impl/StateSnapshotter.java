@@ -0,0 +1,286 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.Market;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoints of the state of a {@link DefaultVwapCalculator} in a memory-mapped file, so that a restarted calculator
+ * publishes the same VWAPs as before the restart, instead of partial ones until every market has re-quoted every instrument.
+ *
+ * A checkpoint is taken on the thread applying the market updates, which only copies the running sums and the quote
+ * caches into a staging buffer. A background thread then writes the buffer into the file and forces it to storage.
+ * The calculator takes a checkpoint on the first update after each interval, and on demand with
+ * {@link DefaultVwapCalculator#checkpoint()}, which should be called on shutdown before {@link #close()}.
+ *
+ * The file holds two slots written alternately, each with a sequence number and a CRC32 of its body, so a crash in the
+ * middle of a write leaves the previous snapshot intact. {@link #restore(DefaultVwapCalculator)} loads the valid slot
+ * with the highest sequence. With an {@link UpdateJournal}, each snapshot records the journal position it was taken at,
+ * see {@link DefaultVwapCalculator#recover()}.
+ *
+ * File layout, little endian, slot 0 at offset 0 and slot 1 right after it:
+ * <pre>
+ * offset length
+ *      0      4  magic
+ *      4      4  version
+ *      8      8  sequence, 0 if the slot was never written
+ *     16      4  body length
+ *     24      8  CRC32 of the body
+ *     32         body
+ * body:
+ *      0      8  clock, the latest update timestamp
+ *      8      1  1 for fixed-point accumulation
+ *     16      8  position of the next journal record, 0 without a journal
+ *     24         one record per instrument, by ordinal
+ * instrument record:
+ *      0      1  1 if the instrument has been quoted, the rest of the record is only valid then
+ *      1      1  price decimals, fixed-point accumulation only
+ *      2      1  amount decimals, fixed-point accumulation only
+ *      8     32  running sums, doubles or scaled longs
+ *     40         one quote per market, by ordinal
+ * quote:
+ *      0      8  bid price
+ *      8      8  offer price
+ *     16      8  bid amount, 0 if the market has no quote
+ *     24      8  offer amount
+ *     32      1  state ordinal
+ *     40      8  expiry deadline in nanoseconds, Long.MIN_VALUE if the quote does not expire
+ * </pre>
+ */
+public class StateSnapshotter implements AutoCloseable {
+
+    static final int MAGIC = 0x56574150;
+    static final int VERSION = 2;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int SEQUENCE_OFFSET = 8;
+    static final int BODY_LENGTH_OFFSET = 16;
+    static final int CRC_OFFSET = 24;
+    static final int HEADER_LENGTH = 32;
+
+    static final int CLOCK_OFFSET = 0;
+    static final int FIXED_POINT_OFFSET = 8;
+    static final int JOURNAL_POSITION_OFFSET = 16;
+    static final int INSTRUMENTS_OFFSET = 24;
+
+    static final int QUOTED_OFFSET = 0;
+    static final int PRICE_DECIMALS_OFFSET = 1;
+    static final int AMOUNT_DECIMALS_OFFSET = 2;
+    static final int ACCUMULATOR_OFFSET = 8;
+    static final int QUOTES_OFFSET = ACCUMULATOR_OFFSET + VwapAccumulator.SNAPSHOT_LENGTH;
+
+    static final int BID_PRICE_OFFSET = 0;
+    static final int OFFER_PRICE_OFFSET = 8;
+    static final int BID_AMOUNT_OFFSET = 16;
+    static final int OFFER_AMOUNT_OFFSET = 24;
+    static final int STATE_OFFSET = 32;
+    static final int DEADLINE_OFFSET = 40;
+    static final int QUOTE_LENGTH = 48;
+    static final long NO_DEADLINE = Long.MIN_VALUE;
+
+    static final int INSTRUMENT_RECORD_LENGTH = QUOTES_OFFSET + Market.values().length * QUOTE_LENGTH;
+    static final int BODY_LENGTH = INSTRUMENTS_OFFSET + Instrument.values().length * INSTRUMENT_RECORD_LENGTH;
+    static final int SLOT_LENGTH = HEADER_LENGTH + BODY_LENGTH;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer file;
+    // the body of the next snapshot, written by the calculation thread and read by the writer thread
+    private final ByteBuffer staging = ByteBuffer.allocate(BODY_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+    private final long intervalNanos;
+    private final Thread writer;
+    // staging holds a snapshot which is not written yet, the calculation thread must not touch it
+    private volatile boolean pending = false;
+    // set by the writer thread when the interval has elapsed since the last periodic checkpoint
+    private volatile boolean due = false;
+    private volatile boolean running = true;
+    // sequence of the last snapshot written to the file, or found in it when opened
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong failedWriteCount = new AtomicLong();
+
+    /**
+     * Open or create the snapshot file, and start the writer thread.
+     * @param interval time between periodic checkpoints, 0 to only take them on demand
+     */
+    public StateSnapshotter(Path path, long interval, TimeUnit unit) throws IOException {
+        if (interval < 0L) {
+            throw new IllegalArgumentException("Interval must not be negative: " + interval);
+        }
+        this.path = path;
+        this.intervalNanos = unit.toNanos(interval);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.file = channel.map(FileChannel.MapMode.READ_WRITE, 0L, 2L * SLOT_LENGTH);
+        file.order(ByteOrder.LITTLE_ENDIAN);
+        int latestSlot = latestValidSlot();
+        sequence.set(latestSlot < 0 ? 0L : file.getLong(latestSlot * SLOT_LENGTH + SEQUENCE_OFFSET));
+        this.writer = new Thread(this::writeSnapshots, "vwap-snapshot-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Load the latest valid snapshot of the file into a calculator which has not applied any update yet,
+     * on the thread which is going to apply the updates.
+     * @return false if the file has no valid snapshot, in which case the calculator is untouched
+     * @throws IllegalStateException if the calculator has applied updates, or if its accumulation mode or decimals
+     * differ from the snapshot's
+     */
+    public boolean restore(final DefaultVwapCalculator calculator) {
+        ByteBuffer body = latestSnapshot();
+        if (body == null) {
+            return false;
+        }
+        calculator.restoreState(body);
+        return true;
+    }
+
+    /**
+     * @return the body of the latest valid snapshot of the file, or null if none
+     */
+    ByteBuffer latestSnapshot() {
+        int latestSlot = latestValidSlot();
+        return latestSlot < 0 ? null : file.slice(latestSlot * SLOT_LENGTH + HEADER_LENGTH, BODY_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return the sequence number of the last snapshot written, 0 if none
+     */
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * @return the number of snapshots which could not be written to the file
+     */
+    public long getFailedWriteCount() {
+        return failedWriteCount.get();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Write the pending snapshot, if any, then stop the writer thread and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    boolean isDue() {
+        return due;
+    }
+
+    /**
+     * Called by the calculation thread to get the staging buffer for a new snapshot.
+     * @param wait whether to wait for the writer thread if it is still writing the previous snapshot
+     * @return the staging buffer, or null if the writer is busy and wait is false
+     */
+    ByteBuffer acquireStaging(final boolean wait) {
+        while (pending) {
+            if (!wait) {
+                return null;
+            }
+            Thread.yield();
+        }
+        due = false;
+        return staging;
+    }
+
+    /**
+     * Hand the staging buffer filled since {@link #acquireStaging(boolean)} to the writer thread.
+     */
+    void submit() {
+        pending = true;
+        LockSupport.unpark(writer);
+    }
+
+    private void writeSnapshots() {
+        long nextDue = System.nanoTime() + intervalNanos;
+        while (running || pending) {
+            if (pending) {
+                write();
+                pending = false;
+                continue;
+            }
+            if (intervalNanos == 0L) {
+                LockSupport.park(this);
+                continue;
+            }
+            long now = System.nanoTime();
+            if (now - nextDue >= 0L) {
+                due = true;
+                nextDue = now + intervalNanos;
+            }
+            LockSupport.parkNanos(this, nextDue - now);
+        }
+    }
+
+    private void write() {
+        long nextSequence = sequence.get() + 1;
+        // the slot which does not hold the latest snapshot
+        int slotOffset = (int) (nextSequence & 1L) * SLOT_LENGTH;
+        crc.reset();
+        crc.update(staging.duplicate().clear());
+        try {
+            file.put(slotOffset + HEADER_LENGTH, staging, 0, BODY_LENGTH);
+            file.putInt(slotOffset + MAGIC_OFFSET, MAGIC);
+            file.putInt(slotOffset + VERSION_OFFSET, VERSION);
+            file.putLong(slotOffset + SEQUENCE_OFFSET, nextSequence);
+            file.putInt(slotOffset + BODY_LENGTH_OFFSET, BODY_LENGTH);
+            file.putLong(slotOffset + CRC_OFFSET, crc.getValue());
+            file.force();
+            sequence.set(nextSequence);
+        } catch (UncheckedIOException e) {
+            failedWriteCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the slot with the highest sequence whose header and CRC are valid, -1 if none
+     */
+    private int latestValidSlot() {
+        int latestSlot = -1;
+        long latestSequence = 0L;
+        CRC32 slotCrc = new CRC32();
+        for (int slot=0;slot<2;slot++) {
+            int slotOffset = slot * SLOT_LENGTH;
+            long slotSequence = file.getLong(slotOffset + SEQUENCE_OFFSET);
+            if (file.getInt(slotOffset + MAGIC_OFFSET) != MAGIC
+                    || file.getInt(slotOffset + VERSION_OFFSET) != VERSION
+                    || file.getInt(slotOffset + BODY_LENGTH_OFFSET) != BODY_LENGTH
+                    || slotSequence <= latestSequence) {
+                continue;
+            }
+            slotCrc.reset();
+            slotCrc.update(file.slice(slotOffset + HEADER_LENGTH, BODY_LENGTH));
+            if (slotCrc.getValue() == file.getLong(slotOffset + CRC_OFFSET)) {
+                latestSlot = slot;
+                latestSequence = slotSequence;
+            }
+        }
+        return latestSlot;
+    }
+}
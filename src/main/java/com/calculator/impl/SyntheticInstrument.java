@@ -0,0 +1,73 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+
+import java.util.Arrays;
+
+/**
+ * Definition of an instrument priced as a linear combination of the VWAPs of other instruments, its legs, such as a
+ * spread, a basket or a cross, calculated by {@link DefaultVwapCalculator#addSynthetic(SyntheticInstrument)}.
+ *
+ * Buying one unit of the synthetic buys weight units of each leg with a positive weight and sells -weight units of each
+ * leg with a negative one, so its offer is the sum of the weighted offers of the positive legs and the weighted bids of
+ * the negative legs, and its bid the other way round. Its amount on a side is the number of units the legs can fill,
+ * the smallest leg amount divided by the absolute weight. It is indicative if any leg's VWAP is indicative.
+ * The definition is copied when the synthetic is added, later legs do not affect the calculator.
+ */
+public class SyntheticInstrument {
+
+    private final String name;
+    private Instrument[] legs = new Instrument[0];
+    private double[] weights = new double[0];
+
+    /**
+     * @param name names the synthetic in messages
+     */
+    public SyntheticInstrument(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param weight finite and not 0, negative to sell the leg
+     * @return this
+     * @throws IllegalArgumentException if the weight is invalid or the instrument is already a leg
+     */
+    public SyntheticInstrument addLeg(Instrument instrument, double weight) {
+        if (weight == 0.0d || !Double.isFinite(weight)) {
+            throw new IllegalArgumentException("Weight must be finite and not 0: " + weight);
+        }
+        if (Arrays.asList(legs).contains(instrument)) {
+            throw new IllegalArgumentException("Leg already added: " + instrument);
+        }
+        legs = Arrays.copyOf(legs, legs.length + 1);
+        legs[legs.length - 1] = instrument;
+        weights = Arrays.copyOf(weights, weights.length + 1);
+        weights[weights.length - 1] = weight;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLegCount() {
+        return legs.length;
+    }
+
+    public Instrument getLeg(int index) {
+        return legs[index];
+    }
+
+    public double getWeight(int index) {
+        return weights[index];
+    }
+
+    @Override
+    public String toString() {
+        return "SyntheticInstrument{" +
+                "name=" + name +
+                ", legs=" + Arrays.toString(legs) +
+                ", weights=" + Arrays.toString(weights) +
+                "}";
+    }
+}
@@ -0,0 +1,190 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.State;
+import com.calculator.TwoWayPrice;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Dependency graph from the instruments to the {@link SyntheticInstrument}s they are legs of, so that a new VWAP of an
+ * instrument only recalculates the synthetics which have it as a leg.
+ *
+ * A new leg VWAP is copied and flags its synthetics as dirty, then {@link #publishDirty()} recalculates each dirty
+ * synthetic once, however many of its legs changed, and publishes it through a {@link SeqlockTwoWayPrice} to be read
+ * from any thread. A synthetic is published once every leg has a VWAP. The legs of all the synthetics are kept in flat
+ * arrays, and nothing is allocated after the synthetics are added.
+ *
+ * Not thread safe, except {@link #read(SyntheticInstrument, MutableTwoWayPrice)}.
+ */
+class SyntheticInstrumentGraph {
+
+    private static final int INSTRUMENT_COUNT = Instrument.values().length;
+
+    private int syntheticCount = 0;
+    private final Map<SyntheticInstrument, Integer> indexes = new IdentityHashMap<>();
+    // legs of all the synthetics, those of synthetic s from legStarts[s] to legStarts[s + 1]
+    private int[] legStarts = new int[1];
+    private int[] legInstruments = new int[0];
+    private double[] legWeights = new double[0];
+    // 1 / |weight|, and the position in vwaps of the price the leg sells the synthetic at: the bid price of the leg for a
+    // positive weight, the offer price otherwise. The price it buys at is next to it, and the amounts follow the prices
+    private double[] legUnits = new double[0];
+    private int[] legSources = new int[0];
+    // synthetics having each instrument as a leg, by instrument ordinal
+    private final int[][] dependents = new int[INSTRUMENT_COUNT][0];
+    private final int[] dependentCounts = new int[INSTRUMENT_COUNT];
+
+    // latest VWAP of each instrument, its bid price, offer price, bid amount and offer amount in turn
+    private static final int BID_PRICE = 0;
+    private static final int OFFER_PRICE = 1;
+    private static final int BID_AMOUNT = 2;
+    private static final int OFFER_AMOUNT = 3;
+    private static final int VWAP_LENGTH = 4;
+    // from a price to the amount of the same side
+    private static final int AMOUNT_OFFSET = BID_AMOUNT - BID_PRICE;
+    private final double[] vwaps = new double[INSTRUMENT_COUNT * VWAP_LENGTH];
+    private final boolean[] quoted = new boolean[INSTRUMENT_COUNT];
+    private final boolean[] indicative = new boolean[INSTRUMENT_COUNT];
+
+    // synthetics to recalculate, each at most once
+    private boolean[] dirty = new boolean[0];
+    private int[] dirtySynthetics = new int[0];
+    private int dirtyCount = 0;
+
+    private SeqlockTwoWayPrice[] publishedResults = new SeqlockTwoWayPrice[0];
+    private final DefaultTwoWayPrice result = new DefaultTwoWayPrice();
+
+    /**
+     * @throws IllegalArgumentException if the synthetic has no leg or was already added
+     */
+    void add(final SyntheticInstrument synthetic) {
+        int legCount = synthetic.getLegCount();
+        if (legCount == 0) {
+            throw new IllegalArgumentException("Synthetic has no leg: " + synthetic);
+        }
+        if (indexes.containsKey(synthetic)) {
+            throw new IllegalArgumentException("Synthetic already added: " + synthetic);
+        }
+        int index = syntheticCount;
+        if (index == publishedResults.length) {
+            int capacity = Math.max(16, 2 * index);
+            legStarts = Arrays.copyOf(legStarts, capacity + 1);
+            dirty = Arrays.copyOf(dirty, capacity);
+            dirtySynthetics = Arrays.copyOf(dirtySynthetics, capacity);
+            publishedResults = Arrays.copyOf(publishedResults, capacity);
+        }
+        int legStart = legStarts[index];
+        if (legStart + legCount > legInstruments.length) {
+            int capacity = Math.max(legStart + legCount, 2 * legInstruments.length);
+            legInstruments = Arrays.copyOf(legInstruments, capacity);
+            legWeights = Arrays.copyOf(legWeights, capacity);
+            legUnits = Arrays.copyOf(legUnits, capacity);
+            legSources = Arrays.copyOf(legSources, capacity);
+        }
+        for (int i=0;i<legCount;i++) {
+            int instrument = synthetic.getLeg(i).ordinal();
+            legInstruments[legStart + i] = instrument;
+            double weight = synthetic.getWeight(i);
+            legWeights[legStart + i] = weight;
+            legUnits[legStart + i] = 1.0d / Math.abs(weight);
+            legSources[legStart + i] = VWAP_LENGTH * instrument + (weight > 0.0d ? BID_PRICE : OFFER_PRICE);
+            if (dependentCounts[instrument] == dependents[instrument].length) {
+                dependents[instrument] = Arrays.copyOf(dependents[instrument], Math.max(4, 2 * dependentCounts[instrument]));
+            }
+            dependents[instrument][dependentCounts[instrument]++] = index;
+        }
+        legStarts[index + 1] = legStart + legCount;
+        publishedResults[index] = new SeqlockTwoWayPrice();
+        indexes.put(synthetic, index);
+        syntheticCount++;
+    }
+
+    /**
+     * Copy the new VWAP of an instrument and flag the synthetics having it as a leg.
+     */
+    void legChanged(final int instrument, final TwoWayPrice vwap) {
+        int count = dependentCounts[instrument];
+        if (count == 0) {
+            return;
+        }
+        quoted[instrument] = true;
+        indicative[instrument] = vwap.getState() == State.INDICATIVE;
+        int position = VWAP_LENGTH * instrument;
+        vwaps[position + BID_PRICE] = vwap.getBidPrice();
+        vwaps[position + OFFER_PRICE] = vwap.getOfferPrice();
+        vwaps[position + BID_AMOUNT] = vwap.getBidAmount();
+        vwaps[position + OFFER_AMOUNT] = vwap.getOfferAmount();
+        int[] synthetics = dependents[instrument];
+        for (int i=0;i<count;i++) {
+            int synthetic = synthetics[i];
+            if (!dirty[synthetic]) {
+                dirty[synthetic] = true;
+                dirtySynthetics[dirtyCount++] = synthetic;
+            }
+        }
+    }
+
+    /**
+     * Recalculate and publish the flagged synthetics.
+     */
+    void publishDirty() {
+        for (int i=0;i<dirtyCount;i++) {
+            int synthetic = dirtySynthetics[i];
+            dirty[synthetic] = false;
+            if (calculate(synthetic)) {
+                publishedResults[synthetic].publish(result);
+            }
+        }
+        dirtyCount = 0;
+    }
+
+    /**
+     * @return false if a leg has no VWAP yet
+     */
+    private boolean calculate(int synthetic) {
+        boolean anyIndicative = false;
+        double bidPrice = 0.0d;
+        double offerPrice = 0.0d;
+        double bidAmount = Double.POSITIVE_INFINITY;
+        double offerAmount = Double.POSITIVE_INFINITY;
+        for (int leg=legStarts[synthetic];leg<legStarts[synthetic + 1];leg++) {
+            int instrument = legInstruments[leg];
+            if (!quoted[instrument]) {
+                return false;
+            }
+            anyIndicative |= indicative[instrument];
+            // selling the synthetic sells the legs bought by buying it, at their bid, and buys the others at their offer
+            double weight = legWeights[leg];
+            double units = legUnits[leg];
+            int sell = legSources[leg];
+            int buy = sell ^ 1;
+            bidPrice += weight * vwaps[sell];
+            offerPrice += weight * vwaps[buy];
+            bidAmount = Math.min(bidAmount, vwaps[sell + AMOUNT_OFFSET] * units);
+            offerAmount = Math.min(offerAmount, vwaps[buy + AMOUNT_OFFSET] * units);
+        }
+        result.setState(anyIndicative ? State.INDICATIVE : State.FIRM);
+        // a side with no amount on a leg can not be filled, it is empty like a VWAP without quotes
+        result.setBidPrice(bidAmount == 0.0d ? 0.0d : bidPrice);
+        result.setOfferPrice(offerAmount == 0.0d ? 0.0d : offerPrice);
+        result.setBidAmount(bidAmount);
+        result.setOfferAmount(offerAmount);
+        return true;
+    }
+
+    /**
+     * Copy the last published VWAP of the synthetic, whose instrument is null. Can be called from any thread.
+     * @return false if a leg has no VWAP yet, in which case into is untouched
+     * @throws IllegalArgumentException if the synthetic was not added
+     */
+    boolean read(final SyntheticInstrument synthetic, final MutableTwoWayPrice into) {
+        Integer index = indexes.get(synthetic);
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown synthetic: " + synthetic);
+        }
+        return publishedResults[index].read(into);
+    }
+}
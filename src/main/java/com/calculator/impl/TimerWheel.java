@@ -0,0 +1,124 @@
+package com.calculator.impl;
+
+import java.util.Arrays;
+
+/**
+ * Hashed timer wheel of int keys in [0, keyCount), driven by an external clock in nanoseconds. Not thread safe.
+ *
+ * Each key has at most one deadline and is linked into the bucket of its deadline's tick through primitive arrays,
+ * so scheduling, rescheduling and cancelling are O(1) and nothing is allocated after construction.
+ * Advancing the clock only visits the buckets of the elapsed ticks, a key due more than one revolution later stays in
+ * its bucket until the revolution it is due. Keys expire at most one tick after their deadline.
+ */
+class TimerWheel {
+
+    interface ExpiryHandler {
+        void onExpired(int key);
+    }
+
+    private static final int NONE = -1;
+
+    private final long tickNanos;
+    private final int mask;
+    // first key of each bucket
+    private final int[] heads;
+    // doubly linked bucket lists, indexed by key
+    private final int[] next;
+    private final int[] previous;
+    // tick at which each key expires, NONE if the key is not scheduled
+    private final long[] deadlineTicks;
+    // last tick whose bucket has been expired
+    private long currentTick = NONE;
+
+    /**
+     * @param keyCount number of keys
+     * @param tickNanos resolution of the wheel
+     * @param bucketCount number of ticks in one revolution, a power of two
+     */
+    TimerWheel(int keyCount, long tickNanos, int bucketCount) {
+        if (tickNanos <= 0L) {
+            throw new IllegalArgumentException("Tick must be positive: " + tickNanos);
+        }
+        if (bucketCount <= 0 || Integer.bitCount(bucketCount) != 1) {
+            throw new IllegalArgumentException("Bucket count must be a positive power of two: " + bucketCount);
+        }
+        this.tickNanos = tickNanos;
+        this.mask = bucketCount - 1;
+        this.heads = new int[bucketCount];
+        this.next = new int[keyCount];
+        this.previous = new int[keyCount];
+        this.deadlineTicks = new long[keyCount];
+        Arrays.fill(heads, NONE);
+        Arrays.fill(deadlineTicks, NONE);
+    }
+
+    /**
+     * Schedule the key to expire at the deadline, replacing its previous deadline if any.
+     * A deadline which has already passed expires on the next {@link #advance(long, ExpiryHandler)} to a later tick.
+     */
+    void schedule(final int key, final long deadlineNanos) {
+        cancel(key);
+        // rounded up so that a key never expires before its deadline
+        long tick = Math.max(-Math.floorDiv(-deadlineNanos, tickNanos), currentTick + 1);
+        int bucket = (int) tick & mask;
+        int head = heads[bucket];
+        next[key] = head;
+        previous[key] = NONE;
+        if (head != NONE) {
+            previous[head] = key;
+        }
+        heads[bucket] = key;
+        deadlineTicks[key] = tick;
+    }
+
+    /**
+     * Remove the key's deadline, if it has one.
+     */
+    void cancel(final int key) {
+        long tick = deadlineTicks[key];
+        if (tick == NONE) {
+            return;
+        }
+        int nextKey = next[key];
+        int previousKey = previous[key];
+        if (previousKey == NONE) {
+            heads[(int) tick & mask] = nextKey;
+        } else {
+            next[previousKey] = nextKey;
+        }
+        if (nextKey != NONE) {
+            previous[nextKey] = previousKey;
+        }
+        deadlineTicks[key] = NONE;
+    }
+
+    boolean isScheduled(final int key) {
+        return deadlineTicks[key] != NONE;
+    }
+
+    /**
+     * Move the clock forward and expire the keys whose deadline has passed, in no particular order.
+     * The handler must not schedule or cancel keys. A clock going backwards is ignored.
+     */
+    void advance(final long nowNanos, final ExpiryHandler handler) {
+        long nowTick = Math.floorDiv(nowNanos, tickNanos);
+        if (nowTick <= currentTick) {
+            return;
+        }
+        // a jump of more than one revolution visits each bucket once
+        long fromTick = Math.max(currentTick + 1, nowTick - mask);
+        currentTick = nowTick;
+        for (long tick=fromTick;tick<=nowTick;tick++) {
+            int bucket = (int) tick & mask;
+            int key = heads[bucket];
+            while (key != NONE) {
+                int nextKey = next[key];
+                if (deadlineTicks[key] <= nowTick) {
+                    cancel(key);
+                    handler.onExpired(key);
+                }
+                key = nextKey;
+            }
+        }
+    }
+}
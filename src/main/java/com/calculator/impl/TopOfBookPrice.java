@@ -0,0 +1,48 @@
+package com.calculator.impl;
+
+import com.calculator.TwoWayPrice;
+
+/**
+ * VWAP two-way price of an instrument along with its best bid and offer among the markets' current quotes.
+ * The skews tell how far the VWAP lies behind the best prices, they are never negative.
+ * Without a quote, the best prices, spread and skews are 0 and the best markets are -1.
+ */
+public interface TopOfBookPrice extends TwoWayPrice {
+
+    double getBestBidPrice();
+
+    double getBestOfferPrice();
+
+    /**
+     * @return the market ordinal, or dense market id of a {@link DynamicVwapCalculator}, quoting the best bid,
+     * the lowest one if several markets quote it
+     */
+    int getBestBidMarket();
+
+    /**
+     * @return the market ordinal, or dense market id of a {@link DynamicVwapCalculator}, quoting the best offer,
+     * the lowest one if several markets quote it
+     */
+    int getBestOfferMarket();
+
+    /**
+     * @return best offer - best bid, negative when the best quotes cross
+     */
+    default double getSpread() {
+        return getBestOfferPrice() - getBestBidPrice();
+    }
+
+    /**
+     * @return best bid - VWAP bid
+     */
+    default double getBidSkew() {
+        return getBestBidPrice() - getBidPrice();
+    }
+
+    /**
+     * @return VWAP offer - best offer
+     */
+    default double getOfferSkew() {
+        return getOfferPrice() - getBestOfferPrice();
+    }
+}
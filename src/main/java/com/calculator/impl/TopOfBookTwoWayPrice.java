@@ -0,0 +1,58 @@
+package com.calculator.impl;
+
+/**
+ * {@link TopOfBookPrice} calculated by {@link SingleInstrumentVwapCalculator}, reused for each of its results.
+ */
+class TopOfBookTwoWayPrice extends DefaultTwoWayPrice implements TopOfBookPrice {
+
+    private double bestBidPrice = 0.0d;
+    private double bestOfferPrice = 0.0d;
+    private int bestBidMarket = -1;
+    private int bestOfferMarket = -1;
+
+    @Override
+    public double getBestBidPrice() {
+        return bestBidPrice;
+    }
+
+    @Override
+    public double getBestOfferPrice() {
+        return bestOfferPrice;
+    }
+
+    @Override
+    public int getBestBidMarket() {
+        return bestBidMarket;
+    }
+
+    @Override
+    public int getBestOfferMarket() {
+        return bestOfferMarket;
+    }
+
+    void setBestBid(int market, double price) {
+        this.bestBidMarket = market;
+        this.bestBidPrice = price;
+    }
+
+    void setBestOffer(int market, double price) {
+        this.bestOfferMarket = market;
+        this.bestOfferPrice = price;
+    }
+
+    @Override
+    public String toString() {
+        return "TopOfBookTwoWayPrice{" +
+                "instrument=" + getInstrument() +
+                ", state=" + getState() +
+                ", bidPrice=" + getBidPrice() +
+                ", offerPrice=" + getOfferPrice() +
+                ", bidAmount=" + getBidAmount() +
+                ", offerAmount=" + getOfferAmount() +
+                ", bestBidPrice=" + bestBidPrice +
+                ", bestBidMarket=" + bestBidMarket +
+                ", bestOfferPrice=" + bestOfferPrice +
+                ", bestOfferMarket=" + bestOfferMarket +
+                "}";
+    }
+}
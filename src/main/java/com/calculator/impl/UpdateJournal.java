@@ -0,0 +1,321 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.Market;
+import com.calculator.MarketUpdate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.calculator.impl.MarketUpdateLayout.ENCODED_LENGTH;
+
+/**
+ * Append-only journal of the input accepted by a {@link DefaultVwapCalculator}, so that after a crash
+ * {@link DefaultVwapCalculator#recover()} rebuilds the exact state the calculator had, from the latest
+ * {@link StateSnapshotter} checkpoint and the records appended after it.
+ *
+ * The calculator appends the updates which passed validation before it applies them, with the withdrawals and the clock
+ * moves which change its state. Quote expiries are not journaled, they follow from the journaled timestamps.
+ * Each record is a {@link MarketUpdateLayout} record whose first padding byte holds the record type, written last, so a
+ * record torn by a crash is never replayed. The updates of a batch are journaled in the order the batch folds them in,
+ * between a start and an end record, and a batch without its end record is not replayed.
+ *
+ * The records are appended to memory-mapped segment files of a fixed number of records, named after the position of
+ * their first record, and a new segment is started when the current one is full. Nothing is allocated on append, except
+ * when rolling to a new segment. See {@link JournalFlushPolicy} for when the segments are forced to storage.
+ * Not thread safe, the records must be appended from the thread applying the market updates.
+ */
+public class UpdateJournal implements AutoCloseable {
+
+    static final int RECORD_TYPE_OFFSET = MarketUpdateLayout.STATE_OFFSET + 1;
+
+    // not written yet, the end of the journal
+    static final byte END = 0;
+    static final byte UPDATE = 1;
+    static final byte BATCH_START = 2;
+    static final byte BATCH_UPDATE = 3;
+    static final byte BATCH_END = 4;
+    static final byte WITHDRAW_QUOTE = 5;
+    static final byte WITHDRAW_MARKET = 6;
+    static final byte CLOCK = 7;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private final Path directory;
+    private final int segmentRecordCount;
+    private final JournalFlushPolicy flushPolicy;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    // position of the first record of the current segment, and number of records it can hold
+    private long segmentStart;
+    private int segmentCapacity;
+    // index of the next record in the current segment
+    private int recordIndex;
+    // whether a batch start record has been appended without its end record
+    private boolean inBatch = false;
+    // set while the journal is replayed into the calculator, which must not append the records again
+    private boolean replaying = false;
+
+    /**
+     * Open the journal in the directory, creating it if needed, and continue after its last record.
+     * @param segmentRecordCount number of records of each new segment file
+     */
+    public UpdateJournal(Path directory, int segmentRecordCount, JournalFlushPolicy flushPolicy) throws IOException {
+        if (segmentRecordCount <= 0 || segmentRecordCount > Integer.MAX_VALUE / ENCODED_LENGTH) {
+            throw new IllegalArgumentException("Invalid segment record count: " + segmentRecordCount);
+        }
+        this.directory = directory;
+        this.segmentRecordCount = segmentRecordCount;
+        this.flushPolicy = flushPolicy;
+        Files.createDirectories(directory);
+        List<Long> segmentStarts = segmentStarts();
+        if (segmentStarts.isEmpty()) {
+            openSegment(0L);
+        } else {
+            openSegment(segmentStarts.get(segmentStarts.size() - 1));
+            while (recordIndex < segmentCapacity && segment.get(recordIndex * ENCODED_LENGTH + RECORD_TYPE_OFFSET) != END) {
+                recordIndex++;
+            }
+        }
+    }
+
+    /**
+     * @return the position of the next record, the number of records appended since the journal was created
+     */
+    public long getPosition() {
+        return segmentStart + recordIndex;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Force the current segment to storage unless the policy is {@link JournalFlushPolicy#NONE}, and close it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (flushPolicy != JournalFlushPolicy.NONE) {
+            segment.force();
+        }
+        channel.close();
+    }
+
+    void appendUpdate(final MarketUpdate marketUpdate) {
+        append(UPDATE, marketUpdate);
+    }
+
+    void appendBatchUpdate(final MarketUpdate marketUpdate) {
+        if (!inBatch) {
+            appendControl(BATCH_START, 0L, null, null);
+            inBatch = true;
+        }
+        append(BATCH_UPDATE, marketUpdate);
+    }
+
+    /**
+     * End the batch, if any update of it has been appended.
+     */
+    void appendBatchEnd() {
+        if (inBatch) {
+            inBatch = false;
+            appendControl(BATCH_END, 0L, null, null);
+        }
+    }
+
+    void appendWithdrawQuote(final Instrument instrument, final Market market) {
+        appendControl(WITHDRAW_QUOTE, 0L, market, instrument);
+    }
+
+    void appendWithdrawMarket(final Market market) {
+        appendControl(WITHDRAW_MARKET, 0L, market, null);
+    }
+
+    /**
+     * @return whether the journal is being replayed into the calculator, whose state then lags the end of the journal
+     */
+    boolean isReplaying() {
+        return replaying;
+    }
+
+    void appendClock(final long timestamp) {
+        appendControl(CLOCK, timestamp, null, null);
+    }
+
+    private void append(byte type, MarketUpdate marketUpdate) {
+        if (replaying) {
+            return;
+        }
+        int offset = nextRecordOffset();
+        MarketUpdateEncoder.encode(segment, offset, marketUpdate.getTimestamp(), marketUpdate);
+        commit(offset, type);
+    }
+
+    private void appendControl(byte type, long timestamp, Market market, Instrument instrument) {
+        if (replaying) {
+            return;
+        }
+        int offset = nextRecordOffset();
+        MarketUpdateEncoder.encode(segment, offset, timestamp, market, instrument, null, 0.0d, 0.0d, 0.0d, 0.0d);
+        commit(offset, type);
+    }
+
+    private int nextRecordOffset() {
+        if (recordIndex == segmentCapacity) {
+            try {
+                roll(getPosition());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return recordIndex * ENCODED_LENGTH;
+    }
+
+    private void commit(int offset, byte type) {
+        // the record only becomes part of the journal once its type is written
+        segment.put(offset + RECORD_TYPE_OFFSET, type);
+        recordIndex++;
+        if (flushPolicy == JournalFlushPolicy.RECORD) {
+            segment.force(offset, ENCODED_LENGTH);
+        }
+    }
+
+    /**
+     * Apply the records from the position onwards to the calculator, without appending them again.
+     * A position after the last record, from a snapshot taken after records which never reached storage,
+     * moves the journal forward to it so that the positions of the next records follow the snapshot's.
+     * @return the number of records replayed
+     * @throws IllegalStateException if the journal does not have the records from the position onwards
+     */
+    long replay(final long fromPosition, final DefaultVwapCalculator calculator) throws IOException {
+        long endPosition = getPosition();
+        if (fromPosition >= endPosition) {
+            if (fromPosition > endPosition) {
+                roll(fromPosition);
+            }
+            return 0L;
+        }
+        List<Long> segmentStarts = segmentStarts();
+        if (segmentStarts.isEmpty() || segmentStarts.get(0) > fromPosition) {
+            throw new IllegalStateException("Journal of " + directory + " does not have the records from position " + fromPosition);
+        }
+        long replayedCount = 0L;
+        List<MarketUpdateDecoder> batch = new ArrayList<>();
+        replaying = true;
+        try {
+            for (int i=0;i<segmentStarts.size();i++) {
+                long start = segmentStarts.get(i);
+                if (i + 1 < segmentStarts.size() && segmentStarts.get(i + 1) <= fromPosition) {
+                    continue;
+                }
+                try (FileChannel segmentChannel = FileChannel.open(segmentPath(start), StandardOpenOption.READ)) {
+                    MappedByteBuffer records = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0L, segmentChannel.size());
+                    records.order(ByteOrder.LITTLE_ENDIAN);
+                    int capacity = records.limit() / ENCODED_LENGTH;
+                    for (int index=(int) Math.max(0L, fromPosition - start);index<capacity && start + index<endPosition;index++) {
+                        int offset = index * ENCODED_LENGTH;
+                        byte type = records.get(offset + RECORD_TYPE_OFFSET);
+                        if (type == END) {
+                            break;
+                        }
+                        replayRecord(type, new MarketUpdateDecoder().wrap(records, offset), batch, calculator);
+                        replayedCount++;
+                    }
+                }
+            }
+        } finally {
+            replaying = false;
+        }
+        return replayedCount;
+    }
+
+    private static void replayRecord(byte type, MarketUpdateDecoder record, List<MarketUpdateDecoder> batch,
+                                     DefaultVwapCalculator calculator) {
+        if (type != BATCH_UPDATE && type != BATCH_END) {
+            // the updates of a batch cut short by a crash were never applied
+            batch.clear();
+        }
+        switch (type) {
+            case UPDATE:
+                calculator.applyMarketUpdate(record);
+                break;
+            case BATCH_UPDATE:
+                batch.add(record);
+                break;
+            case BATCH_END:
+                // the batch folds its updates in from last to first, in the order they were journaled
+                MarketUpdateDecoder[] updates = new MarketUpdateDecoder[batch.size()];
+                for (int i=0;i<updates.length;i++) {
+                    updates[updates.length - 1 - i] = batch.get(i);
+                }
+                batch.clear();
+                calculator.applyMarketUpdates(updates, updates.length, vwap -> { });
+                break;
+            case WITHDRAW_QUOTE:
+                calculator.withdrawQuote(record.getInstrument(), record.getMarket());
+                break;
+            case WITHDRAW_MARKET:
+                calculator.withdrawMarket(record.getMarket());
+                break;
+            case CLOCK:
+                calculator.advanceClock(record.getTimestamp());
+                break;
+            default:
+                // BATCH_START
+                break;
+        }
+    }
+
+    /**
+     * Close the current segment and start a new one at the position. An empty segment is deleted.
+     */
+    private void roll(long position) throws IOException {
+        if (flushPolicy != JournalFlushPolicy.NONE) {
+            segment.force();
+        }
+        channel.close();
+        if (recordIndex == 0) {
+            Files.delete(segmentPath(segmentStart));
+        }
+        openSegment(position);
+    }
+
+    private void openSegment(long start) throws IOException {
+        Path path = segmentPath(start);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // an existing segment keeps the record count it was created with
+        long size = channel.size();
+        long length = size == 0L ? (long) segmentRecordCount * ENCODED_LENGTH : size - size % ENCODED_LENGTH;
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0L, length);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segmentStart = start;
+        segmentCapacity = (int) (length / ENCODED_LENGTH);
+        recordIndex = 0;
+    }
+
+    private Path segmentPath(long start) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, start, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> segmentStarts() throws IOException {
+        List<Long> starts = new ArrayList<>();
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : segments) {
+                String name = path.getFileName().toString();
+                starts.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        starts.sort(null);
+        return starts;
+    }
+}
@@ -0,0 +1,40 @@
+package com.calculator.impl;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link BulkSumKernel} summing as many markets at a time as the preferred vector shape of the CPU holds, with a scalar
+ * loop for the remaining markets. Only loaded when the jdk.incubator.vector module is present, see
+ * {@link BulkRecalculator#defaultKernel()}. The lanes are summed separately and then added together, so the sums may
+ * differ from the scalar ones in their last bits.
+ */
+final class VectorBulkSumKernel implements BulkSumKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void sum(final double[] prices, final double[] amounts, final int offset, final int length,
+                    final double[] sums, final int sumsOffset) {
+        DoubleVector notionals = DoubleVector.zero(SPECIES);
+        DoubleVector totalAmounts = DoubleVector.zero(SPECIES);
+        int upperBound = SPECIES.loopBound(length);
+        int i = 0;
+        for (;i<upperBound;i+=SPECIES.length()) {
+            DoubleVector price = DoubleVector.fromArray(SPECIES, prices, offset + i);
+            DoubleVector amount = DoubleVector.fromArray(SPECIES, amounts, offset + i);
+            // not fma(), which is not intrinsified on CPUs without FMA
+            notionals = notionals.add(price.mul(amount));
+            totalAmounts = totalAmounts.add(amount);
+        }
+        double notional = notionals.reduceLanes(VectorOperators.ADD);
+        double amount = totalAmounts.reduceLanes(VectorOperators.ADD);
+        for (;i<length;i++) {
+            notional += prices[offset + i] * amounts[offset + i];
+            amount += amounts[offset + i];
+        }
+        sums[sumsOffset] = notional;
+        sums[sumsOffset + 1] = amount;
+    }
+}
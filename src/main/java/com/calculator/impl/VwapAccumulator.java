@@ -0,0 +1,43 @@
+package com.calculator.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Running sums of the market contributions to the VWAP of one instrument.
+ * A market's contribution is added when it quotes and subtracted when its quote is replaced.
+ */
+interface VwapAccumulator {
+
+    /**
+     * Number of bytes written by {@link #save(ByteBuffer, int)}.
+     */
+    int SNAPSHOT_LENGTH = 32;
+
+    void add(double bidPrice, double bidAmount, double offerPrice, double offerAmount);
+
+    void subtract(double bidPrice, double bidAmount, double offerPrice, double offerAmount);
+
+    /**
+     * Clear the sums, when no market contributes any more.
+     */
+    void reset();
+
+    /**
+     * Replace the sums with sums recalculated over the contribution of every market, to clear the rounding error
+     * of the incremental updates. Exact accumulators have no such error and keep their sums.
+     */
+    void correct(double bidNotional, double bidAmount, double offerNotional, double offerAmount);
+
+    /**
+     * Write the VWAP prices and the total amounts, leaving instrument and state untouched.
+     */
+    void writeResult(MutableTwoWayPrice result);
+
+    /**
+     * Write the sums exactly, to be read back by {@link #restore(ByteBuffer, int)} of an accumulator of the same kind and scale.
+     */
+    void save(ByteBuffer buffer, int offset);
+
+    void restore(ByteBuffer buffer, int offset);
+
+}
@@ -0,0 +1,29 @@
+package com.calculator.impl;
+
+import com.calculator.Calculator;
+import com.calculator.Instrument;
+
+/**
+ * A {@link Calculator} whose VWAPs and rejects can be read back after a run of updates, whether it calculates them on
+ * the calling thread or hands them over to its own threads, in which case {@link #flush()} waits for them.
+ */
+public interface VwapCalculator extends Calculator {
+
+    /**
+     * Wait until every update applied so far has been calculated. Must be called from the thread calling
+     * applyMarketUpdate(). Returns at once by default, for a calculator which calculates on the calling thread.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Copy the last VWAP two-way price of the instrument.
+     * @return false if no valid MarketUpdate has been calculated for the instrument yet, into is then left unchanged
+     */
+    boolean getVwap(Instrument instrument, MutableTwoWayPrice into);
+
+    /**
+     * @return the monitor counting the invalid updates
+     */
+    RejectionMonitor getRejectionMonitor();
+}
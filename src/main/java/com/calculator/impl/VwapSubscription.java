@@ -0,0 +1,109 @@
+package com.calculator.impl;
+
+import com.calculator.Instrument;
+import com.calculator.TwoWayPrice;
+import com.calculator.VwapSink;
+
+/**
+ * Subscription to the VWAP of one instrument, fed through a conflating slot.
+ *
+ * The calculation thread overwrites the slot with every new VWAP and never waits for the subscriber, so a slow
+ * subscriber does not hold back the feed and nothing queues up: it only ever sees the freshest value.
+ * Either {@link #poll(MutableTwoWayPrice)} it from the consuming thread, or let a dispatcher thread push it to a {@link VwapSink}.
+ */
+public class VwapSubscription implements AutoCloseable {
+
+    private final Instrument instrument;
+    private final ConflatingVwapPublisher publisher;
+    private final SeqlockTwoWayPrice slot = new SeqlockTwoWayPrice();
+    // VWAP of the instrument at subscription time, delivered first if the slot is still empty, may be null
+    private final SeqlockTwoWayPrice initialVwap;
+    // only accessed by the consuming thread
+    private long lastVersion = 0L;
+    private boolean initialVwapDelivered = false;
+    // null when the subscription is polled
+    private final Thread dispatcher;
+    private volatile boolean open = true;
+
+    VwapSubscription(Instrument instrument, ConflatingVwapPublisher publisher, SeqlockTwoWayPrice initialVwap) {
+        this.instrument = instrument;
+        this.publisher = publisher;
+        this.initialVwap = initialVwap;
+        this.dispatcher = null;
+    }
+
+    VwapSubscription(Instrument instrument, ConflatingVwapPublisher publisher, SeqlockTwoWayPrice initialVwap,
+                     VwapSink sink, WaitStrategy waitStrategy) {
+        this.instrument = instrument;
+        this.publisher = publisher;
+        this.initialVwap = initialVwap;
+        this.dispatcher = new Thread(() -> dispatch(sink, waitStrategy), "vwap-subscription-" + instrument);
+        this.dispatcher.setDaemon(true);
+    }
+
+    /**
+     * Copy the latest VWAP if it changed since the last successful poll. Must be called from a single consuming thread.
+     * @return true if a new VWAP was copied into into
+     */
+    public boolean poll(final MutableTwoWayPrice into) {
+        if (slot.version() == lastVersion) {
+            if (lastVersion == 0L && !initialVwapDelivered && initialVwap != null) {
+                initialVwapDelivered = true;
+                return initialVwap.read(into);
+            }
+            return false;
+        }
+        long version = slot.readVersion(into);
+        if (version == lastVersion) {
+            return false;
+        }
+        lastVersion = version;
+        return true;
+    }
+
+    public Instrument getInstrument() {
+        return instrument;
+    }
+
+    /**
+     * Stop receiving VWAPs, and stop the dispatcher thread if there is one.
+     */
+    @Override
+    public void close() {
+        if (open) {
+            open = false;
+            publisher.unsubscribe(this);
+            if (dispatcher != null && dispatcher != Thread.currentThread()) {
+                try {
+                    dispatcher.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Called on the calculation thread.
+     */
+    void offer(final TwoWayPrice vwap) {
+        slot.publish(vwap);
+    }
+
+    void start() {
+        if (dispatcher != null) {
+            dispatcher.start();
+        }
+    }
+
+    private void dispatch(VwapSink sink, WaitStrategy waitStrategy) {
+        MutableTwoWayPrice latest = new DefaultTwoWayPrice();
+        while (open) {
+            if (poll(latest)) {
+                sink.onVwap(latest);
+            } else {
+                waitStrategy.idle();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.calculator.impl;
+
+import com.calculator.Market;
+import com.calculator.State;
+
+import java.util.Arrays;
+
+/**
+ * Definition of a variant of the VWAP calculated alongside the VWAP of every market, see
+ * {@link DefaultVwapCalculator#addView(VwapView)}: firm quotes only, some markets excluded, or markets weighted by a factor.
+ *
+ * The amounts of a market's quote are multiplied by the market's weight, so a weight of 2 counts the market as much as
+ * two markets quoting the same price, and a weight of 0 excludes it. The amounts of the view's VWAP are the weighted totals.
+ * The definition is copied when the view is added, later changes do not affect the calculator.
+ */
+public class VwapView {
+
+    private final String name;
+    private final double[] weights = new double[Market.values().length];
+    private boolean firmOnly = false;
+
+    /**
+     * @param name names the view in messages, every market has a weight of 1
+     */
+    public VwapView(String name) {
+        this.name = name;
+        Arrays.fill(weights, 1.0d);
+    }
+
+    /**
+     * @return this
+     */
+    public VwapView setFirmOnly(boolean firmOnly) {
+        this.firmOnly = firmOnly;
+        return this;
+    }
+
+    /**
+     * @param weight a finite factor, 0 to exclude the market
+     * @return this
+     */
+    public VwapView setWeight(Market market, double weight) {
+        if (!(weight >= 0.0d) || Double.isInfinite(weight)) {
+            throw new IllegalArgumentException("Weight must be finite and not negative: " + weight);
+        }
+        weights[market.ordinal()] = weight;
+        return this;
+    }
+
+    /**
+     * Same as a weight of 0.
+     * @return this
+     */
+    public VwapView exclude(Market market) {
+        return setWeight(market, 0.0d);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isFirmOnly() {
+        return firmOnly;
+    }
+
+    public double getWeight(Market market) {
+        return weights[market.ordinal()];
+    }
+
+    /**
+     * @return the weights by market ordinal, with 0 for the states the view leaves out
+     */
+    double[] weights(State state) {
+        if (firmOnly && state == State.INDICATIVE) {
+            return new double[weights.length];
+        }
+        return weights.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "VwapView{" +
+                "name=" + name +
+                ", firmOnly=" + firmOnly +
+                ", weights=" + Arrays.toString(weights) +
+                "}";
+    }
+}
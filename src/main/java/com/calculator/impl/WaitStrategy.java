@@ -0,0 +1,43 @@
+package com.calculator.impl;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Strategy for a thread waiting on a {@link SpscRingBuffer} which is either empty (consumer) or full (producer).
+ */
+public enum WaitStrategy {
+
+    /**
+     * Lowest latency, burns a whole core while waiting.
+     */
+    BUSY_SPIN {
+        @Override
+        void idle() {
+            Thread.onSpinWait();
+        }
+    },
+
+    /**
+     * Gives the core away to other runnable threads while waiting.
+     */
+    YIELD {
+        @Override
+        void idle() {
+            Thread.yield();
+        }
+    },
+
+    /**
+     * Parks the thread for a short period while waiting, cheapest on CPU but with the highest wake up latency.
+     */
+    PARK {
+        @Override
+        void idle() {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    };
+
+    private static final long PARK_NANOS = 1_000L;
+
+    abstract void idle();
+}
@@ -11,10 +11,16 @@ public class MockedMarketUpdate implements MarketUpdate {
 
     Market market;
     MutableTwoWayPrice twoWayPrice;
+    long timestamp;
 
     MockedMarketUpdate(Market market, MutableTwoWayPrice twoWayPrice){
+        this(market, twoWayPrice, 0L);
+    }
+
+    MockedMarketUpdate(Market market, MutableTwoWayPrice twoWayPrice, long timestamp){
         this.market = market;
         this.twoWayPrice = twoWayPrice;
+        this.timestamp = timestamp;
     }
 
     @Override
@@ -27,6 +33,11 @@ public class MockedMarketUpdate implements MarketUpdate {
         return twoWayPrice;
     }
 
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
     @Override
     public String toString() {
         return "MockedMarketUpdate{" +
@@ -0,0 +1,112 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestBulkRecalculator {
+
+    private static final double EPSILON = 0.000001d;
+
+    @Test
+    public void testKernelsSumEveryMarket() {
+        BulkSumKernel vectorKernel = BulkRecalculator.vectorKernel();
+        Assume.assumeNotNull(vectorKernel);
+        Random random = new Random(11);
+        double[] prices = new double[200];
+        double[] amounts = new double[200];
+        for (int i=0;i<prices.length;i++) {
+            prices[i] = 1.0 + random.nextInt(10_000) * 0.0001;
+            amounts[i] = random.nextInt(4) == 0 ? 0.0 : 1 + random.nextInt(1_000_000);
+        }
+        double[] scalarSums = new double[4];
+        double[] vectorSums = new double[4];
+        // lengths shorter than, equal to and not a multiple of the vector length, at unaligned offsets
+        for (int length : new int[]{0, 1, 3, 8, 50, 199}) {
+            for (int offset : new int[]{0, 1}) {
+                double notional = 0.0d;
+                double amount = 0.0d;
+                for (int i=offset;i<offset+length;i++) {
+                    notional += prices[i] * amounts[i];
+                    amount += amounts[i];
+                }
+                BulkSumKernel.SCALAR.sum(prices, amounts, offset, length, scalarSums, 2);
+                vectorKernel.sum(prices, amounts, offset, length, vectorSums, 2);
+                assertEquals(notional, scalarSums[2], 0.0d);
+                assertEquals(amount, scalarSums[3], 0.0d);
+                assertEquals(notional, vectorSums[2], Math.abs(notional) * 1e-12);
+                assertEquals(amount, vectorSums[3], 0.0d);
+            }
+        }
+    }
+
+    @Test
+    public void testRecalculationMatchesTheIncrementalVwaps() {
+        for (QuoteStorage quoteStorage : QuoteStorage.values()) {
+            for (FixedPointScales fixedPointScales : new FixedPointScales[]{null, new FixedPointScales(4, 0)}) {
+                DefaultVwapCalculator calculator = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(quoteStorage)
+                        .setFixedPointScales(fixedPointScales));
+                DefaultVwapCalculator reference = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(quoteStorage)
+                        .setFixedPointScales(fixedPointScales));
+                Random random = new Random(5);
+                for (int i=0;i<20_000;i++) {
+                    Instrument instrument = Instrument.values()[random.nextInt(Instrument.values().length)];
+                    Market market = Market.values()[random.nextInt(Market.values().length)];
+                    if (random.nextInt(10) == 0) {
+                        calculator.withdrawQuote(instrument, market);
+                        reference.withdrawQuote(instrument, market);
+                    } else {
+                        MarketUpdate update = createMarketUpdate(instrument, market,
+                                random.nextInt(4) == 0 ? State.INDICATIVE : State.FIRM,
+                                1.0 + random.nextInt(10_000) * 0.0001, 1 + random.nextInt(1_000_000));
+                        calculator.applyMarketUpdate(update);
+                        reference.applyMarketUpdate(update);
+                    }
+                }
+                assertTrue(calculator.recalculate() < 1e-9);
+                MutableTwoWayPrice vwap = new DefaultTwoWayPrice();
+                MutableTwoWayPrice expected = new DefaultTwoWayPrice();
+                for (Instrument instrument : Instrument.values()) {
+                    assertEquals(reference.getVwap(instrument, expected), calculator.getVwap(instrument, vwap));
+                    assertEquals(expected.getState(), vwap.getState());
+                    assertEquals(expected.getBidPrice(), vwap.getBidPrice(), EPSILON);
+                    assertEquals(expected.getOfferPrice(), vwap.getOfferPrice(), EPSILON);
+                    assertEquals(expected.getBidAmount(), vwap.getBidAmount(), EPSILON);
+                    assertEquals(expected.getOfferAmount(), vwap.getOfferAmount(), EPSILON);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRecalculationClearsTheRoundingErrorOfDoubleSums() {
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator(QuoteStorage.ARRAY);
+        calculator.applyMarketUpdate(createMarketUpdate(Instrument.INSTRUMENT0, Market.MARKET0, State.FIRM, 1.1, 1));
+        calculator.applyMarketUpdate(createMarketUpdate(Instrument.INSTRUMENT0, Market.MARKET1, State.FIRM, 1.3, 1e17));
+        // the amount of market0 was lost adding and subtracting the amount of market1
+        TwoWayPrice vwap = calculator.withdrawQuote(Instrument.INSTRUMENT0, Market.MARKET1);
+        assertNotEquals(1.0, vwap.getBidAmount(), EPSILON);
+
+        assertTrue(calculator.recalculate() > 0.5);
+        MutableTwoWayPrice corrected = new DefaultTwoWayPrice();
+        assertTrue(calculator.getVwap(Instrument.INSTRUMENT0, corrected));
+        assertEquals(1.1, corrected.getBidPrice(), EPSILON);
+        assertEquals(1.0, corrected.getBidAmount(), 0.0d);
+        assertEquals(0.0, calculator.recalculate(), 0.0d);
+    }
+
+    private static MarketUpdate createMarketUpdate(Instrument instrument, Market market, State state, double price, double amount) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(instrument);
+        twoWayPrice.setState(state);
+        twoWayPrice.setBidPrice(price);
+        twoWayPrice.setOfferPrice(price + 0.0001);
+        twoWayPrice.setBidAmount(amount);
+        twoWayPrice.setOfferAmount(amount);
+        return new MockedMarketUpdate(market, twoWayPrice);
+    }
+}
@@ -0,0 +1,159 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class TestCalculatorMetrics {
+
+    private CalculatorMetrics metrics;
+    private DefaultVwapCalculator vwapCalculator;
+
+    @Before
+    public void setUp() {
+        metrics = new CalculatorMetrics(1);
+        vwapCalculator = new DefaultVwapCalculator(new CalculatorOptions().setMetrics(metrics));
+    }
+
+    @After
+    public void tearDown() {
+        metrics.close();
+    }
+
+    @Test
+    public void testUpdatesAndTransitionsAreCounted() {
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM));
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.INDICATIVE));
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.INDICATIVE));
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.FIRM));
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT1, State.INDICATIVE));
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(null, Instrument.INSTRUMENT1, State.FIRM));
+
+        CalculatorMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(6, snapshot.getLatencyHistogram().getTotalCount());
+        assertEquals(6, metrics.getCallCount());
+        assertEquals(6, metrics.getTimedCallCount());
+        assertEquals(4, snapshot.getUpdateCount(Instrument.INSTRUMENT0));
+        assertEquals(1, snapshot.getUpdateCount(Instrument.INSTRUMENT1));
+        assertEquals(1, snapshot.getUpdateCount(Market.MARKET0));
+        assertEquals(4, snapshot.getUpdateCount(Market.MARKET1));
+        assertEquals(1, snapshot.getIndicativeTransitions(Instrument.INSTRUMENT0));
+        assertEquals(1, snapshot.getFirmTransitions(Instrument.INSTRUMENT0));
+        assertEquals(1, snapshot.getIndicativeTransitions(Instrument.INSTRUMENT1));
+        assertEquals(0, snapshot.getFirmTransitions(Instrument.INSTRUMENT1));
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().getUpdateCount(Instrument.INSTRUMENT0));
+        assertEquals(0, metrics.getCallCount());
+    }
+
+    @Test
+    public void testOnlyASampleOfTheCallsIsTimed() {
+        CalculatorMetrics sampledMetrics = new CalculatorMetrics(4);
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator(new CalculatorOptions().setMetrics(sampledMetrics));
+        for (int i=0;i<10;i++) {
+            calculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0,
+                    i % 3 == 0 ? State.INDICATIVE : State.FIRM));
+        }
+        CalculatorMetrics.Snapshot snapshot = sampledMetrics.snapshot();
+        // calls 0, 4 and 8 are timed, all of them are counted but the counts are only published with the timed calls
+        assertEquals(3, snapshot.getLatencyHistogram().getTotalCount());
+        assertEquals(3, sampledMetrics.getTimedCallCount());
+        assertEquals(9, sampledMetrics.getCallCount());
+        assertEquals(9, snapshot.getUpdateCount(Instrument.INSTRUMENT0));
+        assertEquals(3, snapshot.getIndicativeTransitions(Instrument.INSTRUMENT0));
+        assertEquals(3, snapshot.getFirmTransitions(Instrument.INSTRUMENT0));
+
+        // published at the end of every bulk call
+        calculator.withdrawMarket(Market.MARKET1);
+        snapshot = sampledMetrics.snapshot();
+        assertEquals(10, snapshot.getCallCount(CalculatorMetrics.Operation.UPDATE));
+        assertEquals(10, snapshot.getUpdateCount(Instrument.INSTRUMENT0));
+        assertEquals(4, snapshot.getIndicativeTransitions(Instrument.INSTRUMENT0));
+
+        try {
+            new CalculatorMetrics(3);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testEveryEntryPointIsInstrumented() {
+        long millis = 1_000_000L;
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator(new CalculatorOptions().setMetrics(metrics)
+                .setQuoteExpiry(new QuoteExpiry(100 * millis, millis)));
+        MarketUpdate[] batch = {
+                createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM),
+                createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM),
+                createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.INDICATIVE),
+                createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT1, State.FIRM),
+                createMarketDataUpdate(Market.MARKET2, Instrument.INSTRUMENT2, State.FIRM),
+                createMarketDataUpdate(null, Instrument.INSTRUMENT2, State.FIRM)
+        };
+        calculator.applyMarketUpdates(batch, batch.length, vwap -> { });
+        calculator.withdrawQuote(Instrument.INSTRUMENT2, Market.MARKET2);
+        calculator.recalculate();
+        calculator.withdrawMarket(Market.MARKET1);
+        calculator.advanceClock(200 * millis);
+
+        CalculatorMetrics.Snapshot snapshot = metrics.snapshot();
+        for (CalculatorMetrics.Operation operation : CalculatorMetrics.Operation.values()) {
+            long expected = operation == CalculatorMetrics.Operation.UPDATE ? 0 : 1;
+            assertEquals(operation.name(), expected, snapshot.getCallCount(operation));
+            assertEquals(operation.name(), expected, snapshot.getTimedCallCount(operation));
+            assertEquals(operation.name(), expected, snapshot.getLatencyHistogram(operation).getTotalCount());
+        }
+        // the superseded update of the batch is counted, the invalid one is not
+        assertEquals(3, snapshot.getUpdateCount(Instrument.INSTRUMENT0));
+        assertEquals(2, snapshot.getUpdateCount(Market.MARKET0));
+        assertEquals(2, snapshot.getUpdateCount(Market.MARKET1));
+        // only the quote of MARKET0 was left to expire
+        assertEquals(1, snapshot.getExpiredQuotes());
+        assertEquals(1, metrics.getExpiredQuoteCount());
+        // INSTRUMENT0 was indicative in the batch and turned firm when MARKET1 withdrew its quotes
+        assertEquals(1, snapshot.getIndicativeTransitions(Instrument.INSTRUMENT0));
+        assertEquals(1, snapshot.getFirmTransitions(Instrument.INSTRUMENT0));
+        assertEquals(5, metrics.getCallCountsByOperation().size());
+        assertEquals(5, metrics.getMeanLatencyNanosByOperation().size());
+    }
+
+    @Test
+    public void testMetricsAreExposedThroughJmx() throws Exception {
+        metrics.registerMBean("test");
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT3, State.FIRM));
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("com.calculator:type=VwapCalculator,name=\"test\"");
+        assertEquals(1L, mBeanServer.getAttribute(objectName, "CallCount"));
+        TabularData instrumentCounts = (TabularData) mBeanServer.getAttribute(objectName, "UpdateCountsByInstrument");
+        assertEquals(1L, instrumentCounts.get(new Object[] {"INSTRUMENT3"}).get("value"));
+
+        metrics.close();
+        assertFalse(mBeanServer.isRegistered(objectName));
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        assertNull(new DefaultVwapCalculator().getMetrics());
+    }
+
+    private MarketUpdate createMarketDataUpdate(Market market, Instrument instrument, State state) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(instrument);
+        twoWayPrice.setState(state);
+        twoWayPrice.setBidPrice(0.1);
+        twoWayPrice.setOfferPrice(0.2);
+        twoWayPrice.setBidAmount(1000);
+        twoWayPrice.setOfferAmount(1000);
+        return new MockedMarketUpdate(market, twoWayPrice);
+    }
+}
@@ -0,0 +1,105 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestCaptureReplay {
+
+    private static final double EPSILON = 0.000001d;
+    private static final int UPDATE_COUNT = 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path captureFile;
+    private final DefaultVwapCalculator referenceCalculator = new DefaultVwapCalculator();
+
+    @Before
+    public void setUp() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(UPDATE_COUNT * MarketUpdateLayout.ENCODED_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        MarketUpdateDecoder decoder = new MarketUpdateDecoder();
+        Random random = new Random(3L);
+        for (int i=0;i<UPDATE_COUNT;i++) {
+            int offset = i * MarketUpdateLayout.ENCODED_LENGTH;
+            // one in a hundred updates has a negative amount and is rejected
+            MarketUpdateEncoder.encode(buffer, offset, i * 10_000L,
+                    Market.values()[random.nextInt(Market.values().length)],
+                    Instrument.values()[random.nextInt(Instrument.values().length)],
+                    random.nextInt(10) == 0 ? State.INDICATIVE : State.FIRM,
+                    1.0d + random.nextDouble(), 2.0d + random.nextDouble(),
+                    i % 100 == 99 ? -1.0d : 1 + random.nextInt(1000), 1 + random.nextInt(1000));
+            referenceCalculator.applyMarketUpdate(decoder.wrap(buffer, offset));
+        }
+        captureFile = temporaryFolder.newFile("capture.bin").toPath();
+        Files.write(captureFile, buffer.array());
+    }
+
+    @Test
+    public void testReplayAcrossMappingWindowsGivesTheSameVwaps() throws IOException {
+        // a window of 7 records forces many remappings, including a partial last window
+        ReplayReport report = new CaptureReplay(captureFile, 7 * MarketUpdateLayout.ENCODED_LENGTH)
+                .setLatencySampleInterval(1)
+                .replay(new DefaultVwapCalculator(QuoteStorage.ARRAY), 0.0d);
+
+        assertEquals(UPDATE_COUNT, report.getUpdateCount());
+        assertEquals(UPDATE_COUNT / 100, report.getInvalidCount());
+        assertEquals(UPDATE_COUNT, report.getLatencyHistogram().getTotalCount());
+        assertTrue(report.getUpdatesPerSecond() > 0.0d);
+        DefaultTwoWayPrice expected = new DefaultTwoWayPrice();
+        for (Instrument instrument : Instrument.values()) {
+            assertTrue(referenceCalculator.getVwap(instrument, expected));
+            TwoWayPrice actual = report.getFinalVwap(instrument);
+            assertEquals(expected.getState(), actual.getState());
+            assertEquals(expected.getBidPrice(), actual.getBidPrice(), EPSILON);
+            assertEquals(expected.getOfferPrice(), actual.getOfferPrice(), EPSILON);
+            assertEquals(expected.getBidAmount(), actual.getBidAmount(), EPSILON);
+            assertEquals(expected.getOfferAmount(), actual.getOfferAmount(), EPSILON);
+        }
+    }
+
+    @Test
+    public void testReplayThroughShardedCalculatorCollectsItsVwaps() throws IOException {
+        try (ShardedVwapCalculator calculator = new ShardedVwapCalculator(3, 64, WaitStrategy.YIELD, vwap -> { })) {
+            ReplayReport report = new CaptureReplay(captureFile).setLatencySampleInterval(64).replay(calculator, 0.0d);
+            assertEquals(UPDATE_COUNT, report.getUpdateCount());
+            assertEquals(UPDATE_COUNT / 100, report.getInvalidCount());
+            // updates 0, 64, ..., 960 are timed
+            assertEquals(16, report.getLatencyHistogram().getTotalCount());
+            DefaultTwoWayPrice expected = new DefaultTwoWayPrice();
+            for (Instrument instrument : Instrument.values()) {
+                assertTrue(referenceCalculator.getVwap(instrument, expected));
+                TwoWayPrice actual = report.getFinalVwap(instrument);
+                assertEquals(expected.getState(), actual.getState());
+                assertEquals(expected.getBidPrice(), actual.getBidPrice(), EPSILON);
+                assertEquals(expected.getOfferAmount(), actual.getOfferAmount(), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testPacedReplayFollowsRecordedTimestamps() throws IOException {
+        // recorded over 9.99ms, replayed at half speed
+        ReplayReport report = new CaptureReplay(captureFile).replay(new DefaultVwapCalculator(), 0.5d);
+        assertEquals(UPDATE_COUNT, report.getUpdateCount());
+        assertTrue(report.getElapsedNanos() >= 19_980_000L);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedCaptureIsRejected() throws IOException {
+        Path truncated = temporaryFolder.newFile("truncated.bin").toPath();
+        Files.write(truncated, new byte[MarketUpdateLayout.ENCODED_LENGTH + 1]);
+        new CaptureReplay(truncated).replay(new DefaultVwapCalculator(), 0.0d);
+    }
+}
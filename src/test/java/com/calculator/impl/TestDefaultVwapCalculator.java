@@ -4,8 +4,17 @@ import com.calculator.*;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class TestDefaultVwapCalculator {
 
@@ -93,15 +102,15 @@ public class TestDefaultVwapCalculator {
     }
 
     /**
-     * Just for reference of the exercise, System output is:
-     * Invalid market update - MockedMarketUpdate{market=null, twoWayPrice=DefaultTwoWayPrice{instrument=INSTRUMENT0, state=FIRM, bidPrice=0.1, offerPrice=0.2, bidAmount=1000.0, offerAmount=1000.0}}
-     * Invalid market update - MockedMarketUpdate{market=MARKET0, twoWayPrice=null}
-     * Invalid market update - MockedMarketUpdate{market=MARKET0, twoWayPrice=DefaultTwoWayPrice{instrument=null, state=FIRM, bidPrice=0.1, offerPrice=0.2, bidAmount=1000.0, offerAmount=1000.0}}
-     * Invalid market update - MockedMarketUpdate{market=MARKET0, twoWayPrice=DefaultTwoWayPrice{instrument=INSTRUMENT0, state=null, bidPrice=0.1, offerPrice=0.2, bidAmount=1000.0, offerAmount=1000.0}}
-     * Invalid market update - MockedMarketUpdate{market=MARKET0, twoWayPrice=DefaultTwoWayPrice{instrument=INSTRUMENT0, state=FIRM, bidPrice=NaN, offerPrice=0.2, bidAmount=1000.0, offerAmount=1000.0}}
-     * Invalid market update - MockedMarketUpdate{market=MARKET0, twoWayPrice=DefaultTwoWayPrice{instrument=INSTRUMENT0, state=FIRM, bidPrice=0.1, offerPrice=0.0, bidAmount=1000.0, offerAmount=1000.0}}
-     * Invalid market update - MockedMarketUpdate{market=MARKET0, twoWayPrice=DefaultTwoWayPrice{instrument=INSTRUMENT0, state=FIRM, bidPrice=0.1, offerPrice=0.2, bidAmount=-1000.0, offerAmount=1000.0}}
-     * Invalid market update - MockedMarketUpdate{market=MARKET0, twoWayPrice=DefaultTwoWayPrice{instrument=INSTRUMENT0, state=FIRM, bidPrice=0.1, offerPrice=0.2, bidAmount=1000.0, offerAmount=NaN}}
+     * Just for reference of the exercise, the background logger prints:
+     * Invalid market update - reason=NULL_MARKET, count=1, market=null, instrument=INSTRUMENT0, state=FIRM, bidPrice=0.1, offerPrice=0.2, bidAmount=1000.0, offerAmount=1000.0
+     * Invalid market update - reason=NULL_TWO_WAY_PRICE, count=1, market=MARKET0, twoWayPrice=null
+     * Invalid market update - reason=NULL_INSTRUMENT, count=1, market=MARKET0, instrument=null, state=FIRM, bidPrice=0.1, offerPrice=0.2, bidAmount=1000.0, offerAmount=1000.0
+     * Invalid market update - reason=NULL_STATE, count=1, market=MARKET0, instrument=INSTRUMENT0, state=null, bidPrice=0.1, offerPrice=0.2, bidAmount=1000.0, offerAmount=1000.0
+     * Invalid market update - reason=NAN_PRICE, count=1, market=MARKET0, instrument=INSTRUMENT0, state=FIRM, bidPrice=NaN, offerPrice=0.2, bidAmount=1000.0, offerAmount=1000.0
+     * Invalid market update - reason=NON_POSITIVE_PRICE, count=1, market=MARKET0, instrument=INSTRUMENT0, state=FIRM, bidPrice=0.1, offerPrice=0.0, bidAmount=1000.0, offerAmount=1000.0
+     * Invalid market update - reason=NON_POSITIVE_AMOUNT, count=1, market=MARKET0, instrument=INSTRUMENT0, state=FIRM, bidPrice=0.1, offerPrice=0.2, bidAmount=-1000.0, offerAmount=1000.0
+     * Invalid market update - reason=NAN_AMOUNT, count=1, market=MARKET0, instrument=INSTRUMENT0, state=FIRM, bidPrice=0.1, offerPrice=0.2, bidAmount=1000.0, offerAmount=NaN
      */
     @Test
     public void testInvalidMarketUpdateReturnNull() {
@@ -144,6 +153,327 @@ public class TestDefaultVwapCalculator {
         marketUpdate = createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, Double.NaN);
         twoWayPrice = vwapCalculator.applyMarketUpdate(marketUpdate);
         assertNull(twoWayPrice);
+
+        RejectionMonitor rejectionMonitor = vwapCalculator.getRejectionMonitor();
+        assertEquals(1, rejectionMonitor.getRejectCount(null, RejectReason.NULL_MARKET));
+        assertEquals(1, rejectionMonitor.getRejectCount(Market.MARKET0, RejectReason.NULL_TWO_WAY_PRICE));
+        assertEquals(1, rejectionMonitor.getRejectCount(Market.MARKET0, RejectReason.NULL_INSTRUMENT));
+        assertEquals(1, rejectionMonitor.getRejectCount(Market.MARKET0, RejectReason.NULL_STATE));
+        assertEquals(1, rejectionMonitor.getRejectCount(Market.MARKET0, RejectReason.NAN_PRICE));
+        assertEquals(1, rejectionMonitor.getRejectCount(Market.MARKET0, RejectReason.NON_POSITIVE_PRICE));
+        assertEquals(1, rejectionMonitor.getRejectCount(Market.MARKET0, RejectReason.NON_POSITIVE_AMOUNT));
+        assertEquals(1, rejectionMonitor.getRejectCount(Market.MARKET0, RejectReason.NAN_AMOUNT));
+        assertEquals(0, rejectionMonitor.getRejectCount(Market.MARKET1, RejectReason.NAN_AMOUNT));
+        assertEquals(0, rejectionMonitor.getRejectCount(RejectReason.NULL_UPDATE));
+    }
+
+    @Test
+    public void testGetVwapCopiesTheLatestResult() {
+        DefaultTwoWayPrice snapshot = new DefaultTwoWayPrice();
+        assertFalse(vwapCalculator.getVwap(Instrument.INSTRUMENT0, snapshot));
+
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 1000));
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.INDICATIVE, 0.11, 0.21, 1000, 1000));
+        assertTrue(vwapCalculator.getVwap(Instrument.INSTRUMENT0, snapshot));
+        verifyTwoWayPrice(snapshot, Instrument.INSTRUMENT0, State.INDICATIVE, 0.105, 0.205, 2000, 2000);
+        assertFalse(vwapCalculator.getVwap(Instrument.INSTRUMENT1, snapshot));
+    }
+
+    @Test
+    public void testConcurrentReadersNeverSeeTornVwap() throws InterruptedException {
+        // every update keeps offer = bid + 0.1 and offerAmount = bidAmount, with the state following the amount
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger tornReads = new AtomicInteger();
+        Thread[] readers = new Thread[2];
+        for (int i=0;i<readers.length;i++) {
+            readers[i] = new Thread(() -> {
+                DefaultTwoWayPrice snapshot = new DefaultTwoWayPrice();
+                while (running.get()) {
+                    if (vwapCalculator.getVwap(Instrument.INSTRUMENT0, snapshot)
+                            && (Math.abs(snapshot.getOfferPrice() - snapshot.getBidPrice() - 0.1) > EPSILON
+                            || snapshot.getOfferAmount() != snapshot.getBidAmount()
+                            || (snapshot.getBidAmount() % 2 == 0) != (snapshot.getState() == State.FIRM))) {
+                        tornReads.incrementAndGet();
+                    }
+                }
+            });
+            readers[i].start();
+        }
+        for (int i=1;i<=200_000;i++) {
+            vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0,
+                    i % 2 == 0 ? State.FIRM : State.INDICATIVE, i, i + 0.1, i, i));
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, tornReads.get());
+    }
+
+    @Test
+    public void testAllQuoteStoragesGiveTheSameResult() {
+        DefaultVwapCalculator[] calculators = new DefaultVwapCalculator[QuoteStorage.values().length];
+        for (QuoteStorage quoteStorage : QuoteStorage.values()) {
+            calculators[quoteStorage.ordinal()] = new DefaultVwapCalculator(quoteStorage);
+        }
+        Random random = new Random(7L);
+        for (int i=0;i<10_000;i++) {
+            MarketUpdate marketUpdate = createMarketDataUpdate(Market.values()[random.nextInt(Market.values().length)],
+                    Instrument.values()[random.nextInt(Instrument.values().length)],
+                    random.nextInt(5) == 0 ? State.INDICATIVE : State.FIRM,
+                    1.0d + random.nextDouble(), 2.0d + random.nextDouble(), 1 + random.nextInt(1000), 1 + random.nextInt(1000));
+            TwoWayPrice expected = vwapCalculator.applyMarketUpdate(marketUpdate);
+            for (DefaultVwapCalculator calculator : calculators) {
+                TwoWayPrice twoWayPrice = calculator.applyMarketUpdate(marketUpdate);
+                assertEquals(expected.getState(), twoWayPrice.getState());
+                assertEquals(expected.getBidPrice(), twoWayPrice.getBidPrice(), 0.0d);
+                assertEquals(expected.getOfferPrice(), twoWayPrice.getOfferPrice(), 0.0d);
+                assertEquals(expected.getBidAmount(), twoWayPrice.getBidAmount(), 0.0d);
+                assertEquals(expected.getOfferAmount(), twoWayPrice.getOfferAmount(), 0.0d);
+            }
+        }
+    }
+
+    @Test
+    public void testBatchKeepsOnlyTheLastUpdatePerMarketAndPublishesOncePerInstrument() {
+        MarketUpdate[] batch = new MarketUpdate[] {
+                createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.INDICATIVE, 0.5, 0.6, 5000, 5000),
+                createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT1, State.FIRM, 0.1, 0.2, 1000, 1000),
+                createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 1000),
+                createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.FIRM, 0.11, 0.21, 1000, 1000),
+                // invalid last update does not hide the previous valid one of the same market
+                createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.FIRM, 0.11, 0.21, -1000, 1000),
+                null
+        };
+        List<TwoWayPrice> published = new ArrayList<>();
+        vwapCalculator.applyMarketUpdates(batch, batch.length - 1, vwap -> {
+            DefaultTwoWayPrice copy = new DefaultTwoWayPrice();
+            copy.copy(vwap);
+            published.add(copy);
+        });
+
+        assertEquals(2, published.size());
+        verifyTwoWayPrice(published.get(0), Instrument.INSTRUMENT1, State.FIRM, 0.1, 0.2, 1000, 1000);
+        verifyTwoWayPrice(published.get(1), Instrument.INSTRUMENT0, State.FIRM, 0.105, 0.205, 2000, 2000);
+
+        // a following batch replaces the markets again
+        published.clear();
+        batch[0] = createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.INDICATIVE, 0.11, 0.21, 1000, 1000);
+        vwapCalculator.applyMarketUpdates(batch, 1, vwap -> published.add(vwap));
+        assertEquals(1, published.size());
+        verifyTwoWayPrice(published.get(0), Instrument.INSTRUMENT0, State.INDICATIVE, 0.11, 0.21, 2000, 2000);
+    }
+
+    @Test
+    public void testBatchGivesTheSameResultAsSingleUpdates() {
+        DefaultVwapCalculator batchCalculator = new DefaultVwapCalculator(QuoteStorage.ARRAY);
+        MarketUpdate[] batch = new MarketUpdate[256];
+        TwoWayPrice[] expectedVwaps = new TwoWayPrice[Instrument.values().length];
+        Random random = new Random(11L);
+        for (int packet=0;packet<100;packet++) {
+            int length = 1 + random.nextInt(batch.length);
+            for (int i=0;i<length;i++) {
+                // only a few markets so that the packets hold several updates of the same pair
+                batch[i] = createMarketDataUpdate(Market.values()[random.nextInt(5)],
+                        Instrument.values()[random.nextInt(Instrument.values().length)],
+                        random.nextInt(5) == 0 ? State.INDICATIVE : State.FIRM,
+                        1.0d + random.nextDouble(), 2.0d + random.nextDouble(), 1 + random.nextInt(1000), 1 + random.nextInt(1000));
+                expectedVwaps[batch[i].getTwoWayPrice().getInstrument().ordinal()] = vwapCalculator.applyMarketUpdate(batch[i]);
+            }
+            batchCalculator.applyMarketUpdates(batch, length, vwap -> {
+                TwoWayPrice expected = expectedVwaps[vwap.getInstrument().ordinal()];
+                verifyTwoWayPrice(vwap, expected.getInstrument(), expected.getState(), expected.getBidPrice(),
+                        expected.getOfferPrice(), expected.getBidAmount(), expected.getOfferAmount());
+            });
+        }
+    }
+
+    @Test
+    public void testFixedPointAccumulationFollowsTheFormula() {
+        vwapCalculator = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(QuoteStorage.ARRAY)
+                .setFixedPointScales(new FixedPointScales(5, 0).setDecimals(Instrument.INSTRUMENT1, 2, 2)));
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 1000));
+        TwoWayPrice twoWayPrice = vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.INDICATIVE, 0.11, 0.21, 2000, 2000));
+        verifyTwoWayPrice(twoWayPrice, Instrument.INSTRUMENT0, State.INDICATIVE, 0.106667, 0.206667, 3000, 3000);
+
+        // prices and amounts are rounded to the decimals of the instrument
+        twoWayPrice = vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT1, State.FIRM, 1.234, 2.345, 10.005, 10.004));
+        verifyTwoWayPrice(twoWayPrice, Instrument.INSTRUMENT1, State.FIRM, 1.23, 2.35, 10.01, 10.0);
+    }
+
+    @Test
+    public void testFixedPointAccumulationDoesNotDrift() {
+        DefaultVwapCalculator fixedPointCalculator = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(QuoteStorage.ARRAY)
+                .setFixedPointScales(new FixedPointScales(6, 2)));
+        MarketUpdate firstUpdate = createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 1.1, 1.2, 0.3, 0.7);
+        MarketUpdate secondUpdate = createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.FIRM, 1.3, 1.4, 0.1, 0.9);
+        TwoWayPrice expected = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(QuoteStorage.ARRAY)
+                .setFixedPointScales(new FixedPointScales(6, 2))).applyMarketUpdate(firstUpdate);
+        fixedPointCalculator.applyMarketUpdate(firstUpdate);
+
+        Random random = new Random(5L);
+        for (int i=0;i<100_000;i++) {
+            fixedPointCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.FIRM,
+                    random.nextDouble() * 1_000, random.nextDouble() * 1_000, random.nextInt(100_000) + 0.01, random.nextInt(100_000) + 0.01));
+        }
+        fixedPointCalculator.applyMarketUpdate(secondUpdate);
+        TwoWayPrice twoWayPrice = fixedPointCalculator.withdrawQuote(Instrument.INSTRUMENT0, Market.MARKET1);
+        // only market0 is left, so the sums are back to exactly their first value
+        assertEquals(expected.getBidPrice(), twoWayPrice.getBidPrice(), 0.0d);
+        assertEquals(expected.getOfferPrice(), twoWayPrice.getOfferPrice(), 0.0d);
+        assertEquals(expected.getBidAmount(), twoWayPrice.getBidAmount(), 0.0d);
+        assertEquals(expected.getOfferAmount(), twoWayPrice.getOfferAmount(), 0.0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFixedPointDecimalsMustFitInALong() {
+        new FixedPointScales(10, 9);
+    }
+
+    @Test
+    public void testWithdrawQuoteRemovesTheMarketContribution() {
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 1000));
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.INDICATIVE, 0.3, 0.4, 1000, 3000));
+
+        TwoWayPrice twoWayPrice = vwapCalculator.withdrawQuote(Instrument.INSTRUMENT0, Market.MARKET1);
+        verifyTwoWayPrice(twoWayPrice, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 1000);
+        assertNull(vwapCalculator.withdrawQuote(Instrument.INSTRUMENT0, Market.MARKET1));
+        assertNull(vwapCalculator.withdrawQuote(Instrument.INSTRUMENT1, Market.MARKET0));
+
+        // empty book
+        twoWayPrice = vwapCalculator.withdrawQuote(Instrument.INSTRUMENT0, Market.MARKET0);
+        verifyTwoWayPrice(twoWayPrice, Instrument.INSTRUMENT0, State.FIRM, 0.0, 0.0, 0, 0);
+        MutableTwoWayPrice vwap = new DefaultTwoWayPrice();
+        assertTrue(vwapCalculator.getVwap(Instrument.INSTRUMENT0, vwap));
+        verifyTwoWayPrice(vwap, Instrument.INSTRUMENT0, State.FIRM, 0.0, 0.0, 0, 0);
+
+        // the market can quote again
+        twoWayPrice = vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.INDICATIVE, 0.3, 0.4, 1000, 3000));
+        verifyTwoWayPrice(twoWayPrice, Instrument.INSTRUMENT0, State.INDICATIVE, 0.3, 0.4, 1000, 3000);
+    }
+
+    @Test
+    public void testWithdrawMarketRemovesItFromEveryInstrument() {
+        for (QuoteStorage quoteStorage : QuoteStorage.values()) {
+            DefaultVwapCalculator calculator = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(quoteStorage)
+                    .setFixedPointScales(new FixedPointScales(6, 0)));
+            VwapSubscription subscription = calculator.subscribe(Instrument.INSTRUMENT3);
+            for (Instrument instrument : Instrument.values()) {
+                calculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET2, instrument, State.FIRM, 0.1, 0.2, 1000, 1000));
+            }
+            for (int i=0;i<5;i++) {
+                calculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET7, Instrument.values()[i * 2], State.INDICATIVE, 0.3, 0.4, 3000, 1000));
+            }
+
+            assertEquals(5, calculator.withdrawMarket(Market.MARKET7));
+            assertEquals(0, calculator.withdrawMarket(Market.MARKET7));
+            MutableTwoWayPrice vwap = new DefaultTwoWayPrice();
+            for (Instrument instrument : Instrument.values()) {
+                assertTrue(calculator.getVwap(instrument, vwap));
+                verifyTwoWayPrice(vwap, instrument, State.FIRM, 0.1, 0.2, 1000, 1000);
+            }
+
+            assertEquals(Instrument.values().length, calculator.withdrawMarket(Market.MARKET2));
+            assertTrue(subscription.poll(vwap));
+            verifyTwoWayPrice(vwap, Instrument.INSTRUMENT3, State.FIRM, 0.0, 0.0, 0, 0);
+            subscription.close();
+        }
+    }
+
+    @Test
+    public void testPullModeCalculatesTheVwapWhenRead() {
+        vwapCalculator = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(QuoteStorage.ARRAY)
+                .addPullInstruments(EnumSet.of(Instrument.INSTRUMENT0)));
+        VwapSubscription subscription = vwapCalculator.subscribe(Instrument.INSTRUMENT0);
+        MutableTwoWayPrice vwap = new DefaultTwoWayPrice();
+        assertNull(vwapCalculator.getVwap(Instrument.INSTRUMENT0));
+        TwoWayPrice twoWayPrice = vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 1000));
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.INDICATIVE, 0.11, 0.21, 2000, 2000));
+
+        // nothing is published until the VWAP is read on the feed thread
+        assertFalse(vwapCalculator.getVwap(Instrument.INSTRUMENT0, vwap));
+        assertFalse(subscription.poll(vwap));
+        // the returned price reads the latest VWAP
+        verifyTwoWayPrice(twoWayPrice, Instrument.INSTRUMENT0, State.INDICATIVE, 0.106667, 0.206667, 3000, 3000);
+        assertTrue(vwapCalculator.getVwap(Instrument.INSTRUMENT0, vwap));
+        verifyTwoWayPrice(vwap, Instrument.INSTRUMENT0, State.INDICATIVE, 0.106667, 0.206667, 3000, 3000);
+        assertTrue(subscription.poll(vwap));
+
+        vwapCalculator.withdrawQuote(Instrument.INSTRUMENT0, Market.MARKET1);
+        verifyTwoWayPrice(vwapCalculator.getVwap(Instrument.INSTRUMENT0), Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 1000);
+        assertTrue(subscription.poll(vwap));
+        verifyTwoWayPrice(vwap, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 1000);
+        // read again without a change, nothing new is published
+        vwapCalculator.getVwap(Instrument.INSTRUMENT0);
+        assertFalse(subscription.poll(vwap));
+        subscription.close();
+
+        // the other instruments are still calculated on each update
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT1, State.FIRM, 0.1, 0.2, 1000, 1000));
+        assertTrue(vwapCalculator.getVwap(Instrument.INSTRUMENT1, vwap));
+    }
+
+    @Test
+    public void testPullModeGivesTheSameResultAsPushMode() {
+        DefaultVwapCalculator pullCalculator = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(QuoteStorage.ARRAY)
+                .addPullInstruments(EnumSet.allOf(Instrument.class)));
+        MarketUpdate[] batch = new MarketUpdate[16];
+        Random random = new Random(13L);
+        for (int i=0;i<10_000;i++) {
+            MarketUpdate update = createMarketDataUpdate(Market.values()[random.nextInt(10)],
+                    Instrument.values()[random.nextInt(Instrument.values().length)],
+                    random.nextInt(5) == 0 ? State.INDICATIVE : State.FIRM,
+                    1.0d + random.nextDouble(), 2.0d + random.nextDouble(), 1 + random.nextInt(1000), 1 + random.nextInt(1000));
+            int action = random.nextInt(20);
+            if (action == 0) {
+                vwapCalculator.withdrawMarket(update.getMarket());
+                pullCalculator.withdrawMarket(update.getMarket());
+            } else if (action == 1) {
+                batch[0] = update;
+                vwapCalculator.applyMarketUpdates(batch, 1, vwap -> { });
+                pullCalculator.applyMarketUpdates(batch, 1, vwap -> { });
+            } else {
+                vwapCalculator.applyMarketUpdate(update);
+                pullCalculator.applyMarketUpdate(update);
+            }
+            if (random.nextInt(100) == 0) {
+                for (Instrument instrument : Instrument.values()) {
+                    TwoWayPrice expected = vwapCalculator.getVwap(instrument);
+                    TwoWayPrice pulled = pullCalculator.getVwap(instrument);
+                    if (expected == null) {
+                        assertNull(pulled);
+                        continue;
+                    }
+                    assertEquals(expected.getState(), pulled.getState());
+                    assertEquals(expected.getBidPrice(), pulled.getBidPrice(), 0.0d);
+                    assertEquals(expected.getOfferAmount(), pulled.getOfferAmount(), 0.0d);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testQuoteCacheIsIndexedByMarketOrdinal() {
+        for (QuoteStorage quoteStorage : QuoteStorage.values()) {
+            QuoteStore store = quoteStorage.create(Market.values().length);
+            int last = store.slot(Market.MARKET49.ordinal());
+            int third = store.slot(Market.MARKET3.ordinal());
+            store.set(third, createMarketDataUpdate(Market.MARKET3, Instrument.INSTRUMENT0, State.INDICATIVE,
+                    0.3, 0.4, 3000, 4000).getTwoWayPrice());
+            assertEquals(2, store.size());
+            assertEquals(last, store.find(Market.MARKET49.ordinal()));
+            assertEquals(QuoteStore.NO_SLOT, store.find(Market.MARKET4.ordinal()));
+            // the slots stay dense, the last one moves into the freed one
+            store.release(Market.MARKET49.ordinal());
+            assertEquals(QuoteStore.NO_SLOT, store.find(Market.MARKET49.ordinal()));
+            int moved = store.find(Market.MARKET3.ordinal());
+            assertEquals(0, moved);
+            assertEquals(State.INDICATIVE, store.getState(moved));
+            assertEquals(0.3, store.getBidPrice(moved), 0.0d);
+            int again = store.slot(Market.MARKET49.ordinal());
+            assertEquals(1, again);
+            assertEquals(0.0, store.getOfferAmount(again), 0.0d);
+        }
     }
 
     private MarketUpdate createMarketDataUpdate(Market market,
@@ -0,0 +1,160 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestDepthVwapCalculator {
+
+    private static final double EPSILON = 0.000001d;
+    private DepthVwapCalculator depthCalculator;
+
+    @Before
+    public void setUp() {
+        depthCalculator = new DepthVwapCalculator(5);
+    }
+
+    @Test
+    public void testVwapToSizeWalksTheAggregatedLevels() {
+        DefaultMarketDepth depth = createMarketDepth(Market.MARKET1, Instrument.INSTRUMENT0);
+        depth.addLevel(Side.BID, 0.11, 50).addLevel(Side.BID, 0.09, 100)
+                .addLevel(Side.OFFER, 0.12, 200);
+        assertTrue(depthCalculator.applyMarketDepth(depth));
+        depth.setMarket(Market.MARKET0);
+        depth.clear().addLevel(Side.BID, 0.10, 100).addLevel(Side.BID, 0.09, 200)
+                .addLevel(Side.OFFER, 0.12, 100).addLevel(Side.OFFER, 0.13, 300).addLevel(Side.OFFER, 0.15, 1000);
+        assertTrue(depthCalculator.applyMarketDepth(depth));
+
+        // bids 50@0.11, 100@0.10, 300@0.09
+        assertEquals(3, depthCalculator.getLevelCount(Instrument.INSTRUMENT0, Side.BID));
+        assertEquals(0.11, depthCalculator.getLevelPrice(Instrument.INSTRUMENT0, Side.BID, 0), EPSILON);
+        assertEquals(300, depthCalculator.getLevelAmount(Instrument.INSTRUMENT0, Side.BID, 2), EPSILON);
+        assertEquals(0.11, depthCalculator.getVwapToSell(Instrument.INSTRUMENT0, 50), EPSILON);
+        assertEquals((50 * 0.11 + 100 * 0.10 + 50 * 0.09) / 200, depthCalculator.getVwapToSell(Instrument.INSTRUMENT0, 200), EPSILON);
+        assertTrue(Double.isNaN(depthCalculator.getVwapToSell(Instrument.INSTRUMENT0, 451)));
+
+        // offers 300@0.12, 300@0.13, 1000@0.15
+        assertEquals(1600, depthCalculator.getTotalAmount(Instrument.INSTRUMENT0, Side.OFFER), EPSILON);
+        assertEquals((300 * 0.12 + 300 * 0.13 + 400 * 0.15) / 1000, depthCalculator.getVwapToBuy(Instrument.INSTRUMENT0, 1000), EPSILON);
+        assertTrue(Double.isNaN(depthCalculator.getVwapToBuy(Instrument.INSTRUMENT1, 1)));
+    }
+
+    @Test
+    public void testNewDepthReplacesTheMarketLevels() {
+        DefaultMarketDepth depth = createMarketDepth(Market.MARKET0, Instrument.INSTRUMENT0);
+        depthCalculator.applyMarketDepth(depth.addLevel(Side.BID, 0.10, 100).addLevel(Side.OFFER, 0.12, 100));
+        depth.setMarket(Market.MARKET1);
+        depthCalculator.applyMarketDepth(depth);
+        depth.setMarket(Market.MARKET0);
+        depthCalculator.applyMarketDepth(depth.clear().addLevel(Side.BID, 0.09, 100).addLevel(Side.OFFER, 0.12, 50));
+
+        assertEquals(2, depthCalculator.getLevelCount(Instrument.INSTRUMENT0, Side.BID));
+        assertEquals(0.10, depthCalculator.getLevelPrice(Instrument.INSTRUMENT0, Side.BID, 0), EPSILON);
+        assertEquals(100, depthCalculator.getLevelAmount(Instrument.INSTRUMENT0, Side.BID, 0), EPSILON);
+        assertEquals(1, depthCalculator.getLevelCount(Instrument.INSTRUMENT0, Side.OFFER));
+        assertEquals(150, depthCalculator.getLevelAmount(Instrument.INSTRUMENT0, Side.OFFER, 0), EPSILON);
+
+        // an empty depth withdraws the market
+        depthCalculator.applyMarketDepth(depth.clear());
+        depth.setMarket(Market.MARKET1);
+        depthCalculator.applyMarketDepth(depth);
+        assertEquals(0, depthCalculator.getLevelCount(Instrument.INSTRUMENT0, Side.BID));
+        assertEquals(0, depthCalculator.getLevelCount(Instrument.INSTRUMENT0, Side.OFFER));
+        assertEquals(0.0, depthCalculator.getTotalAmount(Instrument.INSTRUMENT0, Side.OFFER), 0.0d);
+    }
+
+    @Test
+    public void testInvalidDepthIsRejectedAndKeepsThePreviousLevels() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RejectionMonitor rejectionMonitor = new RejectionMonitor(1, 64, new PrintStream(output, true), WaitStrategy.YIELD);
+        depthCalculator = new DepthVwapCalculator(2, rejectionMonitor);
+        DefaultMarketDepth depth = createMarketDepth(Market.MARKET3, Instrument.INSTRUMENT2);
+        assertTrue(depthCalculator.applyMarketDepth(depth.addLevel(Side.BID, 0.10, 100)));
+
+        assertFalse(depthCalculator.applyMarketDepth(depth.clear().addLevel(Side.BID, 0.10, 100).addLevel(Side.OFFER, 0.12, -1)));
+        assertFalse(depthCalculator.applyMarketDepth(new DefaultMarketDepth(3).addLevel(Side.BID, 0.10, 100)));
+        assertFalse(depthCalculator.applyMarketDepth(null));
+        rejectionMonitor.close();
+
+        assertEquals(100, depthCalculator.getTotalAmount(Instrument.INSTRUMENT2, Side.BID), EPSILON);
+        assertEquals(1, rejectionMonitor.getRejectCount(Market.MARKET3, RejectReason.NON_POSITIVE_AMOUNT));
+        assertEquals(1, rejectionMonitor.getRejectCount(null, RejectReason.NULL_MARKET));
+        assertEquals(1, rejectionMonitor.getRejectCount(null, RejectReason.NULL_UPDATE));
+        String[] lines = output.toString().split(System.lineSeparator());
+        assertEquals("Invalid market depth - reason=NON_POSITIVE_AMOUNT, count=1, market=MARKET3, instrument=INSTRUMENT2", lines[0]);
+    }
+
+    @Test
+    public void testTooManyLevelsIsRejected() {
+        DefaultMarketDepth depth = createMarketDepth(Market.MARKET0, Instrument.INSTRUMENT0);
+        for (int level=0;level<6;level++) {
+            depth.addLevel(Side.OFFER, 0.1 + level * 0.01, 100);
+        }
+        assertFalse(depthCalculator.applyMarketDepth(depth));
+        assertEquals(1, depthCalculator.getRejectionMonitor().getRejectCount(Market.MARKET0, RejectReason.TOO_MANY_LEVELS));
+        depthCalculator.getRejectionMonitor().close();
+    }
+
+    @Test
+    public void testAggregatedLevelsMatchMergedBooks() {
+        Random random = new Random(11);
+        List<double[]>[] books = newBooks();
+        DefaultMarketDepth depth = createMarketDepth(null, Instrument.INSTRUMENT4);
+        for (int i=0;i<5000;i++) {
+            Market market = Market.values()[random.nextInt(8)];
+            depth.setMarket(market);
+            depth.clear();
+            books[market.ordinal()].clear();
+            for (int level=random.nextInt(6);level>0;level--) {
+                double price = 1.0 + random.nextInt(30) * 0.01;
+                double amount = 1 + random.nextInt(500);
+                depth.addLevel(Side.OFFER, price, amount);
+                books[market.ordinal()].add(new double[]{price, amount});
+            }
+            depthCalculator.applyMarketDepth(depth);
+
+            double amount = 1 + random.nextInt(1500);
+            assertEquals(mergedVwapToBuy(books, amount), depthCalculator.getVwapToBuy(Instrument.INSTRUMENT4, amount), EPSILON);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<double[]>[] newBooks() {
+        List<double[]>[] books = new List[Market.values().length];
+        for (int i=0;i<books.length;i++) {
+            books[i] = new ArrayList<>();
+        }
+        return books;
+    }
+
+    private static double mergedVwapToBuy(List<double[]>[] books, double amount) {
+        List<double[]> offers = new ArrayList<>();
+        for (List<double[]> book : books) {
+            offers.addAll(book);
+        }
+        offers.sort((a, b) -> Double.compare(a[0], b[0]));
+        double remaining = amount;
+        double notional = 0.0d;
+        for (double[] offer : offers) {
+            double fill = Math.min(remaining, offer[1]);
+            notional += fill * offer[0];
+            remaining -= fill;
+        }
+        return remaining > 0.0d ? Double.NaN : notional / amount;
+    }
+
+    private static DefaultMarketDepth createMarketDepth(Market market, Instrument instrument) {
+        DefaultMarketDepth depth = new DefaultMarketDepth(6);
+        depth.setMarket(market);
+        depth.setInstrument(instrument);
+        return depth;
+    }
+}
@@ -0,0 +1,175 @@
+package com.calculator.impl;
+
+import com.calculator.State;
+import com.calculator.TwoWayPrice;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestDynamicVwapCalculator {
+
+    private static final double EPSILON = 0.000001d;
+    private DynamicVwapCalculator vwapCalculator;
+
+    @Before
+    public void setUp() {
+        vwapCalculator = new DynamicVwapCalculator(2, 2);
+    }
+
+    @Test
+    public void testCalculatingVwapPriceForUnregisteredIds() {
+        long instrumentId = 9_000_000_123L;
+        TwoWayPrice twoWayPrice = vwapCalculator.applyQuote(instrumentId, 77L, createTwoWayPrice(State.FIRM, 0.1, 0.2, 1000, 1000));
+        verifyTwoWayPrice(twoWayPrice, State.FIRM, 0.1, 0.2, 1000, 1000);
+        twoWayPrice = vwapCalculator.applyQuote(instrumentId, 78L, createTwoWayPrice(State.INDICATIVE, 0.11, 0.21, 2000, 2000));
+        verifyTwoWayPrice(twoWayPrice, State.INDICATIVE, 0.106667, 0.206667, 3000, 3000);
+        // latest quote of a market replaces its previous one
+        twoWayPrice = vwapCalculator.applyQuote(instrumentId, 78L, createTwoWayPrice(State.FIRM, 0.1, 0.2, 1000, 1000));
+        verifyTwoWayPrice(twoWayPrice, State.FIRM, 0.1, 0.2, 2000, 2000);
+
+        int instrument = vwapCalculator.getInstrumentRegistry().lookup(instrumentId);
+        assertEquals(0, instrument);
+        DefaultTwoWayPrice snapshot = new DefaultTwoWayPrice();
+        assertTrue(vwapCalculator.getVwap(instrument, snapshot));
+        verifyTwoWayPrice(snapshot, State.FIRM, 0.1, 0.2, 2000, 2000);
+        assertFalse(vwapCalculator.getVwap(1, snapshot));
+    }
+
+    @Test
+    public void testUniverseGrowsBeyondExpectedSize() {
+        for (long instrumentId=0;instrumentId<10_000;instrumentId++) {
+            vwapCalculator.applyQuote(instrumentId * 31, instrumentId % 300, createTwoWayPrice(State.FIRM, 1.0, 2.0, 10, 10));
+        }
+        assertEquals(10_000, vwapCalculator.getInstrumentRegistry().size());
+        assertEquals(300, vwapCalculator.getMarketRegistry().size());
+        DefaultTwoWayPrice snapshot = new DefaultTwoWayPrice();
+        for (long instrumentId=0;instrumentId<10_000;instrumentId++) {
+            int instrument = vwapCalculator.getInstrumentRegistry().lookup(instrumentId * 31);
+            assertEquals(instrumentId * 31, vwapCalculator.getInstrumentRegistry().externalId(instrument));
+            assertTrue(vwapCalculator.getVwap(instrument, snapshot));
+            verifyTwoWayPrice(snapshot, State.FIRM, 1.0, 2.0, 10, 10);
+        }
+        assertEquals(IdRegistry.UNKNOWN_ID, vwapCalculator.getInstrumentRegistry().lookup(1L));
+    }
+
+    @Test
+    public void testQuoteCacheOnlyHoldsTheQuotingMarkets() {
+        for (QuoteStorage quoteStorage : QuoteStorage.values()) {
+            QuoteStore store = quoteStorage.create();
+            // far apart market ids take one slot each
+            int first = store.slot(1_000_000);
+            int second = store.slot(7);
+            assertEquals(2, store.size());
+            assertEquals(first, store.find(1_000_000));
+            assertEquals(QuoteStore.NO_SLOT, store.find(8));
+            store.set(first, createTwoWayPrice(State.INDICATIVE, 0.1, 0.2, 1000, 2000));
+            store.set(second, createTwoWayPrice(State.FIRM, 0.3, 0.4, 3000, 4000));
+            // the last slot moves into the freed one
+            store.release(1_000_000);
+            assertEquals(1, store.size());
+            assertEquals(QuoteStore.NO_SLOT, store.find(1_000_000));
+            int moved = store.find(7);
+            assertEquals(7, store.market(moved));
+            assertEquals(State.FIRM, store.getState(moved));
+            assertEquals(0.3, store.getBidPrice(moved), 0.0d);
+            assertEquals(4000, store.getOfferAmount(moved), 0.0d);
+            // a new slot is an empty firm price
+            int again = store.slot(1_000_000);
+            assertEquals(State.FIRM, store.getState(again));
+            assertEquals(0.0, store.getBidAmount(again), 0.0d);
+        }
+    }
+
+    @Test
+    public void testRetiredIdsAreRemoved() {
+        for (QuoteStorage quoteStorage : QuoteStorage.values()) {
+            DynamicVwapCalculator calculator = new DynamicVwapCalculator(2, 2, quoteStorage);
+            Map<Long, TwoWayPrice> quotes = new HashMap<>();
+            Random random = new Random(17L);
+            DefaultTwoWayPrice snapshot = new DefaultTwoWayPrice();
+            for (int i=0;i<20_000;i++) {
+                long marketId = 1_000_000L * random.nextInt(40);
+                if (random.nextInt(20) == 0) {
+                    boolean quoted = quotes.remove(marketId) != null;
+                    assertEquals(quoted ? 1 : 0, calculator.removeMarket(marketId));
+                } else {
+                    TwoWayPrice quote = createTwoWayPrice(random.nextBoolean() ? State.FIRM : State.INDICATIVE,
+                            1.0 + random.nextInt(100) * 0.01, 2.0 + random.nextInt(100) * 0.01, 1 + random.nextInt(1000), 1 + random.nextInt(1000));
+                    calculator.applyQuote(5L, marketId, quote);
+                    quotes.put(marketId, quote);
+                }
+                if (quotes.isEmpty()) {
+                    continue;
+                }
+                double bidNotional = 0.0d;
+                double bidAmount = 0.0d;
+                State state = State.FIRM;
+                for (TwoWayPrice quote : quotes.values()) {
+                    bidNotional += quote.getBidPrice() * quote.getBidAmount();
+                    bidAmount += quote.getBidAmount();
+                    state = quote.getState() == State.INDICATIVE ? State.INDICATIVE : state;
+                }
+                assertTrue(calculator.getVwap(calculator.getInstrumentRegistry().lookup(5L), snapshot));
+                assertEquals(state, snapshot.getState());
+                assertEquals(bidNotional / bidAmount, snapshot.getBidPrice(), EPSILON);
+                assertEquals(bidAmount, snapshot.getBidAmount(), EPSILON);
+                assertEquals(quotes.size(), calculator.getMarketRegistry().registeredCount());
+            }
+            // a removed id which quotes again gets a new dense id
+            int instrument = calculator.getInstrumentRegistry().lookup(5L);
+            assertTrue(calculator.removeInstrument(5L));
+            assertFalse(calculator.removeInstrument(5L));
+            assertFalse(calculator.getVwap(instrument, snapshot));
+            try {
+                calculator.getInstrumentRegistry().externalId(instrument);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            calculator.applyQuote(5L, 1L, createTwoWayPrice(State.FIRM, 0.1, 0.2, 1000, 1000));
+            assertEquals(instrument + 1, calculator.getInstrumentRegistry().lookup(5L));
+            assertEquals(2, calculator.getInstrumentRegistry().size());
+            assertEquals(1, calculator.getInstrumentRegistry().registeredCount());
+        }
+    }
+
+    @Test
+    public void testInvalidQuoteReturnNull() {
+        assertNull(vwapCalculator.applyQuote(1L, 1L, null));
+        assertNull(vwapCalculator.applyQuote(1L, 1L, createTwoWayPrice(State.FIRM, 0.1, 0.2, 0, 1000)));
+        assertNull(vwapCalculator.applyQuote(1L, 1L, createTwoWayPrice(null, 0.1, 0.2, 1000, 1000)));
+        assertEquals(0, vwapCalculator.getInstrumentRegistry().size());
+    }
+
+    private TwoWayPrice createTwoWayPrice(State state,
+                                          double bidPrice,
+                                          double offerPrice,
+                                          double bidAmount,
+                                          double offerAmount) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setState(state);
+        twoWayPrice.setBidPrice(bidPrice);
+        twoWayPrice.setOfferPrice(offerPrice);
+        twoWayPrice.setBidAmount(bidAmount);
+        twoWayPrice.setOfferAmount(offerAmount);
+        return twoWayPrice;
+    }
+
+    private void verifyTwoWayPrice(TwoWayPrice twoWayPrice,
+                                   State state,
+                                   double bidPrice,
+                                   double offerPrice,
+                                   double bidAmount,
+                                   double offerAmount) {
+        assertNull(twoWayPrice.getInstrument());
+        assertEquals(state, twoWayPrice.getState());
+        assertEquals(bidPrice, twoWayPrice.getBidPrice(), EPSILON);
+        assertEquals(offerPrice, twoWayPrice.getOfferPrice(), EPSILON);
+        assertEquals(bidAmount, twoWayPrice.getBidAmount(), EPSILON);
+        assertEquals(offerAmount, twoWayPrice.getOfferAmount(), EPSILON);
+    }
+}
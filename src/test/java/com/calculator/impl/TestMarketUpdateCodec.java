@@ -0,0 +1,83 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class TestMarketUpdateCodec {
+
+    private static final double EPSILON = 0.000001d;
+
+    @Test
+    public void testRoundTripOnHeapAndDirectBuffers() {
+        ByteBuffer[] buffers = new ByteBuffer[] {
+                ByteBuffer.allocate(MarketUpdateLayout.ENCODED_LENGTH * 3).order(ByteOrder.LITTLE_ENDIAN),
+                ByteBuffer.allocateDirect(MarketUpdateLayout.ENCODED_LENGTH * 3).order(ByteOrder.LITTLE_ENDIAN)
+        };
+        for (ByteBuffer buffer : buffers) {
+            int offset = 0;
+            offset += MarketUpdateEncoder.encode(buffer, offset, 1L, Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 2000);
+            offset += MarketUpdateEncoder.encode(buffer, offset, 2L, Market.MARKET49, Instrument.INSTRUMENT19, State.INDICATIVE, 1.1, 1.2, 3000, 4000);
+            MarketUpdateEncoder.encode(buffer, offset, 3L, null, null, null, Double.NaN, 0.0, -1.0, 5.0);
+            assertEquals(0, buffer.position());
+
+            MarketUpdateDecoder decoder = new MarketUpdateDecoder();
+            verifyMarketUpdate(decoder.wrap(buffer, 0), 1L, Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 2000);
+            verifyMarketUpdate(decoder.wrap(buffer, MarketUpdateLayout.ENCODED_LENGTH), 2L, Market.MARKET49, Instrument.INSTRUMENT19, State.INDICATIVE, 1.1, 1.2, 3000, 4000);
+            verifyMarketUpdate(decoder.wrap(buffer, 2 * MarketUpdateLayout.ENCODED_LENGTH), 3L, null, null, null, Double.NaN, 0.0, -1.0, 5.0);
+        }
+    }
+
+    @Test
+    public void testDecodedUpdatesFeedTheCalculatorDirectly() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MarketUpdateLayout.ENCODED_LENGTH * 3).order(ByteOrder.LITTLE_ENDIAN);
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(Instrument.INSTRUMENT0);
+        twoWayPrice.setState(State.FIRM);
+        twoWayPrice.setBidPrice(0.1);
+        twoWayPrice.setOfferPrice(0.2);
+        twoWayPrice.setBidAmount(1000);
+        twoWayPrice.setOfferAmount(1000);
+        int offset = MarketUpdateEncoder.encode(buffer, 0, 1L, new MockedMarketUpdate(Market.MARKET0, twoWayPrice));
+        offset += MarketUpdateEncoder.encode(buffer, offset, 2L, Market.MARKET1, Instrument.INSTRUMENT0, State.INDICATIVE, 0.11, 0.21, 1000, 1000);
+        MarketUpdateEncoder.encode(buffer, offset, 3L, null, Instrument.INSTRUMENT0, State.FIRM, 0.11, 0.21, 1000, 1000);
+
+        DefaultVwapCalculator vwapCalculator = new DefaultVwapCalculator();
+        MarketUpdateDecoder decoder = new MarketUpdateDecoder();
+        vwapCalculator.applyMarketUpdate(decoder.wrap(buffer, 0));
+        TwoWayPrice vwap = vwapCalculator.applyMarketUpdate(decoder.wrap(buffer, MarketUpdateLayout.ENCODED_LENGTH));
+        assertEquals(State.INDICATIVE, vwap.getState());
+        assertEquals(0.105, vwap.getBidPrice(), EPSILON);
+        assertEquals(0.205, vwap.getOfferPrice(), EPSILON);
+        assertNull(vwapCalculator.applyMarketUpdate(decoder.wrap(buffer, 2 * MarketUpdateLayout.ENCODED_LENGTH)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBigEndianBufferIsRejected() {
+        new MarketUpdateDecoder().wrap(ByteBuffer.allocate(MarketUpdateLayout.ENCODED_LENGTH), 0);
+    }
+
+    private void verifyMarketUpdate(MarketUpdateDecoder decoder,
+                                    long timestamp,
+                                    Market market,
+                                    Instrument instrument,
+                                    State state,
+                                    double bidPrice,
+                                    double offerPrice,
+                                    double bidAmount,
+                                    double offerAmount) {
+        assertSame(decoder, decoder.getTwoWayPrice());
+        assertEquals(timestamp, decoder.getTimestamp());
+        assertEquals(market, decoder.getMarket());
+        assertEquals(instrument, decoder.getInstrument());
+        assertEquals(state, decoder.getState());
+        assertEquals(bidPrice, decoder.getBidPrice(), EPSILON);
+        assertEquals(offerPrice, decoder.getOfferPrice(), EPSILON);
+        assertEquals(bidAmount, decoder.getBidAmount(), EPSILON);
+        assertEquals(offerAmount, decoder.getOfferAmount(), EPSILON);
+    }
+}
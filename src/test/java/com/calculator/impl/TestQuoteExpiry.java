@@ -0,0 +1,176 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestQuoteExpiry {
+
+    private static final double EPSILON = 0.000001d;
+    private static final long MILLIS = 1_000_000L;
+    private DefaultVwapCalculator vwapCalculator;
+
+    @Before
+    public void setUp() {
+        QuoteExpiry quoteExpiry = new QuoteExpiry(100 * MILLIS, MILLIS)
+                .setTtl(Market.MARKET1, 10 * MILLIS)
+                .setTtl(Market.MARKET2, QuoteExpiry.NEVER);
+        vwapCalculator = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(QuoteStorage.ARRAY).setQuoteExpiry(quoteExpiry));
+    }
+
+    @Test
+    public void testSilentMarketIsDroppedAfterItsTtl() {
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 0L));
+        TwoWayPrice vwap = vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.INDICATIVE, 0.3, 0.4, 1000, 5 * MILLIS));
+        verifyTwoWayPrice(vwap, State.INDICATIVE, 0.2, 0.3, 2000, 2000);
+
+        // MARKET1 expires at 15ms, one tick of slack
+        vwap = vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 15 * MILLIS - 1));
+        verifyTwoWayPrice(vwap, State.INDICATIVE, 0.2, 0.3, 2000, 2000);
+        vwap = vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 16 * MILLIS));
+        verifyTwoWayPrice(vwap, State.FIRM, 0.1, 0.2, 1000, 1000);
+    }
+
+    @Test
+    public void testRequoteRestartsTheTtl() {
+        for (long time=0L;time<=50*MILLIS;time+=5*MILLIS) {
+            vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.FIRM, 0.3, 0.4, 1000, time));
+        }
+        vwapCalculator.advanceClock(59 * MILLIS);
+        MutableTwoWayPrice vwap = new DefaultTwoWayPrice();
+        assertTrue(vwapCalculator.getVwap(Instrument.INSTRUMENT0, vwap));
+        verifyTwoWayPrice(vwap, State.FIRM, 0.3, 0.4, 1000, 1000);
+
+        // the last quote was at 50ms
+        vwapCalculator.advanceClock(61 * MILLIS);
+        assertTrue(vwapCalculator.getVwap(Instrument.INSTRUMENT0, vwap));
+        verifyTwoWayPrice(vwap, State.FIRM, 0.0, 0.0, 0, 0);
+    }
+
+    @Test
+    public void testClockExpiresOtherInstrumentsAndPublishesThem() {
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 0L));
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET2, Instrument.INSTRUMENT0, State.FIRM, 0.3, 0.4, 1000, 0L));
+        VwapSubscription subscription = vwapCalculator.subscribe(Instrument.INSTRUMENT0);
+        MutableTwoWayPrice vwap = new DefaultTwoWayPrice();
+        assertTrue(subscription.poll(vwap));
+        verifyTwoWayPrice(vwap, State.FIRM, 0.2, 0.3, 2000, 2000);
+
+        // an update of another instrument moves the clock past the MARKET0 quote, MARKET2 never expires
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT1, State.FIRM, 0.5, 0.6, 1000, 200 * MILLIS));
+        assertTrue(subscription.poll(vwap));
+        verifyTwoWayPrice(vwap, State.FIRM, 0.3, 0.4, 1000, 1000);
+        subscription.close();
+    }
+
+    @Test
+    public void testBatchExpiresItsOwnStaleQuotes() {
+        List<TwoWayPrice> vwaps = new ArrayList<>();
+        MarketUpdate[] batch = {
+                createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.INDICATIVE, 0.3, 0.4, 1000, 0L),
+                createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 20 * MILLIS)
+        };
+        vwapCalculator.applyMarketUpdates(batch, batch.length, vwap -> {
+            DefaultTwoWayPrice copy = new DefaultTwoWayPrice();
+            copy.copy(vwap);
+            vwaps.add(copy);
+        });
+        assertEquals(1, vwaps.size());
+        verifyTwoWayPrice(vwaps.get(0), State.FIRM, 0.1, 0.2, 1000, 1000);
+    }
+
+    @Test
+    public void testSumsAreExactAfterEveryQuoteExpired() {
+        for (int i=0;i<1000;i++) {
+            vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.values()[i % 2], Instrument.INSTRUMENT0, State.FIRM, 0.1 + i * 0.0001, 0.2 + i * 0.0003, 1000 + i * 7, 0L));
+        }
+        vwapCalculator.advanceClock(101 * MILLIS);
+        TwoWayPrice vwap = vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET3, Instrument.INSTRUMENT0, State.FIRM, 0.7, 0.9, 1, 101 * MILLIS));
+        assertEquals(0.7, vwap.getBidPrice(), 0.0d);
+        assertEquals(0.9, vwap.getOfferPrice(), 0.0d);
+        assertEquals(1, vwap.getBidAmount(), 0.0d);
+    }
+
+    @Test
+    public void testWithdrawnQuoteDoesNotExpire() {
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000, 0L));
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.FIRM, 0.3, 0.4, 1000, 0L));
+        assertEquals(1, vwapCalculator.withdrawMarket(Market.MARKET1));
+        VwapSubscription subscription = vwapCalculator.subscribe(Instrument.INSTRUMENT0);
+        MutableTwoWayPrice vwap = new DefaultTwoWayPrice();
+        assertTrue(subscription.poll(vwap));
+
+        vwapCalculator.advanceClock(50 * MILLIS);
+        assertFalse(subscription.poll(vwap));
+        subscription.close();
+    }
+
+    @Test
+    public void testTimerWheel() {
+        List<Integer> expired = new ArrayList<>();
+        TimerWheel wheel = new TimerWheel(8, 10L, 4);
+        wheel.schedule(0, 15L);
+        wheel.schedule(1, 20L);
+        // more than one revolution away
+        wheel.schedule(2, 95L);
+        wheel.schedule(3, 30L);
+        wheel.cancel(3);
+        wheel.schedule(4, 25L);
+        wheel.schedule(4, 45L);
+
+        wheel.advance(19L, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(20L, expired::add);
+        assertEquals(List.of(1, 0), expired);
+        wheel.advance(50L, expired::add);
+        assertEquals(List.of(1, 0, 4), expired);
+        assertTrue(wheel.isScheduled(2));
+        assertFalse(wheel.isScheduled(3));
+        // a jump of several revolutions
+        wheel.advance(1000L, expired::add);
+        assertEquals(List.of(1, 0, 4, 2), expired);
+        // already passed, expires on the next tick
+        wheel.schedule(5, 10L);
+        wheel.advance(1005L, expired::add);
+        assertEquals(4, expired.size());
+        wheel.advance(1010L, expired::add);
+        assertEquals(List.of(1, 0, 4, 2, 5), expired);
+    }
+
+    private MarketUpdate createMarketDataUpdate(Market market,
+                                                Instrument instrument,
+                                                State state,
+                                                double bidPrice,
+                                                double offerPrice,
+                                                double amount,
+                                                long timestamp) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(instrument);
+        twoWayPrice.setState(state);
+        twoWayPrice.setBidPrice(bidPrice);
+        twoWayPrice.setOfferPrice(offerPrice);
+        twoWayPrice.setBidAmount(amount);
+        twoWayPrice.setOfferAmount(amount);
+
+        return new MockedMarketUpdate(market, twoWayPrice, timestamp);
+    }
+
+    private void verifyTwoWayPrice(TwoWayPrice twoWayPrice,
+                                   State state,
+                                   double bidPrice,
+                                   double offerPrice,
+                                   double bidAmount,
+                                   double offerAmount) {
+        assertEquals(Instrument.INSTRUMENT0, twoWayPrice.getInstrument());
+        assertEquals(state, twoWayPrice.getState());
+        assertEquals(bidPrice, twoWayPrice.getBidPrice(), EPSILON);
+        assertEquals(offerPrice, twoWayPrice.getOfferPrice(), EPSILON);
+        assertEquals(bidAmount, twoWayPrice.getBidAmount(), EPSILON);
+        assertEquals(offerAmount, twoWayPrice.getOfferAmount(), EPSILON);
+    }
+}
@@ -0,0 +1,199 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TestRejectionMonitor {
+
+    @Test
+    public void testRejectsAreCountedPerMarketAndSampled() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RejectionMonitor rejectionMonitor = new RejectionMonitor(10, 64, new PrintStream(output, true), WaitStrategy.YIELD);
+        DefaultVwapCalculator vwapCalculator = new DefaultVwapCalculator(new CalculatorOptions().setRejectionMonitor(rejectionMonitor));
+        MarketUpdate badUpdate = createMarketDataUpdate(Market.MARKET3, 0.1, 0.2, 0);
+        for (int i=0;i<25;i++) {
+            assertNull(vwapCalculator.applyMarketUpdate(badUpdate));
+        }
+        assertNull(vwapCalculator.applyMarketUpdate(null));
+        rejectionMonitor.close();
+
+        assertEquals(25, rejectionMonitor.getRejectCount(Market.MARKET3, RejectReason.NON_POSITIVE_AMOUNT));
+        assertEquals(25, rejectionMonitor.getRejectCount(RejectReason.NON_POSITIVE_AMOUNT));
+        assertEquals(1, rejectionMonitor.getRejectCount(null, RejectReason.NULL_UPDATE));
+        // the 1st, 11th and 21st bad amount, and the null update
+        String[] lines = output.toString().split(System.lineSeparator());
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("Invalid market update - reason=NON_POSITIVE_AMOUNT, count="));
+        assertTrue(lines[0].endsWith("market=MARKET3, instrument=INSTRUMENT0, state=FIRM, bidPrice=0.1, offerPrice=0.2, bidAmount=0.0, offerAmount=1000.0"));
+        assertTrue(lines[3].startsWith("Invalid market update - reason=NULL_UPDATE, count=1, market=null, twoWayPrice=null"));
+        assertEquals(0, rejectionMonitor.getDroppedSampleCount());
+    }
+
+    @Test
+    public void testAmountsRoundingToZeroAreRejectedInFixedPoint() {
+        RejectionMonitor rejectionMonitor = new RejectionMonitor(1, 64, new PrintStream(new ByteArrayOutputStream()), WaitStrategy.YIELD);
+        DefaultVwapCalculator vwapCalculator = new DefaultVwapCalculator(new CalculatorOptions()
+                .setFixedPointScales(new FixedPointScales(6, 2)).setRejectionMonitor(rejectionMonitor));
+        // 0.004 rounds to 0 with 2 amount decimals, the VWAP would be 0 / 0
+        assertNull(vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, 0.1, 0.2, 0.004)));
+        assertEquals(1, rejectionMonitor.getRejectCount(Market.MARKET0, RejectReason.AMOUNT_BELOW_SCALE));
+        MarketUpdate[] batch = {createMarketDataUpdate(Market.MARKET1, 0.1, 0.2, 0.004)};
+        vwapCalculator.applyMarketUpdates(batch, 1, vwap -> fail());
+        assertEquals(1, rejectionMonitor.getRejectCount(Market.MARKET1, RejectReason.AMOUNT_BELOW_SCALE));
+        assertNull(vwapCalculator.getVwap(Instrument.INSTRUMENT0));
+
+        TwoWayPrice vwap = vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, 0.1, 0.2, 0.005));
+        assertEquals(0.1, vwap.getBidPrice(), 0.0d);
+        assertEquals(0.01, vwap.getBidAmount(), 0.0d);
+        rejectionMonitor.close();
+        // the same amount is valid when accumulated in double
+        assertNotNull(new DefaultVwapCalculator().applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, 0.1, 0.2, 0.004)));
+    }
+
+    @Test
+    public void testNotionalsWhichCouldOverflowAreRejectedInFixedPoint() {
+        RejectionMonitor rejectionMonitor = new RejectionMonitor(1, 64, new PrintStream(new ByteArrayOutputStream()), WaitStrategy.YIELD);
+        DefaultVwapCalculator vwapCalculator = new DefaultVwapCalculator(new CalculatorOptions()
+                .setFixedPointScales(new FixedPointScales(6, 6)).setRejectionMonitor(rejectionMonitor));
+        // 100 * 1e6 scaled by 10^12 is above a long
+        assertNull(vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, 100.0, 100.0, 1_000_000)));
+        assertEquals(1, rejectionMonitor.getRejectCount(Market.MARKET0, RejectReason.NOTIONAL_ABOVE_SCALE));
+        // the largest notional accepted from each market, which together fill a long
+        long maxScaledAmount = Long.MAX_VALUE / Market.values().length / 100_000_000L;
+        double maxAmount = maxScaledAmount / 1_000_000.0d;
+        for (Market market : Market.values()) {
+            assertNotNull(vwapCalculator.applyMarketUpdate(createMarketDataUpdate(market, 100.0, 100.0, maxAmount)));
+        }
+        assertNull(vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, 100.0, 100.0, maxAmount + 0.000001)));
+        assertEquals(1, rejectionMonitor.getRejectCount(Market.MARKET1, RejectReason.NOTIONAL_ABOVE_SCALE));
+        // replacing a quote at the limit subtracts and adds without overflowing
+        TwoWayPrice vwap = vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, 100.0, 100.0, maxAmount));
+        assertEquals(100.0, vwap.getBidPrice(), 0.0d);
+        assertEquals(maxAmount * Market.values().length, vwap.getBidAmount(), 0.001d);
+        // a view weighting a market by 2 halves the room, the cached quotes no longer fit
+        try {
+            vwapCalculator.addView(new VwapView("double").setWeight(Market.MARKET0, 2.0));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        vwapCalculator = new DefaultVwapCalculator(new CalculatorOptions()
+                .setFixedPointScales(new FixedPointScales(6, 6)).setRejectionMonitor(rejectionMonitor));
+        vwapCalculator.addView(new VwapView("double").setWeight(Market.MARKET0, 2.0));
+        // the offer amount is 1000 at a price of 1
+        assertNull(vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET2, 100.0, 1.0, maxAmount)));
+        assertEquals(1, rejectionMonitor.getRejectCount(Market.MARKET2, RejectReason.NOTIONAL_ABOVE_SCALE));
+        assertNotNull(vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET2, 100.0, 1.0, maxScaledAmount / 2 / 1_000_000.0d)));
+        rejectionMonitor.close();
+    }
+
+    @Test
+    public void testFixedPointSumsOverflowWithoutChange() {
+        FixedPointVwapAccumulator accumulator = new FixedPointVwapAccumulator(0, 0);
+        accumulator.add(1.0, Long.MAX_VALUE / 2, 1.0, 1.0);
+        try {
+            accumulator.add(1.0, Long.MAX_VALUE / 2 + 2, 1.0, 1.0);
+            fail();
+        } catch (ArithmeticException expected) {
+        }
+        MutableTwoWayPrice result = new DefaultTwoWayPrice();
+        accumulator.writeResult(result);
+        assertEquals(Long.MAX_VALUE / 2, result.getBidAmount(), 0.0d);
+        assertEquals(1.0, result.getOfferAmount(), 0.0d);
+    }
+
+    @Test
+    public void testLoggerSleepsUntilSampledAndStopsWithTheCalculator() throws InterruptedException {
+        Set<Thread> before = loggerThreads();
+        DefaultVwapCalculator vwapCalculator = new DefaultVwapCalculator();
+        Set<Thread> started = loggerThreads();
+        started.removeAll(before);
+        // started with the calculator rather than on the first reject, and sleeping
+        assertEquals(1, started.size());
+        Thread logger = started.iterator().next();
+        long deadline = System.currentTimeMillis() + 10_000L;
+        while (logger.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1L);
+        }
+        assertEquals(Thread.State.WAITING, logger.getState());
+        vwapCalculator.close();
+        assertFalse(logger.isAlive());
+
+        // woken by a sample
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RejectionMonitor rejectionMonitor = new RejectionMonitor(1, 64, new PrintStream(output, true), null);
+        rejectionMonitor.onRejected(RejectReason.NAN_PRICE, createMarketDataUpdate(Market.MARKET0, Double.NaN, 0.2, 1000));
+        while (output.size() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1L);
+        }
+        assertTrue(output.toString().startsWith("Invalid market update - reason=NAN_PRICE"));
+        rejectionMonitor.close();
+        // a monitor given to a calculator is left open
+        RejectionMonitor sharedMonitor = new RejectionMonitor(1, 64, new PrintStream(new ByteArrayOutputStream()), null);
+        Set<Thread> running = loggerThreads();
+        new DefaultVwapCalculator(new CalculatorOptions().setRejectionMonitor(sharedMonitor)).close();
+        assertEquals(running, loggerThreads());
+        sharedMonitor.close();
+    }
+
+    private static Set<Thread> loggerThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("vwap-reject-logger")) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    @Test
+    public void testSamplesAreDroppedWhenTheRingIsFull() {
+        // the logger is blocked by the stream, so nothing is drained
+        Object lock = new Object();
+        PrintStream blockedStream = new PrintStream(new ByteArrayOutputStream()) {
+            @Override
+            public void println(Object x) {
+                synchronized (lock) {
+                    super.println(x);
+                }
+            }
+        };
+        RejectionMonitor rejectionMonitor = new RejectionMonitor(1, 2, blockedStream, WaitStrategy.YIELD);
+        synchronized (lock) {
+            for (int i=0;i<10;i++) {
+                rejectionMonitor.onRejected(RejectReason.NAN_PRICE, createMarketDataUpdate(Market.MARKET0, Double.NaN, 0.2, 1000));
+            }
+            assertEquals(10, rejectionMonitor.getRejectCount(Market.MARKET0, RejectReason.NAN_PRICE));
+            // at most the two slots of the ring and the sample being printed are taken
+            assertTrue(rejectionMonitor.getDroppedSampleCount() >= 7);
+        }
+        rejectionMonitor.close();
+    }
+
+    @Test
+    public void testValidateReturnsTheFirstFailingCheck() {
+        assertNull(RejectionMonitor.validate(createMarketDataUpdate(Market.MARKET0, 0.1, 0.2, 1000)));
+        assertEquals(RejectReason.NULL_UPDATE, RejectionMonitor.validate(null));
+        assertEquals(RejectReason.NULL_MARKET, RejectionMonitor.validate(createMarketDataUpdate(null, Double.NaN, 0.2, 1000)));
+        assertEquals(RejectReason.NAN_PRICE, RejectionMonitor.validate(createMarketDataUpdate(Market.MARKET0, Double.NaN, -0.2, 1000)));
+        assertEquals(RejectReason.NON_POSITIVE_PRICE, RejectionMonitor.validate(createMarketDataUpdate(Market.MARKET0, 0.1, -0.2, Double.NaN)));
+        assertEquals(RejectReason.NAN_AMOUNT, RejectionMonitor.validate(createMarketDataUpdate(Market.MARKET0, 0.1, 0.2, Double.NaN)));
+    }
+
+    private MarketUpdate createMarketDataUpdate(Market market, double bidPrice, double offerPrice, double bidAmount) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(Instrument.INSTRUMENT0);
+        twoWayPrice.setState(State.FIRM);
+        twoWayPrice.setBidPrice(bidPrice);
+        twoWayPrice.setOfferPrice(offerPrice);
+        twoWayPrice.setBidAmount(bidAmount);
+        twoWayPrice.setOfferAmount(1000);
+        return new MockedMarketUpdate(market, twoWayPrice);
+    }
+}
@@ -0,0 +1,123 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestShardedVwapCalculator {
+
+    private static final double EPSILON = 0.000001d;
+    private final MutableTwoWayPrice[] lastVwaps = new MutableTwoWayPrice[Instrument.values().length];
+    private ShardedVwapCalculator vwapCalculator;
+
+    @Before
+    public void setUp() {
+        for (int i=0;i<lastVwaps.length;i++) {
+            lastVwaps[i] = new DefaultTwoWayPrice();
+        }
+        // each instrument is calculated by a single shard, so the slot of an instrument is only written by one thread
+        vwapCalculator = new ShardedVwapCalculator(4, 64, WaitStrategy.YIELD,
+                vwap -> lastVwaps[vwap.getInstrument().ordinal()].copy(vwap));
+    }
+
+    @After
+    public void tearDown() {
+        vwapCalculator.close();
+    }
+
+    @Test
+    public void testSameResultAsSingleThreadedCalculator() {
+        DefaultVwapCalculator referenceCalculator = new DefaultVwapCalculator();
+        TwoWayPrice[] expectedVwaps = new TwoWayPrice[Instrument.values().length];
+        Random random = new Random(42L);
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        MockedMarketUpdate marketUpdate = new MockedMarketUpdate(null, twoWayPrice);
+        for (int i=0;i<100_000;i++) {
+            // the update instance is reused on purpose, the calculator has to copy it
+            marketUpdate.market = Market.values()[random.nextInt(Market.values().length)];
+            twoWayPrice.setInstrument(Instrument.values()[random.nextInt(Instrument.values().length)]);
+            twoWayPrice.setState(random.nextInt(10) == 0 ? State.INDICATIVE : State.FIRM);
+            twoWayPrice.setBidPrice(1.0d + random.nextDouble());
+            twoWayPrice.setOfferPrice(2.0d + random.nextDouble());
+            twoWayPrice.setBidAmount(1 + random.nextInt(1_000_000));
+            twoWayPrice.setOfferAmount(1 + random.nextInt(1_000_000));
+
+            expectedVwaps[twoWayPrice.getInstrument().ordinal()] = referenceCalculator.applyMarketUpdate(marketUpdate);
+            assertNull(vwapCalculator.applyMarketUpdate(marketUpdate));
+        }
+        vwapCalculator.flush();
+
+        DefaultTwoWayPrice snapshot = new DefaultTwoWayPrice();
+        for (Instrument instrument : Instrument.values()) {
+            TwoWayPrice expected = expectedVwaps[instrument.ordinal()];
+            TwoWayPrice actual = lastVwaps[instrument.ordinal()];
+            assertTrue(vwapCalculator.getVwap(instrument, snapshot));
+            assertEquals(expected.getBidPrice(), snapshot.getBidPrice(), EPSILON);
+            assertEquals(instrument, actual.getInstrument());
+            assertEquals(expected.getState(), actual.getState());
+            assertEquals(expected.getBidPrice(), actual.getBidPrice(), EPSILON);
+            assertEquals(expected.getOfferPrice(), actual.getOfferPrice(), EPSILON);
+            assertEquals(expected.getBidAmount(), actual.getBidAmount(), EPSILON);
+            assertEquals(expected.getOfferAmount(), actual.getOfferAmount(), EPSILON);
+        }
+    }
+
+    @Test
+    public void testInvalidMarketUpdateIsNotQueued() {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(Instrument.INSTRUMENT0);
+        twoWayPrice.setBidPrice(0.1);
+        twoWayPrice.setOfferPrice(0.2);
+        twoWayPrice.setBidAmount(-1000);
+        twoWayPrice.setOfferAmount(1000);
+        assertNull(vwapCalculator.applyMarketUpdate(new MockedMarketUpdate(Market.MARKET0, twoWayPrice)));
+        vwapCalculator.flush();
+        assertNull(lastVwaps[Instrument.INSTRUMENT0.ordinal()].getInstrument());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSinkFailuresAreCountedAndTheWorkersGoOn() {
+        vwapCalculator.close();
+        AtomicInteger delivered = new AtomicInteger();
+        vwapCalculator = new ShardedVwapCalculator(2, 16, WaitStrategy.YIELD, vwap -> {
+            if (vwap.getInstrument() == Instrument.INSTRUMENT0) {
+                throw new IllegalStateException("sink failure");
+            }
+            delivered.incrementAndGet();
+        });
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setBidPrice(0.1);
+        twoWayPrice.setOfferPrice(0.2);
+        twoWayPrice.setBidAmount(1000);
+        twoWayPrice.setOfferAmount(1000);
+        MockedMarketUpdate marketUpdate = new MockedMarketUpdate(Market.MARKET0, twoWayPrice);
+        // more updates than the queue holds, so the feed thread needs the failing worker to keep polling
+        for (int i=0;i<100;i++) {
+            twoWayPrice.setInstrument(i % 2 == 0 ? Instrument.INSTRUMENT0 : Instrument.INSTRUMENT1);
+            vwapCalculator.applyMarketUpdate(marketUpdate);
+        }
+        vwapCalculator.flush();
+        assertEquals(50, vwapCalculator.getFailureCount());
+        assertEquals("sink failure", vwapCalculator.getLastFailure().getMessage());
+        assertEquals(50, delivered.get());
+        // the VWAP was calculated before the sink failed
+        DefaultTwoWayPrice snapshot = new DefaultTwoWayPrice();
+        assertTrue(vwapCalculator.getVwap(Instrument.INSTRUMENT0, snapshot));
+        assertEquals(0.1, snapshot.getBidPrice(), EPSILON);
+    }
+
+    @Test
+    public void testShardCountIsCappedByInstruments() {
+        vwapCalculator.close();
+        vwapCalculator = new ShardedVwapCalculator(64, 16, WaitStrategy.PARK, vwap -> {});
+        assertEquals(Instrument.values().length, vwapCalculator.getShardCount());
+    }
+}
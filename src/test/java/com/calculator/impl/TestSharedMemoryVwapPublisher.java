@@ -0,0 +1,193 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TestSharedMemoryVwapPublisher {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path vwapFile;
+
+    @Before
+    public void setUp() {
+        vwapFile = temporaryFolder.getRoot().toPath().resolve("vwap.shm");
+    }
+
+    @Test
+    public void testReaderSeesTheVwapsOfTheCalculator() throws IOException {
+        SharedMemoryVwapPublisher publisher = new SharedMemoryVwapPublisher(vwapFile);
+        SharedMemoryVwapReader reader = new SharedMemoryVwapReader(vwapFile);
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(QuoteStorage.ARRAY)
+                .addPullInstruments(EnumSet.of(Instrument.INSTRUMENT1)));
+        // published before the publisher is attached, written when it is
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 1.0, 2.0));
+        calculator.publishToSharedMemory(publisher);
+        MutableTwoWayPrice vwap = new DefaultTwoWayPrice();
+        long version = reader.readVersion(Instrument.INSTRUMENT0, vwap);
+        assertTrue(version > 0L);
+        assertEquals(version, reader.version(Instrument.INSTRUMENT0));
+        assertVwapEquals(calculator, Instrument.INSTRUMENT0, vwap);
+        assertFalse(reader.read(Instrument.INSTRUMENT2, vwap));
+        assertEquals(0L, reader.version(Instrument.INSTRUMENT2));
+
+        Random random = new Random(3L);
+        for (int i=0;i<1000;i++) {
+            Instrument instrument = random.nextBoolean() ? Instrument.INSTRUMENT0 : Instrument.INSTRUMENT2;
+            calculator.applyMarketUpdate(createMarketUpdate(Market.values()[random.nextInt(8)], instrument,
+                    random.nextInt(4) == 0 ? State.INDICATIVE : State.FIRM, 1.0 + random.nextInt(100) * 0.01, 3.0));
+            assertTrue(reader.read(instrument, vwap));
+            assertVwapEquals(calculator, instrument, vwap);
+        }
+        assertTrue(reader.version(Instrument.INSTRUMENT0) > version);
+
+        // an instrument in pull mode is written when it is read
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, Instrument.INSTRUMENT1, State.FIRM, 1.0, 2.0));
+        assertFalse(reader.read(Instrument.INSTRUMENT1, vwap));
+        calculator.getVwap(Instrument.INSTRUMENT1);
+        assertTrue(reader.read(Instrument.INSTRUMENT1, vwap));
+        assertVwapEquals(calculator, Instrument.INSTRUMENT1, vwap);
+
+        // the VWAPs stay in the file for the readers and the next publisher
+        calculator.publishToSharedMemory(null);
+        publisher.close();
+        long lastVersion = reader.version(Instrument.INSTRUMENT0);
+        SharedMemoryVwapPublisher restarted = new SharedMemoryVwapPublisher(vwapFile);
+        assertEquals(lastVersion, reader.version(Instrument.INSTRUMENT0));
+        assertTrue(reader.read(Instrument.INSTRUMENT0, vwap));
+        assertVwapEquals(calculator, Instrument.INSTRUMENT0, vwap);
+        restarted.close();
+        reader.close();
+    }
+
+    @Test
+    public void testSlotLeftOddByADeadWriterIsReset() throws IOException {
+        SharedMemoryVwapPublisher publisher = new SharedMemoryVwapPublisher(vwapFile);
+        DefaultTwoWayPrice price = new DefaultTwoWayPrice();
+        price.setInstrument(Instrument.INSTRUMENT3);
+        price.setState(State.FIRM);
+        publisher.onVwap(price);
+        publisher.close();
+        // a writer which died after making the sequence odd
+        try (FileChannel channel = FileChannel.open(vwapFile, StandardOpenOption.WRITE)) {
+            ByteBuffer sequence = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(0, 3L);
+            channel.write(sequence, SharedMemoryVwapPublisher.slotOffset(Instrument.INSTRUMENT3.ordinal()));
+        }
+        new SharedMemoryVwapPublisher(vwapFile).close();
+        try (SharedMemoryVwapReader reader = new SharedMemoryVwapReader(vwapFile)) {
+            assertFalse(reader.read(Instrument.INSTRUMENT3, new DefaultTwoWayPrice()));
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testReadOfASlotLeftOddByADeadWriterGivesUp() throws IOException {
+        SharedMemoryVwapPublisher publisher = new SharedMemoryVwapPublisher(vwapFile);
+        DefaultTwoWayPrice price = new DefaultTwoWayPrice();
+        price.setInstrument(Instrument.INSTRUMENT3);
+        price.setState(State.FIRM);
+        price.setBidPrice(0.1);
+        publisher.onVwap(price);
+        publisher.close();
+        // a writer which died after making the sequence odd, and was not restarted
+        try (FileChannel channel = FileChannel.open(vwapFile, StandardOpenOption.WRITE)) {
+            ByteBuffer sequence = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(0, 3L);
+            channel.write(sequence, SharedMemoryVwapPublisher.slotOffset(Instrument.INSTRUMENT3.ordinal()));
+        }
+        try (SharedMemoryVwapReader reader = new SharedMemoryVwapReader(vwapFile)) {
+            MutableTwoWayPrice vwap = new DefaultTwoWayPrice();
+            assertEquals(SharedMemoryVwapReader.WRITER_BUSY, reader.readVersion(Instrument.INSTRUMENT3, vwap));
+            assertFalse(reader.read(Instrument.INSTRUMENT3, vwap));
+            assertNull(vwap.getInstrument());
+        }
+    }
+
+    @Test
+    public void testReaderNeverSeesATornVwap() throws Exception {
+        SharedMemoryVwapPublisher publisher = new SharedMemoryVwapPublisher(vwapFile);
+        SharedMemoryVwapReader reader = new SharedMemoryVwapReader(vwapFile);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread readerThread = new Thread(() -> {
+            MutableTwoWayPrice vwap = new DefaultTwoWayPrice();
+            long lastVersion = 0L;
+            while (lastVersion < 2 * 200_000L) {
+                long version = reader.readVersion(Instrument.INSTRUMENT0, vwap);
+                if (version == 0L || version == SharedMemoryVwapReader.WRITER_BUSY) {
+                    continue;
+                }
+                // every field is derived from the same counter
+                double counter = vwap.getBidPrice();
+                if (vwap.getOfferPrice() != counter + 1 || vwap.getBidAmount() != counter + 2 || vwap.getOfferAmount() != counter + 3
+                        || vwap.getState() != (((long) counter & 1L) == 0L ? State.FIRM : State.INDICATIVE) || version < lastVersion) {
+                    failure.set("Torn read " + vwap + " at version " + version);
+                    return;
+                }
+                lastVersion = version;
+            }
+        });
+        readerThread.start();
+        DefaultTwoWayPrice price = new DefaultTwoWayPrice();
+        price.setInstrument(Instrument.INSTRUMENT0);
+        for (int counter=1;counter<=200_000;counter++) {
+            price.setBidPrice(counter);
+            price.setOfferPrice(counter + 1);
+            price.setBidAmount(counter + 2);
+            price.setOfferAmount(counter + 3);
+            price.setState((counter & 1) == 0 ? State.FIRM : State.INDICATIVE);
+            publisher.onVwap(price);
+        }
+        readerThread.join(30_000L);
+        assertFalse(readerThread.isAlive());
+        assertNull(failure.get());
+        publisher.close();
+        reader.close();
+    }
+
+    @Test
+    public void testReaderRejectsAnotherFile() throws IOException {
+        Files.write(vwapFile, new byte[(int) SharedMemoryVwapPublisher.FILE_LENGTH]);
+        try {
+            new SharedMemoryVwapReader(vwapFile);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static void assertVwapEquals(DefaultVwapCalculator calculator, Instrument instrument, TwoWayPrice actual) {
+        MutableTwoWayPrice expected = new DefaultTwoWayPrice();
+        assertTrue(calculator.getVwap(instrument, expected));
+        assertEquals(instrument, actual.getInstrument());
+        assertEquals(expected.getState(), actual.getState());
+        assertEquals(expected.getBidPrice(), actual.getBidPrice(), 0.0d);
+        assertEquals(expected.getOfferPrice(), actual.getOfferPrice(), 0.0d);
+        assertEquals(expected.getBidAmount(), actual.getBidAmount(), 0.0d);
+        assertEquals(expected.getOfferAmount(), actual.getOfferAmount(), 0.0d);
+    }
+
+    private static MarketUpdate createMarketUpdate(Market market, Instrument instrument, State state, double bidPrice, double offerPrice) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(instrument);
+        twoWayPrice.setState(state);
+        twoWayPrice.setBidPrice(bidPrice);
+        twoWayPrice.setOfferPrice(offerPrice);
+        twoWayPrice.setBidAmount(1000);
+        twoWayPrice.setOfferAmount(1000);
+        return new MockedMarketUpdate(market, twoWayPrice);
+    }
+}
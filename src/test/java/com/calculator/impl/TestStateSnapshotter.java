@@ -0,0 +1,208 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestStateSnapshotter {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path snapshotFile;
+
+    @Before
+    public void setUp() throws IOException {
+        snapshotFile = temporaryFolder.getRoot().toPath().resolve("vwap.snapshot");
+    }
+
+    @Test
+    public void testRestartedCalculatorPublishesTheSameVwaps() throws IOException {
+        for (FixedPointScales fixedPointScales : new FixedPointScales[]{null, new FixedPointScales(6, 0)}) {
+            StateSnapshotter snapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+            DefaultVwapCalculator calculator = newCalculator(fixedPointScales, snapshotter);
+            applyRandomUpdates(calculator, 5000, 7L);
+            calculator.withdrawQuote(Instrument.INSTRUMENT3, Market.MARKET3);
+            calculator.checkpoint();
+            snapshotter.close();
+
+            StateSnapshotter restartedSnapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+            DefaultVwapCalculator restarted = newCalculator(fixedPointScales, restartedSnapshotter);
+            assertTrue(restartedSnapshotter.restore(restarted));
+            assertVwapsAreIdentical(calculator, restarted);
+
+            // the running sums carry on exactly as if there had been no restart
+            applyRandomUpdates(calculator, 5000, 8L);
+            applyRandomUpdates(restarted, 5000, 8L);
+            assertVwapsAreIdentical(calculator, restarted);
+            // and the restored index of quoting instruments is the same
+            assertEquals(calculator.withdrawMarket(Market.MARKET3), restarted.withdrawMarket(Market.MARKET3));
+            restartedSnapshotter.close();
+            snapshotFile.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testRestoredLegsPriceTheSynthetics() throws IOException {
+        StateSnapshotter snapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+        DefaultVwapCalculator calculator = newCalculator(null, snapshotter);
+        SyntheticInstrument spread = new SyntheticInstrument("spread")
+                .addLeg(Instrument.INSTRUMENT0, 1.0).addLeg(Instrument.INSTRUMENT1, -1.0);
+        calculator.addSynthetic(spread);
+        applyRandomUpdates(calculator, 5000, 9L);
+        calculator.checkpoint();
+        snapshotter.close();
+
+        StateSnapshotter restartedSnapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+        DefaultVwapCalculator restarted = newCalculator(null, restartedSnapshotter);
+        SyntheticInstrument restartedSpread = new SyntheticInstrument("spread")
+                .addLeg(Instrument.INSTRUMENT0, 1.0).addLeg(Instrument.INSTRUMENT1, -1.0);
+        restarted.addSynthetic(restartedSpread);
+        assertTrue(restartedSnapshotter.restore(restarted));
+        // priced right after the restore, without waiting for the legs to quote again
+        MutableTwoWayPrice expected = new DefaultTwoWayPrice();
+        MutableTwoWayPrice actual = new DefaultTwoWayPrice();
+        assertTrue(calculator.getVwap(spread, expected));
+        assertTrue(restarted.getVwap(restartedSpread, actual));
+        assertEquals(expected.getState(), actual.getState());
+        assertEquals(expected.getBidPrice(), actual.getBidPrice(), 0.0d);
+        assertEquals(expected.getOfferPrice(), actual.getOfferPrice(), 0.0d);
+        assertEquals(expected.getBidAmount(), actual.getBidAmount(), 0.0d);
+        assertEquals(expected.getOfferAmount(), actual.getOfferAmount(), 0.0d);
+        restartedSnapshotter.close();
+    }
+
+    @Test
+    public void testCorruptSnapshotFallsBackToThePreviousOne() throws IOException {
+        StateSnapshotter snapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+        DefaultVwapCalculator calculator = newCalculator(null, snapshotter);
+        calculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, 0.1, 0.2));
+        calculator.checkpoint();
+        calculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, 0.3, 0.4));
+        calculator.checkpoint();
+        snapshotter.close();
+        assertEquals(2, snapshotter.getSequence());
+
+        // a byte of the second snapshot, in slot 0, is torn
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{42}), StateSnapshotter.HEADER_LENGTH + StateSnapshotter.INSTRUMENTS_OFFSET
+                    + StateSnapshotter.QUOTES_OFFSET + StateSnapshotter.BID_PRICE_OFFSET);
+        }
+        StateSnapshotter restartedSnapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+        assertEquals(1, restartedSnapshotter.getSequence());
+        DefaultVwapCalculator restarted = newCalculator(null, restartedSnapshotter);
+        assertTrue(restartedSnapshotter.restore(restarted));
+        MutableTwoWayPrice vwap = new DefaultTwoWayPrice();
+        assertTrue(restarted.getVwap(Instrument.INSTRUMENT0, vwap));
+        assertEquals(0.1, vwap.getBidPrice(), 0.0d);
+
+        // the next snapshot replaces the torn one
+        restarted.checkpoint();
+        restartedSnapshotter.close();
+        assertEquals(2, restartedSnapshotter.getSequence());
+    }
+
+    @Test
+    public void testEmptyFileRestoresNothing() throws IOException {
+        StateSnapshotter snapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+        DefaultVwapCalculator calculator = newCalculator(null, snapshotter);
+        assertFalse(snapshotter.restore(calculator));
+        assertFalse(calculator.getVwap(Instrument.INSTRUMENT0, new DefaultTwoWayPrice()));
+        snapshotter.close();
+    }
+
+    @Test
+    public void testSnapshotIsOnlyRestoredIntoTheSameAccumulationMode() throws IOException {
+        StateSnapshotter snapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+        DefaultVwapCalculator calculator = newCalculator(new FixedPointScales(6, 0), snapshotter);
+        calculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, 0.1, 0.2));
+        calculator.checkpoint();
+        snapshotter.close();
+        snapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+        try {
+            snapshotter.restore(newCalculator(null, null));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            snapshotter.restore(newCalculator(new FixedPointScales(6, 0).setDecimals(Instrument.INSTRUMENT0, 5, 0), null));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            snapshotter.restore(calculator);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        snapshotter.close();
+    }
+
+    @Test(timeout = 10_000L)
+    public void testCheckpointsArePeriodic() throws IOException, InterruptedException {
+        StateSnapshotter snapshotter = new StateSnapshotter(snapshotFile, 1L, TimeUnit.MILLISECONDS);
+        DefaultVwapCalculator calculator = newCalculator(null, snapshotter);
+        while (snapshotter.getSequence() < 3) {
+            calculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, 0.1, 0.2));
+            Thread.sleep(1L);
+        }
+        snapshotter.close();
+        assertEquals(0, snapshotter.getFailedWriteCount());
+    }
+
+    private static DefaultVwapCalculator newCalculator(FixedPointScales fixedPointScales, StateSnapshotter snapshotter) {
+        return new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(QuoteStorage.ARRAY)
+                .setFixedPointScales(fixedPointScales).setSnapshotter(snapshotter));
+    }
+
+    private static void applyRandomUpdates(DefaultVwapCalculator calculator, int count, long seed) {
+        Random random = new Random(seed);
+        for (int i=0;i<count;i++) {
+            DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+            twoWayPrice.setInstrument(Instrument.values()[random.nextInt(Instrument.values().length)]);
+            twoWayPrice.setState(random.nextInt(10) == 0 ? State.INDICATIVE : State.FIRM);
+            twoWayPrice.setBidPrice(1.0 + random.nextInt(10_000) * 0.0001);
+            twoWayPrice.setOfferPrice(twoWayPrice.getBidPrice() + 0.0001);
+            twoWayPrice.setBidAmount(1 + random.nextInt(1_000_000));
+            twoWayPrice.setOfferAmount(1 + random.nextInt(1_000_000));
+            calculator.applyMarketUpdate(new MockedMarketUpdate(Market.values()[random.nextInt(Market.values().length)], twoWayPrice));
+        }
+    }
+
+    private static void assertVwapsAreIdentical(DefaultVwapCalculator expected, DefaultVwapCalculator actual) {
+        MutableTwoWayPrice expectedVwap = new DefaultTwoWayPrice();
+        MutableTwoWayPrice actualVwap = new DefaultTwoWayPrice();
+        for (Instrument instrument : Instrument.values()) {
+            assertEquals(expected.getVwap(instrument, expectedVwap), actual.getVwap(instrument, actualVwap));
+            assertEquals(instrument, actualVwap.getInstrument());
+            assertEquals(expectedVwap.getState(), actualVwap.getState());
+            // bit identical
+            assertEquals(expectedVwap.getBidPrice(), actualVwap.getBidPrice(), 0.0d);
+            assertEquals(expectedVwap.getOfferPrice(), actualVwap.getOfferPrice(), 0.0d);
+            assertEquals(expectedVwap.getBidAmount(), actualVwap.getBidAmount(), 0.0d);
+            assertEquals(expectedVwap.getOfferAmount(), actualVwap.getOfferAmount(), 0.0d);
+        }
+    }
+
+    private static MarketUpdate createMarketDataUpdate(Market market, Instrument instrument, double bidPrice, double offerPrice) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(instrument);
+        twoWayPrice.setState(State.FIRM);
+        twoWayPrice.setBidPrice(bidPrice);
+        twoWayPrice.setOfferPrice(offerPrice);
+        twoWayPrice.setBidAmount(1000);
+        twoWayPrice.setOfferAmount(1000);
+        return new MockedMarketUpdate(market, twoWayPrice);
+    }
+}
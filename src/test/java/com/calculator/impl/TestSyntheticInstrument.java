@@ -0,0 +1,182 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestSyntheticInstrument {
+
+    private static final double EPSILON = 0.000001d;
+
+    @Test
+    public void testSpreadCrossesTheSidesOfItsShortLeg() {
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator();
+        SyntheticInstrument spread = new SyntheticInstrument("spread")
+                .addLeg(Instrument.INSTRUMENT0, 1.0).addLeg(Instrument.INSTRUMENT1, -2.0);
+        calculator.addSynthetic(spread);
+        MutableTwoWayPrice price = new DefaultTwoWayPrice();
+
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 10.0, 11.0, 1000, 3000));
+        // not priced until every leg has a VWAP
+        assertFalse(calculator.getVwap(spread, price));
+
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, Instrument.INSTRUMENT1, State.FIRM, 2.0, 2.5, 1000, 4000));
+        assertTrue(calculator.getVwap(spread, price));
+        assertNull(price.getInstrument());
+        assertEquals(State.FIRM, price.getState());
+        // selling the spread sells INSTRUMENT0 at 10 and buys twice INSTRUMENT1 at 2.5
+        assertEquals(10.0 - 2 * 2.5, price.getBidPrice(), EPSILON);
+        assertEquals(11.0 - 2 * 2.0, price.getOfferPrice(), EPSILON);
+        assertEquals(Math.min(1000, 4000 / 2.0), price.getBidAmount(), EPSILON);
+        assertEquals(Math.min(3000, 1000 / 2.0), price.getOfferAmount(), EPSILON);
+
+        // an indicative leg makes the synthetic indicative
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET1, Instrument.INSTRUMENT1, State.INDICATIVE, 2.0, 2.5, 1000, 4000));
+        assertTrue(calculator.getVwap(spread, price));
+        assertEquals(State.INDICATIVE, price.getState());
+        calculator.withdrawMarket(Market.MARKET1);
+        assertTrue(calculator.getVwap(spread, price));
+        assertEquals(State.FIRM, price.getState());
+
+        // a leg without quotes leaves the synthetic empty
+        calculator.withdrawQuote(Instrument.INSTRUMENT1, Market.MARKET0);
+        assertTrue(calculator.getVwap(spread, price));
+        assertEquals(0.0, price.getBidPrice(), 0.0d);
+        assertEquals(0.0, price.getOfferAmount(), 0.0d);
+    }
+
+    @Test
+    public void testSyntheticsSharingLegsMatchTheirLegs() {
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator(QuoteStorage.ARRAY);
+        Random random = new Random(23L);
+        SyntheticInstrument[] synthetics = new SyntheticInstrument[2000];
+        for (int s=0;s<synthetics.length;s++) {
+            synthetics[s] = new SyntheticInstrument("synthetic" + s);
+            // most of them share the first few instruments
+            int legCount = 1 + random.nextInt(4);
+            for (int leg=0;leg<legCount;leg++) {
+                Instrument instrument = Instrument.values()[leg == 0 ? random.nextInt(3) : random.nextInt(10)];
+                if (!hasLeg(synthetics[s], instrument)) {
+                    synthetics[s].addLeg(instrument, (random.nextInt(7) - 3) + (random.nextBoolean() ? 0.5 : -0.5));
+                }
+            }
+            calculator.addSynthetic(synthetics[s]);
+        }
+        MutableTwoWayPrice price = new DefaultTwoWayPrice();
+        MarketUpdate[] batch = new MarketUpdate[8];
+        for (int i=0;i<3000;i++) {
+            if (i % 10 == 9) {
+                for (int b=0;b<batch.length;b++) {
+                    batch[b] = randomMarketUpdate(random);
+                }
+                calculator.applyMarketUpdates(batch, batch.length, vwap -> { });
+            } else if (i % 50 == 49) {
+                calculator.withdrawMarket(Market.values()[random.nextInt(8)]);
+            } else {
+                calculator.applyMarketUpdate(randomMarketUpdate(random));
+            }
+            for (int s=i%7;s<synthetics.length;s+=7) {
+                assertSyntheticMatchesItsLegs(calculator, synthetics[s], price);
+            }
+        }
+    }
+
+    @Test
+    public void testDefinitionsAreChecked() {
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(QuoteStorage.ARRAY)
+                .addPullInstruments(EnumSet.of(Instrument.INSTRUMENT2)));
+        try {
+            new SyntheticInstrument("duplicate").addLeg(Instrument.INSTRUMENT0, 1.0).addLeg(Instrument.INSTRUMENT0, 2.0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new SyntheticInstrument("zero").addLeg(Instrument.INSTRUMENT0, 0.0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            calculator.addSynthetic(new SyntheticInstrument("empty"));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            calculator.addSynthetic(new SyntheticInstrument("pulled").addLeg(Instrument.INSTRUMENT2, 1.0));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            calculator.getVwap(new SyntheticInstrument("unknown").addLeg(Instrument.INSTRUMENT0, 1.0), new DefaultTwoWayPrice());
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 1.0, 2.0, 1000, 1000));
+        try {
+            calculator.addSynthetic(new SyntheticInstrument("late").addLeg(Instrument.INSTRUMENT0, 1.0));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static void assertSyntheticMatchesItsLegs(DefaultVwapCalculator calculator, SyntheticInstrument synthetic,
+                                                      MutableTwoWayPrice price) {
+        MutableTwoWayPrice legVwap = new DefaultTwoWayPrice();
+        boolean priced = true;
+        boolean indicative = false;
+        double bidPrice = 0.0d;
+        double offerPrice = 0.0d;
+        double bidAmount = Double.POSITIVE_INFINITY;
+        double offerAmount = Double.POSITIVE_INFINITY;
+        for (int leg=0;leg<synthetic.getLegCount();leg++) {
+            double weight = synthetic.getWeight(leg);
+            if (!calculator.getVwap(synthetic.getLeg(leg), legVwap)) {
+                priced = false;
+                break;
+            }
+            indicative |= legVwap.getState() == State.INDICATIVE;
+            bidPrice += weight * (weight > 0 ? legVwap.getBidPrice() : legVwap.getOfferPrice());
+            offerPrice += weight * (weight > 0 ? legVwap.getOfferPrice() : legVwap.getBidPrice());
+            bidAmount = Math.min(bidAmount, (weight > 0 ? legVwap.getBidAmount() : legVwap.getOfferAmount()) / Math.abs(weight));
+            offerAmount = Math.min(offerAmount, (weight > 0 ? legVwap.getOfferAmount() : legVwap.getBidAmount()) / Math.abs(weight));
+        }
+        assertEquals(priced, calculator.getVwap(synthetic, price));
+        if (priced) {
+            assertEquals(indicative ? State.INDICATIVE : State.FIRM, price.getState());
+            assertEquals(bidAmount == 0.0d ? 0.0d : bidPrice, price.getBidPrice(), EPSILON);
+            assertEquals(offerAmount == 0.0d ? 0.0d : offerPrice, price.getOfferPrice(), EPSILON);
+            assertEquals(bidAmount, price.getBidAmount(), EPSILON);
+            assertEquals(offerAmount, price.getOfferAmount(), EPSILON);
+        }
+    }
+
+    private static boolean hasLeg(SyntheticInstrument synthetic, Instrument instrument) {
+        for (int leg=0;leg<synthetic.getLegCount();leg++) {
+            if (synthetic.getLeg(leg) == instrument) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static MarketUpdate randomMarketUpdate(Random random) {
+        return createMarketUpdate(Market.values()[random.nextInt(8)], Instrument.values()[random.nextInt(10)],
+                random.nextInt(5) == 0 ? State.INDICATIVE : State.FIRM, 1.0 + random.nextInt(1000) * 0.001,
+                2.0 + random.nextInt(1000) * 0.001, 1 + random.nextInt(1000), 1 + random.nextInt(1000));
+    }
+
+    private static MarketUpdate createMarketUpdate(Market market, Instrument instrument, State state, double bidPrice,
+                                                   double offerPrice, double bidAmount, double offerAmount) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(instrument);
+        twoWayPrice.setState(state);
+        twoWayPrice.setBidPrice(bidPrice);
+        twoWayPrice.setOfferPrice(offerPrice);
+        twoWayPrice.setBidAmount(bidAmount);
+        twoWayPrice.setOfferAmount(offerAmount);
+        return new MockedMarketUpdate(market, twoWayPrice);
+    }
+}
@@ -0,0 +1,172 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestTopOfBookPrice {
+
+    private static final double EPSILON = 0.000001d;
+
+    @Test
+    public void testBestBidAndOfferComeWithTheVwap() {
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator(new CalculatorOptions()
+                .addTopOfBookInstruments(EnumSet.of(Instrument.INSTRUMENT0)));
+        assertNull(calculator.getTopOfBook(Instrument.INSTRUMENT0));
+        calculator.applyMarketUpdate(createMarketUpdate(Instrument.INSTRUMENT0, Market.MARKET3, 1.10, 1.30, 1000));
+        TopOfBookPrice vwap = calculator.getTopOfBook(Instrument.INSTRUMENT0);
+        verifyTopOfBook(vwap, 1.10, Market.MARKET3.ordinal(), 1.30, Market.MARKET3.ordinal());
+        assertEquals(0.0, vwap.getBidSkew(), EPSILON);
+
+        assertSame(vwap, calculator.applyMarketUpdate(createMarketUpdate(Instrument.INSTRUMENT0, Market.MARKET1, 1.20, 1.40, 3000)));
+        verifyTopOfBook(vwap, 1.20, Market.MARKET1.ordinal(), 1.30, Market.MARKET3.ordinal());
+        assertEquals(0.10, vwap.getSpread(), EPSILON);
+        assertEquals(1.20 - 1.175, vwap.getBidSkew(), EPSILON);
+        assertEquals(1.375 - 1.30, vwap.getOfferSkew(), EPSILON);
+
+        // equal prices, the lowest market is the best
+        calculator.applyMarketUpdate(createMarketUpdate(Instrument.INSTRUMENT0, Market.MARKET0, 1.20, 1.30, 1000));
+        verifyTopOfBook(vwap, 1.20, Market.MARKET0.ordinal(), 1.30, Market.MARKET0.ordinal());
+
+        calculator.withdrawQuote(Instrument.INSTRUMENT0, Market.MARKET0);
+        verifyTopOfBook(vwap, 1.20, Market.MARKET1.ordinal(), 1.30, Market.MARKET3.ordinal());
+        calculator.withdrawQuote(Instrument.INSTRUMENT0, Market.MARKET1);
+        calculator.withdrawQuote(Instrument.INSTRUMENT0, Market.MARKET3);
+        verifyTopOfBook(vwap, 0.0, -1, 0.0, -1);
+        assertEquals(0.0, vwap.getSpread(), 0.0d);
+        assertEquals(0.0, vwap.getBidSkew(), 0.0d);
+        assertEquals(0.0, vwap.getOfferSkew(), 0.0d);
+    }
+
+    @Test
+    public void testBestBidAndOfferAreOnlyTrackedWhenAsked() {
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator(new CalculatorOptions()
+                .addTopOfBookInstruments(EnumSet.of(Instrument.INSTRUMENT0)));
+        TwoWayPrice vwap = calculator.applyMarketUpdate(createMarketUpdate(Instrument.INSTRUMENT1, Market.MARKET0, 1.10, 1.30, 1000));
+        assertFalse(vwap instanceof TopOfBookPrice);
+        try {
+            calculator.getTopOfBook(Instrument.INSTRUMENT1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        DynamicVwapCalculator dynamicCalculator = new DynamicVwapCalculator(1, 8);
+        assertFalse(dynamicCalculator.applyQuote(7L, 1L, vwap) instanceof TopOfBookPrice);
+        try {
+            dynamicCalculator.getTopOfBook(0);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testBestBidAndOfferMatchAScanOfTheQuotes() {
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(QuoteStorage.ARRAY)
+                .addPullInstruments(EnumSet.of(Instrument.INSTRUMENT1)).addTopOfBookInstruments(EnumSet.allOf(Instrument.class)));
+        TwoWayPrice[][] quotes = new TwoWayPrice[Instrument.values().length][Market.values().length];
+        Random random = new Random(23);
+        for (int i=0;i<50_000;i++) {
+            Instrument instrument = Instrument.values()[random.nextInt(3)];
+            Market market = Market.values()[random.nextInt(Market.values().length)];
+            int action = random.nextInt(100);
+            if (action < 10) {
+                calculator.withdrawQuote(instrument, market);
+                quotes[instrument.ordinal()][market.ordinal()] = null;
+            } else if (action < 11) {
+                calculator.withdrawMarket(market);
+                for (TwoWayPrice[] instrumentQuotes : quotes) {
+                    instrumentQuotes[market.ordinal()] = null;
+                }
+            } else {
+                // few distinct prices, so that markets often quote the same price
+                double bidPrice = 1.0 + random.nextInt(20) * 0.01;
+                MarketUpdate update = createMarketUpdate(instrument, market, bidPrice,
+                        bidPrice + (1 + random.nextInt(20)) * 0.01, 1 + random.nextInt(1000));
+                calculator.applyMarketUpdate(update);
+                quotes[instrument.ordinal()][market.ordinal()] = update.getTwoWayPrice();
+            }
+            TopOfBookPrice vwap = calculator.getTopOfBook(instrument);
+            if (vwap == null) {
+                continue;
+            }
+            int bestBidMarket = -1;
+            int bestOfferMarket = -1;
+            TwoWayPrice[] instrumentQuotes = quotes[instrument.ordinal()];
+            for (int m=0;m<instrumentQuotes.length;m++) {
+                if (instrumentQuotes[m] == null) {
+                    continue;
+                }
+                if (bestBidMarket == -1 || instrumentQuotes[m].getBidPrice() > instrumentQuotes[bestBidMarket].getBidPrice()) {
+                    bestBidMarket = m;
+                }
+                if (bestOfferMarket == -1 || instrumentQuotes[m].getOfferPrice() < instrumentQuotes[bestOfferMarket].getOfferPrice()) {
+                    bestOfferMarket = m;
+                }
+            }
+            assertEquals(bestBidMarket, vwap.getBestBidMarket());
+            assertEquals(bestOfferMarket, vwap.getBestOfferMarket());
+            if (bestBidMarket != -1) {
+                assertEquals(instrumentQuotes[bestBidMarket].getBidPrice(), vwap.getBestBidPrice(), 0.0d);
+                assertEquals(instrumentQuotes[bestOfferMarket].getOfferPrice(), vwap.getBestOfferPrice(), 0.0d);
+                assertTrue(vwap.getBidSkew() >= -EPSILON);
+                assertTrue(vwap.getOfferSkew() >= -EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testBestBidAndOfferOfManyMarkets() {
+        // grows the tree of the instrument several times
+        DynamicVwapCalculator calculator = new DynamicVwapCalculator(1, 8, QuoteStorage.ARRAY, true);
+        double[] bidPrices = new double[600];
+        double[] offerPrices = new double[600];
+        Random random = new Random(29);
+        for (int i=0;i<20_000;i++) {
+            long marketId = 1000L + random.nextInt(Math.min(bidPrices.length, 1 + i / 10));
+            double bidPrice = 1.0 + random.nextInt(100) * 0.01;
+            DefaultTwoWayPrice quote = new DefaultTwoWayPrice();
+            quote.setState(State.FIRM);
+            quote.setBidPrice(bidPrice);
+            quote.setOfferPrice(bidPrice + (1 + random.nextInt(100)) * 0.01);
+            quote.setBidAmount(1000);
+            quote.setOfferAmount(1000);
+            calculator.applyQuote(7L, marketId, quote);
+            TopOfBookPrice vwap = calculator.getTopOfBook(0);
+            int market = calculator.getMarketRegistry().lookup(marketId);
+            bidPrices[market] = quote.getBidPrice();
+            offerPrices[market] = quote.getOfferPrice();
+            int bestBidMarket = 0;
+            int bestOfferMarket = 0;
+            for (int m=1;m<calculator.getMarketRegistry().size();m++) {
+                bestBidMarket = bidPrices[m] > bidPrices[bestBidMarket] ? m : bestBidMarket;
+                bestOfferMarket = offerPrices[m] < offerPrices[bestOfferMarket] ? m : bestOfferMarket;
+            }
+            assertEquals(bestBidMarket, vwap.getBestBidMarket());
+            assertEquals(bidPrices[bestBidMarket], vwap.getBestBidPrice(), 0.0d);
+            assertEquals(bestOfferMarket, vwap.getBestOfferMarket());
+            assertEquals(offerPrices[bestOfferMarket], vwap.getBestOfferPrice(), 0.0d);
+        }
+    }
+
+    private static void verifyTopOfBook(TopOfBookPrice vwap, double bestBidPrice, int bestBidMarket,
+                                        double bestOfferPrice, int bestOfferMarket) {
+        assertEquals(bestBidPrice, vwap.getBestBidPrice(), EPSILON);
+        assertEquals(bestBidMarket, vwap.getBestBidMarket());
+        assertEquals(bestOfferPrice, vwap.getBestOfferPrice(), EPSILON);
+        assertEquals(bestOfferMarket, vwap.getBestOfferMarket());
+    }
+
+    private static MarketUpdate createMarketUpdate(Instrument instrument, Market market, double bidPrice, double offerPrice, double amount) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(instrument);
+        twoWayPrice.setState(State.FIRM);
+        twoWayPrice.setBidPrice(bidPrice);
+        twoWayPrice.setOfferPrice(offerPrice);
+        twoWayPrice.setBidAmount(amount);
+        twoWayPrice.setOfferAmount(amount);
+        return new MockedMarketUpdate(market, twoWayPrice);
+    }
+}
@@ -0,0 +1,248 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestUpdateJournal {
+
+    private static final long TTL = 5_000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path journalDirectory;
+    private Path snapshotFile;
+
+    @Before
+    public void setUp() {
+        journalDirectory = temporaryFolder.getRoot().toPath().resolve("journal");
+        snapshotFile = temporaryFolder.getRoot().toPath().resolve("vwap.snapshot");
+    }
+
+    @Test
+    public void testRecoveryFromSnapshotAndJournalReproducesTheState() throws IOException {
+        // quotes of an instrument expiring together are only taken out in the same order with fixed-point accumulation
+        recoverAndCompare(null, null);
+        recoverAndCompare(new FixedPointScales(6, 0), new QuoteExpiry(TTL, 100L));
+    }
+
+    private void recoverAndCompare(FixedPointScales fixedPointScales, QuoteExpiry quoteExpiry) throws IOException {
+        StateSnapshotter snapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+        UpdateJournal journal = new UpdateJournal(journalDirectory, 1000, JournalFlushPolicy.SEGMENT);
+        DefaultVwapCalculator calculator = newCalculator(fixedPointScales, quoteExpiry, snapshotter, journal);
+        Random random = new Random(3);
+        long[] clock = {0L};
+        applyRandomInput(calculator, random, clock, 3000);
+        calculator.checkpoint();
+        applyRandomInput(calculator, random, clock, 3000);
+        snapshotter.close();
+        journal.close();
+        assertTrue(journalDirectory.toFile().list().length > 1);
+
+        StateSnapshotter restartedSnapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+        UpdateJournal restartedJournal = new UpdateJournal(journalDirectory, 1000, JournalFlushPolicy.SEGMENT);
+        assertEquals(journal.getPosition(), restartedJournal.getPosition());
+        DefaultVwapCalculator recovered = newCalculator(fixedPointScales, quoteExpiry, restartedSnapshotter, restartedJournal);
+        long replayedCount = recovered.recover();
+        assertTrue(replayedCount > 0L && replayedCount < journal.getPosition());
+        assertVwapsAreIdentical(calculator, recovered);
+
+        // the recovered calculator journals the next input after the recovered records
+        Random randomCopy = new Random(4);
+        long[] clockCopy = {clock[0]};
+        applyRandomInput(calculator, new Random(4), clock, 2000);
+        applyRandomInput(recovered, randomCopy, clockCopy, 2000);
+        assertVwapsAreIdentical(calculator, recovered);
+        restartedSnapshotter.close();
+        restartedJournal.close();
+
+        // the whole journal alone gives the same state too
+        UpdateJournal fullJournal = new UpdateJournal(journalDirectory, 1000, JournalFlushPolicy.NONE);
+        DefaultVwapCalculator replayed = newCalculator(fixedPointScales, quoteExpiry, null, fullJournal);
+        assertEquals(fullJournal.getPosition(), replayed.recover());
+        assertVwapsAreIdentical(calculator, replayed);
+        fullJournal.close();
+        deleteFiles();
+    }
+
+    @Test
+    public void testNoCheckpointIsTakenWhileRecovering() throws IOException {
+        UpdateJournal journal = new UpdateJournal(journalDirectory, 1000, JournalFlushPolicy.SEGMENT);
+        DefaultVwapCalculator calculator = newCalculator(null, null, null, journal);
+        applyRandomInput(calculator, new Random(5), new long[]{0L}, 20_000);
+        journal.close();
+
+        // a recovery longer than the checkpoint interval
+        StateSnapshotter snapshotter = new StateSnapshotter(snapshotFile, 1L, TimeUnit.MILLISECONDS);
+        UpdateJournal restartedJournal = new UpdateJournal(journalDirectory, 1000, JournalFlushPolicy.SEGMENT);
+        DefaultVwapCalculator recovered = newCalculator(null, null, snapshotter, restartedJournal);
+        assertEquals(restartedJournal.getPosition(), recovered.recover());
+        assertVwapsAreIdentical(calculator, recovered);
+        // crash before the next update, a checkpoint claiming the whole journal would lose the records after it
+        snapshotter.close();
+        restartedJournal.close();
+
+        StateSnapshotter secondSnapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+        UpdateJournal secondJournal = new UpdateJournal(journalDirectory, 1000, JournalFlushPolicy.SEGMENT);
+        DefaultVwapCalculator recoveredAgain = newCalculator(null, null, secondSnapshotter, secondJournal);
+        recoveredAgain.recover();
+        assertVwapsAreIdentical(calculator, recoveredAgain);
+        secondSnapshotter.close();
+        secondJournal.close();
+    }
+
+    @Test
+    public void testUnfinishedBatchIsNotReplayed() throws IOException {
+        UpdateJournal journal = new UpdateJournal(journalDirectory, 4, JournalFlushPolicy.RECORD);
+        DefaultVwapCalculator calculator = newCalculator(null, null, null, journal);
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, Instrument.INSTRUMENT0, 0.1, 0L));
+        // a crash in the middle of a batch, after its first update was journaled
+        journal.appendBatchUpdate(createMarketUpdate(Market.MARKET1, Instrument.INSTRUMENT0, 0.3, 0L));
+        journal.close();
+
+        journal = new UpdateJournal(journalDirectory, 4, JournalFlushPolicy.RECORD);
+        calculator = newCalculator(null, null, null, journal);
+        assertEquals(3L, calculator.recover());
+        MutableTwoWayPrice vwap = new DefaultTwoWayPrice();
+        assertTrue(calculator.getVwap(Instrument.INSTRUMENT0, vwap));
+        assertEquals(0.1, vwap.getBidPrice(), 0.0d);
+
+        // nor merged into the batch applied after the restart
+        calculator.applyMarketUpdates(new MarketUpdate[]{createMarketUpdate(Market.MARKET2, Instrument.INSTRUMENT0, 0.2, 0L)}, 1, v -> { });
+        journal.close();
+        journal = new UpdateJournal(journalDirectory, 4, JournalFlushPolicy.RECORD);
+        calculator = newCalculator(null, null, null, journal);
+        calculator.recover();
+        assertTrue(calculator.getVwap(Instrument.INSTRUMENT0, vwap));
+        assertEquals(0.15, vwap.getBidPrice(), 0.000001d);
+        journal.close();
+    }
+
+    @Test
+    public void testRejectedUpdatesAreNotJournaled() throws IOException {
+        UpdateJournal journal = new UpdateJournal(journalDirectory, 16, JournalFlushPolicy.NONE);
+        DefaultVwapCalculator calculator = newCalculator(null, null, null, journal);
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, Instrument.INSTRUMENT0, -0.1, 0L));
+        calculator.applyMarketUpdate(null);
+        assertEquals(0L, journal.getPosition());
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, Instrument.INSTRUMENT0, 0.1, 0L));
+        assertEquals(1L, journal.getPosition());
+        journal.close();
+    }
+
+    @Test
+    public void testSnapshotAheadOfTheJournalMovesTheJournalForward() throws IOException {
+        StateSnapshotter snapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+        UpdateJournal journal = new UpdateJournal(journalDirectory, 16, JournalFlushPolicy.NONE);
+        DefaultVwapCalculator calculator = newCalculator(null, null, snapshotter, journal);
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, Instrument.INSTRUMENT0, 0.1, 0L));
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET1, Instrument.INSTRUMENT0, 0.2, 0L));
+        calculator.checkpoint();
+        snapshotter.close();
+        journal.close();
+        // the journal records never reached storage
+        deleteDirectory(journalDirectory.toFile());
+
+        snapshotter = new StateSnapshotter(snapshotFile, 0L, TimeUnit.MILLISECONDS);
+        journal = new UpdateJournal(journalDirectory, 16, JournalFlushPolicy.NONE);
+        calculator = newCalculator(null, null, snapshotter, journal);
+        assertEquals(0L, calculator.recover());
+        assertEquals(2L, journal.getPosition());
+        snapshotter.close();
+        journal.close();
+    }
+
+    private static void applyRandomInput(DefaultVwapCalculator calculator, Random random, long[] clock, int count) {
+        Instrument[] instruments = Instrument.values();
+        Market[] markets = Market.values();
+        for (int i=0;i<count;i++) {
+            clock[0] += random.nextInt(100);
+            int action = random.nextInt(100);
+            if (action < 80) {
+                calculator.applyMarketUpdate(createRandomUpdate(random, clock[0]));
+            } else if (action < 90) {
+                MarketUpdate[] batch = new MarketUpdate[1 + random.nextInt(20)];
+                for (int j=0;j<batch.length;j++) {
+                    batch[j] = createRandomUpdate(random, clock[0] + j);
+                }
+                calculator.applyMarketUpdates(batch, batch.length, vwap -> { });
+            } else if (action < 95) {
+                calculator.withdrawQuote(instruments[random.nextInt(instruments.length)], markets[random.nextInt(markets.length)]);
+            } else if (action < 97) {
+                calculator.withdrawMarket(markets[random.nextInt(markets.length)]);
+            } else {
+                clock[0] += random.nextInt(2 * (int) TTL);
+                calculator.advanceClock(clock[0]);
+            }
+        }
+    }
+
+    private static MarketUpdate createRandomUpdate(Random random, long timestamp) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(Instrument.values()[random.nextInt(Instrument.values().length)]);
+        twoWayPrice.setState(random.nextInt(10) == 0 ? State.INDICATIVE : State.FIRM);
+        // some updates are rejected
+        twoWayPrice.setBidPrice(random.nextInt(50) == 0 ? 0.0 : 1.0 + random.nextInt(10_000) * 0.0001);
+        twoWayPrice.setOfferPrice(twoWayPrice.getBidPrice() + 0.0001);
+        twoWayPrice.setBidAmount(1 + random.nextInt(1_000_000));
+        twoWayPrice.setOfferAmount(1 + random.nextInt(1_000_000));
+        return new MockedMarketUpdate(Market.values()[random.nextInt(Market.values().length)], twoWayPrice, timestamp);
+    }
+
+    private static MarketUpdate createMarketUpdate(Market market, Instrument instrument, double bidPrice, long timestamp) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(instrument);
+        twoWayPrice.setState(State.FIRM);
+        twoWayPrice.setBidPrice(bidPrice);
+        twoWayPrice.setOfferPrice(bidPrice + 0.1);
+        twoWayPrice.setBidAmount(1000);
+        twoWayPrice.setOfferAmount(1000);
+        return new MockedMarketUpdate(market, twoWayPrice, timestamp);
+    }
+
+    private static DefaultVwapCalculator newCalculator(FixedPointScales fixedPointScales, QuoteExpiry quoteExpiry,
+                                                       StateSnapshotter snapshotter, UpdateJournal journal) {
+        return new DefaultVwapCalculator(new CalculatorOptions().setQuoteStorage(QuoteStorage.ARRAY)
+                .setFixedPointScales(fixedPointScales).setQuoteExpiry(quoteExpiry).setSnapshotter(snapshotter).setJournal(journal));
+    }
+
+    private static void assertVwapsAreIdentical(DefaultVwapCalculator expected, DefaultVwapCalculator actual) {
+        MutableTwoWayPrice expectedVwap = new DefaultTwoWayPrice();
+        MutableTwoWayPrice actualVwap = new DefaultTwoWayPrice();
+        for (Instrument instrument : Instrument.values()) {
+            assertEquals(expected.getVwap(instrument, expectedVwap), actual.getVwap(instrument, actualVwap));
+            assertEquals(expectedVwap.getState(), actualVwap.getState());
+            // bit identical
+            assertEquals(expectedVwap.getBidPrice(), actualVwap.getBidPrice(), 0.0d);
+            assertEquals(expectedVwap.getOfferPrice(), actualVwap.getOfferPrice(), 0.0d);
+            assertEquals(expectedVwap.getBidAmount(), actualVwap.getBidAmount(), 0.0d);
+            assertEquals(expectedVwap.getOfferAmount(), actualVwap.getOfferAmount(), 0.0d);
+        }
+    }
+
+    private void deleteFiles() {
+        deleteDirectory(journalDirectory.toFile());
+        snapshotFile.toFile().delete();
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,97 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestVwapSubscription {
+
+    private static final double EPSILON = 0.000001d;
+    private DefaultVwapCalculator vwapCalculator;
+
+    @Before
+    public void setUp() {
+        vwapCalculator = new DefaultVwapCalculator();
+    }
+
+    @Test
+    public void testPollConflatesToTheLatestVwap() {
+        VwapSubscription subscription = vwapCalculator.subscribe(Instrument.INSTRUMENT0);
+        DefaultTwoWayPrice vwap = new DefaultTwoWayPrice();
+        assertFalse(subscription.poll(vwap));
+
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000));
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT1, State.FIRM, 0.5, 0.6, 1000));
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.INDICATIVE, 0.11, 0.21, 1000));
+        assertTrue(subscription.poll(vwap));
+        assertEquals(Instrument.INSTRUMENT0, vwap.getInstrument());
+        assertEquals(State.INDICATIVE, vwap.getState());
+        assertEquals(0.105, vwap.getBidPrice(), EPSILON);
+        assertEquals(0.205, vwap.getOfferPrice(), EPSILON);
+        assertFalse(subscription.poll(vwap));
+
+        subscription.close();
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET2, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000));
+        assertFalse(subscription.poll(vwap));
+    }
+
+    @Test
+    public void testSubscriptionStartsWithTheCurrentVwap() {
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, 1000));
+        VwapSubscription subscription = vwapCalculator.subscribe(Instrument.INSTRUMENT0);
+        DefaultTwoWayPrice vwap = new DefaultTwoWayPrice();
+        assertTrue(subscription.poll(vwap));
+        assertEquals(0.1, vwap.getBidPrice(), EPSILON);
+        assertFalse(subscription.poll(vwap));
+
+        vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET1, Instrument.INSTRUMENT0, State.FIRM, 0.2, 0.3, 1000));
+        assertTrue(subscription.poll(vwap));
+        assertEquals(0.15, vwap.getBidPrice(), EPSILON);
+    }
+
+    @Test
+    public void testSlowSubscriberOnlySeesTheFreshestValue() throws InterruptedException {
+        CountDownLatch lastValueSeen = new CountDownLatch(1);
+        AtomicInteger deliveries = new AtomicInteger();
+        VwapSubscription subscription = vwapCalculator.subscribe(Instrument.INSTRUMENT0, vwap -> {
+            deliveries.incrementAndGet();
+            if (vwap.getBidAmount() == 100_000) {
+                lastValueSeen.countDown();
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, WaitStrategy.PARK);
+
+        for (int i=1;i<=100_000;i++) {
+            vwapCalculator.applyMarketUpdate(createMarketDataUpdate(Market.MARKET0, Instrument.INSTRUMENT0, State.FIRM, 0.1, 0.2, i));
+        }
+        assertTrue(lastValueSeen.await(5, TimeUnit.SECONDS));
+        subscription.close();
+        assertTrue(deliveries.get() < 100_000);
+    }
+
+    private MarketUpdate createMarketDataUpdate(Market market,
+                                                Instrument instrument,
+                                                State state,
+                                                double bidPrice,
+                                                double offerPrice,
+                                                double amount) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(instrument);
+        twoWayPrice.setState(state);
+        twoWayPrice.setBidPrice(bidPrice);
+        twoWayPrice.setOfferPrice(offerPrice);
+        twoWayPrice.setBidAmount(amount);
+        twoWayPrice.setOfferAmount(amount);
+        return new MockedMarketUpdate(market, twoWayPrice);
+    }
+}
@@ -0,0 +1,224 @@
+package com.calculator.impl;
+
+import com.calculator.*;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestVwapView {
+
+    private static final double EPSILON = 0.000001d;
+
+    @Test
+    public void testViewsFollowTheirDefinitions() {
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator(QuoteStorage.ARRAY);
+        VwapView firmOnly = new VwapView("firm").setFirmOnly(true);
+        VwapView withoutMarket1 = new VwapView("without MARKET1").exclude(Market.MARKET1);
+        VwapView weighted = new VwapView("weighted").setWeight(Market.MARKET0, 3.0);
+        calculator.addView(firmOnly);
+        calculator.addView(withoutMarket1);
+        calculator.addView(weighted);
+
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, State.FIRM, 0.1, 0.2, 1000));
+        TwoWayPrice vwap = calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET1, State.INDICATIVE, 0.2, 0.3, 1000));
+        verifyTwoWayPrice(vwap, State.INDICATIVE, 0.15, 0.25, 2000);
+
+        MutableTwoWayPrice viewVwap = new DefaultTwoWayPrice();
+        assertTrue(calculator.getVwap(firmOnly, Instrument.INSTRUMENT0, viewVwap));
+        verifyTwoWayPrice(viewVwap, State.FIRM, 0.1, 0.2, 1000);
+        assertTrue(calculator.getVwap(withoutMarket1, Instrument.INSTRUMENT0, viewVwap));
+        verifyTwoWayPrice(viewVwap, State.FIRM, 0.1, 0.2, 1000);
+        assertTrue(calculator.getVwap(weighted, Instrument.INSTRUMENT0, viewVwap));
+        verifyTwoWayPrice(viewVwap, State.INDICATIVE, 0.125, 0.225, 4000);
+        assertFalse(calculator.getVwap(weighted, Instrument.INSTRUMENT1, viewVwap));
+
+        // the quote of market0 becomes indicative, the firm-only view is left without a quote
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, State.INDICATIVE, 0.1, 0.2, 1000));
+        assertTrue(calculator.getVwap(firmOnly, Instrument.INSTRUMENT0, viewVwap));
+        verifyTwoWayPrice(viewVwap, State.FIRM, 0.0, 0.0, 0);
+        calculator.withdrawQuote(Instrument.INSTRUMENT0, Market.MARKET0);
+        assertTrue(calculator.getVwap(withoutMarket1, Instrument.INSTRUMENT0, viewVwap));
+        verifyTwoWayPrice(viewVwap, State.FIRM, 0.0, 0.0, 0);
+        assertTrue(calculator.getVwap(weighted, Instrument.INSTRUMENT0, viewVwap));
+        verifyTwoWayPrice(viewVwap, State.INDICATIVE, 0.2, 0.3, 1000);
+    }
+
+    @Test
+    public void testViewsMatchTheVwapOfTheQuotesTheyCount() {
+        for (FixedPointScales fixedPointScales : new FixedPointScales[]{null, new FixedPointScales(6, 2)}) {
+            DefaultVwapCalculator calculator = new DefaultVwapCalculator(new CalculatorOptions().setFixedPointScales(fixedPointScales));
+            VwapView view = new VwapView("mixed").setFirmOnly(true).exclude(Market.MARKET2).setWeight(Market.MARKET3, 0.5);
+            calculator.addView(view);
+            TwoWayPrice[] quotes = new TwoWayPrice[8];
+            Random random = new Random(17L);
+            MutableTwoWayPrice viewVwap = new DefaultTwoWayPrice();
+            for (int i=0;i<10_000;i++) {
+                Market market = Market.values()[random.nextInt(quotes.length)];
+                if (i > 0 && random.nextInt(10) == 0) {
+                    calculator.withdrawQuote(Instrument.INSTRUMENT0, market);
+                    quotes[market.ordinal()] = null;
+                } else {
+                    MarketUpdate update = createMarketUpdate(market, random.nextInt(4) == 0 ? State.INDICATIVE : State.FIRM,
+                            1.0 + random.nextInt(1000) * 0.001, 2.0 + random.nextInt(1000) * 0.001, 1 + random.nextInt(1000));
+                    calculator.applyMarketUpdate(update);
+                    quotes[market.ordinal()] = update.getTwoWayPrice();
+                }
+                assertTrue(calculator.getVwap(view, Instrument.INSTRUMENT0, viewVwap));
+                double bidNotional = 0.0d;
+                double amount = 0.0d;
+                for (int m=0;m<quotes.length;m++) {
+                    TwoWayPrice quote = quotes[m];
+                    if (quote == null || quote.getState() == State.INDICATIVE || m == Market.MARKET2.ordinal()) {
+                        continue;
+                    }
+                    double weight = m == Market.MARKET3.ordinal() ? 0.5 : 1.0;
+                    bidNotional += quote.getBidPrice() * quote.getBidAmount() * weight;
+                    amount += quote.getBidAmount() * weight;
+                }
+                assertEquals(amount, viewVwap.getBidAmount(), EPSILON);
+                assertEquals(amount == 0.0d ? 0.0d : bidNotional / amount, viewVwap.getBidPrice(), EPSILON);
+                assertEquals(State.FIRM, viewVwap.getState());
+            }
+        }
+    }
+
+    @Test
+    public void testViewsAreAddedAndRemovedOnALiveCalculator() {
+        for (FixedPointScales fixedPointScales : new FixedPointScales[]{null, new FixedPointScales(6, 2)}) {
+            DefaultVwapCalculator calculator = new DefaultVwapCalculator(new CalculatorOptions().setFixedPointScales(fixedPointScales));
+            VwapView firmOnly = new VwapView("firm").setFirmOnly(true);
+            calculator.addView(firmOnly);
+            calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, State.FIRM, 0.1, 0.2, 1000));
+            calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET1, State.INDICATIVE, 0.2, 0.3, 1000));
+            calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET2, State.FIRM, 0.3, 0.4, 2000));
+
+            // built from the cached quotes
+            VwapView weighted = new VwapView("weighted").setWeight(Market.MARKET0, 3.0).exclude(Market.MARKET2);
+            calculator.addView(weighted);
+            MutableTwoWayPrice viewVwap = new DefaultTwoWayPrice();
+            assertTrue(calculator.getVwap(weighted, Instrument.INSTRUMENT0, viewVwap));
+            verifyTwoWayPrice(viewVwap, State.INDICATIVE, 0.125, 0.225, 4000);
+            calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET1, State.FIRM, 0.1, 0.2, 1000));
+            assertTrue(calculator.getVwap(weighted, Instrument.INSTRUMENT0, viewVwap));
+            verifyTwoWayPrice(viewVwap, State.FIRM, 0.1, 0.2, 4000);
+
+            calculator.removeView(firmOnly);
+            try {
+                calculator.getVwap(firmOnly, Instrument.INSTRUMENT0, viewVwap);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            assertTrue(calculator.getVwap(weighted, Instrument.INSTRUMENT0, viewVwap));
+            verifyTwoWayPrice(viewVwap, State.FIRM, 0.1, 0.2, 4000);
+            calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, State.FIRM, 0.2, 0.3, 1000));
+            assertTrue(calculator.getVwap(weighted, Instrument.INSTRUMENT0, viewVwap));
+            verifyTwoWayPrice(viewVwap, State.FIRM, 0.175, 0.275, 4000);
+        }
+    }
+
+    @Test
+    public void testRecalculationRebuildsTheViews() {
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator(QuoteStorage.ARRAY);
+        VwapView view = new VwapView("mixed").setFirmOnly(true).setWeight(Market.MARKET3, 0.5);
+        calculator.addView(view);
+        Random random = new Random(29L);
+        for (int i=0;i<100_000;i++) {
+            calculator.applyMarketUpdate(createMarketUpdate(Market.values()[random.nextInt(8)],
+                    random.nextInt(4) == 0 ? State.INDICATIVE : State.FIRM,
+                    1.0 + random.nextInt(1000) * 0.001, 2.0 + random.nextInt(1000) * 0.001, 1 + random.nextInt(1000_000)));
+        }
+        MutableTwoWayPrice incremental = new DefaultTwoWayPrice();
+        assertTrue(calculator.getVwap(view, Instrument.INSTRUMENT0, incremental));
+        calculator.recalculate();
+        MutableTwoWayPrice recalculated = new DefaultTwoWayPrice();
+        assertTrue(calculator.getVwap(view, Instrument.INSTRUMENT0, recalculated));
+        assertEquals(incremental.getState(), recalculated.getState());
+        assertEquals(incremental.getBidPrice(), recalculated.getBidPrice(), EPSILON);
+        assertEquals(incremental.getOfferAmount(), recalculated.getOfferAmount(), 0.01);
+        // the view now matches a view built from scratch over the same quotes
+        VwapView copy = new VwapView("copy").setFirmOnly(true).setWeight(Market.MARKET3, 0.5);
+        calculator.addView(copy);
+        MutableTwoWayPrice rebuilt = new DefaultTwoWayPrice();
+        assertTrue(calculator.getVwap(view, Instrument.INSTRUMENT0, recalculated));
+        assertTrue(calculator.getVwap(copy, Instrument.INSTRUMENT0, rebuilt));
+        assertEquals(rebuilt.getBidPrice(), recalculated.getBidPrice(), 0.0d);
+        assertEquals(rebuilt.getOfferPrice(), recalculated.getOfferPrice(), 0.0d);
+        assertEquals(rebuilt.getBidAmount(), recalculated.getBidAmount(), 0.0d);
+        assertEquals(rebuilt.getOfferAmount(), recalculated.getOfferAmount(), 0.0d);
+    }
+
+    @Test
+    public void testUnknownAndDuplicateViewsAreRejected() {
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator();
+        VwapView view = new VwapView("view");
+        calculator.addView(view);
+        try {
+            calculator.addView(view);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            calculator.getVwap(new VwapView("unknown"), Instrument.INSTRUMENT0, new DefaultTwoWayPrice());
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            calculator.removeView(new VwapView("unknown"));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testFixedPointAmountsWeightedToZeroAreRejected() {
+        // whole amounts, a weight of 0.4 rounds an amount of 1 to 0
+        DefaultVwapCalculator calculator = new DefaultVwapCalculator(new CalculatorOptions().setFixedPointScales(new FixedPointScales(6, 0)));
+        VwapView fractional = new VwapView("fractional").setWeight(Market.MARKET0, 0.4);
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, State.FIRM, 0.1, 0.2, 1));
+        try {
+            calculator.addView(fractional);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        calculator = new DefaultVwapCalculator(new CalculatorOptions().setFixedPointScales(new FixedPointScales(6, 0)));
+        calculator.addView(fractional);
+        assertNull(calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, State.FIRM, 0.1, 0.2, 1)));
+        assertEquals(1, calculator.getRejectionMonitor().getRejectCount(RejectReason.AMOUNT_BELOW_SCALE));
+        // 2 * 0.4 rounds to 1, so the view counts the market with an amount
+        calculator.applyMarketUpdate(createMarketUpdate(Market.MARKET0, State.FIRM, 0.1, 0.2, 2));
+        MutableTwoWayPrice viewVwap = new DefaultTwoWayPrice();
+        assertTrue(calculator.getVwap(fractional, Instrument.INSTRUMENT0, viewVwap));
+        verifyTwoWayPrice(viewVwap, State.FIRM, 0.1, 0.2, 1);
+        calculator.recalculate();
+        assertTrue(calculator.getVwap(fractional, Instrument.INSTRUMENT0, viewVwap));
+        verifyTwoWayPrice(viewVwap, State.FIRM, 0.1, 0.2, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeWeightIsRejected() {
+        new VwapView("negative").setWeight(Market.MARKET0, -1.0);
+    }
+
+    private static MarketUpdate createMarketUpdate(Market market, State state, double bidPrice, double offerPrice, double amount) {
+        DefaultTwoWayPrice twoWayPrice = new DefaultTwoWayPrice();
+        twoWayPrice.setInstrument(Instrument.INSTRUMENT0);
+        twoWayPrice.setState(state);
+        twoWayPrice.setBidPrice(bidPrice);
+        twoWayPrice.setOfferPrice(offerPrice);
+        twoWayPrice.setBidAmount(amount);
+        twoWayPrice.setOfferAmount(amount);
+        return new MockedMarketUpdate(market, twoWayPrice);
+    }
+
+    private static void verifyTwoWayPrice(TwoWayPrice twoWayPrice, State state, double bidPrice, double offerPrice, double amount) {
+        assertEquals(Instrument.INSTRUMENT0, twoWayPrice.getInstrument());
+        assertEquals(state, twoWayPrice.getState());
+        assertEquals(bidPrice, twoWayPrice.getBidPrice(), EPSILON);
+        assertEquals(offerPrice, twoWayPrice.getOfferPrice(), EPSILON);
+        assertEquals(amount, twoWayPrice.getBidAmount(), EPSILON);
+        assertEquals(amount, twoWayPrice.getOfferAmount(), EPSILON);
+    }
+}